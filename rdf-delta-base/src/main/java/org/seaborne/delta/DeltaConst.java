@@ -45,6 +45,8 @@ public class DeltaConst {
     public static final String EP_Ping         = "$/ping";
     public static final String EP_Metrics      = "$/metrics";
     public static final String EP_RPC          = "$/rpc";
+    // Notification of new versions: long-poll or Server-Sent Events.
+    public static final String EP_Events       = "$/events";
 
     // RPC calls - operation names.
     public static final String OP_PING           = "ping";
@@ -62,6 +64,8 @@ public class DeltaConst {
     public static final String OP_LOCK_GRAB      = "lock-grab";
     public static final String OP_UNLOCK         = "unlock";
     public static final String OP_LOCK_REFRESH   = "lock-refresh";
+    // Several operations in one request: { "array" : [ { "operation": ..., "arg": ... } ] }
+    public static final String OP_BATCH          = "batch";
 
     // JSON field names, in RPC and configuration files.
     public static final String F_OP            = "operation";
@@ -89,6 +93,9 @@ public class DeltaConst {
     public static final String F_MINVER        = "min_version";
     public static final String F_MAXVER        = "max_version";
     public static final String F_LATEST        = "latest";
+    // Latest snapshot of a log: version and the id of the patch at that version.
+    public static final String F_SNAPSHOT      = "snapshot";
+    public static final String F_SNAPSHOT_ID   = "snapshot_id";
     public static final String F_NAME          = "name";
     public static final String F_DATA          = "data";
     public static final String F_URI           = "uri";
@@ -98,6 +105,8 @@ public class DeltaConst {
     public static final String F_LOCK_REF      = "lock-ref";
     public static final String F_LOCK_GRAB     = "lock-grab";
     public static final String F_LOCK_TICKS    = "lock-ticks";
+    // Time to wait for a lock (milliseconds).
+    public static final String F_TIMEOUT       = "timeout";
     // Some atomic JSON value.
     public static final String F_VALUE         = "value";
     // Some JSON array
@@ -105,6 +114,8 @@ public class DeltaConst {
 
     // JSON field names, patch append errors.
     public static final String F_ERROR         = "error";
+    // HTTP status code of a failed item in a batch.
+    public static final String F_STATUS        = "status";
     public static final String F_LOG_INFO      = "log_info";
 
     /** Default choice of port */
@@ -124,6 +135,54 @@ public class DeltaConst {
     // Optional name of the root of the namspace in Zk.
     public static final String pRootDirName    = "delta.zk.root_dir_name";
 
+    // Server: incoming patches.
+    // Maximum size of a patch, in bytes. No limit if not set or negative.
+    public static final String pDeltaPatchMaxSize        = "delta.patch.max_size";
+    // Size of a patch, in bytes, above which it is spooled to disk while being appended.
+    public static final String pDeltaPatchSpoolThreshold = "delta.patch.spool_threshold";
+    // Directory for spooled patches. Default: the system temporary directory.
+    public static final String pDeltaPatchSpoolDir       = "delta.patch.spool_dir";
+    // Server: longest time, in milliseconds, a "lock" request waits for the lock before
+    // answering. Clients wanting to wait longer ask again.
+    public static final String pDeltaLockMaxWait         = "delta.lock.max_wait";
+    // Server: maximum number of "events" requests (long-poll, Server-Sent Events) waiting
+    // at once. Each holds a server thread; more requests get 503 (Service Unavailable).
+    public static final String pDeltaEventsMaxWaiting    = "delta.events.max_waiting";
+
+    // Server: snapshots of logs.
+    // Directory for snapshots. No snapshots if not set.
+    public static final String pDeltaSnapshots           = "delta.snapshots";
+    // Number of patches between snapshots. No automatic snapshots if zero or negative.
+    public static final String pDeltaSnapshotInterval    = "delta.snapshot.interval";
+
+    // Server: patch handlers called after a patch is appended.
+    // Directory for the handler watermarks. Watermarks are not kept across restarts if not set.
+    public static final String pDeltaHandlers            = "delta.handlers";
+    // Number of patches queued for each handler before the handler falls back to reading the log.
+    public static final String pDeltaHandlerQueue        = "delta.handler.queue";
+
+    // Server: materialized copies of the data of logs (TDB2).
+    // Directory for the databases. No materialized data if not set.
+    public static final String pDeltaMaterialize         = "delta.materialize";
+    // Maximum number of patches applied in one transaction.
+    public static final String pDeltaMaterializeBatch    = "delta.materialize.batch";
+    // Time limit, in milliseconds, for a query on the materialized data.
+    public static final String pDeltaMaterializeTimeout  = "delta.materialize.query_timeout";
+
+    // Server: retention of patches. A setting for one log is the property name, ".", and the log name.
+    // Number of latest versions to keep.
+    public static final String pDeltaRetentionVersions   = "delta.retention.versions";
+    // Age, in days, of the patches to keep.
+    public static final String pDeltaRetentionDays       = "delta.retention.days";
+    // "true": keep the patches after the latest snapshot.
+    public static final String pDeltaRetentionSnapshot   = "delta.retention.snapshot";
+    // Seconds between runs of the pruner. No pruning if zero or negative.
+    public static final String pDeltaRetentionInterval   = "delta.retention.interval";
+    // Maximum number of patches deleted at a time.
+    public static final String pDeltaRetentionBatch      = "delta.retention.batch";
+    // Pause, in milliseconds, after deleting a batch of patches.
+    public static final String pDeltaRetentionPause      = "delta.retention.pause";
+
     // HTTP query string.
     // Registration
     public static final String paramRef        = "ref";
@@ -133,6 +192,10 @@ public class DeltaConst {
     public static final String paramPatch      = "patch";
     public static final String paramDatasource = F_DATASOURCE;
     public static final String paramVersion    = "version";
+    // SPARQL query on the materialized data of a log.
+    public static final String paramQuery      = "query";
+    // Long-poll wait, in milliseconds.
+    public static final String paramTimeout    = "timeout";
 
     // Symbols used to store information, e.g. in a dataset context.
 
@@ -17,6 +17,7 @@
 
 package org.seaborne.delta;
 
+import java.io.InputStream ;
 import java.io.OutputStream ;
 
 import org.apache.jena.rdfpatch.RDFChanges;
@@ -25,6 +26,13 @@ import org.apache.jena.rdfpatch.changes.RDFChangesN ;
 import org.apache.jena.rdfpatch.system.Printer ;
 import org.apache.jena.rdfpatch.text.TokenWriter ;
 import org.apache.jena.rdfpatch.text.TokenWriterText ;
+import org.apache.jena.riot.Lang ;
+import org.apache.jena.riot.RDFDataMgr ;
+import org.apache.jena.riot.RDFParser ;
+import org.apache.jena.riot.lang.LabelToNode ;
+import org.apache.jena.riot.system.StreamRDF ;
+import org.apache.jena.riot.system.StreamRDFLib ;
+import org.apache.jena.sparql.core.DatasetGraph ;
 import org.slf4j.Logger ;
 
 public class DeltaOps {
@@ -58,6 +66,24 @@ public class DeltaOps {
         return RDFChangesN.multi(changes, new RDFChangesLog(DeltaOps::printer)) ;
     }
 
+    /**
+     * Write a snapshot of a dataset as N-Quads. Blank node labels are written encoded so that
+     * {@link #readSnapshot} restores them exactly: later patches name blank nodes by their labels.
+     */
+    public static void writeSnapshot(OutputStream out, DatasetGraph dsg) {
+        RDFDataMgr.write(out, dsg, Lang.NQUADS);
+    }
+
+    /** Read a snapshot written by {@link #writeSnapshot}, keeping the blank node labels. */
+    public static void readSnapshot(InputStream in, StreamRDF dest) {
+        RDFParser.source(in).lang(Lang.NQUADS).labelToNode(LabelToNode.createUseLabelEncoded()).parse(dest);
+    }
+
+    /** Read a snapshot written by {@link #writeSnapshot} into a dataset, keeping the blank node labels. */
+    public static void readSnapshot(InputStream in, DatasetGraph dsg) {
+        readSnapshot(in, StreamRDFLib.dataset(dsg));
+    }
+
     /** Create a {@link TokenWriter} */
     public static TokenWriter tokenWriter(OutputStream out) {
         // Placeholder for text/binary choice.
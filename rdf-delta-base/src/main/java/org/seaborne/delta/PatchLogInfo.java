@@ -20,8 +20,12 @@ package org.seaborne.delta;
 import static org.seaborne.delta.DeltaConst.F_LATEST ;
 import static org.seaborne.delta.DeltaConst.F_MAXVER ;
 import static org.seaborne.delta.DeltaConst.F_MINVER ;
+import static org.seaborne.delta.DeltaConst.F_SNAPSHOT ;
+import static org.seaborne.delta.DeltaConst.F_SNAPSHOT_ID ;
 import static org.seaborne.delta.DeltaOps.*;
 
+import java.util.Objects ;
+
 import org.apache.jena.atlas.json.JsonBuilder ;
 import org.apache.jena.atlas.json.JsonObject ;
 import org.seaborne.delta.lib.JSONX ;
@@ -38,12 +42,27 @@ public class PatchLogInfo {
     private final Version minVersion ;
     private final Version maxVersion ;
     private final Id latestPatch ;
+    // Latest snapshot, if any.
+    private final Version snapshotVersion ;
+    private final Id snapshotPatch ;
     
     public PatchLogInfo(DataSourceDescription dsd, Version minVersion, Version maxVersion, Id latestPatch) {
+        this(dsd, minVersion, maxVersion, latestPatch, Version.UNSET, null);
+    }
+
+    public PatchLogInfo(DataSourceDescription dsd, Version minVersion, Version maxVersion, Id latestPatch,
+                        Version snapshotVersion, Id snapshotPatch) {
         this.dsd = dsd;
         this.minVersion = minVersion ;
         this.maxVersion = maxVersion ;
         this.latestPatch = latestPatch ;
+        this.snapshotVersion = snapshotVersion ;
+        this.snapshotPatch = snapshotPatch ;
+    }
+
+    /** This {@code PatchLogInfo} with a snapshot of the log at version {@code version}, the patch {@code patchId}. */
+    public PatchLogInfo withSnapshot(Version version, Id patchId) {
+        return new PatchLogInfo(dsd, minVersion, maxVersion, latestPatch, version, patchId);
     }
 
     /* This is a superset of DataSourceDescription
@@ -54,6 +73,8 @@ public class PatchLogInfo {
      *    minVersion:
      *    maxVersion:
      *    latestPatch:
+     *    snapshot:       -- Optional
+     *    snapshot_id:    -- Optional
      * }
      */
     
@@ -77,6 +98,10 @@ public class PatchLogInfo {
             b.key(F_LATEST).value(latestPatch.asString());
         else
             b.key(F_LATEST).value("");
+        if ( hasSnapshot() ) {
+            b.key(F_SNAPSHOT).value(snapshotVersion.asJson());
+            b.key(F_SNAPSHOT_ID).value(snapshotPatch.asString());
+        }
     }
     
     public static PatchLogInfo fromJson(JsonObject obj) {
@@ -87,7 +112,12 @@ public class PatchLogInfo {
         Id latestPatch = null;
         if ( latestPatchStr != null && !latestPatchStr.isEmpty() )
             latestPatch = Id.fromString(latestPatchStr);
-        return new PatchLogInfo(dsd, minVer, maxVer, latestPatch); 
+        Version snapshotVer = Version.fromJson(obj, F_SNAPSHOT, Version.UNSET) ;
+        String snapshotIdStr = JSONX.getStrOrNull(obj, F_SNAPSHOT_ID);
+        Id snapshotId = null;
+        if ( snapshotIdStr != null && !snapshotIdStr.isEmpty() )
+            snapshotId = Id.fromString(snapshotIdStr);
+        return new PatchLogInfo(dsd, minVer, maxVer, latestPatch, snapshotVer, snapshotId); 
     }
     
     @Override
@@ -127,6 +157,21 @@ public class PatchLogInfo {
         return latestPatch ;
     }
 
+    /** Whether the server has a snapshot of the log. */
+    public boolean hasSnapshot() {
+        return Version.isValid(snapshotVersion) && snapshotPatch != null ;
+    }
+
+    /** The version of the latest snapshot, or {@link Version#UNSET} if there is no snapshot. */
+    public Version getSnapshotVersion() {
+        return snapshotVersion ;
+    }
+
+    /** The id of the patch at the version of the latest snapshot, or null if there is no snapshot. */
+    public Id getSnapshotPatch() {
+        return snapshotPatch ;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -135,6 +180,8 @@ public class PatchLogInfo {
         result = prime * result + ((latestPatch == null) ? 0 : latestPatch.hashCode());
         result = prime * result + ((maxVersion == null) ? 0 : maxVersion.hashCode());
         result = prime * result + ((minVersion == null) ? 0 : minVersion.hashCode());
+        result = prime * result + ((snapshotVersion == null) ? 0 : snapshotVersion.hashCode());
+        result = prime * result + ((snapshotPatch == null) ? 0 : snapshotPatch.hashCode());
         return result;
     }
 
@@ -167,6 +214,10 @@ public class PatchLogInfo {
                 return false;
         } else if ( !minVersion.equals(other.minVersion) )
             return false;
+        if ( !Objects.equals(snapshotVersion, other.snapshotVersion) )
+            return false;
+        if ( !Objects.equals(snapshotPatch, other.snapshotPatch) )
+            return false;
         return true;
     }
 }
@@ -17,9 +17,16 @@
 
 package org.seaborne.delta.link;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.lib.Lib;
 import org.seaborne.delta.*;
 import org.apache.jena.rdfpatch.RDFPatch;
 
@@ -79,6 +86,46 @@ public interface DeltaLink {
     /** Return details of the patch log, or null if not registered. */
     public PatchLogInfo getPatchLogInfo(Id dsRef);
 
+    /**
+     * Return details of several patch logs, in the same order as {@code dsRefs}.
+     * An entry is null if that patch log is not registered.
+     * <p>
+     * Remote implementations should override this to make one request to the server.
+     */
+    public default List<PatchLogInfo> getPatchLogInfo(List<Id> dsRefs) {
+        List<PatchLogInfo> infos = new ArrayList<>(dsRefs.size());
+        for ( Id dsRef : dsRefs ) {
+            PatchLogInfo info;
+            try { info = getPatchLogInfo(dsRef); }
+            catch (DeltaNotFoundException ex) { info = null; }
+            infos.add(info);
+        }
+        return infos;
+    }
+
+    /**
+     * Wait until the patch log has a version later than {@code version}, or until
+     * {@code timeoutMillis} has passed, whichever is first.
+     * Returns the {@link PatchLogInfo} if the log has moved on, or null on timeout.
+     * <p>
+     * This is the notification operation ("long poll"). The default implementation polls
+     * {@link #getPatchLogInfo}; implementations should override to wait on appends.
+     */
+    public default PatchLogInfo awaitChange(Id dsRef, Version version, long timeoutMillis) {
+        long finish = System.currentTimeMillis() + timeoutMillis;
+        for(;;) {
+            PatchLogInfo info = getPatchLogInfo(dsRef);
+            if ( info == null )
+                throw new DeltaNotFoundException("No such data source: "+dsRef);
+            if ( info.getMaxVersion().isAfter(version) )
+                return info;
+            long remaining = finish - System.currentTimeMillis();
+            if ( remaining <= 0 )
+                return null;
+            Lib.sleep((int)Math.min(remaining, 1000));
+        }
+    }
+
     /** Return an array of {@link DataSourceDescription}s of datasets */
     public List<DataSourceDescription> listDescriptions();
 
@@ -161,6 +208,23 @@ public interface DeltaLink {
      */
     public String initialState(Id dsRef);
 
+    /**
+     * Retrieve a snapshot of the log: the data after applying the patches up to and
+     * including {@code version}, as N-Quads. The caller must close the
+     * stream. Return null if there is no snapshot at that version.
+     * <p>
+     * The latest snapshot is advertised in {@link PatchLogInfo#getSnapshotVersion()}.
+     */
+    public default InputStream fetchSnapshot(Id dsRef, Version version) { return null; }
+
+    /**
+     * Evaluate a SPARQL query on the server's materialized copy of the data of the log.
+     * The results of SELECT and ASK queries are written as SPARQL JSON results, the
+     * results of CONSTRUCT and DESCRIBE queries as N-Triples. Return false, having
+     * written nothing, if the server does not have a copy of the data.
+     */
+    public default boolean query(Id dsRef, String queryString, OutputStream output) { return false; }
+
     /** Add a {@link DeltaLinkListener} listener. */
     public void addListener(DeltaLinkListener listener);
 
@@ -192,6 +256,20 @@ public interface DeltaLink {
      */
     public Id acquireLock(Id datasourceId);
 
+    /**
+     * Acquire the lock for a data source, waiting up to {@code timeoutMillis} for the
+     * current holder to release it. The server hands the lock to waiters in turn as soon
+     * as it is released.
+     *
+     * Returns an {@link Id} for the lock ownership.<br/>
+     * Returns null for failure to get the lock in that time.
+     * <p>
+     * The default implementation makes one attempt, as {@link #acquireLock(Id)}.
+     */
+    public default Id acquireLock(Id datasourceId, long timeoutMillis) {
+        return acquireLock(datasourceId);
+    }
+
     /**
      * Refresh a set of locks. This operation is blocking.
      *
@@ -217,15 +295,23 @@ public interface DeltaLink {
     public Id /*new ownership */ grabLock(Id datasourceId, Id oldlockSession);
 
 
-    // FUTURE
-
-//    /**
-//     * Refresh a set of locks. This operation is blocking.
-//     *
-//     * Returns a set of {@link Id} for locks in the lock set that no longer exist, either
-//     * because they have been released or have timed-out.
-//     */
-//    public Set<Id> refreshLocks(Set<Id> lockSet);
+    /**
+     * Refresh a set of locks, given as a map from data source to lock session.
+     * This operation is blocking.
+     * <p>
+     * Returns the set of data sources in the map whose lock no longer exists, either
+     * because it has been released or has timed-out.
+     * <p>
+     * Remote implementations should override this to make one request to the server.
+     */
+    public default Set<Id> refreshLocks(Map<Id, Id> locks) {
+        Set<Id> failed = new HashSet<>();
+        locks.forEach((datasourceId, lockSession)->{
+            if ( ! refreshLock(datasourceId, lockSession) )
+                failed.add(datasourceId);
+        });
+        return failed;
+    }
 
     /** Release the lock for a data source. This operation does not fail if there is no lock. */
     public void releaseLock(Id datasourceId, Id lockSession);
@@ -17,7 +17,11 @@
 
 package org.seaborne.delta.link;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
 
 import org.apache.jena.atlas.json.JsonObject;
@@ -80,6 +84,16 @@ public class DeltaLinkWrapper implements DeltaLink {
         return execRtn(()->get().getPatchLogInfo(dsRef));
     }
 
+    @Override
+    public List<PatchLogInfo> getPatchLogInfo(List<Id> dsRefs) {
+        return execRtn(()->get().getPatchLogInfo(dsRefs));
+    }
+
+    @Override
+    public PatchLogInfo awaitChange(Id dsRef, Version version, long timeoutMillis) {
+        return execRtn(()->get().awaitChange(dsRef, version, timeoutMillis));
+    }
+
     @Override
     public List<DataSourceDescription> listDescriptions() {
         return execRtn(()->get().listDescriptions());
@@ -120,6 +134,16 @@ public class DeltaLinkWrapper implements DeltaLink {
         return execRtn(()->get().initialState(dsRef));
     }
 
+    @Override
+    public InputStream fetchSnapshot(Id dsRef, Version version) {
+        return execRtn(()->get().fetchSnapshot(dsRef, version));
+    }
+
+    @Override
+    public boolean query(Id dsRef, String queryString, OutputStream output) {
+        return execRtn(()->get().query(dsRef, queryString, output));
+    }
+
     @Override
     public void addListener(DeltaLinkListener listener) {
         other.addListener(listener);
@@ -144,15 +168,20 @@ public class DeltaLinkWrapper implements DeltaLink {
         return execRtn(() -> get().acquireLock(datasourceId));
     }
 
+    @Override
+    public Id acquireLock(Id datasourceId, long timeoutMillis) {
+        return execRtn(() -> get().acquireLock(datasourceId, timeoutMillis));
+    }
+
     @Override
     public boolean refreshLock(Id datasourceId, Id lockRef) {
         return execRtn(()->get().refreshLock(datasourceId, lockRef));
     }
 
-//    @Override
-//    public Set<Id> refreshLocks(Set<Id> lockSet) {
-//        return execRtn(()->get().refreshLocks(lockSet));
-//    }
+    @Override
+    public Set<Id> refreshLocks(Map<Id, Id> locks) {
+        return execRtn(()->get().refreshLocks(locks));
+    }
 
     @Override
     public LockState readLock(Id datasourceId) {
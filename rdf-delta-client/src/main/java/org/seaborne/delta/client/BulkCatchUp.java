@@ -0,0 +1,262 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.client;
+
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+import org.apache.jena.atlas.lib.Pair;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.changes.RDFChangesApply;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.sys.TDBInternal;
+import org.seaborne.delta.Delta;
+import org.seaborne.delta.DeltaNotFoundException;
+import org.seaborne.delta.DeltaOps;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
+import org.seaborne.delta.link.DeltaLink;
+import org.slf4j.Logger;
+
+/**
+ * Catch up a new, empty, TDB2 replica that is a long way behind the patch log.
+ * <p>
+ * Instead of applying each patch, quad by quad, in one large transaction, the patches
+ * are netted into the quads to add and the quads to delete. The deletes are applied in
+ * one write transaction and the adds are streamed into the TDB2 parallel loader. When
+ * the net change gets large ({@code flush} quads), it is written out and netting
+ * starts again.
+ * <p>
+ * The deletes and the adds are separate transactions, and there may be several
+ * flushes, so the dataset is not changed atomically. That is only acceptable for a
+ * replica that has no data yet; a dataset with data is caught up patch by patch in one
+ * transaction. The caller records the new version only after this has finished.
+ * Applying the net change is idempotent, so if the catch up is interrupted, replaying
+ * the patches from the recorded version gives the right data.
+ */
+public class BulkCatchUp {
+    private static Logger LOG = Delta.DELTA_LOG;
+
+    /** System property: the number of patches behind at which to use the bulk loader. */
+    public static final String pThreshold = "delta.sync.bulk_threshold";
+    /** System property: the number of netted quads at which they are written to the dataset. */
+    public static final String pFlush     = "delta.sync.bulk_flush";
+
+    /** Number of patches behind at which a sync uses the bulk catch up. Zero or less means never. */
+    public static int THRESHOLD  = Integer.getInteger(pThreshold, 1000);
+    /** Number of netted quads held in memory before they are written to the dataset. */
+    public static int FLUSH      = Integer.getInteger(pFlush, 1_000_000);
+
+    /**
+     * Whether to catch up a dataset of this storage type by {@code count} patches with
+     * the bulk loader. The dataset must be empty.
+     */
+    /*package*/ static boolean applies(LocalStorageType storage, DatasetGraph dsg, long count) {
+        if ( THRESHOLD <= 0 || count < THRESHOLD )
+            return false;
+        if ( ! isTDB2(storage, dsg) )
+            return false;
+        return Txn.calculateRead(dsg, dsg::isEmpty);
+    }
+
+    /*package*/ static boolean isTDB2(LocalStorageType storage, DatasetGraph dsg) {
+        if ( storage != LocalStorageType.TDB2 || dsg == null )
+            return false;
+        return TDBInternal.isTDB2(dsg);
+    }
+
+    /** Load a snapshot (see {@link DeltaOps#readSnapshot}) into a TDB2 dataset with the parallel loader. */
+    /*package*/ static void load(DatasetGraph dsg, InputStream input) {
+        DataLoader loader = loader(dsg);
+        loader.startBulk();
+        try {
+            DeltaOps.readSnapshot(input, loader.stream());
+            loader.finishBulk();
+        } catch (RuntimeException ex) {
+            loader.finishException(ex);
+            throw ex;
+        }
+    }
+
+    private static DataLoader loader(DatasetGraph dsg) {
+        return LoaderFactory.parallelLoader(dsg, (fmt, args)->FmtLog.debug(LOG, fmt, args));
+    }
+
+    /**
+     * Play patches {@code minVersion} to {@code maxVersion} (inclusive) into the TDB2 dataset.
+     * Patches for which {@code ownPatch} gives an id are already in the dataset and are skipped.
+     * Return details of the last patch applied.
+     */
+    /*package*/ static Pair<Version, Node> play(Id datasourceId, DatasetGraph dsg, DeltaLink dLink,
+                                                Version currentVersion, long minVersion, long maxVersion,
+                                                LongFunction<Id> ownPatch) {
+        FmtLog.info(LOG, "[%s] Bulk catch up: patches [%d, %d]", datasourceId, minVersion, maxVersion);
+        NetChanges net = new NetChanges();
+        Node patchLastIdNode = null;
+        Version patchLastVersion = currentVersion;
+        int applied = 0;
+        long applyNanos = 0;
+        long quadsAdded = 0;
+        long quadsDeleted = 0;
+        try ( PatchPrefetch prefetch = new PatchPrefetch(dLink, datasourceId, minVersion, maxVersion, v->ownPatch.apply(v) != null) ) {
+            for ( long ver = minVersion ; ver <= maxVersion ; ver++ ) {
+                RDFPatch patch;
+                Version verObj = Version.create(ver);
+                Id own = ownPatch.apply(ver);
+                if ( own != null ) {
+                    prefetch.skip();
+                    patchLastIdNode = own.asNode();
+                    patchLastVersion = verObj;
+                    continue;
+                }
+                try {
+                    patch = prefetch.next();
+                    if ( patch == null ) {
+                        // As DeltaConnection.play: stop and resync next time.
+                        FmtLog.info(LOG, "Play: %s patch=%s : not found", datasourceId, verObj);
+                        break;
+                    }
+                } catch (DeltaNotFoundException ex) {
+                    FmtLog.info(LOG, "Play: %s patch=%s : not found (no datasource)", datasourceId, verObj);
+                    continue;
+                }
+                long t = System.nanoTime();
+                patch.apply(net);
+                if ( net.size() >= FLUSH ) {
+                    quadsAdded += net.adds.size();
+                    quadsDeleted += net.deletes.size();
+                    net.flush(dsg);
+                }
+                applyNanos += System.nanoTime() - t;
+                applied++;
+                patchLastIdNode = patch.getId();
+                patchLastVersion = verObj;
+            }
+            long t = System.nanoTime();
+            quadsAdded += net.adds.size();
+            quadsDeleted += net.deletes.size();
+            net.flush(dsg);
+            applyNanos += System.nanoTime() - t;
+            prefetch.report(LOG, applied, applyNanos);
+        } catch (Throwable th) {
+            FmtLog.warn(LOG, th, "Bulk catch up: Problem for %s", datasourceId);
+            throw th;
+        }
+        FmtLog.info(LOG, "[%s] Bulk catch up: %d patches : %d quads added, %d quads deleted", datasourceId, applied, quadsAdded, quadsDeleted);
+        return Pair.create(patchLastVersion, patchLastIdNode);
+    }
+
+    /**
+     * Net the changes of a sequence of patches. The last operation on a quad decides
+     * whether it is added or deleted. Prefix changes are kept, in order.
+     * Transaction markers are ignored; the patches are applied as one change.
+     */
+    private static class NetChanges implements RDFChanges {
+        private final Set<Quad> adds = new LinkedHashSet<>();
+        private final Set<Quad> deletes = new LinkedHashSet<>();
+        private RDFChangesCollector prefixes = new RDFChangesCollector();
+        private int prefixCount = 0;
+
+        int size() { return adds.size() + deletes.size() + prefixCount; }
+
+        @Override
+        public void add(Node g, Node s, Node p, Node o) {
+            Quad quad = quad(g, s, p, o);
+            deletes.remove(quad);
+            adds.add(quad);
+        }
+
+        @Override
+        public void delete(Node g, Node s, Node p, Node o) {
+            Quad quad = quad(g, s, p, o);
+            adds.remove(quad);
+            deletes.add(quad);
+        }
+
+        private static Quad quad(Node g, Node s, Node p, Node o) {
+            if ( g == null || Quad.isDefaultGraph(g) )
+                g = Quad.defaultGraphIRI;
+            return Quad.create(g, s, p, o);
+        }
+
+        @Override
+        public void addPrefix(Node gn, String prefix, String uriStr) {
+            prefixes.addPrefix(gn, prefix, uriStr);
+            prefixCount++;
+        }
+
+        @Override
+        public void deletePrefix(Node gn, String prefix) {
+            prefixes.deletePrefix(gn, prefix);
+            prefixCount++;
+        }
+
+        @Override public void header(String field, Node value) {}
+        @Override public void txnBegin() {}
+        @Override public void txnCommit() {}
+        @Override public void txnAbort() {}
+        @Override public void segment() {}
+        @Override public void start() {}
+        @Override public void finish() {}
+
+        /** Write the net change to the dataset and reset. */
+        void flush(DatasetGraph dsg) {
+            if ( ! deletes.isEmpty() || prefixCount > 0 ) {
+                Txn.executeWrite(dsg, ()->{
+                    deletes.forEach(dsg::delete);
+                    if ( prefixCount > 0 )
+                        prefixes.getRDFPatch().apply(new RDFChangesApply(dsg));
+                });
+            }
+            if ( ! adds.isEmpty() ) {
+                // The loader manages its own transactions.
+                DataLoader loader = loader(dsg);
+                loader.startBulk();
+                try {
+                    StreamRDF stream = loader.stream();
+                    for ( Quad quad : adds ) {
+                        if ( quad.isDefaultGraph() )
+                            stream.triple(quad.asTriple());
+                        else
+                            stream.quad(quad);
+                    }
+                    loader.finishBulk();
+                } catch (RuntimeException ex) {
+                    loader.finishException(ex);
+                    throw ex;
+                }
+            }
+            adds.clear();
+            deletes.clear();
+            prefixes = new RDFChangesCollector();
+            prefixCount = 0;
+        }
+    }
+}
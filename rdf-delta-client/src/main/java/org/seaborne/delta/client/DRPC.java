@@ -21,6 +21,7 @@ import static org.seaborne.delta.DeltaConst.F_ARG;
 import static org.seaborne.delta.DeltaConst.F_OP;
 import static org.seaborne.delta.DeltaConst.F_OP_ID;
 
+import java.net.http.HttpClient;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.util.Objects ;
 import java.util.concurrent.atomic.AtomicLong;
@@ -47,6 +48,11 @@ public class DRPC {
 
     /** Send a JSON argument to a URL+name by POST and received a JSON object in return. */
     public static JsonValue rpc(String url, String opName, JsonValue arg) {
+        return rpc(DeltaHttp.httpClient(), url, opName, arg);
+    }
+
+    /** Send a JSON argument to a URL+name by POST, using the given {@link HttpClient}, and received a JSON object in return. */
+    public static JsonValue rpc(HttpClient httpClient, String url, String opName, JsonValue arg) {
         JsonObject a = JSONX.buildObject((b)->{
 //            if ( token != null )
 //                b.key(F_TOKEN).value(token.asString());
@@ -54,11 +60,16 @@ public class DRPC {
             b.pair(F_OP_ID, Long.toString(counter.incrementAndGet()));
             b.pair(F_ARG, arg);
             }) ;
-        return rpc(url, a) ;
+        return rpc(httpClient, url, a) ;
     }
 
     /** Send a JSON object to a URL by POST and received a JSON object in return. */
     public static JsonValue rpc(String url, JsonObject object) {
+        return rpc(DeltaHttp.httpClient(), url, object);
+    }
+
+    /** Send a JSON object to a URL by POST, using the given {@link HttpClient}, and received a JSON object in return. */
+    public static JsonValue rpc(HttpClient httpClient, String url, JsonObject object) {
         Objects.requireNonNull(url, "DRPC.rpc: Arg1 URL is null") ;
         Objects.requireNonNull(object, "DRPC.rpc: Arg2 JSON object is null") ;
 
@@ -68,7 +79,7 @@ public class DRPC {
         String argStr = JSON.toString(object) ;
         try (TypedInputStream x =
                  HttpOp.httpPostStream(
-                     url, WebContent.contentTypeJSON,
+                     httpClient, url, WebContent.contentTypeJSON,
                      BodyPublishers.ofString(argStr),
                      WebContent.contentTypeJSON)
             ) {
@@ -17,6 +17,8 @@
 
 package org.seaborne.delta.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
@@ -26,6 +28,7 @@ import org.seaborne.delta.DataSourceDescription;
 import org.seaborne.delta.DeltaBadRequestException;
 import org.seaborne.delta.DeltaConfigException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.PatchLogInfo;
 import org.seaborne.delta.link.DeltaLink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -120,7 +123,10 @@ public class DeltaClient {
     private Map<Id, DeltaConnection> connections = new ConcurrentHashMap<>();
 
     private void removeCache(Id id) {
-        connections.remove(id);
+        DeltaConnection dConn = connections.remove(id);
+        // Stop background work for the connection.
+        if ( dConn != null )
+            dConn.finish();
     }
 
     private void putCache(Id id, DeltaConnection dConn) {
@@ -464,6 +470,27 @@ public class DeltaClient {
         return get(nameToId(name));
     }
 
+    /**
+     * Sync all the registered {@link DeltaConnection DeltaConnections} that are behind
+     * the patch log server. The state of all the patch logs is fetched from the server
+     * in one request.
+     */
+    public void syncAll() {
+        checkDeltaClient();
+        List<Id> dsRefs = new ArrayList<>(connections.keySet());
+        if ( dsRefs.isEmpty() )
+            return;
+        List<PatchLogInfo> infos = dLink.getPatchLogInfo(dsRefs);
+        for ( int i = 0 ; i < dsRefs.size() ; i++ ) {
+            PatchLogInfo logInfo = infos.get(i);
+            DeltaConnection dConn = getCache(dsRefs.get(i));
+            if ( logInfo == null || dConn == null )
+                continue;
+            if ( logInfo.getMaxVersion().isAfter(dConn.getLocalVersion()) )
+                dConn.trySync(logInfo);
+        }
+    }
+
     public void release(Id datasourceId) {
         checkDeltaClient();
         releaseLocal(datasourceId);
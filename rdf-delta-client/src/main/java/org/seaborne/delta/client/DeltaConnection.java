@@ -18,14 +18,25 @@
 package org.seaborne.delta.client;
 
 import static java.lang.String.format;
-import static org.seaborne.delta.client.DeltaClientLib.threadFactoryDaemon;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference ;
 import java.util.function.Consumer ;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
+import org.apache.jena.atlas.io.IOX;
 import org.apache.jena.atlas.lib.Lib ;
 import org.apache.jena.atlas.lib.Pair ;
 import org.apache.jena.atlas.logging.FmtLog;
@@ -44,7 +55,6 @@ import org.apache.jena.rdfpatch.RDFChanges;
 import org.apache.jena.rdfpatch.RDFPatch ;
 import org.apache.jena.rdfpatch.RDFPatchConst;
 import org.apache.jena.rdfpatch.changes.RDFChangesApply ;
-import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
 import org.apache.jena.rdfpatch.changes.RDFChangesExternalTxn;
 import org.apache.jena.rdfpatch.system.DatasetGraphChanges;
 import org.apache.jena.rdfpatch.system.RDFChangesSuppressEmpty;
@@ -61,11 +71,16 @@ public class DeltaConnection implements AutoCloseable {
     // The version of the remote copy.
     private final DeltaLink dLink ;
 
-    /**
-     * Locking in begin => true.
-     * Optimistic transactions, no locking => set False
-     */
-    private static final boolean LockMode = true;
+    // Default for the lock mode of a connection (see setLockMode).
+    private static final boolean LockMode = !Boolean.getBoolean("delta.client.optimistic");
+    private volatile boolean lockMode = LockMode;
+
+    /** Number of times {@link #executeWrite} retries a transaction after a conflict. */
+    public static int ConflictRetries = Integer.getInteger("delta.client.conflict_retries", 5);
+
+    /** Initial wait, in milliseconds, before retrying after a conflict. Doubled on each retry. */
+    public static int ConflictBackoffMillis = Integer.getInteger("delta.client.conflict_backoff", 50);
+    private static final int ConflictBackoffMaxMillis = 5000;
 
     // Last seen PatchLogInfo in getPatchLogInfo()
     // null when not started
@@ -79,6 +94,10 @@ public class DeltaConnection implements AutoCloseable {
     private final Dataset managedNoEmptyDataset;
 
     private final RDFChanges target;
+    // Null if outgoing transactions are not compacted.
+    private final RDFChangesCompact compactor;
+    // Null if not write-behind.
+    private final PatchShipper shipper;
     private final String datasourceName ;
     private final Id datasourceId;
     // Note: the contents of DataState change - it is the current state and is updated.
@@ -95,14 +114,51 @@ public class DeltaConnection implements AutoCloseable {
     // Indicator of whether a sync is in-progress.
     private final AtomicBoolean syncInProgress = new AtomicBoolean(false);
 
-    // Synchronize patches asynchronously to the caller.
-    // (ExecutorService in case we change the policy details in the future.)
+    // Recently appended patches made by this connection, and so already in the
+    // local dataset: version -> id. Sync does not fetch and apply these again.
+    // Only patches that the log placed directly after the local version are kept:
+    // otherwise the local dataset has the changes in a different order to the log.
+    private static final int OwnPatchesMax = 100;
+    private final Map<Long, Id> ownPatches = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Id> eldest) {
+            return size() > OwnPatchesMax;
+        }
+    };
+
+    // Set when a local change was placed in the log after patches the local dataset
+    // has not seen. The next sync clears the local dataset and replays the log.
+    private boolean resetPending = false;
+
+    // Outgoing transactions: sent, rejected because the log had moved on, and retried.
+    private final AtomicLong commitCount = new AtomicLong(0);
+    private final AtomicLong conflictCount = new AtomicLong(0);
+    private final AtomicLong retryCount = new AtomicLong(0);
+
+    // Patches are synchronized asynchronously to the caller by the shared SyncScheduler.
 
     // Test start and stop servers very quickly and ports are known (in assembler files)
     // Test: TestDeltaAssembler.assembler_delta_3
     public static boolean TestModeNoAsync = false;
 
-    private ScheduledExecutorService scheduledExecutionService = Executors.newScheduledThreadPool(1, threadFactoryDaemon);
+    /**
+     * Whether outgoing transactions are reduced to their net effect before being sent
+     * (see {@link RDFChangesCompact}). Applies to connections created after it is set.
+     */
+    public static boolean CompactPatches = Boolean.getBoolean("delta.client.compact");
+
+    /**
+     * Whether write transactions commit locally and the patches are sent to the log
+     * in the background (see {@link #flushed}). The patch log lock is held until the
+     * queued patches have been sent. Applies to connections created after it is set.
+     */
+    public static boolean WriteBehind = Boolean.getBoolean("delta.client.write_behind");
+
+    /** Whether an empty replica starts from the latest snapshot of the log, if there is one. */
+    public static boolean SnapshotBootstrap = !"false".equalsIgnoreCase(System.getProperty("delta.sync.snapshot"));
+
+    // Notification of new versions from the patch log server; null when not subscribed.
+    private volatile PatchLogSubscriber subscriber = null;
 
     /**
      * Connect to an existing {@code DataSource} with the {@link DatasetGraph} as local state.
@@ -145,6 +201,8 @@ public class DeltaConnection implements AutoCloseable {
         this.syncPolicy = syncTxnBegin;
         if ( basedsg == null ) {
             this.target = null;
+            this.compactor = null;
+            this.shipper = null;
             this.managed = null;
             this.managedDataset = null;
             this.managedNoEmpty = null;
@@ -162,6 +220,10 @@ public class DeltaConnection implements AutoCloseable {
 
         // Where to send outgoing changes.
         RDFChanges monitor = new RDFChangesDS();
+        this.compactor = CompactPatches ? new RDFChangesCompact(monitor) : null;
+        if ( compactor != null )
+            monitor = compactor;
+        this.shipper = WriteBehind ? createShipper() : null;
         this.managed = new DatasetGraphChanges(basedsg, monitor, null, syncer(syncTxnBegin));
         this.managedDataset = DatasetFactory.wrap(managed);
         // ----
@@ -170,6 +232,17 @@ public class DeltaConnection implements AutoCloseable {
         this.managedNoEmptyDataset = DatasetFactory.wrap(managedNoEmpty);
     }
 
+    private PatchShipper createShipper() {
+        Zone zone = state.zone();
+        Path stateArea = ( zone == null ) ? null : zone.statePath(state);
+        Path queueDir = ( stateArea == null ) ? null : stateArea.resolve(FN.QUEUE);
+        Consumer<RDFPatch> sender = patch->{
+            appendLocal(patch);
+            commitCount.incrementAndGet();
+        };
+        return new PatchShipper(datasourceId.toString(), queueDir, state.latestPatchId(), sender, state::version, this::releaseLock);
+    }
+
     private Consumer<ReadWrite> syncer(SyncPolicy syncTxnBegin) {
         switch(syncTxnBegin) {
             case NONE :     return (rw)->{} ;
@@ -221,7 +294,7 @@ public class DeltaConnection implements AutoCloseable {
      * Acquire the patch log lock else bail out.
      */
     public boolean acquireLock() {
-        if ( ! LockMode )
+        if ( ! lockMode )
             // No cluster lock then optimistic (can fail) transactions.
             return true;
         checkDeltaConnection();
@@ -234,19 +307,36 @@ public class DeltaConnection implements AutoCloseable {
      * All we can do is ignore, and resync later.
      */
     public void releaseLock() {
-        if ( ! LockMode )
-            return;
+        // Not checking the lock mode: the lock may have been taken before it changed.
         checkDeltaConnection();
         logLock.releaseLock();
     }
 
+    /**
+     * Set whether write transactions take the patch log lock (true, the default unless
+     * the system property "delta.client.optimistic" is set) or are optimistic (false).
+     * An optimistic write transaction that conflicts with another writer fails at the
+     * commit (see {@link #executeWrite}). Applies to transactions started after it is set.
+     */
+    public void setLockMode(boolean lockMode) {
+        this.lockMode = lockMode;
+    }
+
+    /** Whether write transactions take the patch log lock. See {@link #setLockMode}. */
+    public boolean getLockMode() {
+        return lockMode;
+    }
+
     /**
      * An {@link RDFChanges} that adds "id", and "prev" as necessary.
+     * Large transactions are collected on disk, in the zone (see {@link RDFChangesSpill}).
      */
-    private class RDFChangesDS extends RDFChangesCollector {
+    private class RDFChangesDS extends RDFChangesSpill {
         private volatile Node currentTransactionId = null;
 
-        RDFChangesDS() {}
+        RDFChangesDS() {
+            super(spillDir(state));
+        }
 
         // Auto-add an id.
         @Override
@@ -254,10 +344,16 @@ public class DeltaConnection implements AutoCloseable {
             // Without the acquireLock, the transaction is performed optimistically
             // and may fail at the commit if another machine has sneaked in,
             // doing a W transaction and making a log append.
-            if ( LockMode ) {
+            // With write-behind, the lock may still be held for queued patches.
+            if ( shipper != null )
+                shipper.beginWrite();
+            if ( lockMode && ! logLock.isLocked() ) {
                 boolean b = acquireLock();
-                if ( ! b )
+                if ( ! b ) {
+                    if ( shipper != null )
+                        shipper.endWrite(null);
                     throw new DeltaException("Can't obtain the cluster lock (cluster busy?)");
+                }
             }
             super.txnBegin();
             if ( currentTransactionId == null ) {
@@ -273,18 +369,36 @@ public class DeltaConnection implements AutoCloseable {
             if ( currentTransactionId == null )
                 throw new DeltaException(format("[%s] No id in txnCommit - either txnBegin not called or txnCommit called twice", datasourceId));
             if ( super.header(RDFPatchConst.PREV) == null ) {
-                Id x = state.latestPatchId();
+                Id x = ( shipper == null ) ? null : shipper.lastQueued();
+                if ( x == null )
+                    x = state.latestPatchId();
                 if ( x != null )
                     super.header(RDFPatchConst.PREV, x.asNode());
             }
 
             RDFPatch patch = getRDFPatch();
+            if ( shipper != null ) {
+                // The shipper sends the patch and releases the lock.
+                try {
+                    shipper.endWrite(patch);
+                } finally {
+                    currentTransactionId = null;
+                    reset();
+                }
+                return;
+            }
             //FmtLog.info(LOG,  "Send patch: id=%s, prev=%s", Id.str(patch.getId()), Id.str(patch.getPrevious()));
             //long newVersion = dLink.append(dsRef, patch);
             //setLocalState(newVersion, patch.getId());
 
             try {
-                append(patch);
+                appendLocal(patch);
+                commitCount.incrementAndGet();
+            } catch(DeltaPatchVersionException ex) {
+                // Another writer appended first; not an error in optimistic mode.
+                conflictCount.incrementAndGet();
+                FmtLog.debug(LOG, "[%s] Commit conflict: %s", datasourceId, ex.getMessage());
+                throw ex;
             } catch(DeltaBadRequestException ex) {
                 FmtLog.warn(LOG, "Failed to commit: %s", ex.getMessage());
                 throw ex;
@@ -300,10 +414,21 @@ public class DeltaConnection implements AutoCloseable {
             currentTransactionId = null;
             super.txnAbort();
             reset();
-            releaseLock();
+            if ( shipper != null )
+                shipper.endWrite(null);
+            else
+                releaseLock();
         }
     }
 
+    /** Directory for the changes of large transactions: the zone, or the system temporary directory. */
+    private static Path spillDir(DataState dataState) {
+        Zone zone = dataState.zone();
+        if ( zone == null || zone.getLocation() == null || zone.getLocation().isMem() )
+            return null;
+        return Paths.get(zone.getLocation().getDirectoryPath());
+    }
+
     /*package*/ void start() {
         checkDeltaConnection();
         // Allow for "async sync" - don't hold up "start".
@@ -318,23 +443,53 @@ public class DeltaConnection implements AutoCloseable {
 
     /*package*/ void start(boolean withBackgroundSync) {
         checkDeltaConnection();
+        if ( shipper != null )
+            shipper.start();
         if ( withBackgroundSync ) {
-            // Run (almost) immediately and then every 5 minutes
-            scheduledExecutionService.scheduleAtFixedRate(this::oneSyncAttempt, 0, 5*60, TimeUnit.SECONDS);
+            // Run (almost) immediately and then on each poll of the shared scheduler.
+            SyncScheduler.get().register(this);
         }
     }
 
     /*package*/ void finish() {
         if ( isValid() ) {
+            unsubscribe();
             this.logLockMgr.stop();
-            this.shutdownSyncExecutorService();
-            this.valid = false;
+            SyncScheduler.get().unregister(this);
+            if ( shipper != null )
+                shipper.stop();
+            // Wait for any sync in progress.
+            synchronized(localLock) {
+                this.valid = false;
+            }
         }
     }
 
-    /** Execute a DeltaConnection sync once. */
-    private void oneSyncAttempt() {
-        trySyncIfAuto();
+    /**
+     * Sync as soon as the patch log server notifies that there is a new version,
+     * rather than waiting for the next transaction or the background sync.
+     */
+    public void subscribe() {
+        synchronized(localLock) {
+            checkDeltaConnection();
+            if ( subscriber != null )
+                return;
+            subscriber = PatchLogSubscriber.start(dLink, datasourceId, state.version(), logInfo->{
+                // Skip if this connection is already there (e.g. it made the change).
+                if ( state.version().isBefore(logInfo.getMaxVersion()) )
+                    trySync(logInfo);
+            });
+        }
+    }
+
+    /** Stop syncing on notifications. */
+    public void unsubscribe() {
+        synchronized(localLock) {
+            if ( subscriber == null )
+                return;
+            subscriber.stop();
+            subscriber = null;
+        }
     }
 
     /**
@@ -360,10 +515,142 @@ public class DeltaConnection implements AutoCloseable {
         }
     }
 
+    /**
+     * Send a patch of changes that have already been made to the local dataset.
+     * If other patches were appended to the log since this copy was last synced,
+     * the local dataset has this patch's changes before theirs, not after as in the
+     * log, so the next sync clears it and replays the log.
+     */
+    private void appendLocal(RDFPatch patch) {
+        synchronized(localLock) {
+            checkDeltaConnection();
+            Version ver = dLink.append(datasourceId, patch);
+            if ( ! Version.isValid(ver) )
+                return ;
+            Id id = Id.fromNode(patch.getId());
+            Version ver0 = state.version();
+            if ( ver.value() > ver0.value()+1 ) {
+                FmtLog.info(LOG, "[%s] Appended version %d : local version %d is behind the log: reset on the next sync", datasourceId, ver, ver0);
+                resetPending = true;
+                return;
+            }
+            ownPatches.put(ver.value(), id);
+            if ( ver0.value() >= ver.value() )
+                FmtLog.warn(LOG, "[%s] Version did not advance: %d -> %d", datasourceId.toString(), ver0 , ver);
+            state.updateState(ver, id);
+        }
+    }
+
     public RDFPatch fetch(Version version) {
         return dLink.fetch(datasourceId, version);
     }
 
+    /**
+     * Perform a write transaction on the dataset ({@link #getDatasetGraph}).
+     * If the commit is rejected because the patch log has moved on since the
+     * transaction started, the connection syncs and the action is run again,
+     * after a backoff, up to {@link #ConflictRetries} times.
+     * The action must be safe to repeat: it sees the dataset as updated by the sync.
+     * @see #setLockMode
+     */
+    public void executeWrite(Runnable action) {
+        calculateWrite(()->{
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Perform a write transaction on the dataset and return the result.
+     * See {@link #executeWrite} for the handling of conflicts.
+     */
+    public <X> X calculateWrite(Supplier<X> action) {
+        checkDeltaConnection();
+        for ( int attempt = 1 ; ; attempt++ ) {
+            try {
+                return Txn.calculateWrite(managed, action);
+            } catch (DeltaPatchVersionException ex) {
+                if ( attempt > ConflictRetries ) {
+                    FmtLog.warn(LOG, "[%s] Commit conflict: giving up after %d attempts", datasourceId, attempt);
+                    throw ex;
+                }
+                retryCount.incrementAndGet();
+                backoff(attempt);
+                // Catch up with the other writer before running the action again.
+                sync();
+            }
+        }
+    }
+
+    private static void backoff(int attempt) {
+        long wait = Math.min((long)ConflictBackoffMillis << Math.min(attempt-1, 20), ConflictBackoffMaxMillis);
+        if ( wait <= 0 )
+            return;
+        // Jitter so that competing writers do not retry in step.
+        wait = wait/2 + ThreadLocalRandom.current().nextLong(wait/2+1);
+        Lib.sleep((int)wait);
+    }
+
+    private boolean hasPending() {
+        return shipper != null && shipper.pending() > 0;
+    }
+
+    /**
+     * Number of transactions committed locally and waiting to be sent to the patch log.
+     * Always zero unless {@link #WriteBehind} is set.
+     */
+    public int getPendingCount() {
+        return shipper == null ? 0 : shipper.pending();
+    }
+
+    /**
+     * Discard the transactions committed locally and not yet sent to the patch log,
+     * for example after the patch log rejected one of them. The local dataset then
+     * has changes the log does not have, so it is cleared and synced again from the log.
+     * Returns the number of transactions discarded.
+     */
+    public int discardPending() {
+        checkDeltaConnection();
+        if ( shipper == null || base == null )
+            return 0;
+        synchronized(localLock) {
+            int n = shipper.discard();
+            if ( n == 0 )
+                return 0;
+            ownPatches.clear();
+            resetPending = false;
+            FmtLog.warn(LOG, "[%s:%s] Reset the local dataset: %d unsent transactions discarded", datasourceId, datasourceName, n);
+            Txn.executeWrite(base, base::clear);
+            setLocalState(Version.INIT, (Id)null);
+            sync();
+            return n;
+        }
+    }
+
+    /**
+     * A future that completes when the transactions committed so far have been sent
+     * to the patch log. Its value is the log version replicated up to at that point.
+     * It completes exceptionally if the patch log rejects a queued patch
+     * (see {@link #discardPending}).
+     */
+    public CompletableFuture<Version> flushed() {
+        checkDeltaConnection();
+        if ( shipper == null )
+            return CompletableFuture.completedFuture(getLocalVersion());
+        return shipper.flushed();
+    }
+
+    /** Wait until the transactions committed so far have been sent to the patch log. */
+    public Version flush() {
+        try {
+            return flushed().join();
+        } catch (CompletionException ex) {
+            if ( ex.getCause() instanceof RuntimeException )
+                throw (RuntimeException)ex.getCause();
+            throw ex;
+        }
+    }
+
     /** Try to sync ; return true if succeeded, else false */
     public boolean trySync() {
         return attempt(()->sync());
@@ -377,7 +664,51 @@ public class DeltaConnection implements AutoCloseable {
     /** Sync to a specific log state. */
     public void sync(PatchLogInfo logInfo) {
         checkDeltaConnection();
-        syncToVersion(logInfo.getMaxVersion());
+        if ( SnapshotBootstrap && logInfo.hasSnapshot() && base != null && getLocalVersion().equals(Version.INIT) )
+            bootstrap(logInfo);
+        syncToVersion(logInfo.getMinVersion(), logInfo.getMaxVersion());
+    }
+
+    /**
+     * Start an empty replica from the latest snapshot of the log,
+     * so only the patches after the snapshot are played.
+     * A replica at version INIT that has data, for example initial data loaded
+     * before it was connected, is not started from a snapshot.
+     * This operation takes the connection lock.
+     */
+    private void bootstrap(PatchLogInfo logInfo) {
+        synchronized(localLock) {
+            if ( syncInProgress() || ! getLocalVersion().equals(Version.INIT) || hasPending() )
+                return;
+            // The snapshot replaces the data; it is not merged with existing data.
+            if ( ! Txn.calculateRead(base, base::isEmpty) ) {
+                FmtLog.info(LOG, "[%s] Local dataset is not empty: snapshot not used", datasourceId);
+                return;
+            }
+            Version version = logInfo.getSnapshotVersion();
+            try {
+                syncInProgress.set(true);
+                long start = System.currentTimeMillis();
+                try ( InputStream in = dLink.fetchSnapshot(datasourceId, version) ) {
+                    if ( in == null ) {
+                        FmtLog.info(LOG, "[%s] Snapshot %s not available", datasourceId, version);
+                        return;
+                    }
+                    FmtLog.info(LOG, "[%s:%s] Load snapshot: Version [%s]", datasourceId, datasourceName, version);
+                    if ( BulkCatchUp.isTDB2(state.getStorageType(), base) )
+                        BulkCatchUp.load(base, in);
+                    else
+                        Txn.executeWrite(base, ()->DeltaOps.readSnapshot(in, base));
+                } catch (IOException ex) {
+                    throw IOX.exception(ex);
+                }
+                setLocalState(version, logInfo.getSnapshotPatch());
+                FmtLog.info(LOG, "[%s:%s] Snapshot loaded: Version [%s] (%.3fs)", datasourceId, datasourceName, version,
+                            (System.currentTimeMillis()-start)/1000.0);
+            } finally {
+                syncInProgress.set(false);
+            }
+        }
     }
 
     /**
@@ -424,14 +755,14 @@ public class DeltaConnection implements AutoCloseable {
      * This operation takes the connection lock.
      * Calls may wish to skip sync()
      */
-    private void syncToVersion(Version version) {
+    private void syncToVersion(Version earliest, Version version) {
         if ( ! Version.isValid(version) ) {
             FmtLog.debug(LOG, "Sync: Asked for no patches to sync");
             return;
         }
         if ( syncInProgress() )
             return;
-        syncToVersion(version, false);
+        syncToVersion(earliest, version, false);
     }
 
     /**
@@ -439,13 +770,20 @@ public class DeltaConnection implements AutoCloseable {
      * This is the work of synchronization.
      * This operation takes the connection lock.
      */
-    private void syncToVersion(Version version, boolean allowOverlap) {
+    private void syncToVersion(Version earliest, Version version, boolean allowOverlap) {
         synchronized(localLock) {
             // Inside lock - only one thread.
             if ( !allowOverlap && syncInProgress() )
                 return ;
             try {
+                if ( hasPending() ) {
+                    // The local copy is ahead of the log, and this client holds the lock.
+                    FmtLog.debug(LOG, "[%s] Sync: patches waiting to be sent", datasourceId);
+                    return;
+                }
                 syncInProgress.set(true);
+                if ( resetPending )
+                    resetLocal();
                 Version localVer = getLocalVersion();
                 if ( localVer.isUnset() ) {
                     FmtLog.warn(LOG, "[%s] Local version is UNSET : sync to %s not done", datasourceId, version);
@@ -458,7 +796,17 @@ public class DeltaConnection implements AutoCloseable {
                 // localVer is not UNSET so next version to fetch is +1 (INIT is version 0)
                 FmtLog.info(LOG, "[%s:%s] Sync start: Versions [%s, %s]", datasourceId, datasourceName, localVer, version);
                 // This updates the local state.
-                playPatches(localVer, localVer.value()+1, version.value()) ;
+                // A compacted log starts later: its first patch brings any earlier version up to date.
+                // A pruned log also starts later, but the changes of the removed patches are lost.
+                long first = localVer.value()+1;
+                if ( Version.isValid(earliest) && earliest.value() > first ) {
+                    RDFPatch patch = dLink.fetch(datasourceId, earliest);
+                    if ( patch != null && patch.getPrevious() != null )
+                        throw new DeltaException(format("[%s] Local version %s is before the earliest version %s of the pruned log: start again from a snapshot",
+                                                        datasourceId, localVer, earliest));
+                    first = earliest.value();
+                }
+                playPatches(localVer, first, version.value()) ;
                 Version localVer2 = getLocalVersion();
                 FmtLog.info(LOG, "[%s:%s] Sync finish: Version [%s]", datasourceId, datasourceName, localVer2);
             } finally {
@@ -467,10 +815,25 @@ public class DeltaConnection implements AutoCloseable {
         }
     }
 
-    /** Play the patches (range is inclusive at both ends); set the new local state on exit. */
+    // The local dataset is not a state of the log: clear it so that sync replays the log.
+    private void resetLocal() {
+        FmtLog.warn(LOG, "[%s:%s] Reset the local dataset: local changes are out of order with the log", datasourceId, datasourceName);
+        resetPending = false;
+        ownPatches.clear();
+        Txn.executeWrite(base, base::clear);
+        setLocalState(Version.INIT, (Id)null);
+    }
+
+    /**
+     * Play the patches (range is inclusive at both ends); set the new local state on exit.
+     * An empty TDB2 dataset that is a long way behind is caught up with the bulk loader (see {@link BulkCatchUp}).
+     */
     private void playPatches(Version currentVersion, long firstPatchVer, long lastPatchVer) {
         // Inside synchronized of syncToVersion
-        Pair<Version, Node> p = play(datasourceId, base, target, dLink, currentVersion, firstPatchVer, lastPatchVer);
+        long count = lastPatchVer - firstPatchVer + 1;
+        Pair<Version, Node> p = BulkCatchUp.applies(state.getStorageType(), base, count)
+            ? BulkCatchUp.play(datasourceId, base, dLink, currentVersion, firstPatchVer, lastPatchVer, ownPatches::get)
+            : play(datasourceId, base, target, dLink, currentVersion, firstPatchVer, lastPatchVer, ownPatches::get);
         if ( p == null )
             // Didn't make progress for some reason.
             return;
@@ -482,28 +845,42 @@ public class DeltaConnection implements AutoCloseable {
         setLocalState(patchLastVersion, patchLastIdNode);
     }
 
-    /** Play patches, return details of the the last successfully applied one */
+    /**
+     * Play patches, return details of the the last successfully applied one.
+     * Patches are fetched ahead of being applied (see {@link PatchPrefetch}).
+     * Patches made by this connection ({@code ownPatch} gives the id) are already in
+     * the local dataset and are skipped.
+     */
     private static Pair<Version, Node> play(Id datasourceId, DatasetGraph base, RDFChanges target, DeltaLink dLink,
                                             Version currentVersion,
-                                            long minVersion, long maxVersion) {
-        // [Delta] replace with a one-shot "get all patches" operation.
+                                            long minVersion, long maxVersion, LongFunction<Id> ownPatch) {
         //FmtLog.debug(LOG, "Patch range [%d, %d]", minVersion, maxVersion);
 
         // Switch off transactions inside of each patch and execute as a single, overall transaction.
         RDFChanges c = new RDFChangesExternalTxn(target);
         if ( false )
             c = DeltaOps.print(c);
-        try {
+        final RDFChanges changes = c;
+        try ( PatchPrefetch prefetch = new PatchPrefetch(dLink, datasourceId, minVersion, maxVersion, v->ownPatch.apply(v) != null) ) {
             return Txn.calculateWrite(base, ()->{
                 Node patchLastIdNode = null;
                 Version patchLastVersion = currentVersion;
+                int applied = 0;
+                long applyNanos = 0;
 
                 for ( long ver = minVersion ; ver <= maxVersion ; ver++ ) {
                     //FmtLog.debug(LOG, "Play: patch=%s", ver);
                     RDFPatch patch;
                     Version verObj = Version.create(ver);
+                    Id own = ownPatch.apply(ver);
+                    if ( own != null ) {
+                        prefetch.skip();
+                        patchLastIdNode = own.asNode();
+                        patchLastVersion = verObj;
+                        continue;
+                    }
                     try {
-                        patch = dLink.fetch(datasourceId, verObj);
+                        patch = prefetch.next();
                         if ( patch == null ) {
                             // No patch. Patches have no gaps.
                             // But a storage like S3 is only eventually consistent so stop
@@ -516,10 +893,14 @@ public class DeltaConnection implements AutoCloseable {
                         FmtLog.info(LOG, "Play: %s patch=%s : not found (no datasource)", datasourceId, verObj);
                         continue;
                     }
-                    patch.apply(c);
+                    long t = System.nanoTime();
+                    patch.apply(changes);
+                    applyNanos += System.nanoTime() - t;
+                    applied++;
                     patchLastIdNode = patch.getId();
                     patchLastVersion = verObj;
                 }
+                prefetch.report(LOG, applied, applyNanos);
                 return Pair.create(patchLastVersion, patchLastIdNode);
             });
         } catch (Throwable th) {
@@ -535,20 +916,6 @@ public class DeltaConnection implements AutoCloseable {
         // Call finish() when a connection is not going to be used again.
     }
 
-    private void shutdownSyncExecutorService() {
-    	this.scheduledExecutionService.shutdown();
-    	boolean ok = false;
-    	try {
-    		ok = this.scheduledExecutionService.awaitTermination(30, TimeUnit.SECONDS);
-		} catch (InterruptedException ex) {
-			LOG.warn("DeltaConnection.scheduledExecutionService.awaitTermination(30, TimeUnit.SECONDS) interrupted", ex);
-			return; // skip OK check below
-		}
-    	if ( ! ok) {
-    		LOG.warn("DeltaConnection.scheduledExecutionService.awaitTermination(30, TimeUnit.SECONDS) timed out");
-    	}
-    }
-
     public boolean isValid() {
         return valid;
     }
@@ -670,6 +1037,36 @@ public class DeltaConnection implements AutoCloseable {
         return managedNoEmptyDataset;
     }
 
+    /**
+     * Number of operations removed from outgoing transactions by compaction.
+     * Zero if compaction is not enabled (see {@link #CompactPatches}).
+     */
+    public long getCompactedCount() {
+        return compactor == null ? 0 : compactor.getRemovedCount();
+    }
+
+    /** Number of transactions successfully sent to the patch log. */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /** Number of transactions rejected because the patch log had moved on (optimistic mode). */
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    /** Number of times {@link #executeWrite} re-ran a transaction after a conflict. */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /** Proportion of commit attempts that ended in a conflict. */
+    public double getConflictRate() {
+        long conflicts = conflictCount.get();
+        long attempts = conflicts + commitCount.get();
+        return attempts == 0 ? 0.0 : (double)conflicts / attempts;
+    }
+
     /** The "without changes" storage */
     public DatasetGraph getStorage() {
         return base;
@@ -0,0 +1,72 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.client;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * The HTTP transport for talking to a patch log server.
+ * <p>
+ * There is one shared {@link HttpClient}, used by all {@link DeltaLinkHTTP}s for RPCs,
+ * fetching patches and appending patches. The {@code HttpClient} keeps connections open
+ * and reuses them (HTTP keep-alive) so a sequence of operations does not pay for a new
+ * TCP connection each time.
+ * <p>
+ * Setting the system property {@code delta.http2} to "true" causes the shared client to
+ * use HTTP/2 where the server supports it ("h2c" for {@code http:}, ALPN for {@code https:}),
+ * otherwise HTTP/1.1 is used.
+ */
+public class DeltaHttp {
+    /** System property to request HTTP/2. */
+    public static final String pHttp2 = "delta.http2";
+
+    private static final Duration connectTimeout = Duration.ofSeconds(10);
+
+    private static volatile HttpClient httpClient = null;
+
+    /** The shared {@link HttpClient}. */
+    public static HttpClient httpClient() {
+        HttpClient hc = httpClient;
+        if ( hc == null ) {
+            synchronized(DeltaHttp.class) {
+                if ( httpClient == null )
+                    httpClient = create(Boolean.getBoolean(pHttp2));
+                hc = httpClient;
+            }
+        }
+        return hc;
+    }
+
+    /** Set the shared {@link HttpClient}. This affects {@link DeltaLinkHTTP}s created after the call. */
+    public static void setHttpClient(HttpClient hc) {
+        httpClient = Objects.requireNonNull(hc);
+    }
+
+    /** Create a {@link HttpClient} suitable for a {@link DeltaLinkHTTP}. */
+    public static HttpClient create(boolean http2) {
+        return HttpClient.newBuilder()
+                .version(http2 ? Version.HTTP_2 : Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .followRedirects(Redirect.NORMAL)
+                .build();
+    }
+}
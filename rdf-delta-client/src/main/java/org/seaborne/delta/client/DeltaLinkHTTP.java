@@ -20,11 +20,18 @@ package org.seaborne.delta.client;
 import static java.lang.String.format;
 import static org.seaborne.delta.DeltaConst.F_ARRAY;
 import static org.seaborne.delta.DeltaConst.F_DATASOURCE;
+import static org.seaborne.delta.DeltaConst.F_ERROR;
 import static org.seaborne.delta.DeltaConst.F_LOCK_REF;
 import static org.seaborne.delta.DeltaConst.F_LOCK_TICKS;
 
+import java.io.IOException;
 import java.io.InputStream ;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -33,7 +40,10 @@ import java.util.function.Consumer;
 import java.util.function.Supplier ;
 import java.util.stream.Collectors;
 
+import org.apache.jena.atlas.io.IOX;
 import org.apache.jena.atlas.json.*;
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.atlas.lib.Lib;
 import org.apache.jena.atlas.logging.FmtLog ;
 import org.apache.jena.atlas.web.HttpException ;
 import org.apache.jena.http.HttpOp;
@@ -58,24 +68,37 @@ public class DeltaLinkHTTP implements DeltaLink {
     private final String remoteSend;
     private final String remoteReceive;
     private final String remoteData;
+    private final String remoteEvents;
+
+    // Shared transport; connections are kept open and reused.
+    private final HttpClient httpClient;
 
     private Id clientId = null;
     private boolean linkOpen = false;
+    // Cleared if the server rejects the "batch" operation (older servers).
+    private volatile boolean batchSupported = true;
 
     private Set<DeltaLinkListener> listeners = ConcurrentHashMap.newKeySet();
 
     private final static JsonObject emptyObject = new JsonObject();
 
     public static DeltaLink connect(String serverURL) {
+        return connect(serverURL, DeltaHttp.httpClient());
+    }
+
+    /** Connect using a specific {@link HttpClient}. Normally, all links share one ({@link DeltaHttp#httpClient}). */
+    public static DeltaLink connect(String serverURL, HttpClient httpClient) {
         Objects.requireNonNull(serverURL, "DelatLinkHTTP: Null URL for the server");
+        Objects.requireNonNull(httpClient, "DelatLinkHTTP: Null HttpClient");
         if ( ! serverURL.startsWith("http://") && ! serverURL.startsWith("https://") )
             throw new IllegalArgumentException("Bad server URL: '"+serverURL+"'");
-        DeltaLink link = new DeltaLinkHTTP(serverURL);
+        DeltaLink link = new DeltaLinkHTTP(serverURL, httpClient);
         link.start();
         return link;
     }
 
-    private DeltaLinkHTTP(String serverURL) {
+    private DeltaLinkHTTP(String serverURL, HttpClient httpClient) {
+        this.httpClient = httpClient;
         if ( ! serverURL.endsWith("/" ))
             serverURL= serverURL+"/";
 
@@ -84,6 +107,7 @@ public class DeltaLinkHTTP implements DeltaLink {
         this.remoteSend     = serverURL+"{"+DeltaConst.paramDatasource+"}";
         this.remoteReceive  = serverURL+"{"+DeltaConst.paramDatasource+"}";
         this.remoteData     = serverURL+DeltaConst.EP_InitData;
+        this.remoteEvents   = serverURL+DeltaConst.EP_Events;
 //        // Separate URLs
 //        this.remoteSend = serverURL+DPConst.EP_Append;
 //        this.remoteReceive = serverURL+DPConst.EP_Fetch;
@@ -118,12 +142,24 @@ public class DeltaLinkHTTP implements DeltaLink {
     // Like Callable but no Exception.
     interface Action<T> { T action() ; }
 
-    /** Perform a retryable operation. Retry only happen if HttpException happens. */
+    /**
+     * Perform a retryable operation. A retry only happens on a communications failure
+     * ({@link HttpException} with no status code) and only if {@code retryable} is
+     * true. The request may have reached the server before the failure so only
+     * operations that are safe to repeat (reads) should be retryable.
+     */
     private <T> T retry(Action<T> callable, Supplier<Boolean> retryable, Supplier<String> retryMsg, Supplier<String> failureMsg) {
         for ( int i = 1 ; ; i++ ) {
             try {
                 return callable.action();
             } catch (HttpException ex) {
+                // Communications failure, no HTTP status code. This includes a reused
+                // (keep-alive) connection that the server has closed.
+                if ( ex.getStatusCode() == -1 && i < RETRIES_COMMS_FAILURE && retryable.get() ) {
+                    if ( retryMsg != null )
+                        Delta.DELTA_HTTP_LOG.debug(retryMsg.get());
+                    continue;
+                }
                 if ( failureMsg != null )
                     // Other...
                     Delta.DELTA_HTTP_LOG.warn(failureMsg.get());
@@ -165,7 +201,7 @@ public class DeltaLinkHTTP implements DeltaLink {
     private RDFChangesHTTP createRDFChanges(Id dsRef) {
         Objects.requireNonNull(dsRef);
         checkLink();
-        return new RDFChangesHTTP(dsRef.toSchemeString("ds:"), calcChangesURL(dsRef));
+        return new RDFChangesHTTP(dsRef.toSchemeString("ds:"), calcChangesURL(dsRef), httpClient);
     }
 
     /** Calculate the patch log URL */
@@ -178,14 +214,17 @@ public class DeltaLinkHTTP implements DeltaLink {
         checkLink();
 
         long t1 = System.currentTimeMillis();
-        String str = retry(()->{
+        String str = isSpilled(patch)
+            ? appendStreamed(dsRef, (RDFChangesSpill.SpillPatch)patch)
+            : retry(()->{
                             RDFChangesHTTP remote = createRDFChanges(dsRef);
                             // [NET] Network point
                             // If not re-applyable, we need a copy.
                             patch.apply(remote);
                             return remote.getResponse();
                         },
-                        ()->patch.repeatable(),
+                        // Not retried: the server may have committed the patch.
+                        ()->false,
                         ()->"Retry append patch.", ()->"Failed to append patch : "+dsRef);
         long t2 = System.currentTimeMillis();
         long elapsed_ms = (t2-t1);
@@ -206,6 +245,22 @@ public class DeltaLinkHTTP implements DeltaLink {
         return Version.UNSET;
     }
 
+    private static boolean isSpilled(RDFPatch patch) {
+        return patch instanceof RDFChangesSpill.SpillPatch && ((RDFChangesSpill.SpillPatch)patch).isSpilled();
+    }
+
+    /** Send a patch held on disk, streaming the file in binary format. */
+    private String appendStreamed(Id dsRef, RDFChangesSpill.SpillPatch patch) {
+        return retry(()->{
+                        RDFChangesHTTP remote = createRDFChanges(dsRef);
+                        // [NET] Network point
+                        remote.send(patch.getId(), patch.getPrevious(), patch::openBinary);
+                        return remote.getResponse();
+                    },
+                    ()->false,
+                    ()->"Retry append patch.", ()->"Failed to append patch : "+dsRef);
+    }
+
     @Override
     public RDFPatch fetch(Id dsRef, Version version) {
         if ( !Version.isValid(version) )
@@ -232,13 +287,17 @@ public class DeltaLinkHTTP implements DeltaLink {
         try {
             RDFPatch patch =  retry(()->{
                 // [NET] Network point
-                InputStream in = HttpOp.httpGet(s) ;
-                if ( in == null )
-                    return null ;
-                RDFPatchReaderText pr = new RDFPatchReaderText(in) ;
-                RDFChangesCollector collector = new RDFChangesCollector();
-                pr.apply(collector);
-                return collector.getRDFPatch();
+                // Close the stream so the connection can be reused.
+                try ( InputStream in = HttpOp.httpGet(httpClient, s) ) {
+                    if ( in == null )
+                        return null ;
+                    RDFPatchReaderText pr = new RDFPatchReaderText(in) ;
+                    RDFChangesCollector collector = new RDFChangesCollector();
+                    pr.apply(collector);
+                    return collector.getRDFPatch();
+                } catch (IOException ex) {
+                    throw IOX.exception(ex);
+                }
             }, ()->true, ()->"Retry fetch patch.", ()->"Failed to fetch patch.");
             return patch;
         }
@@ -266,6 +325,41 @@ public class DeltaLinkHTTP implements DeltaLink {
         return String.format("%s?%s=%s", remoteData, DeltaConst.paramDatasource, dsRef.asParam());
     }
 
+    @Override
+    public InputStream fetchSnapshot(Id dsRef, Version version) {
+        checkLink();
+        if ( !Version.isValid(version) )
+            return null;
+        String url = String.format("%s&%s=%s", initialState(dsRef), DeltaConst.paramVersion, version.asParam());
+        try {
+            // [NET] Network point
+            return retry(()->HttpOp.httpGet(httpClient, url),
+                         ()->true, ()->"Retry fetch snapshot.", ()->"Failed to fetch snapshot.");
+        } catch (HttpException ex) {
+            if ( ex.getStatusCode() == HttpSC.NOT_FOUND_404 )
+                return null;
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean query(Id dsRef, String queryString, OutputStream output) {
+        checkLink();
+        String url = String.format("%s&%s=%s", initialState(dsRef), DeltaConst.paramQuery, IRILib.encodeUriComponent(queryString));
+        // [NET] Network point
+        try ( InputStream in = retry(()->HttpOp.httpGet(httpClient, url),
+                                     ()->true, ()->"Retry query.", ()->"Failed to query.") ) {
+            in.transferTo(output);
+            return true;
+        } catch (HttpException ex) {
+            if ( ex.getStatusCode() == HttpSC.NOT_FOUND_404 )
+                return false;
+            throw ex;
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
     public String getServerURL() {
         return remoteServer ;
     }
@@ -369,7 +463,6 @@ public class DeltaLinkHTTP implements DeltaLink {
         Objects.requireNonNull(datasourceId);
         JsonObject arg = JSONX.buildObject(b->{
             b.key(DeltaConst.F_DATASOURCE).value(datasourceId.asPlainString());
-            //b.key(DeltaConst.F_TIMEOUT).value(datasourceId.asPlainString());
         });
 
         JsonObject obj = rpcOnce(DeltaConst.OP_LOCK, arg);
@@ -379,6 +472,42 @@ public class DeltaLinkHTTP implements DeltaLink {
         return lockSession;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The server waits, for no longer than its own limit on each request, and the client
+     * asks again until {@code timeoutMillis} has passed. A server that does not support
+     * waiting answers at once, so the client polls.
+     */
+    @Override
+    public Id acquireLock(Id datasourceId, long timeoutMillis) {
+        Objects.requireNonNull(datasourceId);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        for ( ;; ) {
+            long wait = remaining;
+            JsonObject arg = JSONX.buildObject(b->{
+                b.key(DeltaConst.F_DATASOURCE).value(datasourceId.asPlainString());
+                b.key(DeltaConst.F_TIMEOUT).value(wait);
+            });
+            long start = System.currentTimeMillis();
+            JsonObject obj = rpcOnce(DeltaConst.OP_LOCK, arg);
+            Id lockSession = idOrNullFromField(obj, DeltaConst.F_LOCK_REF);
+            if ( lockSession != null )
+                return lockSession;
+            long now = System.currentTimeMillis();
+            remaining = deadline - now;
+            if ( remaining <= 0 )
+                return null;
+            // Server answered without waiting: poll.
+            if ( now - start < LOCK_POLL_MIN_MS )
+                Lib.sleep((int)Math.min(LOCK_POLL_MIN_MS, remaining));
+        }
+    }
+
+    // Shortest interval between "lock" requests when the server does not wait.
+    private static final long LOCK_POLL_MIN_MS = 100;
+
     @Override
     public boolean refreshLock(Id datasourceId, Id lockRef) {
         Objects.requireNonNull(datasourceId);
@@ -403,41 +532,26 @@ public class DeltaLinkHTTP implements DeltaLink {
         return false;
     }
 
-    // Sketch of lock batching.
-
-//    @Override
-//    public Set refreshLocks(Set<Id> lockSet) {
-//        JsonObject arg = buildRefreshArg(lockSet);
-//        JsonObject obj = rpcOnce(DeltaConst.OP_LOCK_REFRESH, arg);
-//        // ???
-//    }
-//
-//    // batch refresh operation { array: [ { datasource: "", lock: ""} ] }
-//    /*package*/ static JsonObject buildRefreshArg(Set<Id> locks) {
-//        List<JsonObject> x = locks.stream().map(lockId->{
-//            return JSONX.buildObject(b->{
-//                b.pair(F_DATASOURCE, lockId.asPlainString());
-//                b.pair(F_LOCK_REF, lockId.asPlainString());
-//            });
-//        }).collect(toList());
-//        JsonArray array = new JsonArray();
-//        array.addAll(x);
-//        return JSONX.buildObject(b->b.pair(F_ARRAY, array));
-//    }
-//
-//    /*package*/ static Set<Id> buildRefreshRtn(JsonObject obj) {
-//        obj.getArray(F_ARRAY).
-//
-//        List<JsonObject> x = locks.stream().map(lockId->{
-//            return JSONX.buildObject(b->{
-//                b.pair(F_DATASOURCE, lockId.asPlainString());
-//                b.pair(F_LOCK_REF, lockId.asPlainString());
-//            });
-//        }).collect(toList());
-//        JsonArray array = new JsonArray();
-//        array.addAll(x);
-//        return JSONX.buildObject(b->b.pair(F_ARRAY, array));
-//    }
+    /** Refresh all the locks with one request: { array: [ { datasource: "", lock-ref: ""} ] } */
+    @Override
+    public Set<Id> refreshLocks(Map<Id, Id> locks) {
+        Objects.requireNonNull(locks);
+        if ( locks.isEmpty() )
+            return Set.of();
+        JsonArray array = new JsonArray();
+        locks.forEach((datasourceId, lockRef)->{
+            array.add(JSONX.buildObject(b->{
+                b.pair(F_DATASOURCE, datasourceId.asPlainString());
+                b.pair(F_LOCK_REF, lockRef.asPlainString());
+            }));
+        });
+        JsonObject args = JSONX.buildObject(b->b.pair(F_ARRAY, array));
+        JsonObject rtn = rpcOnce(DeltaConst.OP_LOCK_REFRESH, args);
+        // The server returns the locks that did not refresh.
+        Set<Id> failed = new HashSet<>();
+        rtn.getArray(F_ARRAY).forEach(jv->failed.add(idOrNullFromField(jv.getAsObject(), F_DATASOURCE)));
+        return failed;
+    }
 
     @Override
     public LockState readLock(Id datasourceId) {
@@ -526,6 +640,75 @@ public class DeltaLinkHTTP implements DeltaLink {
         return PatchLogInfo.fromJson(obj);
     }
 
+    /** Get the {@link PatchLogInfo} for several logs in one batch request. */
+    @Override
+    public List<PatchLogInfo> getPatchLogInfo(List<Id> dsRefs) {
+        Objects.requireNonNull(dsRefs);
+        if ( dsRefs.isEmpty() )
+            return List.of();
+        if ( dsRefs.size() == 1 || ! batchSupported )
+            return DeltaLink.super.getPatchLogInfo(dsRefs);
+        List<JsonObject> ops = new ArrayList<>(dsRefs.size());
+        for ( Id dsRef : dsRefs ) {
+            JsonObject arg = JSONX.buildObject(b->b.key(F_DATASOURCE).value(dsRef.asPlainString()));
+            ops.add(batchOp(DeltaConst.OP_DESCR_LOG, arg));
+        }
+        JsonArray results;
+        try {
+            results = batch(ops);
+        } catch (DeltaBadRequestException ex) {
+            // Server does not support batches.
+            FmtLog.info(Delta.DELTA_HTTP_LOG, "Batch RPC not supported by %s", remoteServer);
+            batchSupported = false;
+            return DeltaLink.super.getPatchLogInfo(dsRefs);
+        }
+        if ( results.size() != dsRefs.size() )
+            throw new DeltaException("Batch result has "+results.size()+" items, expected "+dsRefs.size());
+        List<PatchLogInfo> infos = new ArrayList<>(dsRefs.size());
+        for ( JsonValue jv : results ) {
+            JsonObject obj = jv.getAsObject();
+            if ( obj.hasKey(F_ERROR) ) {
+                // Not found: same as getPatchLogInfo(Id) returning null.
+                JsonValue sc = obj.get(DeltaConst.F_STATUS);
+                if ( sc != null && sc.isNumber() && sc.getAsNumber().value().intValue() == HttpSC.NOT_FOUND_404 ) {
+                    infos.add(null);
+                    continue;
+                }
+                throw new DeltaException("Failed : "+DeltaConst.OP_DESCR_LOG+" : "+JSON.toStringFlat(obj));
+            }
+            infos.add(obj.isEmpty() ? null : PatchLogInfo.fromJson(obj));
+        }
+        return infos;
+    }
+
+    /** Long-poll the server for a new version of the patch log. */
+    @Override
+    public PatchLogInfo awaitChange(Id dsRef, Version version, long timeoutMillis) {
+        checkLink();
+        String url = format("%s?%s=%s&%s=%s&%s=%d", remoteEvents,
+                            DeltaConst.paramDatasource, dsRef.asParam(),
+                            DeltaConst.paramVersion, version.asParam(),
+                            DeltaConst.paramTimeout, timeoutMillis);
+        // [NET] Network point
+        String str = HttpOp.httpGetString(httpClient, url);
+        if ( str == null )
+            throw new DeltaNotFoundException("No such data source: "+dsRef);
+        JsonObject obj = JSON.parse(str);
+        if ( obj.isEmpty() )
+            return null;
+        return PatchLogInfo.fromJson(obj);
+    }
+
+    /**
+     * Start a background subscriber that calls {@code action} each time the patch log
+     * has a version later than the last one seen, starting from {@code version}.
+     * Stop the subscriber with {@link PatchLogSubscriber#stop}.
+     */
+    public PatchLogSubscriber subscribe(Id dsRef, Version version, Consumer<PatchLogInfo> action) {
+        checkLink();
+        return PatchLogSubscriber.start(this, dsRef, version, action);
+    }
+
     private static Id idFromJson(JsonObject obj) {
         return idFromField(obj, DeltaConst.F_ID);
     }
@@ -566,13 +749,63 @@ public class DeltaLinkHTTP implements DeltaLink {
     private JsonValue rpcToValue(String opName, JsonObject arg) {
         JsonObject argx = ( arg == null ) ? emptyObject : arg;
         // [NET] Network point
-        return retry(()->DRPC.rpc(remoteServer + DeltaConst.EP_RPC, opName, argx),
-                     ()->true,
+        return retry(()->DRPC.rpc(httpClient, remoteServer + DeltaConst.EP_RPC, opName, argx),
+                     ()->isReadOperation(opName, argx),
                      ()->format("Retry : %s",opName),
                      ()->format("Failed : %s %s",opName,JSON.toStringFlat(argx))
                      );
     }
 
+    /** RPC operations that do not change the server and so can be sent again. */
+    private static final Set<String> readOperations = Set.of(DeltaConst.OP_LIST_DS,
+                                                             DeltaConst.OP_LIST_DSD,
+                                                             DeltaConst.OP_LIST_LOG_INFO,
+                                                             DeltaConst.OP_DESCR_DS,
+                                                             DeltaConst.OP_DESCR_LOG);
+
+    /** Whether an RPC only reads. A batch is a read if all its operations are reads. */
+    private static boolean isReadOperation(String opName, JsonObject arg) {
+        if ( readOperations.contains(opName) )
+            return true;
+        if ( ! DeltaConst.OP_BATCH.equals(opName) )
+            return false;
+        JsonValue jv = arg.get(F_ARRAY);
+        if ( jv == null || ! jv.isArray() )
+            return false;
+        for ( JsonValue op : jv.getAsArray() ) {
+            if ( ! op.isObject() )
+                return false;
+            JsonValue name = op.getAsObject().get(DeltaConst.F_OP);
+            if ( name == null || ! name.isString() || ! readOperations.contains(name.getAsString().value()) )
+                return false;
+        }
+        return true;
+    }
+
+    /** One operation, for {@link #batch}. */
+    private static JsonObject batchOp(String opName, JsonObject arg) {
+        return JSONX.buildObject(b->{
+            b.pair(DeltaConst.F_OP, opName);
+            b.pair(DeltaConst.F_ARG, arg);
+        });
+    }
+
+    /**
+     * Send several operations in one request. The results are in the same order as the
+     * operations; an operation that failed has an object with an "error" field as its
+     * result.
+     */
+    private JsonArray batch(List<JsonObject> ops) {
+        JsonArray array = new JsonArray();
+        array.addAll(ops);
+        JsonObject arg = JSONX.buildObject(b->b.pair(F_ARRAY, array));
+        JsonObject obj = rpc(DeltaConst.OP_BATCH, arg);
+        JsonValue jv = obj.get(F_ARRAY);
+        if ( jv == null || ! jv.isArray() )
+            throw new DeltaException("Bad result to '"+DeltaConst.OP_BATCH+"': "+JSON.toStringFlat(obj));
+        return jv.getAsArray();
+    }
+
     /** Perform an RPC, once - no retries, no logging. */
     private JsonObject rpcOnce(String opName, JsonObject arg) {
         JsonValue r = rpcOnceToValue(opName, arg);
@@ -585,7 +818,7 @@ public class DeltaLinkHTTP implements DeltaLink {
     private JsonValue rpcOnceToValue(String opName, JsonObject arg) {
         JsonObject argx = ( arg == null ) ? emptyObject : arg;
         // [NET] Network point
-        return DRPC.rpc(remoteServer + DeltaConst.EP_RPC, opName, argx);
+        return DRPC.rpc(httpClient, remoteServer + DeltaConst.EP_RPC, opName, argx);
     }
 
     private <X> void event(Consumer<DeltaLinkListener> action) {
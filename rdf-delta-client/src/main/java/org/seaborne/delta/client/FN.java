@@ -24,4 +24,7 @@ class FN {
 
     /** Name of the file holding the persistent state, client DeltaConnection. */
     public static final String STATE      = "state";
+
+    /** Directory of patches committed locally and waiting to be sent (write-behind). */
+    public static final String QUEUE      = "queue";
 }
@@ -218,6 +218,8 @@ public class LogLock {
 
     /**
      * Gap between attempts to read the patch log lock (milliseconds).
+     * This is also how long the server is asked to wait for the lock on each attempt to
+     * acquire it.
      */
     private static int LOCK_POLL_WAIT_MS                = 1000;
 
@@ -227,8 +229,10 @@ public class LogLock {
      * The patch log is a discretion lock provided by the patch log server that can be
      * used to serialise updates across the cluster.
      * <p>
-     * The server provides certain actions on locks, none of which block or wait. The
-     * policy for the lock is determined by the clients.
+     * The server provides certain actions on locks. Only "acquire" waits: the server
+     * holds the request, for up to {@link #LOCK_POLL_WAIT_MS}, and hands the lock to
+     * waiters in turn as it is released. The policy for breaking the lock is determined
+     * by the clients.
      * <p>
      * This is not perfect - it does not always acquire the lock when unexpected
      * combinations of failures occur. It is intended first and foremost to protect the
@@ -300,7 +304,8 @@ public class LogLock {
     }
 
     private static Id tryAcquireLock(DeltaLink dLink, Id datasourceId) {
-        return dLink.acquireLock(datasourceId);
+        // Wait on the server, rather than poll, for the lock to be released.
+        return dLink.acquireLock(datasourceId, LOCK_POLL_WAIT_MS);
     }
 
     private static LockState readLockState(DeltaLink dLink, Id datasourceId) {
@@ -317,6 +322,11 @@ public class LogLock {
                 break;
             }
 
+            // Wait for a release, then look at the lock.
+            Id lockSession = tryAcquireLock(dLink, datasourceId);
+            if ( lockSession != null )
+                return lockSession;
+
             LockState state2 = pollReadLock(dLink, datasourceId, state);
 
             if ( LockState.isFree(state2) ) {
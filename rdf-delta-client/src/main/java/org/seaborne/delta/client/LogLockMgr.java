@@ -19,14 +19,20 @@ package org.seaborne.delta.client;
 
 import static org.seaborne.delta.client.DeltaClientLib.threadFactoryDaemon;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.atlas.logging.LogCtl;
+import org.seaborne.delta.Id;
 import org.seaborne.delta.LockState;
 import org.seaborne.delta.link.DeltaLink;
 import org.slf4j.Logger;
@@ -53,24 +59,39 @@ public class LogLockMgr {
             FmtLog.debug(LOG,  fmt,  args);
     }
 
-    // Ideal: batch refresh operation { array: [ { datasource: "", lock: ""} ] }
+    // One batch refresh operation for all locks: { array: [ { datasource: "", lock-ref: ""} ] }
     private Runnable lockRefresher = ()-> {
         DEV("Refresh %d", active.size());
+        Map<Id, Id> locks = new HashMap<>();
         active.forEach(lock-> {
-            if ( lock.isLocked() ) {
-                lock.refreshLock();
-                if ( DEBUG ) {
-                    LockState state = lock.readLock();
-                    DEV("Refresh %s : %s", lock.getDataSourceId(), state);
-                }
-            }
+            Id session = lock.getLockSessionId();
+            if ( session != null )
+                locks.put(lock.getDataSourceId(), session);
         });
+        if ( locks.isEmpty() )
+            return;
+        Set<Id> failed = getLink().refreshLocks(locks);
+        // Locks that no longer exist; they may have been released since the map was made.
+        if ( ! failed.isEmpty() )
+            DEV("Refresh: not refreshed: %s", failed);
+        if ( DEBUG ) {
+            active.forEach(lock-> {
+                LockState state = lock.readLock();
+                DEV("Refresh %s : %s", lock.getDataSourceId(), state);
+            });
+        }
     };
 
     private static int LOCK_REFRESH_MS                  = 1000;
     private static int LOCK_REFRESH_INITIAL_DELAY_MS    = 500;
 
-    private ScheduledExecutorService executor = null;
+    // One thread schedules the refreshes of all the LogLockMgr in the JVM. The refresh
+    // requests, which block until the server answers, run on a pool, with at most one
+    // at a time for each LogLockMgr, so a slow server only delays the refresh of its own locks.
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(threadFactoryDaemon);
+    private static final ExecutorService refreshPool = Executors.newCachedThreadPool(threadFactoryDaemon);
+    private ScheduledFuture<?> refresher = null;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
     private final DeltaLink dLink;
     public DeltaLink getLink() { return dLink; }
 
@@ -82,19 +103,41 @@ public class LogLockMgr {
         lockRefresher.run();
     }
 
-    public void start() {
-        executor = Executors.newScheduledThreadPool(1, threadFactoryDaemon);
-        executor.scheduleAtFixedRate(lockRefresher, LOCK_REFRESH_INITIAL_DELAY_MS, LOCK_REFRESH_MS, TimeUnit.MILLISECONDS);
+    public synchronized void start() {
+        if ( refresher != null )
+            return;
+        refresher = executor.scheduleAtFixedRate(this::scheduleRefresh, LOCK_REFRESH_INITIAL_DELAY_MS, LOCK_REFRESH_MS, TimeUnit.MILLISECONDS);
     }
 
-    public void stop() {
-        if ( executor == null )
+    public synchronized void stop() {
+        if ( refresher == null )
             return;
-        executor.shutdownNow();
-        executor = null;
+        refresher.cancel(false);
+        refresher = null;
         return ;
     }
 
+    // Start a refresh unless the last one is still waiting for the server.
+    private void scheduleRefresh() {
+        if ( ! refreshing.compareAndSet(false, true) ) {
+            DEV("Refresh: previous refresh not finished");
+            return;
+        }
+        try {
+            refreshPool.execute(this::refreshQuietly);
+        } catch (RuntimeException ex) {
+            refreshing.set(false);
+            FmtLog.debug(LOG, "Lock refresh not started: %s", ex.getMessage());
+        }
+    }
+
+    // The executors are shared so an exception must not end the schedule.
+    private void refreshQuietly() {
+        try { lockRefresher.run(); }
+        catch (RuntimeException ex) { FmtLog.debug(LOG, "Lock refresh failed: %s", ex.getMessage()); }
+        finally { refreshing.set(false); }
+    }
+
 //    /** Stop refreshing all locks - this operation does not cancel the lock. */
 //    public void dropAll() {
 //        active.clear();
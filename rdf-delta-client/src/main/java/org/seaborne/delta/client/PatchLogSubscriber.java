@@ -0,0 +1,103 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.client;
+
+import static org.seaborne.delta.client.DeltaClientLib.threadFactoryDaemon;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.PatchLogInfo;
+import org.seaborne.delta.Version;
+import org.seaborne.delta.link.DeltaLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background notification of new versions of a patch log.
+ * <p>
+ * A daemon thread repeatedly calls {@link DeltaLink#awaitChange} (a long-poll for
+ * {@link DeltaLinkHTTP}) and calls the action with the {@link PatchLogInfo} each time
+ * the log moves on. Errors (e.g. the server is not available) cause a pause, then a retry.
+ */
+public class PatchLogSubscriber {
+    private static Logger LOG = LoggerFactory.getLogger(PatchLogSubscriber.class);
+
+    /** Long-poll wait, milliseconds. */
+    public static long POLL_TIMEOUT_MS = 30_000;
+    /** Pause after an error before trying again, milliseconds. */
+    public static long RETRY_PAUSE_MS = 5_000;
+
+    private final DeltaLink dLink;
+    private final Id dsRef;
+    private final Consumer<PatchLogInfo> action;
+    private volatile Version version;
+    private volatile boolean running = true;
+    private final Thread thread;
+
+    /** Create and start a subscriber. */
+    public static PatchLogSubscriber start(DeltaLink dLink, Id dsRef, Version version, Consumer<PatchLogInfo> action) {
+        PatchLogSubscriber subscriber = new PatchLogSubscriber(dLink, dsRef, version, action);
+        subscriber.thread.start();
+        return subscriber;
+    }
+
+    private PatchLogSubscriber(DeltaLink dLink, Id dsRef, Version version, Consumer<PatchLogInfo> action) {
+        this.dLink = Objects.requireNonNull(dLink, "dLink");
+        this.dsRef = Objects.requireNonNull(dsRef, "dsRef");
+        this.version = Objects.requireNonNull(version, "version");
+        this.action = Objects.requireNonNull(action, "action");
+        this.thread = threadFactoryDaemon.newThread(this::run);
+        this.thread.setName("PatchLogSubscriber-"+dsRef.toString());
+    }
+
+    private void run() {
+        while ( running ) {
+            try {
+                PatchLogInfo info = dLink.awaitChange(dsRef, version, POLL_TIMEOUT_MS);
+                if ( info == null || ! running )
+                    continue;
+                version = info.getMaxVersion();
+                action.accept(info);
+            } catch (RuntimeException ex) {
+                if ( ! running )
+                    break;
+                FmtLog.warn(LOG, "[%s] Subscriber: %s", dsRef, ex.getMessage());
+                Lib.sleep((int)RETRY_PAUSE_MS);
+            }
+        }
+    }
+
+    /** The latest version notified. */
+    public Version getVersion() {
+        return version;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stop notifications. The background thread exits when any outstanding wait finishes. */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+}
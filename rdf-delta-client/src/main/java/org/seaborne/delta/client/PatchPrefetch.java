@@ -0,0 +1,198 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.client;
+
+import static org.seaborne.delta.client.DeltaClientLib.threadFactoryDaemon;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.seaborne.delta.DeltaException;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
+import org.seaborne.delta.link.DeltaLink;
+import org.slf4j.Logger;
+
+/**
+ * Fetch the patches in a range of versions, in order, with the fetching running ahead
+ * of the caller.
+ * <p>
+ * Up to {@code window} patches are requested ahead of the one returned by {@link #next},
+ * by up to {@code fetchers} threads, so the network is busy while the caller applies a
+ * patch. Patches are returned in version order. With a window or fetchers of 1, or a
+ * single patch, patches are fetched on the calling thread when asked for.
+ * <p>
+ * Versions the caller already has (see {@code local}) are not fetched; the caller
+ * steps over them with {@link #skip}.
+ * <p>
+ * {@link #close} cancels any outstanding fetches.
+ */
+/*package*/ class PatchPrefetch implements AutoCloseable {
+
+    /** System property: number of patches fetched ahead during sync. */
+    public static final String pWindow   = "delta.sync.window";
+    /** System property: number of concurrent patch fetches during sync. */
+    public static final String pFetchers = "delta.sync.fetchers";
+
+    /** Number of patches fetched ahead of the one being applied. */
+    public static int WINDOW    = Integer.getInteger(pWindow, 8);
+    /** Number of concurrent patch fetches. */
+    public static int FETCHERS  = Integer.getInteger(pFetchers, 4);
+
+    private final DeltaLink dLink;
+    private final Id dsRef;
+    private final long maxVersion;
+    private final int window;
+    private final LongPredicate local;
+    private final ExecutorService executor;
+    private final Deque<Future<RDFPatch>> inFlight;
+
+    private long nextToSubmit;
+    private long nextToReturn;
+
+    // Statistics.
+    private final AtomicLong fetchNanos = new AtomicLong(0);
+    private final AtomicLong fetchCount = new AtomicLong(0);
+    private long waitNanos = 0;
+    private final long startNanos = System.nanoTime();
+
+    /*package*/ PatchPrefetch(DeltaLink dLink, Id dsRef, long minVersion, long maxVersion) {
+        this(dLink, dsRef, minVersion, maxVersion, v->false);
+    }
+
+    /*package*/ PatchPrefetch(DeltaLink dLink, Id dsRef, long minVersion, long maxVersion, LongPredicate local) {
+        this(dLink, dsRef, minVersion, maxVersion, local, WINDOW, FETCHERS);
+    }
+
+    /*package*/ PatchPrefetch(DeltaLink dLink, Id dsRef, long minVersion, long maxVersion, LongPredicate local, int window, int fetchers) {
+        this.dLink = dLink;
+        this.local = local;
+        this.dsRef = dsRef;
+        this.maxVersion = maxVersion;
+        this.nextToSubmit = minVersion;
+        this.nextToReturn = minVersion;
+        long count = maxVersion - minVersion + 1;
+        boolean pipeline = window > 1 && fetchers > 1 && count > 1;
+        this.window = pipeline ? window : 0;
+        if ( pipeline ) {
+            this.executor = Executors.newFixedThreadPool((int)Math.min(fetchers, count), threadFactoryDaemon);
+            this.inFlight = new ArrayDeque<>(window);
+            fill();
+        } else {
+            this.executor = null;
+            this.inFlight = null;
+        }
+    }
+
+    /** Keep the window full. */
+    private void fill() {
+        while ( inFlight.size() < window && nextToSubmit <= maxVersion ) {
+            long v = nextToSubmit++;
+            if ( local.test(v) ) {
+                inFlight.add(CompletableFuture.completedFuture(null));
+                continue;
+            }
+            Version ver = Version.create(v);
+            inFlight.add(executor.submit(()->fetch(ver)));
+        }
+    }
+
+    private RDFPatch fetch(Version version) {
+        long t = System.nanoTime();
+        try {
+            return dLink.fetch(dsRef, version);
+        } finally {
+            fetchNanos.addAndGet(System.nanoTime() - t);
+            fetchCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the patch for the next version, or null if the server does not have it.
+     * Exceptions from fetching the patch are passed on.
+     */
+    /*package*/ RDFPatch next() {
+        if ( nextToReturn > maxVersion )
+            throw new NoSuchElementException("PatchPrefetch: no more patches");
+        long ver = nextToReturn++;
+        if ( executor == null )
+            return fetch(Version.create(ver));
+        Future<RDFPatch> future = inFlight.remove();
+        fill();
+        long t = System.nanoTime();
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if ( cause instanceof RuntimeException )
+                throw (RuntimeException)cause;
+            if ( cause instanceof Error )
+                throw (Error)cause;
+            throw new DeltaException("Failed to fetch patch: version="+ver, cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DeltaException("Interrupted while fetching patch: version="+ver);
+        } finally {
+            waitNanos += System.nanoTime() - t;
+        }
+    }
+
+    /** Step over the next version, which the caller already has, without fetching it. */
+    /*package*/ void skip() {
+        if ( nextToReturn > maxVersion )
+            throw new NoSuchElementException("PatchPrefetch: no more patches");
+        nextToReturn++;
+        if ( executor == null )
+            return;
+        inFlight.remove();
+        fill();
+    }
+
+    /** Log fetch and apply throughput, given the time spent applying patches. */
+    /*package*/ void report(Logger log, int applied, long applyNanos) {
+        long fetched = fetchCount.get();
+        if ( fetched <= 1 )
+            return;
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        double fetchSec = fetchNanos.get() / 1e9;
+        double applySec = applyNanos / 1e9;
+        FmtLog.info(log, "[%s] Play: %d patches in %.3fs : fetch %.1f patches/s (%.3fs, waited %.3fs), apply %.1f patches/s (%.3fs)",
+                    dsRef, applied, elapsed,
+                    rate(fetched, fetchSec), fetchSec, waitNanos / 1e9,
+                    rate(applied, applySec), applySec);
+    }
+
+    private static double rate(long count, double seconds) {
+        return seconds <= 0 ? 0 : count / seconds;
+    }
+
+    @Override
+    public void close() {
+        if ( executor == null )
+            return;
+        inFlight.forEach(f->f.cancel(true));
+        inFlight.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.client;
+
+import static org.seaborne.delta.client.DeltaClientLib.threadFactoryDaemon;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.seaborne.delta.Delta;
+import org.seaborne.delta.DeltaException;
+import org.seaborne.delta.DeltaFileException;
+import org.seaborne.delta.DeltaHttpException;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
+import org.slf4j.Logger;
+
+/**
+ * Write-behind: patches committed locally are queued and sent to the patch log, in
+ * order, by a background task. Failures to reach the server are retried; a patch the
+ * server rejects stops the shipping and releases the patch log lock. The queue is then
+ * kept until it is discarded (see {@link #discard}).
+ * <p>
+ * The queue is kept as one file per patch in a directory of the zone, so patches
+ * committed but not yet sent survive a restart; without a directory the queue is
+ * only in memory, including the changes of a transaction large enough to have been
+ * spilled to disk.
+ * <p>
+ * The shipper keeps track of whether a write transaction is active so that the
+ * {@code onIdle} action, which releases the patch log lock, is only called when
+ * there is nothing left to send and no transaction that will add to the queue.
+ * It is called outside the shipper's monitor because it makes a call to the server.
+ */
+/*package*/ class PatchShipper {
+
+    private static Logger LOG = Delta.DELTA_CLIENT;
+
+    private static final String PREFIX = "patch-";
+    private static final int RETRY_INITIAL_MS = 100;
+    private static final int RETRY_MAX_MS = 10_000;
+
+    // Shipping tasks; each shipper has at most one task running at a time.
+    private static final ExecutorService executor = Executors.newCachedThreadPool(threadFactoryDaemon);
+
+    private final String label;
+    private final Path directory;
+    private final Consumer<RDFPatch> sender;
+    private final Supplier<Version> shippedVersion;
+    private final Runnable onIdle;
+
+    // Queue entries, in order.
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private long nextSeq = 0;
+    // Futures waiting for a queue position to be shipped.
+    private final List<Waiter> waiters = new ArrayList<>();
+    private boolean shipping = false;
+    private boolean writing = false;
+    private boolean stopped = false;
+    private RuntimeException failure = null;
+    // Held while deciding to call, and calling, onIdle so that a write transaction does
+    // not start part way through releasing the lock. Taken before the shipper monitor.
+    private final Object idleLock = new Object();
+
+    private static class Entry {
+        final long seq;
+        final Id id;
+        final RDFPatch patch;   // Null if on disk.
+        final Path file;        // Null if in memory.
+        Entry(long seq, Id id, RDFPatch patch, Path file) {
+            this.seq = seq; this.id = id; this.patch = patch; this.file = file;
+        }
+    }
+
+    private static class Waiter {
+        final long seq;
+        final CompletableFuture<Version> future;
+        Waiter(long seq, CompletableFuture<Version> future) { this.seq = seq; this.future = future; }
+    }
+
+    /**
+     * Create a shipper. Patches already in the directory are queued, except for those
+     * up to and including {@code lastShipped}, which were sent before a restart but not
+     * yet removed.
+     */
+    /*package*/ PatchShipper(String label, Path directory, Id lastShipped,
+                             Consumer<RDFPatch> sender, Supplier<Version> shippedVersion, Runnable onIdle) {
+        this.label = label;
+        this.directory = directory;
+        this.sender = sender;
+        this.shippedVersion = shippedVersion;
+        this.onIdle = onIdle;
+        if ( directory != null )
+            recover(lastShipped);
+    }
+
+    private void recover(Id lastShipped) {
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try ( Stream<Path> s = Files.list(directory) ) {
+                files = s.filter(p->p.getFileName().toString().startsWith(PREFIX)).sorted().collect(Collectors.toList());
+            }
+            for ( Path p : files ) {
+                long seq = Long.parseLong(p.getFileName().toString().substring(PREFIX.length()));
+                Id id = Id.fromNode(read(p).getId());
+                queue.add(new Entry(seq, id, null, p));
+                nextSeq = seq+1;
+            }
+        } catch (IOException | NumberFormatException ex) {
+            throw new DeltaFileException("Failed to read the patch queue: "+directory, ex);
+        }
+        if ( lastShipped != null && queue.stream().anyMatch(e->lastShipped.equals(e.id)) ) {
+            Entry e;
+            do {
+                e = queue.remove();
+                delete(e);
+            } while ( ! lastShipped.equals(e.id) );
+        }
+        if ( ! queue.isEmpty() )
+            FmtLog.info(LOG, "[%s] %d queued patches to send", label, queue.size());
+    }
+
+    /** Start sending any patches queued from before a restart. */
+    /*package*/ synchronized void start() {
+        if ( ! queue.isEmpty() )
+            startShipping();
+    }
+
+    /** Stop sending patches. Queued patches are kept and sent when a shipper is next started. */
+    /*package*/ synchronized void stop() {
+        stopped = true;
+    }
+
+    /** A write transaction has started; the patch log lock is kept until it ends. */
+    /*package*/ void beginWrite() {
+        synchronized(idleLock) {
+            synchronized(this) {
+                writing = true;
+            }
+        }
+    }
+
+    /**
+     * A write transaction has ended, with a patch to send or (abort) without one.
+     * If shipping has failed, the patch is not queued: the lock is released and an
+     * exception thrown.
+     */
+    /*package*/ void endWrite(RDFPatch patch) {
+        RuntimeException failed;
+        synchronized(this) {
+            writing = false;
+            failed = failure;
+            if ( patch != null && failed == null ) {
+                enqueue(patch);
+                return;
+            }
+        }
+        idle();
+        if ( patch != null )
+            throw new DeltaException("["+label+"] Patch shipping has failed: "+failed.getMessage());
+    }
+
+    /** Call onIdle if there is nothing to send, or shipping has failed, and no write transaction. */
+    private void idle() {
+        synchronized(idleLock) {
+            synchronized(this) {
+                if ( writing || shipping )
+                    return;
+                if ( failure == null && ! queue.isEmpty() )
+                    return;
+            }
+            onIdle.run();
+        }
+    }
+
+    /**
+     * Discard the queued patches, including a rejected one, and clear any failure so
+     * that patches can be queued again. Futures from {@link #flushed} for the discarded
+     * patches complete exceptionally. The caller must make the local dataset agree
+     * with the patch log again. Returns the number of patches discarded.
+     */
+    /*package*/ synchronized int discard() {
+        int n = queue.size();
+        queue.forEach(PatchShipper::delete);
+        queue.clear();
+        DeltaException ex = new DeltaException("["+label+"] Queued patches discarded");
+        waiters.forEach(w->w.future.completeExceptionally(ex));
+        waiters.clear();
+        failure = null;
+        if ( n > 0 )
+            FmtLog.warn(LOG, "[%s] %d queued patches discarded", label, n);
+        return n;
+    }
+
+    private void enqueue(RDFPatch patch) {
+        long seq = nextSeq++;
+        Id id = Id.fromNode(patch.getId());
+        if ( directory == null )
+            queue.add(new Entry(seq, id, inMemory(patch), null));
+        else {
+            Path file = directory.resolve(String.format("%s%016d", PREFIX, seq));
+            write(file, patch);
+            queue.add(new Entry(seq, id, null, file));
+        }
+        if ( ! shipping && ! stopped )
+            startShipping();
+    }
+
+    /**
+     * A patch that stays valid after the transaction ends. The body of a large
+     * transaction is in a temporary file that is deleted when the transaction's changes
+     * are reset, so it is copied into memory.
+     */
+    private static RDFPatch inMemory(RDFPatch patch) {
+        if ( ! ( patch instanceof RDFChangesSpill.SpillPatch ) || ! ((RDFChangesSpill.SpillPatch)patch).isSpilled() )
+            return patch;
+        RDFChangesCollector collector = new RDFChangesCollector();
+        patch.apply(collector);
+        return collector.getRDFPatch();
+    }
+
+    /** The id of the last patch queued, or null if the queue is empty. */
+    /*package*/ synchronized Id lastQueued() {
+        return queue.isEmpty() ? null : queue.getLast().id;
+    }
+
+    /*package*/ synchronized int pending() {
+        return queue.size();
+    }
+
+    /**
+     * A future that completes, with the log version, when the patches queued so far
+     * have been sent. It completes exceptionally if shipping fails.
+     */
+    /*package*/ synchronized CompletableFuture<Version> flushed() {
+        if ( failure != null )
+            return CompletableFuture.failedFuture(failure);
+        if ( queue.isEmpty() )
+            return CompletableFuture.completedFuture(shippedVersion.get());
+        CompletableFuture<Version> future = new CompletableFuture<>();
+        waiters.add(new Waiter(queue.getLast().seq, future));
+        return future;
+    }
+
+    private void startShipping() {
+        shipping = true;
+        executor.submit(this::ship);
+    }
+
+    private void ship() {
+        int retryWait = RETRY_INITIAL_MS;
+        for (;;) {
+            Entry next = null;
+            synchronized(this) {
+                if ( stopped ) {
+                    shipping = false;
+                    return;
+                }
+                if ( queue.isEmpty() )
+                    shipping = false;
+                else
+                    next = queue.peek();
+            }
+            if ( next == null ) {
+                idle();
+                return;
+            }
+            Entry entry = next;
+            try {
+                RDFPatch patch = ( entry.patch != null ) ? entry.patch : read(entry.file);
+                sender.accept(patch);
+            } catch (RuntimeException ex) {
+                if ( isRejected(ex) ) {
+                    FmtLog.error(LOG, "[%s] Patch %s rejected: %s : shipping stopped until the queue is discarded", label, entry.id, ex.getMessage());
+                    synchronized(this) {
+                        if ( queue.peek() != entry )
+                            // Discarded while being sent.
+                            continue;
+                        failure = ex;
+                        shipping = false;
+                        waiters.forEach(w->w.future.completeExceptionally(ex));
+                        waiters.clear();
+                    }
+                    // Other writers can not use the log while this client holds the lock.
+                    idle();
+                    return;
+                }
+                FmtLog.warn(LOG, "[%s] Failed to send patch %s: %s : retry in %dms", label, entry.id, ex.getMessage(), retryWait);
+                Lib.sleep(retryWait);
+                retryWait = Math.min(2*retryWait, RETRY_MAX_MS);
+                continue;
+            }
+            retryWait = RETRY_INITIAL_MS;
+            synchronized(this) {
+                // The queue may have been discarded while the patch was being sent.
+                if ( queue.peek() != entry )
+                    continue;
+                queue.remove();
+                delete(entry);
+                Version version = shippedVersion.get();
+                waiters.removeIf(w->{
+                    if ( w.seq > entry.seq )
+                        return false;
+                    w.future.complete(version);
+                    return true;
+                });
+            }
+        }
+    }
+
+    // A request the server will never accept, as opposed to a server that can not be reached.
+    private static boolean isRejected(RuntimeException ex) {
+        if ( ex instanceof DeltaHttpException ) {
+            int sc = ((DeltaHttpException)ex).getStatusCode();
+            return sc >= 400 && sc < 500;
+        }
+        return false;
+    }
+
+    private static void write(Path file, RDFPatch patch) {
+        try ( FileOutputStream out = new FileOutputStream(file.toFile()) ) {
+            OutputStream bout = new BufferedOutputStream(out);
+            RDFPatchOps.write(bout, patch);
+            bout.flush();
+            // Durable before the transaction commits locally.
+            out.getFD().sync();
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    private static RDFPatch read(Path file) {
+        try ( InputStream in = Files.newInputStream(file) ) {
+            return RDFPatchOps.read(in);
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    private static void delete(Entry entry) {
+        if ( entry.file == null )
+            return;
+        try { Files.deleteIfExists(entry.file); }
+        catch (IOException ex) { FmtLog.warn(LOG, "Failed to delete %s", entry.file); }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.atlas.lib.Pair;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.changes.RDFChangesWrapper;
+import org.apache.jena.rdfpatch.system.RDFChangesSuppressEmpty;
+
+/**
+ * Reduce each transaction to its net effect before passing it on, in the manner of
+ * {@link RDFChangesSuppressEmpty}.
+ * <p>
+ * Within a transaction, only the last operation on a quad (add or delete), or on a
+ * prefix, is sent; earlier ones are dropped. The last operation alone gives the same
+ * final state whatever the state before the transaction, so no reference to the dataset
+ * is needed.
+ * <p>
+ * The quads of a transaction are kept in a hash map until the commit. If a transaction
+ * touches more than {@code limit} different quads, the net changes so far are sent and
+ * the rest of the transaction is passed on unchanged, so memory use is bounded.
+ */
+public class RDFChangesCompact extends RDFChangesWrapper {
+
+    /** System property: number of different quads in a transaction above which compaction stops. */
+    public static final String pLimit = "delta.client.compact_limit";
+
+    /** Number of different quads in a transaction above which compaction stops. */
+    public static int LIMIT = Integer.getInteger(pLimit, 100_000);
+
+    private final int limit;
+    // Quad -> true for add, false for delete. Insertion order is kept.
+    private final Map<QuadKey, Boolean> quads = new LinkedHashMap<>();
+    // (graph, prefix) -> URI for add, null for delete.
+    private final Map<Pair<Node, String>, String> prefixes = new LinkedHashMap<>();
+    private boolean inTxn = false;
+    private boolean passThrough = false;
+    private final AtomicLong removed = new AtomicLong(0);
+
+    public RDFChangesCompact(RDFChanges other) {
+        this(other, LIMIT);
+    }
+
+    public RDFChangesCompact(RDFChanges other, int limit) {
+        super(other);
+        this.limit = limit;
+    }
+
+    /** Number of operations dropped because a later operation in the same transaction superseded them. */
+    public long getRemovedCount() {
+        return removed.get();
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+        if ( ! compacting() ) {
+            super.add(g, s, p, o);
+            return;
+        }
+        record(new QuadKey(g, s, p, o), Boolean.TRUE);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+        if ( ! compacting() ) {
+            super.delete(g, s, p, o);
+            return;
+        }
+        record(new QuadKey(g, s, p, o), Boolean.FALSE);
+    }
+
+    @Override
+    public void addPrefix(Node gn, String prefix, String uriStr) {
+        if ( ! compacting() ) {
+            super.addPrefix(gn, prefix, uriStr);
+            return;
+        }
+        recordPrefix(Pair.create(gn, prefix), uriStr);
+    }
+
+    @Override
+    public void deletePrefix(Node gn, String prefix) {
+        if ( ! compacting() ) {
+            super.deletePrefix(gn, prefix);
+            return;
+        }
+        recordPrefix(Pair.create(gn, prefix), null);
+    }
+
+    @Override
+    public void txnBegin() {
+        super.txnBegin();
+        clear();
+        inTxn = true;
+    }
+
+    @Override
+    public void txnCommit() {
+        flush();
+        inTxn = false;
+        super.txnCommit();
+    }
+
+    @Override
+    public void txnAbort() {
+        clear();
+        inTxn = false;
+        super.txnAbort();
+    }
+
+    private boolean compacting() {
+        return inTxn && ! passThrough;
+    }
+
+    private void record(QuadKey quad, Boolean isAdd) {
+        if ( quads.remove(quad) != null )
+            removed.incrementAndGet();
+        // Re-insert so the order of last operations is kept.
+        quads.put(quad, isAdd);
+        if ( limit > 0 && quads.size() > limit ) {
+            flush();
+            passThrough = true;
+        }
+    }
+
+    private void recordPrefix(Pair<Node, String> key, String uriStr) {
+        if ( prefixes.containsKey(key) ) {
+            prefixes.remove(key);
+            removed.incrementAndGet();
+        }
+        prefixes.put(key, uriStr);
+    }
+
+    /** Send the net changes recorded so far. */
+    private void flush() {
+        RDFChanges other = get();
+        prefixes.forEach((key, uriStr) -> {
+            if ( uriStr == null )
+                other.deletePrefix(key.getLeft(), key.getRight());
+            else
+                other.addPrefix(key.getLeft(), key.getRight(), uriStr);
+        });
+        quads.forEach((quad, isAdd) -> {
+            if ( isAdd )
+                other.add(quad.g, quad.s, quad.p, quad.o);
+            else
+                other.delete(quad.g, quad.s, quad.p, quad.o);
+        });
+        prefixes.clear();
+        quads.clear();
+    }
+
+    private void clear() {
+        quads.clear();
+        prefixes.clear();
+        passThrough = false;
+    }
+
+    /** The key for a change; the graph may be null (a triple). */
+    private static final class QuadKey {
+        final Node g, s, p, o;
+        final int hash;
+
+        QuadKey(Node g, Node s, Node p, Node o) {
+            this.g = g;
+            this.s = s;
+            this.p = p;
+            this.o = o;
+            this.hash = Objects.hash(g, s, p, o);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if ( this == obj )
+                return true;
+            if ( !(obj instanceof QuadKey) )
+                return false;
+            QuadKey other = (QuadKey)obj;
+            return Objects.equals(g, other.g) && Objects.equals(s, other.s) && Objects.equals(p, other.p) && Objects.equals(o, other.o);
+        }
+    }
+}
@@ -20,20 +20,18 @@ package org.seaborne.delta.client;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.charset.StandardCharsets;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong ;
 import java.util.function.Supplier;
 
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse ;
-import org.apache.http.StatusLine ;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.jena.atlas.io.IO;
 import org.apache.jena.atlas.io.IndentedWriter ;
 import org.apache.jena.atlas.json.JSON;
 import org.apache.jena.atlas.json.JsonException;
@@ -41,8 +39,10 @@ import org.apache.jena.atlas.json.JsonObject;
 import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.graph.Node;
 import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.web.HttpSC;
 import org.seaborne.delta.*;
-import org.apache.jena.atlas.io.IOX ;
+import org.apache.jena.atlas.web.HttpException;
 import org.seaborne.delta.lib.JSONX;
 import org.apache.jena.rdfpatch.RDFPatchConst;
 import org.apache.jena.rdfpatch.text.RDFChangesWriterText;
@@ -53,7 +53,8 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
     // This should have control of text/binary.
 
     private static final Logger LOG = Delta.DELTA_HTTP_LOG;
-    private final CloseableHttpClient httpClient = HttpClients.createDefault();
+    // Shared, connection-reusing, transport.
+    private final HttpClient httpClient;
     private final ByteArrayOutputStream bytes ;
     // Count to match up begin-commit.
     private int txnDepth = 0 ;
@@ -62,7 +63,7 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
     private final String destLabel ;
     // Used to coordinate with reading patches in.
     private final Object syncObject;
-    private StatusLine statusLine       = null;
+    private int statusCode              = -1;
     private String response             = null;
     private Node patchId                = null;
     private Node previousId             = null;
@@ -91,11 +92,17 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
 
     /** Send changes to a supplied URL, with an action a specific action on any 401 and sync'ed on a specific object  */
     private RDFChangesHTTP(String label, Object syncObject, Supplier<String> urlSupplier, Runnable resetAction) {
-        this(label, syncObject, urlSupplier, resetAction, new ByteArrayOutputStream(100*1024));
+        this(label, syncObject, urlSupplier, resetAction, DeltaHttp.httpClient(), new ByteArrayOutputStream(100*1024));
     }
 
-    private RDFChangesHTTP(String label, Object syncObject, Supplier<String> urlSupplier, Runnable resetAction, ByteArrayOutputStream out) {
+    /** Send changes to a specific URL using the given {@link HttpClient}. */
+    /*package*/ RDFChangesHTTP(String label, String urlstr, HttpClient httpClient) {
+        this(label, null, ()->urlstr, null, httpClient, new ByteArrayOutputStream(100*1024));
+    }
+
+    private RDFChangesHTTP(String label, Object syncObject, Supplier<String> urlSupplier, Runnable resetAction, HttpClient httpClient, ByteArrayOutputStream out) {
         super(DeltaOps.tokenWriter(out));
+        this.httpClient = httpClient;
         this.syncObject = (syncObject!=null) ? syncObject : new Object();
         this.resetAction = resetAction;
         this.urlSupplier = urlSupplier;
@@ -195,6 +202,23 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
         }
     }
 
+    /**
+     * Send a patch in binary format, read from a stream and sent as a chunked upload,
+     * without collecting it in memory. The supplier is called for each attempt.
+     */
+    public void send(Node patchId, Node previousId, Supplier<InputStream> binaryPatch) {
+        synchronized(syncObject) {
+            this.patchId = patchId;
+            this.previousId = previousId;
+            try {
+                String idStr = idStr();
+                FmtLog.info(LOG, "Send patch %s (streamed) -> %s", idStr, destLabel);
+                post(idStr, DeltaConst.contentTypePatchBinary, ()->BodyPublishers.ofInputStream(binaryPatch));
+            }
+            finally { reset(); }
+        }
+    }
+
     /** Get the protocol response - may be null if the change was aborted.  */
     public String getResponse() {
         return response;
@@ -202,16 +226,16 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
 
     private static AtomicLong counter = new AtomicLong(0);
 
-    private void send$() {
+    private String idStr() {
         long number = counter.incrementAndGet();
+        if ( patchId != null )
+            return Id.str(patchId);
+        return Long.toString(number);
+    }
 
+    private void send$() {
         byte[] bytes = collected();
-        String idStr;
-
-        if ( patchId != null )
-            idStr = Id.str(patchId);
-        else
-            idStr = Long.toString(number);
+        String idStr = idStr();
         FmtLog.info(LOG, "Send patch %s (%d bytes) -> %s", idStr, bytes.length, destLabel);
 
         if ( false ) {
@@ -231,16 +255,23 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
             }
         }
 
+        post(idStr, DeltaConst.contentTypePatchText, ()->BodyPublishers.ofByteArray(bytes));
+    }
+
+    private void post(String idStr, String contentType, Supplier<BodyPublisher> body) {
         int attempts = 0 ;
         for(;;) {
-            HttpPost postRequest = new HttpPost(urlSupplier.get());
-            postRequest.setEntity(new ByteArrayEntity(bytes));
-
-            try(CloseableHttpResponse r = httpClient.execute(postRequest) ) {
+            HttpRequest postRequest = HttpRequest.newBuilder(URI.create(urlSupplier.get()))
+                    .header(HttpNames.hContentType, contentType)
+                    .POST(body.get())
+                    .build();
+            try {
+                HttpResponse<String> r = httpClient.send(postRequest, BodyHandlers.ofString(StandardCharsets.UTF_8));
                 attempts++;
-                statusLine = r.getStatusLine();
-                response = readResponse(r);
-                int sc = r.getStatusLine().getStatusCode();
+                statusCode = r.statusCode();
+                response = r.body();
+                int sc = statusCode;
+                String reason = HttpSC.getMessage(sc);
                 if ( sc >= 200 && sc <= 299 )
                     return ;
                 if ( sc >= 300 && sc <= 399 ) {
@@ -251,8 +282,8 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
                     // Is there a JSON error response?
                     if ( response != null ) {
                         // This includes being out of sync with the patch log due to a concurrent update.
-                        Header ct = r.getEntity().getContentType();
-                        if ( ct != null && WebContent.contentTypeJSON.equals(ct.getValue()) ) {
+                        Optional<String> ct = r.headers().firstValue(HttpNames.hContentType);
+                        if ( ct.isPresent() && ct.get().startsWith(WebContent.contentTypeJSON) ) {
                             JsonObject object;
                             try { object = JSON.parse(response); }
                             catch (JsonException ex) {
@@ -264,8 +295,8 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
                             JsonObject infoObj = object.getObj(DeltaConst.F_LOG_INFO);
                             if ( errStr == null || infoObj == null ) {
                                 // XXX
-                                FmtLog.warn(LOG, "Bad error from patch %s : HTTP bad request: %s", idStr, r.getStatusLine().getReasonPhrase());
-                                throw new DeltaBadPatchException(r.getStatusLine().getReasonPhrase());
+                                FmtLog.warn(LOG, "Bad error from patch %s : HTTP bad request: %s", idStr, reason);
+                                throw new DeltaBadPatchException(reason);
                             }
                             PatchLogInfo patchLogInfo = PatchLogInfo.fromJson(infoObj);
                             String prevStr = (previousId == null)?"none": Id.str(previousId);
@@ -276,31 +307,26 @@ public class RDFChangesHTTP extends RDFChangesWriterText {
                     }
 
                     // Bad request - not a delta error body.
-                    FmtLog.warn(LOG, "Patch %s : HTTP bad request: %s", idStr, r.getStatusLine().getReasonPhrase());
-                    throw new DeltaBadPatchException(r.getStatusLine().getReasonPhrase());
+                    FmtLog.warn(LOG, "Patch %s : HTTP bad request: %s", idStr, reason);
+                    throw new DeltaBadPatchException(reason);
                 }
                 if ( sc == 401 && attempts == 1 && resetAction != null ) {
                     resetAction.run();
                     continue;
                 }
                 if ( sc >= 400 && sc <= 499 )
-                    throw new DeltaHttpException(sc, r.getStatusLine().getReasonPhrase());
+                    throw new DeltaHttpException(sc, reason);
                 if ( sc >= 500 )
-                    throw new DeltaHttpException(sc, r.getStatusLine().getReasonPhrase());
+                    throw new DeltaHttpException(sc, reason);
                 break;
             }
             catch (DeltaHttpException ex) { throw ex; }
-            catch (IOException e) { throw IOX.exception(e); }
-        }
-    }
-
-    private static String readResponse(HttpResponse resp) {
-        HttpEntity e = resp.getEntity();
-        if ( e != null ) {
-            try ( InputStream ins = e.getContent() ) {
-                return IO.readWholeFileAsUTF8(ins);
-            } catch (IOException ex) { ex.printStackTrace(); }
+            // Communications failure: no HTTP status code.
+            catch (IOException e) { throw new HttpException(e); }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DeltaException("Interrupted: send patch "+idStr);
+            }
         }
-        return null;
     }
 }
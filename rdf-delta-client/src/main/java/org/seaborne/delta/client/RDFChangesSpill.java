@@ -0,0 +1,264 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.client;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdfpatch.PatchHeader;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.binary.RDFChangesWriterBinary;
+import org.apache.jena.rdfpatch.binary.RDFPatchReaderBinary;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.rdfpatch.changes.RDFChangesWrapper;
+import org.apache.jena.riot.thrift.TRDF;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * Collect changes, like {@link RDFChangesCollector}, but once more than
+ * {@code threshold} changes have been recorded, move them to a temporary file, in
+ * binary patch format, and record further changes there. The header is always kept in
+ * memory.
+ * <p>
+ * The patch from {@link #getRDFPatch} reads the file each time it is applied, so it is
+ * only valid until {@link #reset}, which deletes the file.
+ */
+public class RDFChangesSpill implements RDFChanges {
+
+    /** System property: number of changes in a transaction above which they are written to disk. */
+    public static final String pThreshold = "delta.client.spill_threshold";
+
+    /** Number of changes in a transaction above which they are written to disk. Zero or less means never. */
+    public static int THRESHOLD = Integer.getInteger(pThreshold, 100_000);
+
+    private final Path spillDir;
+    private final int threshold;
+    private final Map<String, Node> header = new LinkedHashMap<>();
+    private RDFChangesCollector memory = new RDFChangesCollector();
+    private long count = 0;
+    // Set when spilled.
+    private Path file = null;
+    private OutputStream output = null;
+    private TProtocol protocol = null;
+    private RDFChanges writer = null;
+
+    /** Spill to a temporary file in {@code spillDir}, or the system temporary directory if null. */
+    public RDFChangesSpill(Path spillDir) {
+        this(spillDir, THRESHOLD);
+    }
+
+    public RDFChangesSpill(Path spillDir, int threshold) {
+        this.spillDir = spillDir;
+        this.threshold = threshold;
+    }
+
+    /** Where changes are currently going. */
+    private RDFChanges body() {
+        if ( writer != null )
+            return writer;
+        if ( threshold > 0 && count > threshold )
+            spill();
+        return ( writer != null ) ? writer : memory;
+    }
+
+    private void spill() {
+        try {
+            file = ( spillDir == null )
+                ? Files.createTempFile("patch-", ".rdfp.bin")
+                : Files.createTempFile(spillDir, "patch-", ".rdfp.bin");
+            output = new BufferedOutputStream(Files.newOutputStream(file), 128*1024);
+            protocol = TRDF.protocol(output);
+            writer = new RDFChangesWriterBinary(protocol);
+            memory.getRDFPatch().apply(writer);
+            memory = null;
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** Whether the changes have been moved to disk. */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /** Number of changes recorded, not counting the header. */
+    public long size() {
+        return count;
+    }
+
+    @Override
+    public void header(String field, Node value) {
+        header.put(field, value);
+    }
+
+    /** Get a header value. */
+    protected Node header(String field) {
+        return header.get(field);
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+        count++;
+        body().add(g, s, p, o);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+        count++;
+        body().delete(g, s, p, o);
+    }
+
+    @Override
+    public void addPrefix(Node gn, String prefix, String uriStr) {
+        count++;
+        body().addPrefix(gn, prefix, uriStr);
+    }
+
+    @Override
+    public void deletePrefix(Node gn, String prefix) {
+        count++;
+        body().deletePrefix(gn, prefix);
+    }
+
+    @Override
+    public void txnBegin() {
+        body().txnBegin();
+    }
+
+    @Override
+    public void txnCommit() {
+        body().txnCommit();
+    }
+
+    @Override
+    public void txnAbort() {
+        body().txnAbort();
+    }
+
+    @Override
+    public void segment() {
+        body().segment();
+    }
+
+    @Override public void start() {}
+    @Override public void finish() {}
+
+    /** The changes recorded so far, as a patch. */
+    public RDFPatch getRDFPatch() {
+        PatchHeader patchHeader = new PatchHeader(new LinkedHashMap<>(header));
+        if ( writer == null ) {
+            RDFPatch body = memory.getRDFPatch();
+            return new SpillPatch(patchHeader, body, null);
+        }
+        TRDF.flush(protocol);
+        try { output.flush(); }
+        catch (IOException ex) { throw IOX.exception(ex); }
+        return new SpillPatch(patchHeader, null, file);
+    }
+
+    /** Forget all changes and delete any temporary file. */
+    public void reset() {
+        header.clear();
+        count = 0;
+        memory = new RDFChangesCollector();
+        if ( output != null )
+            IO.close(output);
+        if ( file != null ) {
+            try { Files.deleteIfExists(file); } catch (IOException ex) { /* Best effort. */ }
+        }
+        file = null;
+        output = null;
+        protocol = null;
+        writer = null;
+    }
+
+    /** A patch of the header and a body held in memory or in a file. */
+    /*package*/ static class SpillPatch implements RDFPatch {
+        private final PatchHeader header;
+        private final RDFPatch body;
+        private final Path file;
+
+        private SpillPatch(PatchHeader header, RDFPatch body, Path file) {
+            this.header = header;
+            this.body = body;
+            this.file = file;
+        }
+
+        /** Whether the body of the patch is on disk. */
+        /*package*/ boolean isSpilled() {
+            return file != null;
+        }
+
+        @Override
+        public PatchHeader header() {
+            return header;
+        }
+
+        @Override
+        public void apply(RDFChanges changes) {
+            header.apply(changes);
+            if ( body != null ) {
+                body.apply(changes);
+                return;
+            }
+            // The reader calls start() and finish(), which would, for example, clear
+            // the header already given to an RDFChangesCollector.
+            RDFChanges bodyChanges = new RDFChangesWrapper(changes) {
+                @Override public void start()  {}
+                @Override public void finish() {}
+            };
+            try ( InputStream in = new BufferedInputStream(Files.newInputStream(file), 128*1024) ) {
+                RDFPatchReaderBinary.read(in, bodyChanges);
+            } catch (IOException ex) {
+                throw IOX.exception(ex);
+            }
+        }
+
+        /**
+         * Open the patch, header and body, in binary format. The body is read from the
+         * file as the stream is consumed. The caller must close the stream.
+         */
+        /*package*/ InputStream openBinary() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            RDFChangesWriterBinary.writeBinary(bytes, header::apply);
+            if ( file == null ) {
+                RDFChangesWriterBinary.writeBinary(bytes, body::apply);
+                return new ByteArrayInputStream(bytes.toByteArray());
+            }
+            try {
+                InputStream bodyBytes = new BufferedInputStream(Files.newInputStream(file), 128*1024);
+                return new SequenceInputStream(new ByteArrayInputStream(bytes.toByteArray()), bodyBytes);
+            } catch (IOException ex) {
+                throw IOX.exception(ex);
+            }
+        }
+
+        @Override
+        public boolean repeatable() {
+            return true;
+        }
+    }
+}
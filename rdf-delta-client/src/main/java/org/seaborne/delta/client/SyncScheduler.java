@@ -0,0 +1,183 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.client;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.atlas.logging.FmtLog;
+import org.seaborne.delta.Delta;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.PatchLogInfo;
+import org.seaborne.delta.link.DeltaLink;
+import org.slf4j.Logger;
+
+/**
+ * Background synchronization for all {@link DeltaConnection DeltaConnections} in the JVM.
+ * <p>
+ * At each poll, the {@link PatchLogInfo} of all the registered connections on a
+ * {@link DeltaLink} is fetched in one request ({@link DeltaLink#getPatchLogInfo(List)}).
+ * Connections that are behind are synchronized on a small, shared pool of threads, the
+ * connection furthest behind first.
+ */
+public class SyncScheduler {
+    private static final Logger LOG = Delta.DELTA_CLIENT;
+
+    /** System property: seconds between polls of the patch log servers. */
+    public static final String pInterval = "delta.sync.interval";
+
+    /** System property: number of threads applying patches. */
+    public static final String pThreads = "delta.sync.threads";
+
+    /** Seconds between polls of the patch log servers. */
+    public static int INTERVAL = Integer.getInteger(pInterval, 5*60);
+
+    /** Number of threads applying patches. */
+    public static int THREADS = Integer.getInteger(pThreads, 2);
+
+    private static volatile SyncScheduler system = null;
+
+    /** The JVM-wide scheduler, created on first use. */
+    public static SyncScheduler get() {
+        if ( system == null ) {
+            synchronized(SyncScheduler.class) {
+                if ( system == null )
+                    system = new SyncScheduler(INTERVAL*1000L, THREADS);
+            }
+        }
+        return system;
+    }
+
+    // Insertion ordered so a poll visits connections in registration order.
+    private final Set<DeltaConnection> connections = Collections.synchronizedSet(new LinkedHashSet<>());
+    // Connections with a sync waiting to run.
+    private final Set<DeltaConnection> queued = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService poller;
+    private final ThreadPoolExecutor workers;
+    // Tie breaker: equal lag, first come first served.
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    public SyncScheduler(long intervalMillis, int threads) {
+        this.poller = Executors.newSingleThreadScheduledExecutor(DeltaClientLib.threadFactoryDaemon);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                              new PriorityBlockingQueue<>(), DeltaClientLib.threadFactoryDaemon);
+        if ( intervalMillis > 0 )
+            poller.scheduleWithFixedDelay(this::poll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Add a connection, and sync it soon. */
+    public void register(DeltaConnection dConn) {
+        connections.add(dConn);
+        schedule(dConn, null, Long.MAX_VALUE);
+    }
+
+    /** Remove a connection. A sync already running is not interrupted. */
+    public void unregister(DeltaConnection dConn) {
+        connections.remove(dConn);
+    }
+
+    /** Number of connections registered. */
+    public int size() {
+        return connections.size();
+    }
+
+    /** Poll the patch log servers now, and schedule any syncs needed. */
+    public void pollNow() {
+        poller.execute(this::poll);
+    }
+
+    public void shutdown() {
+        poller.shutdownNow();
+        workers.shutdownNow();
+        connections.clear();
+        queued.clear();
+    }
+
+    private void poll() {
+        Map<DeltaLink, List<DeltaConnection>> byLink = new LinkedHashMap<>();
+        synchronized(connections) {
+            connections.forEach(dConn->byLink.computeIfAbsent(dConn.getLink(), k->new ArrayList<>()).add(dConn));
+        }
+        byLink.forEach(this::poll);
+    }
+
+    private void poll(DeltaLink dLink, List<DeltaConnection> dConns) {
+        List<Id> dsRefs = new ArrayList<>(dConns.size());
+        dConns.forEach(dConn->dsRefs.add(dConn.getDataSourceId()));
+        List<PatchLogInfo> infos;
+        try {
+            infos = dLink.getPatchLogInfo(dsRefs);
+        } catch (RuntimeException ex) {
+            FmtLog.warn(LOG, "Sync poll failed: %s", ex.getMessage());
+            return;
+        }
+        for ( int i = 0 ; i < dConns.size() ; i++ ) {
+            DeltaConnection dConn = dConns.get(i);
+            PatchLogInfo info = infos.get(i);
+            if ( info == null || ! dConn.isValid() )
+                continue;
+            long lag = info.getMaxVersion().value() - dConn.getLocalVersion().value();
+            if ( lag > 0 )
+                schedule(dConn, info, lag);
+        }
+    }
+
+    private void schedule(DeltaConnection dConn, PatchLogInfo info, long lag) {
+        if ( ! queued.add(dConn) )
+            return;
+        try {
+            workers.execute(new SyncTask(dConn, info, lag, sequence.getAndIncrement()));
+        } catch (RejectedExecutionException ex) {
+            queued.remove(dConn);
+        }
+    }
+
+    private class SyncTask implements Runnable, Comparable<SyncTask> {
+        private final DeltaConnection dConn;
+        private final PatchLogInfo info;
+        private final long lag;
+        private final long seq;
+
+        SyncTask(DeltaConnection dConn, PatchLogInfo info, long lag, long seq) {
+            this.dConn = dConn;
+            this.info = info;
+            this.lag = lag;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            queued.remove(dConn);
+            if ( ! connections.contains(dConn) || ! dConn.isValid() )
+                return;
+            if ( info == null )
+                dConn.trySync();
+            else
+                dConn.trySync(info);
+        }
+
+        @Override
+        public int compareTo(SyncTask other) {
+            // Largest lag first.
+            int x = Long.compare(other.lag, lag);
+            return ( x != 0 ) ? x : Long.compare(seq, other.seq);
+        }
+    }
+}
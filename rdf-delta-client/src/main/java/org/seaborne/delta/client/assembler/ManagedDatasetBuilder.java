@@ -40,6 +40,7 @@ public class ManagedDatasetBuilder {
     private Zone zone;
     private LocalStorageType storageType;
     private DatasetGraph externalDataset;
+    private Boolean lockMode;
 
     public ManagedDatasetBuilder logName(String logName) {
         this.logName = logName;
@@ -71,6 +72,12 @@ public class ManagedDatasetBuilder {
         return this;
     }
 
+    /** Whether write transactions take the patch log lock; see {@link DeltaConnection#setLockMode}. */
+    public ManagedDatasetBuilder lockMode(boolean lockMode) {
+        this.lockMode = lockMode;
+        return this;
+    }
+
     public DatasetGraph build() {
         if ( zone == null )         throw new DeltaConfigException("zone not set");
         if ( deltaLink == null )    throw new DeltaConfigException("deltaLink not set");
@@ -113,6 +120,8 @@ public class ManagedDatasetBuilder {
         }
 
         DeltaConnection deltaConnection = deltaClient.getLocal(dsRef);
+        if ( lockMode != null )
+            deltaConnection.setLockMode(lockMode);
         DatasetGraph dsg = deltaConnection.getDatasetGraph();
         // Put state into dsg Context "for the record".
         Context cxt = dsg.getContext();
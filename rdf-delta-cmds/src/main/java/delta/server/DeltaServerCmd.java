@@ -80,6 +80,13 @@ public class DeltaServerCmd {
 
     private static ArgDecl argJetty             = new ArgDecl(true, "jetty");
 
+    private static ArgDecl argThreads           = new ArgDecl(true, "threads", "threadsMax", "threadsmax");
+    private static ArgDecl argThreadsMin        = new ArgDecl(true, "threadsMin", "threadsmin");
+    private static ArgDecl argThreadsQueue      = new ArgDecl(true, "threadsQueue", "threadsqueue");
+    private static ArgDecl argThreadsIdle       = new ArgDecl(true, "threadsIdle", "threadsidle");
+    private static ArgDecl argVirtualThreads    = new ArgDecl(false, "virtualThreads", "virtualthreads");
+    private static ArgDecl argHttp2             = new ArgDecl(false, "http2");
+
 //    private static ArgDecl argProvider = new ArgDecl(true, "provider");
 //    private static ArgDecl argConf = new ArgDecl(true, "conf", "config");
 
@@ -157,6 +164,13 @@ public class DeltaServerCmd {
         cla.add(argPort);
         cla.add(argJetty);
 
+        cla.add(argThreads);
+        cla.add(argThreadsMin);
+        cla.add(argThreadsQueue);
+        cla.add(argThreadsIdle);
+        cla.add(argVirtualThreads);
+        cla.add(argHttp2);
+
         cla.add(argBase);
         cla.add(argFile);
         cla.add(argRocks);
@@ -187,6 +201,13 @@ public class DeltaServerCmd {
             String msg = StrUtils.strjoinNL
                 ("        --port              Port number for the patch server."
                 ,"        --jetty=FILE        File name of a jetty.xml configuration file."
+                ,"Request threads (not used with --jetty):"
+                ,"        --threads=N         Maximum number of request threads (default 50)"
+                ,"        --threadsMin=N      Minimum number of request threads (default 4)"
+                ,"        --threadsQueue=N    Maximum number of queued requests, N > 0 (default unbounded)"
+                ,"        --threadsIdle=MS    Idle timeout for request threads, in milliseconds"
+                ,"        --virtualThreads    Run requests on virtual threads, if the JVM supports them"
+                ,"        --http2             Accept HTTP/2 cleartext (h2c) as well as HTTP/1.1"
                 ,"Local database patch server:"
                 ,"        --store=DIR         File system directory"
                 ,"        --base=DIR          File system directory"
@@ -277,6 +298,14 @@ public class DeltaServerCmd {
                 cmdLineError("Port %d is in use",port);
             serverConfig.serverPort = port;
         }
+        serverConfig.threadsMax         = intArg(cla, argThreads);
+        serverConfig.threadsMin         = intArg(cla, argThreadsMin);
+        serverConfig.threadsQueue       = intArg(cla, argThreadsQueue);
+        serverConfig.threadsIdleTimeout = intArg(cla, argThreadsIdle);
+        serverConfig.virtualThreads     = cla.contains(argVirtualThreads);
+        serverConfig.http2              = cla.contains(argHttp2);
+        if ( serverConfig.jettyConf != null && ( serverConfig.threadsMax != null || serverConfig.virtualThreads ) )
+            cmdLineWarning("Thread settings are ignored when a Jetty configuration file is used");
 
         // Providers
         switch(provider) {
@@ -446,6 +475,19 @@ public class DeltaServerCmd {
         }
     }
 
+    /** Integer argument, or null if not present */
+    private static Integer intArg(CmdLineArgs cla, ArgDecl argDecl) {
+        String str = cla.getValue(argDecl);
+        if ( str == null )
+            return null;
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException ex) {
+            cmdLineError("Failed to parse --%s: %s", argDecl.getKeyName(), str);
+            return null;
+        }
+    }
+
     /** Choose a port number or return null */
     private static Integer chooseServerPort(CmdLineArgs cla) {
         // The port chosen from this ordered list:
@@ -21,12 +21,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Objects;
 
 import org.apache.jena.atlas.json.JSON;
 import org.apache.jena.atlas.json.JsonObject;
 import org.apache.jena.atlas.io.IOX;
 import org.seaborne.delta.lib.JSONX;
 import org.seaborne.delta.server.Provider;
+import org.seaborne.delta.server.http.ThreadPoolConfig;
 import org.seaborne.delta.server.http.ZkMode;
 
 /**
@@ -39,6 +41,16 @@ public class DeltaServerConfig {
     public Integer serverPort = null;
     public String jettyConf   = null;
 
+    // Request thread pool. Not used with a Jetty configuration file.
+    // null means the default.
+    public Integer threadsMax         = null;
+    public Integer threadsMin         = null;
+    public Integer threadsQueue       = null;
+    public Integer threadsIdleTimeout = null;
+    public boolean virtualThreads     = false;
+    // Accept HTTP/2 cleartext (h2c) as well as HTTP/1.1.
+    public boolean http2              = false;
+
     // Provider. Assumes necessary classes are on the classpath.
     public Provider provider = Provider.UNSET;
 
@@ -70,6 +82,13 @@ public class DeltaServerConfig {
 
     private static String fPort               = "port";
     private static String fJetty              = "jetty";
+    // Thread pool
+    private static String fThreadsMax         = "threads.max";
+    private static String fThreadsMin         = "threads.min";
+    private static String fThreadsQueue       = "threads.queue";
+    private static String fThreadsIdle        = "threads.idleTimeout";
+    private static String fThreadsVirtual     = "threads.virtual";
+    private static String fHttp2              = "http2";
 
     // The Zookeeper provider
     private static String fZkConnectionString = "zk.connect";
@@ -124,6 +143,20 @@ public class DeltaServerConfig {
         if ( obj.hasKey(fJetty) )
             conf.jettyConf = JSONX.getStrOrNull(obj, fJetty);
 
+        // Request thread pool.
+        if ( obj.hasKey(fThreadsMax) )
+            conf.threadsMax = JSONX.getInt(obj, fThreadsMax, -1);
+        if ( obj.hasKey(fThreadsMin) )
+            conf.threadsMin = JSONX.getInt(obj, fThreadsMin, -1);
+        if ( obj.hasKey(fThreadsQueue) )
+            conf.threadsQueue = JSONX.getInt(obj, fThreadsQueue, -1);
+        if ( obj.hasKey(fThreadsIdle) )
+            conf.threadsIdleTimeout = JSONX.getInt(obj, fThreadsIdle, -1);
+        if ( obj.hasKey(fThreadsVirtual) )
+            conf.virtualThreads = obj.get(fThreadsVirtual).isBoolean() && obj.get(fThreadsVirtual).getAsBoolean().value();
+        if ( obj.hasKey(fHttp2) )
+            conf.http2 = obj.get(fHttp2).isBoolean() && obj.get(fHttp2).getAsBoolean().value();
+
         // Zookeeper
         if ( obj.hasKey(fZkConnectionString) )
             conf.zkConnectionString = JSONX.getStrOrNull(obj, fZkConnectionString);
@@ -179,6 +212,24 @@ public class DeltaServerConfig {
                 if ( jettyConf != null )
                     b.pair(fJetty, jettyConf);
 
+                if ( threadsMax != null )
+                    b.pair(fThreadsMax, threadsMax);
+
+                if ( threadsMin != null )
+                    b.pair(fThreadsMin, threadsMin);
+
+                if ( threadsQueue != null )
+                    b.pair(fThreadsQueue, threadsQueue);
+
+                if ( threadsIdleTimeout != null )
+                    b.pair(fThreadsIdle, threadsIdleTimeout);
+
+                if ( virtualThreads )
+                    b.pair(fThreadsVirtual, virtualThreads);
+
+                if ( http2 )
+                    b.pair(fHttp2, http2);
+
                 if ( zkConnectionString != null )
                     b.pair(fZkConnectionString, zkConnectionString);
 
@@ -214,6 +265,23 @@ public class DeltaServerConfig {
             });
     }
 
+    /** The request thread pool settings, using defaults for unset values. */
+    public ThreadPoolConfig threadPoolConfig() {
+        ThreadPoolConfig.Builder builder = ThreadPoolConfig.create();
+        if ( threadsMax != null )
+            builder.maxThreads(threadsMax);
+        if ( threadsMin != null )
+            builder.minThreads(threadsMin);
+        else if ( threadsMax != null )
+            builder.minThreads(Math.min(ThreadPoolConfig.DFT_MIN_THREADS, threadsMax));
+        if ( threadsQueue != null )
+            builder.maxQueued(threadsQueue);
+        if ( threadsIdleTimeout != null )
+            builder.idleTimeout(threadsIdleTimeout);
+        builder.virtualThreads(virtualThreads);
+        return builder.build();
+    }
+
     public static void writeJSON(DeltaServerConfig config, String file) {
         IOX.run(()->{
             JsonObject obj = config.asJSON();
@@ -246,6 +314,12 @@ public class DeltaServerConfig {
         result = prime * result + ((zkData == null) ? 0 : zkData.hashCode());
         result = prime * result + ((zkMode == null) ? 0 : zkMode.hashCode());
         result = prime * result + ((zkPort == null) ? 0 : zkPort.hashCode());
+        result = prime * result + ((threadsMax == null) ? 0 : threadsMax.hashCode());
+        result = prime * result + ((threadsMin == null) ? 0 : threadsMin.hashCode());
+        result = prime * result + ((threadsQueue == null) ? 0 : threadsQueue.hashCode());
+        result = prime * result + ((threadsIdleTimeout == null) ? 0 : threadsIdleTimeout.hashCode());
+        result = prime * result + (virtualThreads ? 1231 : 1237);
+        result = prime * result + (http2 ? 1231 : 1237);
         return result;
     }
 
@@ -327,6 +401,18 @@ public class DeltaServerConfig {
                 return false;
         } else if ( !zkPort.equals(other.zkPort) )
             return false;
+        if ( !Objects.equals(threadsMax, other.threadsMax) )
+            return false;
+        if ( !Objects.equals(threadsMin, other.threadsMin) )
+            return false;
+        if ( !Objects.equals(threadsQueue, other.threadsQueue) )
+            return false;
+        if ( !Objects.equals(threadsIdleTimeout, other.threadsIdleTimeout) )
+            return false;
+        if ( virtualThreads != other.virtualThreads )
+            return false;
+        if ( http2 != other.http2 )
+            return false;
         return true;
     }
 }
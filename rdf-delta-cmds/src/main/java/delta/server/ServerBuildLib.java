@@ -28,6 +28,7 @@ import org.seaborne.delta.DeltaConst;
 import org.seaborne.delta.link.DeltaLink;
 import org.seaborne.delta.server.Provider;
 import org.seaborne.delta.server.http.DeltaServer;
+import org.seaborne.delta.server.http.ThreadPoolConfig;
 import org.seaborne.delta.server.local.*;
 import org.seaborne.delta.server.local.patchstores.any.PatchStoreProviderAnyLocal;
 import org.seaborne.delta.server.local.patchstores.file.PatchStoreProviderFile;
@@ -62,7 +63,13 @@ public /*package*/ class ServerBuildLib {
             throw new DeltaConfigException("Both port and Jetty config file provided");
 
         int serverPort = (deltaServerConfig.serverPort != null) ? deltaServerConfig.serverPort : -1;
-        DeltaServer deltaServer = buildServer(serverPort, deltaServerConfig.jettyConf, startup);
+        ThreadPoolConfig threadPoolConfig;
+        try {
+            threadPoolConfig = deltaServerConfig.threadPoolConfig();
+        } catch (IllegalArgumentException ex) {
+            throw new DeltaConfigException("Thread pool: "+ex.getMessage());
+        }
+        DeltaServer deltaServer = buildServer(serverPort, deltaServerConfig.jettyConf, threadPoolConfig, deltaServerConfig.http2, startup);
         return deltaServer;
     }
 
@@ -211,7 +218,8 @@ public /*package*/ class ServerBuildLib {
     }
 
     // --> DeltaServer.start()
-    private static DeltaServer buildServer(int port, String jettyConfigFile, Supplier<LocalServerConfig> startup) {
+    private static DeltaServer buildServer(int port, String jettyConfigFile, ThreadPoolConfig threadPoolConfig, boolean http2,
+                                           Supplier<LocalServerConfig> startup) {
         LocalServerConfig localServerConfig = startup.get();
         // Scope for further properties.
         Properties properties = new Properties();
@@ -227,7 +235,7 @@ public /*package*/ class ServerBuildLib {
             deltaServer = DeltaServer.create(jettyConfigFile, link);
         } else {
             FmtLog.info(LOG, "Delta Server port=%d", port);
-            deltaServer = DeltaServer.create(port, link);
+            deltaServer = DeltaServer.create(port, threadPoolConfig, http2, link);
         }
         return deltaServer;
     }
@@ -18,6 +18,8 @@
 package org.seaborne.delta.cmds;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import delta.server.DeltaServerCmd;
 import delta.server.DeltaServerConfig;
@@ -25,6 +27,7 @@ import org.apache.jena.atlas.json.JSON;
 import org.apache.jena.atlas.json.JsonObject;
 import org.apache.jena.cmd.CmdException;
 import org.junit.Test;
+import org.seaborne.delta.server.http.ThreadPoolConfig;
 
 public class TestDeltaServerConfig {
 
@@ -40,6 +43,42 @@ public class TestDeltaServerConfig {
         test("--jetty=jetty.xml", "--mem");
     }
 
+    @Test public void server_config_threads_1() {
+        DeltaServerConfig c = test("--mem", "--threads=20", "--threadsQueue=100");
+        ThreadPoolConfig tpc = c.threadPoolConfig();
+        assertEquals(20, tpc.getMaxThreads());
+        assertEquals(100, tpc.getMaxQueued());
+        assertEquals(ThreadPoolConfig.DFT_MIN_THREADS, tpc.getMinThreads());
+        assertFalse(tpc.useVirtualThreads());
+    }
+
+    @Test public void server_config_threads_2() {
+        DeltaServerConfig c = test("--mem", "--threads=2", "--threadsIdle=1000", "--virtualThreads");
+        ThreadPoolConfig tpc = c.threadPoolConfig();
+        assertEquals(2, tpc.getMaxThreads());
+        assertEquals(2, tpc.getMinThreads());
+        assertEquals(1000, tpc.getIdleTimeoutMillis());
+        assertTrue(tpc.useVirtualThreads());
+    }
+
+    @Test public void server_config_http2_1() {
+        DeltaServerConfig c = test("--mem", "--http2");
+        assertTrue(c.http2);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void server_config_threads_bad_1() {
+        DeltaServerConfig c = test("--mem", "--threads=2", "--threadsMin=4");
+        c.threadPoolConfig();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void server_config_threads_bad_2() {
+        // Zero is not "unbounded".
+        DeltaServerConfig c = test("--mem", "--threadsQueue=0");
+        c.threadPoolConfig();
+    }
+
     @Test public void server_config_zk_1() {
         test("--zk=mem");
     }
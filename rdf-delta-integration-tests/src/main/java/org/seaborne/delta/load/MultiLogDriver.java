@@ -0,0 +1,140 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.load;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.lib.LogX;
+import org.seaborne.delta.server.local.LocalServer;
+import org.seaborne.delta.server.local.LocalServers;
+import org.seaborne.delta.server.local.PatchLog;
+
+/**
+ * Appends to, and administers, many patch logs at once on one {@link LocalServer}.
+ * One thread per log appends patches while admin threads create, copy, rename and
+ * remove other logs. Reports append throughput and the admin operation times.
+ * <p>
+ * Arguments: {@code [file|mem|rdb] [logs] [appends per log]}; default {@code file 100 200}.
+ */
+public class MultiLogDriver {
+    protected static final Path DIR = Driver.DIR.resolve("MultiLog");
+
+    static { LogX.setJavaLogging(); }
+
+    public static void main(String[] args) throws InterruptedException {
+        String provider = args.length > 0 ? args[0] : "file";
+        int numLogs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int appends = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int adminThreads = 4;
+        int adminLoops = 20;
+
+        LocalServer server = server(provider);
+        List<Id> logs = new ArrayList<>();
+        for ( int i = 0 ; i < numLogs ; i++ )
+            logs.add(server.createDataSource("log-"+i, "http://example/log-"+i));
+
+        AtomicLong adminNanos = new AtomicLong();
+        AtomicLong adminOps = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(numLogs + adminThreads);
+
+        for ( Id dsRef : logs ) {
+            PatchLog patchLog = server.getDataSource(dsRef).getPatchLog();
+            thread(start, finish, ()->{
+                for ( int i = 0 ; i < appends ; i++ )
+                    patchLog.append(patch(patchLog));
+            });
+        }
+
+        for ( int t = 0 ; t < adminThreads ; t++ ) {
+            int thread = t;
+            thread(start, finish, ()->{
+                for ( int i = 0 ; i < adminLoops ; i++ ) {
+                    long x0 = System.nanoTime();
+                    String name = "admin-"+thread+"-"+i;
+                    Id dsRef = server.createDataSource(name, "http://example/"+name);
+                    server.getDataSource(dsRef).getPatchLog().append(RDFPatchOps.emptyPatch());
+                    Id copy = server.copyDataSource(dsRef, name, name+"-copy");
+                    Id renamed = server.renameDataSource(copy, name+"-copy", name+"-renamed");
+                    server.removeDataSource(renamed);
+                    server.removeDataSource(dsRef);
+                    adminNanos.addAndGet(System.nanoTime()-x0);
+                    adminOps.incrementAndGet();
+                }
+            });
+        }
+
+        long x0 = System.nanoTime();
+        start.countDown();
+        finish.await();
+        long elapsedMillis = (System.nanoTime()-x0)/1_000_000;
+        long total = (long)numLogs * appends;
+        System.out.printf("Provider=%s logs=%d appends=%d\n", provider, numLogs, total);
+        System.out.printf("Elapsed: %d ms, %.0f appends/s\n", elapsedMillis, 1000.0*total/Math.max(1, elapsedMillis));
+        System.out.printf("Admin cycles: %d, mean %.2f ms\n", adminOps.get(), adminNanos.get()/1e6/Math.max(1, adminOps.get()));
+        LocalServer.release(server);
+        System.exit(0);
+    }
+
+    private static LocalServer server(String provider) {
+        String dir = DIR.resolve(provider).toString();
+        switch(provider) {
+            case "mem" :
+                return LocalServers.createMem();
+            case "rdb" :
+                FileOps.ensureDir(dir);
+                FileOps.clearAll(dir);
+                return LocalServers.createRDB(dir);
+            case "file" :
+                FileOps.ensureDir(dir);
+                FileOps.clearAll(dir);
+                return LocalServers.createFile(dir);
+            default:
+                throw new IllegalArgumentException("Provider: "+provider);
+        }
+    }
+
+    private static RDFPatch patch(PatchLog patchLog) {
+        Id prev = patchLog.getLatestId();
+        return RDFPatchOps.withHeader(RDFPatchOps.emptyPatch(), Id.create().asNode(), prev == null ? null : prev.asNode());
+    }
+
+    private static void thread(CountDownLatch start, CountDownLatch finish, Runnable action) {
+        Thread thread = new Thread(()->{
+            try {
+                start.await();
+                action.run();
+            } catch (Throwable th) {
+                th.printStackTrace();
+            } finally {
+                finish.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
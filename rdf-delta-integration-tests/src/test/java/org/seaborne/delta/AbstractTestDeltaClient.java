@@ -18,11 +18,19 @@
 package org.seaborne.delta;
 
 import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
 import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertTrue ;
+import static org.junit.Assert.fail ;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.jena.atlas.iterator.Iter ;
 import org.apache.jena.atlas.lib.FileOps ;
 import org.apache.jena.query.ReadWrite ;
+import org.apache.jena.rdfpatch.RDFPatch ;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter ;
 import org.apache.jena.sparql.core.DatasetGraph ;
 import org.apache.jena.sparql.core.Quad ;
 import org.apache.jena.sparql.sse.SSE ;
@@ -34,6 +42,7 @@ import org.junit.Test ;
 import org.seaborne.delta.client.*;
 import org.seaborne.delta.lib.LogX;
 import org.seaborne.delta.link.DeltaLink ;
+import org.seaborne.delta.link.DeltaLinkWrapper;
 
 public abstract class AbstractTestDeltaClient {
     // See also with AbstractTestDeltaConnection
@@ -200,6 +209,341 @@ public abstract class AbstractTestDeltaClient {
         testLocalStorage(LocalStorageType.TDB2, DS_NAME);
     }
 
+    @Test
+    public void local_storage_3_bulk() {
+        // Patches on the log, then a TDB2 replica catches up using the bulk loader.
+        String DS_NAME = "65432";
+        DeltaClient dClient = createDeltaClient();
+        Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try(DeltaConnection dConn = dClient.get(dsRef)) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 1)")));
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(:g :s :p 2)")));
+            Txn.executeWrite(dsg, ()->dsg.delete(SSE.parseQuad("(_ :s :p 1)")));
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 3)")));
+            Txn.executeWrite(dsg, ()->dsg.delete(SSE.parseQuad("(_ :s :p 3)")));
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 3)")));
+        }
+
+        int x = BulkCatchUp.THRESHOLD;
+        try {
+            BulkCatchUp.THRESHOLD = 2;
+            Location loc = Location.create(DIR_ZONE+"-bulk");
+            FileOps.ensureDir(loc.getDirectoryPath());
+            FileOps.clearAll(loc.getDirectoryPath());
+            Zone zone2 = Zone.connect(loc);
+            try {
+                DeltaClient dClient2 = DeltaClient.create(zone2, getLink());
+                dClient2.register(dsRef, LocalStorageType.TDB2, SyncPolicy.NONE);
+                try(DeltaConnection dConn = dClient2.get(dsRef)) {
+                    dConn.sync();
+                    assertEquals(Version.create(6), dConn.getLocalVersion());
+                    DatasetGraph dsg = dConn.getDatasetGraph();
+                    Txn.executeRead(dsg, ()->{
+                        assertEquals(2, Iter.count(dsg.find()));
+                        assertTrue(dsg.contains(SSE.parseQuad("(:g :s :p 2)")));
+                        assertTrue(dsg.contains(SSE.parseQuad("(_ :s :p 3)")));
+                    });
+                }
+            } finally { zone2.shutdown(); }
+        } finally {
+            BulkCatchUp.THRESHOLD = x;
+        }
+    }
+
+    @Test
+    public void local_storage_4_bulk_not_empty() {
+        // A TDB2 replica with data is a long way behind; it is caught up patch by patch.
+        String DS_NAME = "65433";
+        DeltaClient dClient = createDeltaClient();
+        Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        Location loc = Location.create(DIR_ZONE+"-bulk2");
+        FileOps.ensureDir(loc.getDirectoryPath());
+        FileOps.clearAll(loc.getDirectoryPath());
+        Zone zone2 = Zone.connect(loc);
+        int x = BulkCatchUp.THRESHOLD;
+        try(DeltaConnection dConn = dClient.get(dsRef)) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 1)")));
+            DeltaClient dClient2 = DeltaClient.create(zone2, getLink());
+            dClient2.register(dsRef, LocalStorageType.TDB2, SyncPolicy.NONE);
+            try(DeltaConnection dConn2 = dClient2.get(dsRef)) {
+                dConn2.sync();
+                assertEquals(Version.create(1), dConn2.getLocalVersion());
+                Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 2)")));
+                Txn.executeWrite(dsg, ()->dsg.delete(SSE.parseQuad("(_ :s :p 1)")));
+                Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 3)")));
+                BulkCatchUp.THRESHOLD = 2;
+                dConn2.sync();
+                assertEquals(Version.create(4), dConn2.getLocalVersion());
+                DatasetGraph dsg2 = dConn2.getDatasetGraph();
+                Txn.executeRead(dsg2, ()->{
+                    assertEquals(2, Iter.count(dsg2.find()));
+                    assertFalse(dsg2.contains(SSE.parseQuad("(_ :s :p 1)")));
+                });
+            }
+        } finally {
+            BulkCatchUp.THRESHOLD = x;
+            zone2.shutdown();
+        }
+    }
+
+    @Test
+    public void update_spill() {
+        // A transaction larger than the spill threshold is collected on disk and sent from there.
+        String DS_NAME = "7654";
+        int x = RDFChangesSpill.THRESHOLD;
+        try {
+            RDFChangesSpill.THRESHOLD = 5;
+            DeltaClient dClient = createDeltaClient();
+            Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+            dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            try(DeltaConnection dConn = dClient.get(dsRef)) {
+                DatasetGraph dsg = dConn.getDatasetGraph();
+                Txn.executeWrite(dsg, ()->{
+                    for ( int i = 0 ; i < 20 ; i++ )
+                        dsg.add(SSE.parseQuad("(:g :s :p "+i+")"));
+                    dsg.delete(SSE.parseQuad("(:g :s :p 0)"));
+                });
+                assertEquals(Version.create(1), dConn.getLocalVersion());
+            }
+
+            Zone zone2 = Zone.connect(Location.mem());
+            DeltaClient dClient2 = DeltaClient.create(zone2, getLink());
+            dClient2.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            try(DeltaConnection dConn = dClient2.get(dsRef)) {
+                dConn.sync();
+                assertEquals(Version.create(1), dConn.getLocalVersion());
+                DatasetGraph dsg = dConn.getDatasetGraph();
+                Txn.executeRead(dsg, ()->{
+                    assertEquals(19, Iter.count(dsg.find()));
+                    assertFalse(dsg.contains(SSE.parseQuad("(:g :s :p 0)")));
+                });
+            }
+        } finally {
+            RDFChangesSpill.THRESHOLD = x;
+        }
+    }
+
+    @Test
+    public void update_compact() {
+        // Only the net changes of a transaction are sent.
+        String DS_NAME = "76543";
+        boolean x = DeltaConnection.CompactPatches;
+        try {
+            DeltaConnection.CompactPatches = true;
+            DeltaClient dClient = createDeltaClient();
+            Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+            dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            try(DeltaConnection dConn = dClient.get(dsRef)) {
+                DatasetGraph dsg = dConn.getDatasetGraph();
+                Txn.executeWrite(dsg, ()->{
+                    dsg.add(SSE.parseQuad("(:g :s :p 1)"));
+                    dsg.delete(SSE.parseQuad("(:g :s :p 1)"));
+                    dsg.add(SSE.parseQuad("(_ :s :p 2)"));
+                    dsg.add(SSE.parseQuad("(_ :s :p 2)"));
+                });
+                assertEquals(2, dConn.getCompactedCount());
+                RDFPatch patch = getLink().fetch(dsRef, Version.create(1));
+                RDFChangesCounter counter = new RDFChangesCounter();
+                patch.apply(counter);
+                assertEquals(1, counter.summary().countAddData);
+                assertEquals(1, counter.summary().countDeleteData);
+                Txn.executeRead(dsg, ()->{
+                    assertEquals(1, Iter.count(dsg.find()));
+                    assertTrue(dsg.contains(SSE.parseQuad("(_ :s :p 2)")));
+                });
+            }
+        } finally {
+            DeltaConnection.CompactPatches = x;
+        }
+    }
+
+    @Test
+    public void update_optimistic() {
+        // No lock: a commit after another writer fails and executeWrite retries.
+        String DS_NAME = "76544";
+        Zone zone2 = Zone.connect(Location.mem());
+        try {
+            DeltaClient dClient1 = createDeltaClient();
+            Id dsRef = dClient1.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+            dClient1.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            DeltaClient dClient2 = DeltaClient.create(zone2, getLink());
+            dClient2.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            Quad quad1 = SSE.parseQuad("(_ :s :p 1)");
+            Quad quad2 = SSE.parseQuad("(_ :s :p 2)");
+            Quad quad3 = SSE.parseQuad("(_ :s :p 3)");
+
+            try(DeltaConnection dConn1 = dClient1.get(dsRef); DeltaConnection dConn2 = dClient2.get(dsRef)) {
+                dConn1.setLockMode(false);
+                dConn2.setLockMode(false);
+                dConn1.executeWrite(()->dConn1.getDatasetGraph().add(quad1));
+                // dConn2 has not seen version 1.
+                DatasetGraph dsg2 = dConn2.getDatasetGraph();
+                try {
+                    Txn.executeWrite(dsg2, ()->dsg2.add(quad2));
+                    fail("Expected a conflict");
+                } catch (DeltaPatchVersionException ex) {}
+                assertEquals(1, dConn2.getConflictCount());
+                assertEquals(0, dConn2.getCommitCount());
+
+                dConn1.executeWrite(()->dConn1.getDatasetGraph().add(quad2));
+                dConn2.executeWrite(()->dsg2.add(quad3));
+                assertEquals(2, dConn2.getConflictCount());
+                assertEquals(1, dConn2.getRetryCount());
+                assertEquals(1, dConn2.getCommitCount());
+                assertEquals(2.0/3, dConn2.getConflictRate(), 0.001);
+                assertEquals(3, dConn2.getLocalVersion().value());
+                Txn.executeRead(dsg2, ()->{
+                    assertTrue(dsg2.contains(quad1));
+                    assertTrue(dsg2.contains(quad2));
+                    assertTrue(dsg2.contains(quad3));
+                });
+            }
+        } finally {
+            zone2.shutdown();
+        }
+    }
+
+    @Test
+    public void update_write_behind() {
+        // Commit locally; patches are sent in the background.
+        String DS_NAME = "76545";
+        boolean x = DeltaConnection.WriteBehind;
+        Zone zone2 = Zone.connect(Location.mem());
+        try {
+            DeltaConnection.WriteBehind = true;
+            DeltaClient dClient = createDeltaClient();
+            Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+            dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            try(DeltaConnection dConn = dClient.get(dsRef)) {
+                DatasetGraph dsg = dConn.getDatasetGraph();
+                for ( int i = 1 ; i <= 3 ; i++ ) {
+                    Quad quad = SSE.parseQuad("(_ :s :p "+i+")");
+                    Txn.executeWrite(dsg, ()->dsg.add(quad));
+                }
+                Version version = dConn.flush();
+                assertEquals(3, version.value());
+                assertEquals(0, dConn.getPendingCount());
+                assertEquals(3, dConn.getCommitCount());
+                assertEquals(3, getLink().getPatchLogInfo(dsRef).getMaxVersion().value());
+            }
+            DeltaClient dClient2 = DeltaClient.create(zone2, getLink());
+            dClient2.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            try(DeltaConnection dConn2 = dClient2.get(dsRef)) {
+                dConn2.sync();
+                DatasetGraph dsg2 = dConn2.getDatasetGraph();
+                Txn.executeRead(dsg2, ()->assertEquals(3, Iter.count(dsg2.find())));
+            }
+        } finally {
+            DeltaConnection.WriteBehind = x;
+            zone2.shutdown();
+        }
+    }
+
+    @Test(timeout=20_000)
+    public void update_write_behind_spill() {
+        // A spilled transaction queued in memory (no zone directory) is sent after the transaction ends.
+        String DS_NAME = "76546";
+        boolean x1 = DeltaConnection.WriteBehind;
+        int x2 = RDFChangesSpill.THRESHOLD;
+        Zone zoneMem = Zone.connect(Location.mem());
+        try {
+            DeltaConnection.WriteBehind = true;
+            RDFChangesSpill.THRESHOLD = 5;
+            // Hold the send until the transaction has finished and its changes are reset.
+            CountDownLatch txnEnded = new CountDownLatch(1);
+            DeltaLink dLink = new DeltaLinkWrapper(getLink()) {
+                @Override
+                public Version append(Id dsRef, RDFPatch patch) {
+                    try { txnEnded.await(); } catch (InterruptedException ex) {}
+                    return super.append(dsRef, patch);
+                }
+            };
+            DeltaClient dClient = DeltaClient.create(zoneMem, dLink);
+            Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+            dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            try(DeltaConnection dConn = dClient.get(dsRef)) {
+                DatasetGraph dsg = dConn.getDatasetGraph();
+                Txn.executeWrite(dsg, ()->{
+                    for ( int i = 0 ; i < 20 ; i++ )
+                        dsg.add(SSE.parseQuad("(:g :s :p "+i+")"));
+                });
+                txnEnded.countDown();
+                Version version = dConn.flush();
+                assertEquals(1, version.value());
+            }
+            RDFPatch patch = getLink().fetch(dsRef, Version.create(1));
+            RDFChangesCounter counter = new RDFChangesCounter();
+            patch.apply(counter);
+            assertEquals(20, counter.summary().countAddData);
+        } finally {
+            DeltaConnection.WriteBehind = x1;
+            RDFChangesSpill.THRESHOLD = x2;
+            zoneMem.shutdown();
+        }
+    }
+
+    @Test(timeout=20_000)
+    public void update_write_behind_rejected() {
+        // The patch log rejects a queued patch: the lock is released and the queue can be discarded.
+        String DS_NAME = "76547";
+        boolean x = DeltaConnection.WriteBehind;
+        try {
+            DeltaConnection.WriteBehind = true;
+            AtomicBoolean reject = new AtomicBoolean(false);
+            DeltaLink dLink = new DeltaLinkWrapper(getLink()) {
+                @Override
+                public Version append(Id dsRef, RDFPatch patch) {
+                    if ( reject.get() )
+                        throw new DeltaBadRequestException("Rejected");
+                    return super.append(dsRef, patch);
+                }
+            };
+            DeltaClient dClient = DeltaClient.create(zone, dLink);
+            Id dsRef = dClient.newDataSource(DS_NAME, "http://example/"+DS_NAME);
+            dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            Quad quad1 = SSE.parseQuad("(_ :s :p 1)");
+            Quad quad2 = SSE.parseQuad("(_ :s :p 2)");
+            Quad quad3 = SSE.parseQuad("(_ :s :p 3)");
+            try(DeltaConnection dConn = dClient.get(dsRef)) {
+                DatasetGraph dsg = dConn.getDatasetGraph();
+                Txn.executeWrite(dsg, ()->dsg.add(quad1));
+                assertEquals(1, dConn.flush().value());
+
+                reject.set(true);
+                Txn.executeWrite(dsg, ()->dsg.add(quad2));
+                try {
+                    dConn.flush();
+                    fail("Expected DeltaBadRequestException");
+                } catch (DeltaBadRequestException ex) {}
+                assertEquals(1, dConn.getPendingCount());
+
+                // The lock has been released: another writer can take it.
+                Id session = getLink().acquireLock(dsRef, 5_000);
+                assertNotNull(session);
+                getLink().releaseLock(dsRef, session);
+
+                reject.set(false);
+                assertEquals(1, dConn.discardPending());
+                assertEquals(0, dConn.getPendingCount());
+                assertEquals(1, dConn.getLocalVersion().value());
+                Txn.executeRead(dsg, ()->{
+                    assertTrue(dsg.contains(quad1));
+                    assertFalse(dsg.contains(quad2));
+                });
+
+                // Writes are sent again.
+                Txn.executeWrite(dsg, ()->dsg.add(quad3));
+                assertEquals(2, dConn.flush().value());
+            }
+        } finally {
+            DeltaConnection.WriteBehind = x;
+        }
+    }
+
     private void testLocalStorage(LocalStorageType localStorageType, String dsName) {
         DeltaClient dClient = createDeltaClient();
         Id dsRef = dClient.newDataSource(dsName, "http://example/"+dsName);
@@ -271,6 +271,31 @@ public abstract class AbstractTestDeltaConnection {
             change_read_same(()->getSetup().restart());
     }
 
+    // Sync many patches into a new client: patches are fetched ahead of being applied.
+    @Test
+    public void sync_many_1() {
+        String NAME = "sync_many_1";
+        int N = 20;
+        DeltaClient dClient1 = createRegister(NAME);
+        Id dsRef = dClient1.nameToId(NAME);
+        try(DeltaConnection dConn = dClient1.get(NAME)) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            for ( int i = 0 ; i < N ; i++ ) {
+                Quad quad = DeltaTestLib.freshQuad();
+                Txn.executeWrite(dsg, ()->dsg.add(quad));
+            }
+        }
+        DeltaClient dClient2 = DeltaClient.create(Zone.connectMem(), getLink());
+        dClient2.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try(DeltaConnection dConn = dClient2.get(dsRef)) {
+            dConn.sync();
+            assertEquals(Version.create(N), dConn.getLocalVersion());
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            long count = Txn.calculateRead(dsg, ()->Iter.count(dsg.find()));
+            assertEquals(N, count);
+        }
+    }
+
     private static AtomicInteger counter = new AtomicInteger(0);
     private DeltaClient resetDeltaClient(String name) {
         DeltaClient dClient = createDeltaClient();
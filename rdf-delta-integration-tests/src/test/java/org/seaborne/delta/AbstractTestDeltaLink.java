@@ -20,9 +20,12 @@ package org.seaborne.delta;
 import static org.junit.Assert.*;
 
 import java.util.List ;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jena.ext.com.google.common.base.Objects;
+import org.apache.jena.atlas.lib.Lib;
 import org.apache.jena.graph.*;
 import org.apache.jena.riot.RDFParser;
 import org.apache.jena.riot.system.StreamRDFLib ;
@@ -158,6 +161,117 @@ public abstract class AbstractTestDeltaLink {
         }
     }
 
+    @Test
+    public void patch_await_1() {
+        DeltaLink dLink = getLink();
+        Id dsRef = dLink.newDataSource("patch_await_1", "http://example/");
+        // No change - timeout.
+        PatchLogInfo info = dLink.awaitChange(dsRef, Version.INIT, 100);
+        assertNull(info);
+
+        RDFPatch patch = RDFPatchOps.read(FILES_DIR+"/patch1.rdfp");
+        dLink.append(dsRef, patch);
+        // Already changed - immediate.
+        PatchLogInfo info1 = dLink.awaitChange(dsRef, Version.INIT, 10_000);
+        assertNotNull(info1);
+        assertEquals(version_1, info1.getMaxVersion());
+        assertEquals(Id.fromNode(patch.getId()), info1.getLatestPatch());
+    }
+
+    @Test
+    public void patch_await_2() throws Exception {
+        DeltaLink dLink = getLink();
+        Id dsRef = dLink.newDataSource("patch_await_2", "http://example/");
+        RDFPatch patch = RDFPatchOps.read(FILES_DIR+"/patch1.rdfp");
+        // Append while waiting.
+        Thread thread = new Thread(()->{
+            Lib.sleep(200);
+            dLink.append(dsRef, patch);
+        });
+        thread.start();
+        PatchLogInfo info = dLink.awaitChange(dsRef, Version.INIT, 10_000);
+        thread.join();
+        assertNotNull(info);
+        assertEquals(version_1, info.getMaxVersion());
+    }
+
+    @Test(expected=DeltaNotFoundException.class)
+    public void patch_await_3() {
+        DeltaLink dLink = getLink();
+        dLink.awaitChange(Id.create(), Version.INIT, 100);
+    }
+
+    @Test(timeout=10_000, expected=DeltaNotFoundException.class)
+    public void patch_await_4() throws Exception {
+        // Log deleted while waiting.
+        DeltaLink dLink = getLink();
+        Id dsRef = dLink.newDataSource("patch_await_4", "http://example/");
+        Thread thread = new Thread(()->{
+            Lib.sleep(200);
+            dLink.removeDataSource(dsRef);
+        });
+        thread.start();
+        try {
+            dLink.awaitChange(dsRef, Version.INIT, 5_000);
+        } finally {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void patch_log_info_list_1() {
+        DeltaLink dLink = getLink();
+        Id dsRef1 = dLink.newDataSource("patch_log_info_list_1a", "http://example/a");
+        Id dsRef2 = dLink.newDataSource("patch_log_info_list_1b", "http://example/b");
+        RDFPatch patch = RDFPatchOps.read(FILES_DIR+"/patch1.rdfp");
+        dLink.append(dsRef2, patch);
+        Id dsRef3 = Id.create();
+
+        List<PatchLogInfo> infos = dLink.getPatchLogInfo(List.of(dsRef1, dsRef2, dsRef3));
+        assertEquals(3, infos.size());
+        assertEquals(dsRef1, infos.get(0).getDataSourceId());
+        assertEquals(Version.INIT, infos.get(0).getMaxVersion());
+        assertEquals(dsRef2, infos.get(1).getDataSourceId());
+        assertEquals(version_1, infos.get(1).getMaxVersion());
+        assertNull(infos.get(2));
+    }
+
+    @Test
+    public void lock_refresh_list_1() {
+        DeltaLink dLink = getLink();
+        Id dsRef1 = dLink.newDataSource("lock_refresh_list_1a", "http://example/a");
+        Id dsRef2 = dLink.newDataSource("lock_refresh_list_1b", "http://example/b");
+        Id session1 = dLink.acquireLock(dsRef1);
+        Id session2 = dLink.acquireLock(dsRef2);
+        assertNotNull(session1);
+        assertNotNull(session2);
+        dLink.releaseLock(dsRef2, session2);
+
+        Set<Id> failed = dLink.refreshLocks(Map.of(dsRef1, session1, dsRef2, session2));
+        assertEquals(Set.of(dsRef2), failed);
+        dLink.releaseLock(dsRef1, session1);
+    }
+
+    @Test(timeout=10_000)
+    public void lock_wait_1() throws InterruptedException {
+        // A waiting acquire gets the lock when it is released.
+        DeltaLink dLink = getLink();
+        Id dsRef = dLink.newDataSource("lock_wait_1", "http://example/");
+        Id session1 = dLink.acquireLock(dsRef);
+        assertNotNull(session1);
+        assertNull(dLink.acquireLock(dsRef, 100));
+        Thread releaser = new Thread(()->{
+            Lib.sleep(200);
+            dLink.releaseLock(dsRef, session1);
+        });
+        releaser.start();
+        Id session2 = dLink.acquireLock(dsRef, 5_000);
+        assertNotNull(session2);
+        assertNotEquals(session1, session2);
+        releaser.join();
+        dLink.releaseLock(dsRef, session2);
+    }
+
     @Test
     public void patch_add_add() {
         // patch1 then patch2, checking the versions advance as expected.
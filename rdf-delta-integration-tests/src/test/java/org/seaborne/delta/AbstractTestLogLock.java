@@ -226,4 +226,36 @@ public abstract class AbstractTestLogLock {
         Id lockRef3 = getDLink().acquireLock(dsRef);
         assertNotNull(lockRef3);
     }
+
+    @Test(timeout=2000) public void deltaLinkLock_wait_01() {
+        Id lockRef1 = getDLink().acquireLock(dsRef);
+        assertNotNull("Acquire 1", lockRef1);
+        // Wait, and time out.
+        Id lockRef2 = getDLink().acquireLock(dsRef, 100);
+        assertNull("Acquire 2", lockRef2);
+        getDLink().releaseLock(dsRef, lockRef1);
+        // Free: no wait.
+        Id lockRef3 = getDLink().acquireLock(dsRef, 100);
+        assertNotNull("Acquire 3", lockRef3);
+        getDLink().releaseLock(dsRef, lockRef3);
+    }
+
+    @Test(timeout=5000)
+    public void deltaLinkLock_wait_02() throws InterruptedException {
+        Semaphore sema = new Semaphore(0);
+        AtomicReference<Id> waiterLock = new AtomicReference<>();
+        Id lockRef1 = getDLink().acquireLock(dsRef);
+        async(()->{
+            // Waits until released by the main thread.
+            waiterLock.set(getDLink().acquireLock(dsRef, 4000));
+            sema.release();
+        });
+        Thread.sleep(100);
+        getDLink().releaseLock(dsRef, lockRef1);
+        sema.acquire();
+        assertNotNull(waiterLock.get());
+        LockState lockState = getDLink().readLock(dsRef);
+        assertEquals(waiterLock.get(), lockState.session);
+        getDLink().releaseLock(dsRef, waiterLock.get());
+    }
 }
@@ -42,6 +42,11 @@ import org.seaborne.delta.lib.LogX;
 
     TestZone.class ,
     TestRestart.class ,
+    TestSnapshotBootstrap.class ,
+    TestLogCompaction.class ,
+    TestSyncScheduler.class ,
+    TestReadYourWrites.class ,
+    TestDeltaHttp.class ,
 
     TestManagedDatasetBuilder.class,
     TestManagedDatasetBuilder2.class,
@@ -0,0 +1,395 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.atlas.web.WebLib;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchConst;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.web.HttpSC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.seaborne.delta.client.DeltaHttp;
+import org.seaborne.delta.client.DeltaLinkHTTP;
+import org.seaborne.delta.lib.LogX;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.server.http.DeltaServer;
+import org.seaborne.delta.server.http.S_DRPC;
+import org.seaborne.delta.server.http.S_Events;
+import org.seaborne.delta.server.http.ThreadPoolConfig;
+import org.seaborne.delta.server.local.DeltaLinkLocal;
+import org.seaborne.delta.server.local.LocalServer;
+import org.seaborne.delta.server.local.LocalServerConfig;
+import org.seaborne.delta.server.local.LocalServers;
+
+/**
+ * The HTTP transport of {@link DeltaLinkHTTP}: connection reuse, HTTP/2 cleartext,
+ * which operations are retried after a connection failure, waiting for a lock, the
+ * status of a failed query, and the limit on requests waiting for events. The client
+ * talks to the server through a proxy that counts the TCP connections.
+ */
+public class TestDeltaHttp {
+    @BeforeClass public static void setForTesting() {
+        LogX.setJavaLogging("src/test/resources/logging.properties");
+    }
+
+    private LocalServer localServer;
+    private DeltaServer deltaServer;
+    private CountingProxy proxy;
+
+    @Before public void before() {
+        localServer = LocalServers.create(LocalServers.configMem());
+    }
+
+    @After public void after() {
+        if ( proxy != null )
+            proxy.close();
+        if ( deltaServer != null )
+            deltaServer.stop();
+        LocalServer.release(localServer);
+    }
+
+    private String startServer(boolean http2) {
+        int port = WebLib.choosePort();
+        deltaServer = DeltaServer.create(port, ThreadPoolConfig.DEFAULT, http2, DeltaLinkLocal.connect(localServer));
+        try {
+            deltaServer.start();
+        } catch(BindException ex) {
+            IO.exception(ex);
+        }
+        proxy = new CountingProxy(port);
+        return "http://localhost:"+proxy.getPort()+"/";
+    }
+
+    private static RDFPatch patch(Id previous, int i) {
+        RDFChangesCollector collector = new RDFChangesCollector();
+        collector.header(RDFPatchConst.ID, Id.create().asNode());
+        if ( previous != null )
+            collector.header(RDFPatchConst.PREV, previous.asNode());
+        collector.txnBegin();
+        Quad q = SSE.parseQuad("(_ :s :p "+i+")");
+        collector.add(q.getGraph(), q.getSubject(), q.getPredicate(), q.getObject());
+        collector.txnCommit();
+        return collector.getRDFPatch();
+    }
+
+    /** Operations that use every kind of request: RPC, append and fetch. */
+    private static void exercise(DeltaLink dLink, int N) {
+        dLink.ping();
+        Id dsRef = dLink.newDataSource("ABC", "http://example/ABC");
+        Id previous = null;
+        for ( int i = 1 ; i <= N ; i++ ) {
+            RDFPatch patch = patch(previous, i);
+            Version version = dLink.append(dsRef, patch);
+            assertEquals(i, version.value());
+            previous = Id.fromNode(patch.getId());
+        }
+        for ( int i = 1 ; i <= N ; i++ ) {
+            RDFPatch patch = dLink.fetch(dsRef, Version.create(i));
+            assertNotNull(patch);
+        }
+        assertEquals(N, dLink.getPatchLogInfo(dsRef).getMaxVersion().value());
+        assertEquals(1, dLink.listDatasets().size());
+    }
+
+    @Test public void http_01_reuse() {
+        String url = startServer(false);
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+        exercise(dLink, 20);
+        assertEquals("Connections", 1, proxy.connections());
+    }
+
+    @Test public void http_02_reuse_links() {
+        // Links on the same HttpClient share its connections.
+        String url = startServer(false);
+        HttpClient httpClient = DeltaHttp.create(false);
+        DeltaLink dLink1 = DeltaLinkHTTP.connect(url, httpClient);
+        exercise(dLink1, 5);
+        DeltaLink dLink2 = DeltaLinkHTTP.connect(url, httpClient);
+        dLink2.ping();
+        assertEquals(1, dLink2.listDatasets().size());
+        assertEquals("Connections", 1, proxy.connections());
+    }
+
+    @Test public void http_03_h2c() throws Exception {
+        String url = startServer(true);
+        HttpClient httpClient = DeltaHttp.create(true);
+        // First request upgrades the connection to HTTP/2.
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url+DeltaConst.EP_Ping)).GET().build();
+        HttpResponse<String> response = httpClient.send(request, BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals(HttpClient.Version.HTTP_2, response.version());
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, httpClient);
+        exercise(dLink, 20);
+        assertEquals("Connections", 1, proxy.connections());
+    }
+
+    @Test public void http_04_h2c_server_http1_client() {
+        // An HTTP/2 enabled server still accepts HTTP/1.1.
+        String url = startServer(true);
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+        exercise(dLink, 5);
+    }
+
+    @Test public void http_05_retry_read() {
+        String url = startServer(false);
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+        proxy.dropNext(1);
+        // Read: retried on a new connection.
+        assertEquals(0, dLink.listDatasets().size());
+        assertEquals("Connections", 2, proxy.connections());
+    }
+
+    @Test public void http_06_no_retry_create() {
+        String url = startServer(false);
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+        proxy.dropNext(1);
+        try {
+            dLink.newDataSource("ABC", "http://example/ABC");
+            fail("Expected HttpException");
+        } catch (HttpException ex) {
+            assertEquals(-1, ex.getStatusCode());
+        }
+        assertEquals("Connections", 1, proxy.connections());
+    }
+
+    @Test public void http_07_no_retry_append() {
+        String url = startServer(false);
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+        Id dsRef = dLink.newDataSource("ABC", "http://example/ABC");
+        int before = proxy.connections();
+        // Force the append onto a new connection, which is then dropped.
+        proxy.closeAll();
+        proxy.dropNext(1);
+        try {
+            dLink.append(dsRef, patch(null, 1));
+            fail("Expected HttpException");
+        } catch (HttpException ex) {
+            assertEquals(-1, ex.getStatusCode());
+        }
+        // One new connection at most: the append was not sent again.
+        assertTrue("Connections", proxy.connections() <= before+1);
+        assertEquals(0, dLink.getPatchLogInfo(dsRef).getMaxVersion().value());
+    }
+
+    @Test(timeout=10_000)
+    public void http_08_lock_wait() throws InterruptedException {
+        // The server waits for a short time on each request; the client asks again
+        // until its own timeout.
+        long maxWait = S_DRPC.MAX_LOCK_WAIT_MS;
+        S_DRPC.MAX_LOCK_WAIT_MS = 100;
+        try {
+            String url = startServer(false);
+            DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+            Id dsRef = dLink.newDataSource("ABC", "http://example/ABC");
+            Id session1 = dLink.acquireLock(dsRef);
+            assertNotNull(session1);
+            Thread releaser = new Thread(()->{
+                Lib.sleep(500);
+                dLink.releaseLock(dsRef, session1);
+            });
+            releaser.start();
+            Id session2 = dLink.acquireLock(dsRef, 5_000);
+            assertNotNull(session2);
+            assertNotEquals(session1, session2);
+            releaser.join();
+            dLink.releaseLock(dsRef, session2);
+            // Held: the client gives up at its own timeout.
+            Id session3 = dLink.acquireLock(dsRef);
+            assertNull(dLink.acquireLock(dsRef, 300));
+            dLink.releaseLock(dsRef, session3);
+        } finally {
+            S_DRPC.MAX_LOCK_WAIT_MS = maxWait;
+        }
+    }
+
+    @Test(timeout=20_000)
+    public void http_09_query_error() {
+        // A query that fails part way gets an error status, not a truncated 200 response.
+        LocalServer.release(localServer);
+        String dir = "target/materialize-http";
+        FileOps.ensureDir(dir);
+        FileOps.clearAll(dir);
+        localServer = LocalServers.create(LocalServerConfig.create(LocalServers.configMem())
+                                          .setProperty(DeltaConst.pDeltaMaterialize, dir)
+                                          .setProperty(DeltaConst.pDeltaMaterializeTimeout, "1000")
+                                          .build());
+        String url = startServer(false);
+        DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+        Id dsRef = dLink.newDataSource("ABC", "http://example/ABC");
+        dLink.append(dsRef, patch(null, 1));
+        assertTrue(localServer.getPatchHandlers().awaitIdle(10_000));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(dLink.query(dsRef, "ASK { ?s ?p ?o }", out));
+        assertTrue(StrUtils.fromUTF8bytes(out.toByteArray()).contains("true"));
+
+        String values = "VALUES ?x { 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 }";
+        StringBuilder sb = new StringBuilder("SELECT * {");
+        for ( String v : new String[] {"?a", "?b", "?c", "?d", "?e", "?f"} )
+            sb.append(" ").append(values.replace("?x", v));
+        sb.append(" }");
+        try {
+            dLink.query(dsRef, sb.toString(), new ByteArrayOutputStream());
+            fail("Expected HttpException");
+        } catch (HttpException ex) {
+            assertEquals(HttpSC.SERVICE_UNAVAILABLE_503, ex.getStatusCode());
+        }
+    }
+
+    @Test(timeout=20_000)
+    public void http_10_events_limit() throws InterruptedException {
+        // Requests waiting for events over the limit are refused, not queued.
+        int maxWaiting = S_Events.MAX_WAITING;
+        S_Events.MAX_WAITING = 1;
+        try {
+            String url = startServer(false);
+            DeltaLink dLink = DeltaLinkHTTP.connect(url, DeltaHttp.create(false));
+            Id dsRef = dLink.newDataSource("ABC", "http://example/ABC");
+            Thread waiter = new Thread(()->dLink.awaitChange(dsRef, Version.INIT, 10_000));
+            waiter.start();
+            int statusCode = -1;
+            while ( statusCode < 0 ) {
+                try {
+                    // Succeeds, after a short wait, until the waiter is waiting.
+                    dLink.awaitChange(dsRef, Version.INIT, 50);
+                } catch (HttpException ex) {
+                    statusCode = ex.getStatusCode();
+                }
+            }
+            assertEquals(HttpSC.SERVICE_UNAVAILABLE_503, statusCode);
+            dLink.append(dsRef, patch(null, 1));
+            waiter.join();
+            assertNotNull(dLink.awaitChange(dsRef, Version.INIT, 50));
+        } finally {
+            S_Events.MAX_WAITING = maxWaiting;
+        }
+    }
+
+    /**
+     * A TCP proxy that counts connections. It can drop connections after reading the
+     * start of the request, which the client sees as a communications failure.
+     */
+    static class CountingProxy {
+        private final ServerSocket serverSocket;
+        private final int targetPort;
+        private final AtomicInteger connections = new AtomicInteger(0);
+        private final AtomicInteger drop = new AtomicInteger(0);
+        private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+        CountingProxy(int targetPort) {
+            this.targetPort = targetPort;
+            try {
+                this.serverSocket = new ServerSocket(0);
+            } catch (IOException ex) { throw new UncheckedIOException(ex); }
+            Thread thread = new Thread(this::run, "CountingProxy");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort()           { return serverSocket.getLocalPort(); }
+        int connections()       { return connections.get(); }
+        void dropNext(int N)    { drop.set(N); }
+
+        /** Close all the open connections. */
+        void closeAll() {
+            sockets.forEach(s->IO.close(s));
+            sockets.clear();
+            // Let the client see the connections have closed.
+            Lib.sleep(100);
+        }
+
+        void close() {
+            closeAll();
+            IO.close(serverSocket);
+        }
+
+        private void run() {
+            while ( ! serverSocket.isClosed() ) {
+                try {
+                    Socket client = serverSocket.accept();
+                    connections.incrementAndGet();
+                    sockets.add(client);
+                    if ( drop.getAndUpdate(x -> Math.max(0, x-1)) > 0 ) {
+                        // Read some of the request, then close.
+                        client.getInputStream().read(new byte[100]);
+                        client.close();
+                        continue;
+                    }
+                    Socket server = new Socket("localhost", targetPort);
+                    sockets.add(server);
+                    pipe(client, server);
+                    pipe(server, client);
+                } catch (IOException ex) {}
+            }
+        }
+
+        private void pipe(Socket from, Socket to) {
+            Thread thread = new Thread(()->{
+                try ( InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream() ) {
+                    byte[] buffer = new byte[8192];
+                    int len;
+                    while ( (len = in.read(buffer)) >= 0 ) {
+                        out.write(buffer, 0, len);
+                        out.flush();
+                    }
+                } catch (IOException ex) {}
+                finally {
+                    IO.close(from);
+                    IO.close(to);
+                }
+            }, "CountingProxy-pipe");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.seaborne.delta.client.*;
+import org.seaborne.delta.lib.LogX;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.server.local.*;
+
+/**
+ * Replicas of a compacted log: new ones start from the compacted patch, old ones catch up with it.
+ * A replica that is behind a pruned log can not catch up.
+ */
+public class TestLogCompaction {
+    private LocalServer localServer;
+    private DeltaLink localLink;
+
+    @BeforeClass public static void beforeClass() {
+        LogX.setJavaLogging("src/test/resources/logging.properties");
+    }
+
+    @Before public void before() {
+        localServer = LocalServers.createMem();
+        localLink = DeltaLinkLocal.connect(localServer);
+    }
+
+    @After public void after() {
+        LocalServer.release(localServer);
+    }
+
+    private static DeltaClient client(DeltaLink dLink, Id dsRef) {
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), dLink);
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        return dClient;
+    }
+
+    private static void check(DeltaConnection dConn) {
+        assertEquals(Version.create(4), dConn.getLocalVersion());
+        DatasetGraph dsg = dConn.getDatasetGraph();
+        Txn.executeRead(dsg, ()->{
+            assertEquals(2, Iter.count(dsg.find()));
+            assertFalse(dsg.contains(SSE.parseQuad("(_ :s :p 1)")));
+            assertTrue(dsg.contains(SSE.parseQuad("(:g :s :p 2)")));
+            assertTrue(dsg.contains(SSE.parseQuad("(_ :s :p 3)")));
+        });
+    }
+
+    @Test public void compaction_replicas() {
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), localLink);
+        Id dsRef = dClient.newDataSource("compact", "http://example/compact");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+
+        DeltaClient dClientOld = client(localLink, dsRef);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 1)")));
+            // A replica at version 1.
+            try ( DeltaConnection dConnOld = dClientOld.get(dsRef) ) {
+                dConnOld.sync();
+                assertEquals(Version.create(1), dConnOld.getLocalVersion());
+            }
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(:g :s :p 2)")));
+            Txn.executeWrite(dsg, ()->dsg.delete(SSE.parseQuad("(_ :s :p 1)")));
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 3)")));
+        }
+
+        PatchLog patchLog = localServer.getDataSource(dsRef).getPatchLog();
+        patchLog.compact(Version.create(3));
+        assertEquals(Version.create(3), localLink.getPatchLogInfo(dsRef).getMinVersion());
+
+        try ( DeltaConnection dConnOld = dClientOld.get(dsRef) ) {
+            dConnOld.sync();
+            check(dConnOld);
+        }
+        try ( DeltaConnection dConnNew = client(localLink, dsRef).get(dsRef) ) {
+            dConnNew.sync();
+            check(dConnNew);
+        }
+    }
+
+    @Test public void prune_replica_behind() {
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), localLink);
+        Id dsRef = dClient.newDataSource("prune", "http://example/prune");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+
+        DeltaClient dClientOld = client(localLink, dsRef);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 1)")));
+            try ( DeltaConnection dConnOld = dClientOld.get(dsRef) ) {
+                dConnOld.sync();
+            }
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(:g :s :p 2)")));
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 3)")));
+        }
+
+        localServer.getDataSource(dsRef).getPatchLog().prune(Version.create(3));
+
+        try ( DeltaConnection dConnOld = dClientOld.get(dsRef) ) {
+            assertThrows(DeltaException.class, ()->dConnOld.sync());
+            assertEquals(Version.create(1), dConnOld.getLocalVersion());
+        }
+    }
+}
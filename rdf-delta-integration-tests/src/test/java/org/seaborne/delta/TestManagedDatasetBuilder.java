@@ -17,6 +17,7 @@
 
 package org.seaborne.delta;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
@@ -227,4 +228,17 @@ public class TestManagedDatasetBuilder {
             //.storageType(LocalStorageType.MEM)
             .build();
     }
+
+    @Test public void buildManaged_3_lockMode() {
+        DatasetGraph dsg = ManagedDatasetBuilder.create()
+            .deltaLink(deltaLink)
+            .logName("ABC")
+            .zone(Zone.connect(Location.mem()))
+            .syncPolicy(SyncPolicy.TXN_RW)
+            .storageType(LocalStorageType.MEM)
+            .lockMode(false)
+            .build();
+        DeltaConnection conn = (DeltaConnection)(dsg.getContext().get(symDeltaConnection));
+        assertFalse(conn.getLockMode());
+    }
 }
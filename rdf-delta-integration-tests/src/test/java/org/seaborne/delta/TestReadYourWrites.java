@@ -0,0 +1,172 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchConst;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.seaborne.delta.client.*;
+import org.seaborne.delta.lib.LogX;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.link.DeltaLinkWrapper;
+import org.seaborne.delta.server.local.DeltaLinkLocal;
+import org.seaborne.delta.server.local.LocalServer;
+import org.seaborne.delta.server.local.LocalServers;
+
+/**
+ * Sync does not fetch the patches a connection appended itself, unless the log placed
+ * them after patches the connection had not seen: then the local dataset is replayed.
+ */
+public class TestReadYourWrites {
+    private LocalServer localServer;
+    private DeltaLink localLink;
+
+    @BeforeClass public static void beforeClass() {
+        LogX.setJavaLogging("src/test/resources/logging.properties");
+    }
+
+    @Before public void before() {
+        localServer = LocalServers.create(LocalServers.configMem());
+        localLink = DeltaLinkLocal.connect(localServer);
+    }
+
+    @After public void after() {
+        LocalServer.release(localServer);
+    }
+
+    /**
+     * Another writer gets in just before each append of the client, and the client's
+     * patch is placed after it. The other writer adds, or deletes, a quad. Fetches are counted.
+     */
+    static class InterleavingLink extends DeltaLinkWrapper {
+        final AtomicInteger fetches = new AtomicInteger(0);
+        final Quad other;
+        final boolean delete;
+        InterleavingLink(DeltaLink other, Quad quad) { this(other, quad, false); }
+        InterleavingLink(DeltaLink other, Quad quad, boolean delete) { super(other); this.other = quad; this.delete = delete; }
+
+        @Override
+        public Version append(Id dsRef, RDFPatch patch) {
+            Id head = super.getPatchLogInfo(dsRef).getLatestPatch();
+            Id otherId = Id.create();
+            RDFChangesCollector c = new RDFChangesCollector();
+            c.header(RDFPatchConst.ID, otherId.asNode());
+            if ( head != null )
+                c.header(RDFPatchConst.PREV, head.asNode());
+            c.txnBegin();
+            if ( delete )
+                c.delete(other.getGraph(), other.getSubject(), other.getPredicate(), other.getObject());
+            else
+                c.add(other.getGraph(), other.getSubject(), other.getPredicate(), other.getObject());
+            c.txnCommit();
+            super.append(dsRef, c.getRDFPatch());
+            RDFPatch patch2 = RDFPatchOps.withHeader(RDFPatchOps.makeHeader(patch.getId(), otherId.asNode()), patch);
+            return super.append(dsRef, patch2);
+        }
+
+        @Override
+        public RDFPatch fetch(Id dsRef, Version version) {
+            fetches.incrementAndGet();
+            return super.fetch(dsRef, version);
+        }
+    }
+
+    @Test public void read_your_writes_1() {
+        Quad otherQuad = SSE.parseQuad("(_ :s :p :other)");
+        Quad quad = SSE.parseQuad("(_ :s :p :mine)");
+        InterleavingLink link = new InterleavingLink(localLink, otherQuad);
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), link);
+        Id dsRef = dClient.newDataSource("ryw", "http://example/ryw");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(quad));
+            // The other writer's patch is version 1, this connection's is version 2.
+            assertEquals(Version.create(0), dConn.getLocalVersion());
+            assertEquals(Version.create(2), localLink.getPatchLogInfo(dsRef).getMaxVersion());
+            link.fetches.set(0);
+            dConn.sync();
+            assertEquals(Version.create(2), dConn.getLocalVersion());
+            // The local change went into the log after the other writer's patch:
+            // the local dataset is replayed, both patches.
+            assertEquals(2, link.fetches.get());
+            Txn.executeRead(dsg, ()->{
+                assertTrue(dsg.contains(quad));
+                assertTrue(dsg.contains(otherQuad));
+            });
+        }
+    }
+
+    @Test public void read_your_writes_2() {
+        // The other writer deletes the quad this connection then adds: in log order, the quad is present.
+        Quad quad = SSE.parseQuad("(_ :s :p :mine)");
+        InterleavingLink link = new InterleavingLink(localLink, quad, true);
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), link);
+        Id dsRef = dClient.newDataSource("ryw", "http://example/ryw");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(quad));
+            dConn.sync();
+            assertEquals(Version.create(2), dConn.getLocalVersion());
+            Txn.executeRead(dsg, ()->assertTrue(dsg.contains(quad)));
+        }
+    }
+
+    @Test public void read_your_writes_3() {
+        // No other writer: the connection's patches are not fetched.
+        Quad quad1 = SSE.parseQuad("(_ :s :p 1)");
+        Quad quad2 = SSE.parseQuad("(_ :s :p 2)");
+        InterleavingLink link = new InterleavingLink(localLink, quad1) {
+            @Override
+            public Version append(Id dsRef, RDFPatch patch) {
+                return localLink.append(dsRef, patch);
+            }
+        };
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), link);
+        Id dsRef = dClient.newDataSource("ryw", "http://example/ryw");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(quad1));
+            Txn.executeWrite(dsg, ()->dsg.add(quad2));
+            link.fetches.set(0);
+            dConn.sync();
+            assertEquals(Version.create(2), dConn.getLocalVersion());
+            assertEquals(0, link.fetches.get());
+            Txn.executeRead(dsg, ()->{
+                assertTrue(dsg.contains(quad1));
+                assertTrue(dsg.contains(quad2));
+            });
+        }
+    }
+}
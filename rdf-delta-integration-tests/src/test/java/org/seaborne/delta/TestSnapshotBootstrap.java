@@ -0,0 +1,238 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.BindException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.web.WebLib;
+import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.seaborne.delta.client.*;
+import org.seaborne.delta.lib.LogX;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.link.DeltaLinkWrapper;
+import org.seaborne.delta.server.http.DeltaServer;
+import org.seaborne.delta.server.local.*;
+
+/** A new replica starts from the snapshot of the log and plays the patches after it. */
+public class TestSnapshotBootstrap {
+    private static final String DIR_SNAPSHOTS = "target/Snapshots";
+    private static final String DIR_ZONE      = "target/ZoneSnapshot";
+
+    private LocalServer localServer;
+    private DeltaLink localLink;
+
+    @BeforeClass public static void beforeClass() {
+        LogX.setJavaLogging("src/test/resources/logging.properties");
+    }
+
+    @Before public void before() {
+        FileOps.ensureDir(DIR_SNAPSHOTS);
+        FileOps.clearAll(DIR_SNAPSHOTS);
+        LocalServerConfig config = LocalServerConfig.create(LocalServers.configMem())
+            .setProperty(DeltaConst.pDeltaSnapshots, DIR_SNAPSHOTS)
+            .setProperty(DeltaConst.pDeltaSnapshotInterval, "0")
+            .build();
+        localServer = LocalServer.create(config);
+        localLink = DeltaLinkLocal.connect(localServer);
+    }
+
+    @After public void after() {
+        LocalServer.release(localServer);
+    }
+
+    /** Count the patches fetched. */
+    static class CountingLink extends DeltaLinkWrapper {
+        final AtomicInteger fetches = new AtomicInteger(0);
+        CountingLink(DeltaLink other) { super(other); }
+        @Override
+        public RDFPatch fetch(Id dsRef, Version version) {
+            fetches.incrementAndGet();
+            return super.fetch(dsRef, version);
+        }
+    }
+
+    /** Four patches, with a snapshot after the third. */
+    private Id setupLog() {
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), localLink);
+        Id dsRef = dClient.newDataSource("snapshot", "http://example/snapshot");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 1)")));
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(:g :s :p 2)")));
+            Txn.executeWrite(dsg, ()->dsg.delete(SSE.parseQuad("(_ :s :p 1)")));
+            localServer.getSnapshots().createSnapshot(localServer.getDataSource(dsRef).getPatchLog());
+            Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p 3)")));
+        }
+        return dsRef;
+    }
+
+    private void bootstrap(Id dsRef, DeltaLink dLink, Zone zone, LocalStorageType storage) {
+        CountingLink link = new CountingLink(dLink);
+        DeltaClient dClient = DeltaClient.create(zone, link);
+        dClient.register(dsRef, storage, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            dConn.sync();
+            assertEquals(Version.create(4), dConn.getLocalVersion());
+            // Only the patch after the snapshot.
+            assertEquals(1, link.fetches.get());
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeRead(dsg, ()->{
+                assertEquals(2, Iter.count(dsg.find()));
+                assertTrue(dsg.contains(SSE.parseQuad("(:g :s :p 2)")));
+                assertTrue(dsg.contains(SSE.parseQuad("(_ :s :p 3)")));
+            });
+        }
+    }
+
+    private static final Node b1 = NodeFactory.createBlankNode("b1");
+    private static final Node b2 = NodeFactory.createBlankNode("b2");
+    private static final Quad bnodeQuad1 = quad(Quad.defaultGraphIRI, b1, 1);
+    private static final Quad bnodeQuad2 = quad(Quad.defaultGraphIRI, b2, 2);
+    private static final Quad bnodeQuad3 = quad(NodeFactory.createURI("http://example/g"), b1, 3);
+
+    private static Quad quad(Node g, Node s, int i) {
+        return Quad.create(g, s, NodeFactory.createURI("http://example/p"), NodeFactory.createLiteral(Integer.toString(i), XSDDatatype.XSDinteger));
+    }
+
+    /**
+     * Blank nodes: a snapshot, a snapshot built from that snapshot, then a patch that
+     * deletes a quad with a blank node that was in the snapshots.
+     */
+    private Id setupLogBlankNodes() {
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), localLink);
+        Id dsRef = dClient.newDataSource("snapshot-bnode", "http://example/snapshot-bnode");
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        Snapshots snapshots = localServer.getSnapshots();
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeWrite(dsg, ()->{
+                dsg.add(bnodeQuad1);
+                dsg.add(bnodeQuad2);
+            });
+            snapshots.createSnapshot(localServer.getDataSource(dsRef).getPatchLog());
+            Txn.executeWrite(dsg, ()->dsg.add(bnodeQuad3));
+            snapshots.createSnapshot(localServer.getDataSource(dsRef).getPatchLog());
+            Txn.executeWrite(dsg, ()->{
+                dsg.delete(bnodeQuad1);
+                dsg.delete(bnodeQuad3);
+            });
+        }
+        return dsRef;
+    }
+
+    private void bootstrapBlankNodes(Id dsRef, DeltaLink dLink, Zone zone, LocalStorageType storage) {
+        DeltaClient dClient = DeltaClient.create(zone, dLink);
+        dClient.register(dsRef, storage, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            assertEquals(Version.create(2), dConn.getPatchLogInfo().getSnapshotVersion());
+            dConn.sync();
+            assertEquals(Version.create(3), dConn.getLocalVersion());
+            DatasetGraph dsg = dConn.getDatasetGraph();
+            Txn.executeRead(dsg, ()->{
+                assertEquals(1, Iter.count(dsg.find()));
+                assertTrue(dsg.contains(bnodeQuad2));
+            });
+        }
+    }
+
+    @Test public void bootstrap_local() {
+        Id dsRef = setupLog();
+        PatchLogInfo info = localLink.getPatchLogInfo(dsRef);
+        assertEquals(Version.create(3), info.getSnapshotVersion());
+        bootstrap(dsRef, localLink, Zone.connectMem(), LocalStorageType.MEM);
+    }
+
+    @Test public void bootstrap_local_bnode() {
+        Id dsRef = setupLogBlankNodes();
+        bootstrapBlankNodes(dsRef, localLink, Zone.connectMem(), LocalStorageType.MEM);
+    }
+
+    @Test public void bootstrap_not_empty() {
+        // A replica with data at version INIT is not started from the snapshot.
+        Id dsRef = setupLog();
+        CountingLink link = new CountingLink(localLink);
+        DeltaClient dClient = DeltaClient.create(Zone.connectMem(), link);
+        dClient.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        try ( DeltaConnection dConn = dClient.get(dsRef) ) {
+            DatasetGraph base = dConn.getStorage();
+            Txn.executeWrite(base, ()->base.add(SSE.parseQuad("(_ :s :q 0)")));
+            dConn.sync();
+            assertEquals(Version.create(4), dConn.getLocalVersion());
+            // All the patches.
+            assertEquals(4, link.fetches.get());
+            Txn.executeRead(base, ()->assertTrue(base.contains(SSE.parseQuad("(_ :s :q 0)"))));
+        }
+    }
+
+    @Test public void bootstrap_remote_tdb2() throws BindException {
+        Id dsRef = setupLog();
+        int port = WebLib.choosePort();
+        DeltaServer server = DeltaServer.create(port, localLink);
+        server.start();
+        Location loc = Location.create(DIR_ZONE);
+        FileOps.ensureDir(loc.getDirectoryPath());
+        FileOps.clearAll(loc.getDirectoryPath());
+        Zone zone = Zone.connect(loc);
+        try {
+            DeltaLink remoteLink = DeltaLinkHTTP.connect("http://localhost:"+port+"/");
+            assertEquals(Version.create(3), remoteLink.getPatchLogInfo(dsRef).getSnapshotVersion());
+            bootstrap(dsRef, remoteLink, zone, LocalStorageType.TDB2);
+        } finally {
+            zone.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test public void bootstrap_remote_tdb2_bnode() throws BindException {
+        Id dsRef = setupLogBlankNodes();
+        int port = WebLib.choosePort();
+        DeltaServer server = DeltaServer.create(port, localLink);
+        server.start();
+        Location loc = Location.create(DIR_ZONE);
+        FileOps.ensureDir(loc.getDirectoryPath());
+        FileOps.clearAll(loc.getDirectoryPath());
+        Zone zone = Zone.connect(loc);
+        try {
+            DeltaLink remoteLink = DeltaLinkHTTP.connect("http://localhost:"+port+"/");
+            bootstrapBlankNodes(dsRef, remoteLink, zone, LocalStorageType.TDB2);
+        } finally {
+            zone.shutdown();
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.seaborne.delta.client.*;
+import org.seaborne.delta.lib.LogX;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.link.DeltaLinkWrapper;
+import org.seaborne.delta.server.local.DeltaLinkLocal;
+import org.seaborne.delta.server.local.LocalServer;
+import org.seaborne.delta.server.local.LocalServers;
+
+/**
+ * Background sync of several connections by one {@link SyncScheduler}, and the
+ * background refresh of the locks of several {@link LogLockMgr}.
+ */
+public class TestSyncScheduler {
+
+    private LocalServer localServer;
+    private DeltaLink localLink;
+    private SyncScheduler scheduler;
+
+    @BeforeClass public static void beforeClass() {
+        LogX.setJavaLogging("src/test/resources/logging.properties");
+    }
+
+    @Before public void before() {
+        localServer = LocalServer.create(LocalServers.configMem());
+        localLink = DeltaLinkLocal.connect(localServer);
+        // No periodic polling.
+        scheduler = new SyncScheduler(0, 2);
+    }
+
+    @After public void after() {
+        scheduler.shutdown();
+        LocalServer.release(localServer);
+    }
+
+    /** Count the batch requests for log details. */
+    static class CountingLink extends DeltaLinkWrapper {
+        final AtomicInteger batches = new AtomicInteger(0);
+        CountingLink(DeltaLink other) { super(other); }
+        @Override
+        public List<PatchLogInfo> getPatchLogInfo(List<Id> dsRefs) {
+            batches.incrementAndGet();
+            return super.getPatchLogInfo(dsRefs);
+        }
+    }
+
+    /** A link whose lock refresh requests wait until released. */
+    static class SlowLink extends DeltaLinkWrapper {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger refreshes = new AtomicInteger(0);
+        SlowLink(DeltaLink other) { super(other); }
+        @Override
+        public Set<Id> refreshLocks(Map<Id, Id> locks) {
+            refreshes.incrementAndGet();
+            try { release.await(); } catch (InterruptedException ex) {}
+            return super.refreshLocks(locks);
+        }
+    }
+
+    /** Count the lock refresh requests. */
+    static class RefreshCountingLink extends DeltaLinkWrapper {
+        final AtomicInteger refreshes = new AtomicInteger(0);
+        RefreshCountingLink(DeltaLink other) { super(other); }
+        @Override
+        public Set<Id> refreshLocks(Map<Id, Id> locks) {
+            refreshes.incrementAndGet();
+            return super.refreshLocks(locks);
+        }
+    }
+
+    private static void update(DeltaConnection dConn, int i) {
+        DatasetGraph dsg = dConn.getDatasetGraph();
+        Txn.executeWrite(dsg, ()->dsg.add(SSE.parseQuad("(_ :s :p "+i+")")));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long finish = System.currentTimeMillis() + 10_000;
+        while ( ! condition.getAsBoolean() ) {
+            assertTrue("Timeout", System.currentTimeMillis() < finish);
+            Lib.sleep(10);
+        }
+    }
+
+    private static boolean atVersion(List<DeltaConnection> dConns, long version) {
+        return dConns.stream().allMatch(dConn->dConn.getLocalVersion().value() == version);
+    }
+
+    @Test public void sync_shared() {
+        DeltaClient writer = DeltaClient.create(Zone.connectMem(), localLink);
+        CountingLink link = new CountingLink(localLink);
+        DeltaClient reader = DeltaClient.create(Zone.connectMem(), link);
+        List<DeltaConnection> writers = new ArrayList<>();
+        List<DeltaConnection> readers = new ArrayList<>();
+        for ( int i = 0 ; i < 3 ; i++ ) {
+            Id dsRef = writer.newDataSource("sched-"+i, "http://example/sched-"+i);
+            writer.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            DeltaConnection dConn = writer.get(dsRef);
+            update(dConn, 1);
+            writers.add(dConn);
+            reader.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+            readers.add(reader.get(dsRef));
+        }
+
+        // Registration syncs the connection.
+        readers.forEach(scheduler::register);
+        assertEquals(3, scheduler.size());
+        await(()->atVersion(readers, 1));
+        assertEquals(0, link.batches.get());
+
+        // One request for the details of all the logs.
+        writers.forEach(dConn->update(dConn, 2));
+        scheduler.pollNow();
+        await(()->atVersion(readers, 2));
+        assertEquals(1, link.batches.get());
+    }
+
+    @Test public void sync_unregister() {
+        DeltaClient writer = DeltaClient.create(Zone.connectMem(), localLink);
+        DeltaClient reader = DeltaClient.create(Zone.connectMem(), localLink);
+        Id dsRef = writer.newDataSource("sched", "http://example/sched");
+        writer.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        reader.register(dsRef, LocalStorageType.MEM, SyncPolicy.NONE);
+        DeltaConnection dConnWriter = writer.get(dsRef);
+        DeltaConnection dConnReader = reader.get(dsRef);
+
+        scheduler.register(dConnReader);
+        update(dConnWriter, 1);
+        scheduler.pollNow();
+        await(()->dConnReader.getLocalVersion().value() == 1);
+
+        scheduler.unregister(dConnReader);
+        assertEquals(0, scheduler.size());
+        update(dConnWriter, 2);
+        scheduler.pollNow();
+        Lib.sleep(200);
+        assertEquals(1, dConnReader.getLocalVersion().value());
+    }
+
+    @Test public void lockRefresh_slowServer() {
+        // A server that does not answer lock refreshes does not hold up the others.
+        Id dsRef1 = localLink.newDataSource("lock1", "http://example/lock1");
+        Id dsRef2 = localLink.newDataSource("lock2", "http://example/lock2");
+        SlowLink slowLink = new SlowLink(localLink);
+        RefreshCountingLink countingLink = new RefreshCountingLink(localLink);
+        LogLockMgr mgr1 = new LogLockMgr(slowLink);
+        LogLockMgr mgr2 = new LogLockMgr(countingLink);
+        LogLock lock1 = new LogLock(slowLink, dsRef1);
+        LogLock lock2 = new LogLock(countingLink, dsRef2);
+        try {
+            assertTrue(lock1.acquireLock());
+            assertTrue(lock2.acquireLock());
+            mgr1.add(lock1);
+            mgr2.add(lock2);
+            mgr1.start();
+            mgr2.start();
+            await(()->slowLink.refreshes.get() >= 1);
+            await(()->countingLink.refreshes.get() >= 2);
+            // The refresh of the slow server is not repeated while it is waiting.
+            assertEquals(1, slowLink.refreshes.get());
+        } finally {
+            slowLink.release.countDown();
+            mgr1.stop();
+            mgr2.stop();
+            lock1.releaseLock();
+            lock2.releaseLock();
+        }
+    }
+}
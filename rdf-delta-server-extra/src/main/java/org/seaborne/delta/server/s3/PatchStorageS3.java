@@ -19,6 +19,7 @@ package org.seaborne.delta.server.s3;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Objects;
 import java.util.stream.Stream;
@@ -27,13 +28,17 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
 
+import org.apache.jena.atlas.io.IOX;
 import org.apache.jena.atlas.lib.Lib;
 import org.apache.jena.atlas.logging.Log;
 import org.apache.jena.riot.web.HttpNames;
 import org.apache.jena.web.HttpSC;
 import org.seaborne.delta.DeltaConfigException;
 import org.seaborne.delta.DeltaConst;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
+import org.seaborne.delta.server.local.SpooledPatch;
 import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.apache.jena.rdfpatch.RDFPatch;
 import org.apache.jena.rdfpatch.RDFPatchOps;
@@ -84,6 +89,10 @@ public class PatchStorageS3 implements PatchStorage {
 
     @Override
     public void store(Id key, RDFPatch value) {
+        if ( value instanceof SpooledPatch ) {
+            storeSpooled(key, (SpooledPatch)value);
+            return;
+        }
         retry(5, () -> {
             String s3Key = idToKey(key);
             ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024);
@@ -97,6 +106,21 @@ public class PatchStorageS3 implements PatchStorage {
         });
     }
 
+    /** Upload the bytes of the patch, streaming from the spool, without an in-memory copy. */
+    private void storeSpooled(Id key, SpooledPatch patch) {
+        retry(5, () -> {
+            String s3Key = idToKey(key);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentType(DeltaConst.contentTypePatchText);
+            metadata.setContentLength(patch.size());
+            try ( InputStream in = patch.openStream() ) {
+                client.putObject(bucketName, s3Key, in, metadata);
+            } catch (IOException ex) {
+                throw IOX.exception(ex);
+            }
+        });
+    }
+
     @Override
     public RDFPatch fetch(Id key) {
         String s3Key = idToKey(key);
@@ -122,6 +146,19 @@ public class PatchStorageS3 implements PatchStorage {
 
     }
 
+    /** Server-side copy of the object when the destination is also in S3. */
+    @Override
+    public void copy(Version version, Id key, PatchStorage destination) {
+        if ( ! ( destination instanceof PatchStorageS3 ) || ((PatchStorageS3)destination).client != client ) {
+            PatchStorage.super.copy(version, key, destination);
+            return;
+        }
+        PatchStorageS3 dest = (PatchStorageS3)destination;
+        if ( ! client.doesObjectExist(bucketName, idToKey(key)) )
+            throw new DeltaException("copy: No patch for "+key);
+        retry(5, () -> client.copyObject(bucketName, idToKey(key), dest.bucketName, dest.idToKey(key)));
+    }
+
     @Override
     public void delete(Id id) {
         client.deleteObject(new DeleteObjectRequest(bucketName, idToKey(id)));
@@ -33,6 +33,10 @@ public class TestPatchLogZkS3 extends AbstractTestPatchLog {
     private PatchStore patchStore;
     private S3Mock s3Mock ;
 
+    // The Zookeeper index does not support truncation.
+    @Override
+    protected boolean supportsCompaction() { return false; }
+
     @Before public void beforeZkS3() {
         Pair<PatchStore, S3Mock> pair = S3T.setup();
         patchStore = pair.getLeft();
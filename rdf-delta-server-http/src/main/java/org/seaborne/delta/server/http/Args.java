@@ -31,6 +31,7 @@ import org.seaborne.delta.DeltaBadRequestException ;
 import org.seaborne.delta.DeltaConst;
 import org.seaborne.delta.DeltaOps ;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.UUIDHandler;
 
 /** Parsed arguments for Patch and Fetch.
  * <p>
@@ -143,7 +144,7 @@ public class Args {
 
             if ( patchStr.isEmpty() )
                 errorBadRequest("Patch ref empty");
-            if ( Id.maybeUUID(patchStr) ) {
+            if ( UUIDHandler.maybeUUID(patchStr) ) {
                 patchId = Id.parseId(patchStr, null);
                 if ( patchId == null )
                     errorBadRequest("Can't parse id: "+versionStr);
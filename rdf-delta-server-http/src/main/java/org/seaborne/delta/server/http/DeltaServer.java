@@ -72,6 +72,24 @@ public class DeltaServer {
         return new DeltaServer(pls);
     }
 
+    /**
+     * Create a patch log server that uses the given {@link DeltaLink},
+     * with the settings for the request thread pool.
+     */
+    public static DeltaServer create(int port, ThreadPoolConfig threadPoolConfig, DeltaLink engine) {
+        return create(port, threadPoolConfig, false, engine);
+    }
+
+    /**
+     * Create a patch log server that uses the given {@link DeltaLink},
+     * with the settings for the request thread pool, and optionally
+     * accepting HTTP/2 cleartext ("h2c") as well as HTTP/1.1.
+     */
+    public static DeltaServer create(int port, ThreadPoolConfig threadPoolConfig, boolean http2, DeltaLink engine) {
+        PatchLogServer pls = new PatchLogServer(null, port, threadPoolConfig, http2, engine);
+        return new DeltaServer(pls);
+    }
+
     /**
      * Create a patch log server that uses the given a Jetty configuation file and a
      * {@link DeltaLink} for its state.
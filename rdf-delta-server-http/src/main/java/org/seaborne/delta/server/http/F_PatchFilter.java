@@ -31,6 +31,7 @@ import org.apache.jena.fuseki.servlets.ActionErrorException;
 import org.seaborne.delta.DataSourceDescription;
 import org.seaborne.delta.Delta;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.UUIDHandler;
 import org.seaborne.delta.link.DeltaLink;
 
 /**
@@ -144,7 +145,7 @@ public class F_PatchFilter implements javax.servlet.Filter {
     // Look by name then by id
     private DataSourceDescription lookup(String x) {
         DataSourceDescription dsd = dLink.getDataSourceDescriptionByName(x);
-        if ( dsd == null && Id.maybeUUID(x)) {
+        if ( dsd == null && UUIDHandler.maybeUUID(x)) {
             // No name match - looks like a UUID.
             Id id = Id.parseId(x, null);
             if ( id != null )
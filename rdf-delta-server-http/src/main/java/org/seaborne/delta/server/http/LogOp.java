@@ -19,6 +19,7 @@ package org.seaborne.delta.server.http;
 
 import java.io.IOException ;
 import java.io.OutputStream ;
+import java.nio.file.Path;
 import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
@@ -38,9 +39,12 @@ import org.seaborne.delta.DataSourceDescription;
 import org.seaborne.delta.Delta;
 import org.seaborne.delta.DeltaBadPatchException;
 import org.seaborne.delta.DeltaConst;
+import org.seaborne.delta.DeltaHttpException;
 import org.seaborne.delta.DeltaNotFoundException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.UUIDHandler;
 import org.seaborne.delta.Version;
+import org.seaborne.delta.server.local.SpooledPatch;
 import org.apache.jena.rdfpatch.PatchException;
 import org.apache.jena.rdfpatch.RDFPatch ;
 import org.apache.jena.rdfpatch.RDFPatchOps ;
@@ -50,13 +54,25 @@ import org.slf4j.Logger ;
 public class LogOp {
     static private Logger LOG = Delta.getDeltaLogger("Patch") ;
 
+    // Limits for incoming patches. See DeltaConst.pDeltaPatch*.
+    /** Maximum size of a patch, in bytes. Negative means no limit. */
+    public static long MAX_PATCH_BYTES      = Long.getLong(DeltaConst.pDeltaPatchMaxSize, -1L);
+    /** Patches larger than this, in bytes, are spooled to disk while being appended. */
+    public static int  SPOOL_THRESHOLD      = Integer.getInteger(DeltaConst.pDeltaPatchSpoolThreshold, 1024*1024);
+    /** Directory for spooled patches, or null for the system temporary directory. */
+    public static Path SPOOL_DIR            = spoolDir(System.getProperty(DeltaConst.pDeltaPatchSpoolDir));
+
+    private static Path spoolDir(String dir) {
+        return ( dir == null ) ? null : Path.of(dir);
+    }
+
     /** Execute an append, assuming the action has been verified that it is an append operation */
     public static void append(DeltaAction action) throws IOException {
         Id dsRef = idForDatasource(action);
         if ( dsRef == null )
             throw new DeltaNotFoundException("No such datasource: '"+action.httpArgs.datasourceName+"'");
 
-        RDFPatch patch;
+        SpooledPatch patch;
         try {
             patch = readPatch(action);
         } catch (IOException ex) {
@@ -100,25 +116,44 @@ public class LogOp {
         } catch (IOException ex) {
             FmtLog.error(LOG, ex, "[%d] Patch:append ds:%s patch:%s => %s", action.id, dsRef.toString(), Id.str(patchId), ex.getMessage());
             throw ex;
+        } finally {
+            patch.close();
         }
     }
 
-    private static RDFPatch readPatch(DeltaAction action) throws IOException {
+    /**
+     * Read the request body into a {@link SpooledPatch}: the patch is kept as bytes, in
+     * memory or, if large, in a temporary file, and not as a list of changes.
+     * A binary patch is converted to text as it is read.
+     */
+    private static SpooledPatch readPatch(DeltaAction action) throws IOException {
         HttpServletRequest request = action.request;
         long byteLength = request.getContentLengthLong();
+        if ( MAX_PATCH_BYTES >= 0 && byteLength > MAX_PATCH_BYTES )
+            throw new DeltaHttpException(HttpSC.REQUEST_ENTITY_TOO_LARGE_413,
+                                         "Patch larger than the maximum of "+MAX_PATCH_BYTES+" bytes");
         try ( CountingInputStream in = new CountingInputStream(request.getInputStream()); ) {
-            RDFPatch patch = RDFPatchOps.read(in);
+            SpooledPatch patch = isBinary(request)
+                ? SpooledPatch.spoolBinary(in, MAX_PATCH_BYTES, SPOOL_THRESHOLD, SPOOL_DIR)
+                : SpooledPatch.spool(in, MAX_PATCH_BYTES, SPOOL_THRESHOLD, SPOOL_DIR);
             if ( byteLength != -1L ) {
                 if ( in.getByteCount() != byteLength )
                     FmtLog.warn(LOG, "[%d] Length mismatch: Read: %d : Content-Length: %d", action.id, in.getByteCount(),  byteLength);
             }
+            if ( patch.isSpilled() )
+                FmtLog.info(LOG, "[%d] Patch spooled to disk: %d bytes", action.id, patch.size());
             return patch;
         }
     }
 
+    private static boolean isBinary(HttpServletRequest request) {
+        String ct = request.getContentType();
+        return ct != null && ct.startsWith(DeltaConst.contentTypePatchBinary);
+    }
+
     private static Id idForDatasource(DeltaAction action) {
         String datasourceName = action.httpArgs.datasourceName;
-        if ( Id.maybeUUID(datasourceName) ) {
+        if ( UUIDHandler.maybeUUID(datasourceName) ) {
             // Looks like an Id
             try {
                 UUID uuid = UUID.fromString(datasourceName);
@@ -19,6 +19,7 @@ package org.seaborne.delta.server.http;
 
 import java.io.IOException;
 import java.net.BindException;
+import java.util.concurrent.BlockingQueue;
 
 import javax.servlet.Filter;
 import javax.servlet.Servlet;
@@ -27,10 +28,12 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.fuseki.main.sys.FusekiErrorHandler;
 import org.apache.jena.fuseki.servlets.ServletOps;
 import org.apache.jena.riot.Lang;
 import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -38,6 +41,8 @@ import org.eclipse.jetty.server.handler.ErrorHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.VirtualThreads;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.xml.XmlConfiguration;
@@ -64,6 +69,10 @@ public /*package*/ class PatchLogServer {
     private final DeltaLink deltaLink;
 
     /*package*/ PatchLogServer(String jettyConfig, int port, DeltaLink dLink) {
+        this(jettyConfig, port, ThreadPoolConfig.DEFAULT, false, dLink);
+    }
+
+    /*package*/ PatchLogServer(String jettyConfig, int port, ThreadPoolConfig threadPoolConfig, boolean http2, DeltaLink dLink) {
         DPS.init();
 
         // Either ... or ...
@@ -73,7 +82,7 @@ public /*package*/ class PatchLogServer {
             server = jettyServer(jettyConfigFile);
             this.port = ((ServerConnector)server.getConnectors()[0]).getPort();
         } else {
-            server = jettyServer(port, false);
+            server = jettyServer(port, false, threadPoolConfig, http2);
             this.port = port;
         }
 
@@ -98,6 +107,9 @@ public /*package*/ class PatchLogServer {
 
         addServlet(handler, "/"+DeltaConst.EP_Metrics, new S_Metrics());
 
+        // Notification of new versions. "/$/events?datasource=...&version=..."
+        addServlet(handler, "/"+DeltaConst.EP_Events, new S_Events(this.deltaLink));
+
         // Initial data. "/init-data?datasource=..."
         addServlet(handler, "/"+DeltaConst.EP_InitData, new S_FetchData(this.deltaLink));
 
@@ -153,18 +165,21 @@ public /*package*/ class PatchLogServer {
     }
 
     /** Build a Jetty server */
-    private static Server jettyServer(int port, boolean loopback) {
-        // Threads, (max, min) : default is set low.
-        // Normal Jetty default is (200,8).
-        QueuedThreadPool threadPool = new QueuedThreadPool(50, 4);
-        Server server = new Server(threadPool);
+    private static Server jettyServer(int port, boolean loopback, ThreadPoolConfig threadPoolConfig, boolean http2) {
+        Server server = new Server(threadPool(threadPoolConfig));
         HttpConnectionFactory f1 = new HttpConnectionFactory();
         f1.getHttpConfiguration().setRequestHeaderSize(512 * 1024);
         f1.getHttpConfiguration().setOutputBufferSize(5 * 1024 * 1024);
         // Do not add "Server: Jetty(....) when not a development system.
         if ( true )
             f1.getHttpConfiguration().setSendServerVersion(false);
-        ServerConnector connector = new ServerConnector(server, f1);
+        ServerConnector connector;
+        if ( http2 ) {
+            // HTTP/1.1 and HTTP/2 cleartext (h2c, by upgrade or by prior knowledge) on the same port.
+            HTTP2CServerConnectionFactory f2 = new HTTP2CServerConnectionFactory(f1.getHttpConfiguration());
+            connector = new ServerConnector(server, f1, f2);
+        } else
+            connector = new ServerConnector(server, f1);
         connector.setPort(port);
         server.addConnector(connector);
         if ( loopback )
@@ -172,6 +187,26 @@ public /*package*/ class PatchLogServer {
         return server;
     }
 
+    /** Build the request thread pool. */
+    private static QueuedThreadPool threadPool(ThreadPoolConfig config) {
+        // Unbounded (Jetty's default queue) or bounded. ThreadPoolConfig rejects 0.
+        BlockingQueue<Runnable> queue = null;
+        if ( config.getMaxQueued() != ThreadPoolConfig.UNBOUNDED ) {
+            int initial = Math.min(config.getMinThreads(), config.getMaxQueued());
+            queue = new BlockingArrayQueue<>(initial, initial, config.getMaxQueued());
+        }
+        QueuedThreadPool threadPool = new QueuedThreadPool(config.getMaxThreads(), config.getMinThreads(),
+                                                           config.getIdleTimeoutMillis(), queue);
+        if ( config.useVirtualThreads() ) {
+            if ( VirtualThreads.areSupported() )
+                threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            else
+                LOG.warn("Virtual threads not supported by this JVM: using platform threads");
+        }
+        FmtLog.debug(LOG, "%s", config);
+        return threadPool;
+    }
+
     /** Build a Jetty server from a Jetty.xml configuration file */
     private static Server jettyServer(String jettyConfig) {
         try {
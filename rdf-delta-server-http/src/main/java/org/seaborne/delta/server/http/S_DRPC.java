@@ -24,6 +24,7 @@ import java.io.IOException ;
 import java.io.InputStream ;
 import java.io.OutputStream ;
 import java.io.PrintStream ;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -100,7 +101,11 @@ public class S_DRPC extends DeltaServlet {
     protected void validateAction(DeltaAction action) throws IOException {
         // XXX
         // Checking once basic parsing of the request has been done to produce the JsonAction
-        switch(action.opName) {
+        checkOperation(action.opName);
+    }
+
+    private static void checkOperation(String opName) {
+        switch(opName) {
             case OP_PING:
             case OP_LIST_DS:
             case OP_LIST_DSD:
@@ -116,10 +121,11 @@ public class S_DRPC extends DeltaServlet {
             case OP_LOCK_READ:
             case OP_LOCK_GRAB:
             case OP_UNLOCK:
+            case OP_BATCH:
                 break;
             default:
-                LOG.warn("Unknown operation: "+action.opName);
-                throw new DeltaBadRequestException("Unknown operation: "+action.opName);
+                LOG.warn("Unknown operation: "+opName);
+                throw new DeltaBadRequestException("Unknown operation: "+opName);
         }
     }
 
@@ -138,74 +144,13 @@ public class S_DRPC extends DeltaServlet {
         JsonObject arg = action.rpcArg;
         // Some operations are logged at DEBUG because they are high-volume polling.
         // They should all be "read" operations.
-        boolean infoLogThisRPC = true;
+        boolean infoLogThisRPC = infoLog(action.opName);
         String recordOp = null;
         try {
-            switch(action.opName) {
-                case OP_PING:
-                    infoLogThisRPC = false;
-                    rslt = ping(action);
-                    break ;
-                case OP_LIST_DS:
-                    infoLogThisRPC = false;
-                    rslt = listDataSources(action);
-                    break ;
-                case OP_DESCR_DS:
-                    infoLogThisRPC = false;
-                    rslt = describeDataSource(action);
-                    break ;
-                case OP_DESCR_LOG:
-                    infoLogThisRPC = false;
-                    rslt = describePatchLog(action);
-                    break ;
-                case OP_LIST_LOG_INFO:
-                    // This operation is used to poll for changes so there can be a lot
-                    // of such requests. Don't log.
-                    // If "same as last time" infoLogThisRPC = ! OP_LIST_LOG_INFO.equals(lastOpName);
-                    infoLogThisRPC = false;
-                    rslt = listPatchLogInfo(action);
-                    break ;
-                case OP_LIST_DSD:
-                    infoLogThisRPC = false;
-                    rslt = listDataSourcesDescriptions(action);
-                    break ;
-
-                // Operations that change the server.
-                case OP_CREATE_DS:
-                    rslt = createDataSource(action);
-                    break;
-                case OP_COPY_DS:
-                    rslt = copyDataSource(action);
-                    break;
-                case OP_RENAME_DS:
-                    rslt = renameDataSource(action);
-                    break;
-                case OP_REMOVE_DS:
-                    rslt = removeDataSource(action);
-                    break;
-                case OP_LOCK:
-                    infoLogThisRPC = false;
-                    rslt = acquirePatchLogLock(action);
-                    break;
-                case OP_LOCK_REFRESH:
-                    infoLogThisRPC = false;
-                    rslt = refreshPatchLogLock(action);
-                    break;
-                case OP_LOCK_READ:
-                    infoLogThisRPC = false;
-                    rslt = readPatchLogLock(action);
-                    break;
-                case OP_LOCK_GRAB:
-                    infoLogThisRPC = true;
-                    rslt = grabPatchLogLock(action);
-                    break;
-                case OP_UNLOCK:
-                    infoLogThisRPC = false;
-                    rslt = releasePatchLogLock(action);
-                    break;
-                default:
-                    throw new InternalErrorException("Unknown operation: "+action.opName);
-            }
+            if ( OP_BATCH.equals(action.opName) )
+                rslt = batch(action);
+            else
+                rslt = dispatch(action);
             //
             recordOp = action.opName;
         }
@@ -222,6 +167,106 @@ public class S_DRPC extends DeltaServlet {
         sendJsonResponse(action.response, rslt);
     }
 
+    /**
+     * Whether an operation is logged at INFO.
+     * Read operations, especially those used for polling, are logged at DEBUG.
+     */
+    private static boolean infoLog(String opName) {
+        switch(opName) {
+            case OP_CREATE_DS:
+            case OP_COPY_DS:
+            case OP_RENAME_DS:
+            case OP_REMOVE_DS:
+            case OP_LOCK_GRAB:
+                return true;
+            // OP_LIST_LOG_INFO is used to poll for changes so there can be a lot
+            // of such requests. Don't log.
+            // If "same as last time" infoLogThisRPC = ! OP_LIST_LOG_INFO.equals(lastOpName);
+            default:
+                return false;
+        }
+    }
+
+    /** Execute one (non-batch) operation. */
+    private JsonValue dispatch(DeltaAction action) {
+        switch(action.opName) {
+            case OP_PING:           return ping(action);
+            case OP_LIST_DS:        return listDataSources(action);
+            case OP_DESCR_DS:       return describeDataSource(action);
+            case OP_DESCR_LOG:      return describePatchLog(action);
+            case OP_LIST_LOG_INFO:  return listPatchLogInfo(action);
+            case OP_LIST_DSD:       return listDataSourcesDescriptions(action);
+
+            // Operations that change the server.
+            case OP_CREATE_DS:      return createDataSource(action);
+            case OP_COPY_DS:        return copyDataSource(action);
+            case OP_RENAME_DS:      return renameDataSource(action);
+            case OP_REMOVE_DS:      return removeDataSource(action);
+            case OP_LOCK:           return acquirePatchLogLock(action);
+            case OP_LOCK_REFRESH:   return refreshPatchLogLock(action);
+            case OP_LOCK_READ:      return readPatchLogLock(action);
+            case OP_LOCK_GRAB:      return grabPatchLogLock(action);
+            case OP_UNLOCK:         return releasePatchLogLock(action);
+            default:
+                throw new InternalErrorException("Unknown operation: "+action.opName);
+        }
+    }
+
+    /**
+     * Batch of operations in one request.
+     * <pre>
+     *   { "array" : [ { "operation" : "...", "arg" : {...} } , ... ] }
+     *   =&gt;
+     *   { "array" : [ result, ... ] }
+     * </pre>
+     * Results are in the same order as the operations. The operations are executed in
+     * order and an operation that fails does not stop later operations; its result is
+     * {@code { "error" : "message", "status" : code }} where the code is the HTTP status
+     * code that operation would have had. Batches do not nest.
+     */
+    private JsonValue batch(DeltaAction action) {
+        JsonArray array = getFieldAsArray(action, F_ARRAY);
+        List<JsonValue> results = new ArrayList<>(array.size());
+        for ( JsonValue jv : array ) {
+            results.add(batchItem(action, jv));
+        }
+        return JSONX.buildObject(b->{
+            b.key(F_ARRAY);
+            b.startArray();
+            results.forEach(b::value);
+            b.finishArray();
+        });
+    }
+
+    private JsonValue batchItem(DeltaAction action, JsonValue item) {
+        try {
+            if ( ! item.isObject() )
+                throw new DeltaBadRequestException("Batch item is not a JSON object: "+JSON.toStringFlat(item));
+            JsonObject obj = item.getAsObject();
+            String op = getFieldAsString(obj, F_OP);
+            JsonObject arg = getFieldAsObject(obj, F_ARG);
+            if ( OP_BATCH.equals(op) )
+                throw new DeltaBadRequestException("Nested batch operation");
+            checkOperation(op);
+            DeltaAction subAction = DeltaAction.create(action.request, action.response, action.dLink, action.token,
+                                                       op, null, arg, obj);
+            JsonValue rslt = dispatch(subAction);
+            if ( infoLog(op) )
+                FmtLog.info(LOG, "[%d] %s %s => %s", action.id, op, JSON.toStringFlat(arg), JSON.toStringFlat(rslt)) ;
+            return ( rslt == null ) ? noResults : rslt;
+        } catch (DeltaException ex) {
+            FmtLog.debug(LOG, "[%d] batch item failed: %s", action.id, ex.getMessage());
+            String msg = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+            int sc = ( ex instanceof DeltaHttpException )
+                ? ((DeltaHttpException)ex).getStatusCode()
+                : HttpSC.INTERNAL_SERVER_ERROR_500;
+            return JSONX.buildObject(b->{
+                b.key(F_ERROR).value(msg);
+                b.key(F_STATUS).value(sc);
+            });
+        }
+    }
+
     static public void sendJsonResponse(HttpServletResponse resp, JsonValue rslt) {
         try {
             OutputStream out = resp.getOutputStream() ;
@@ -380,9 +425,20 @@ public class S_DRPC extends DeltaServlet {
         return noResults;
     }
 
+    /**
+     * Longest time, in milliseconds, a "lock" request waits for the lock. The request holds
+     * a server thread while it waits so this is kept short; a client that wants to wait
+     * longer asks again. See {@link DeltaConst#pDeltaLockMaxWait}.
+     */
+    public static long MAX_LOCK_WAIT_MS = Long.getLong(DeltaConst.pDeltaLockMaxWait, 5_000L);
+
     private JsonValue acquirePatchLogLock(DeltaAction action) {
         Id dsRef = getFieldAsId(action, F_DATASOURCE);
-        Id session = action.dLink.acquireLock(dsRef);
+        // Optional: wait for the lock to be released.
+        long timeout = getFieldAsLong(action.rpcArg, F_TIMEOUT, 0);
+        Id session = ( timeout > 0 )
+            ? action.dLink.acquireLock(dsRef, Math.min(timeout, MAX_LOCK_WAIT_MS))
+            : action.dLink.acquireLock(dsRef);
         if ( session == null )
             return JSONX.buildObject(b->b.key(F_LOCK_REF).value(JsonNull.instance));
         return JSONX.buildObject(b->b.key(F_LOCK_REF).value(session.asPlainString()));
@@ -520,4 +576,15 @@ public class S_DRPC extends DeltaServlet {
     private static Id getFieldAsId(JsonObject arg, String field) {
         return Id.fromString(getFieldAsString(arg, field));
     }
+
+    private static long getFieldAsLong(JsonObject arg, String field, long dft) {
+        JsonValue v = arg.get(field);
+        if ( v == null )
+            return dft;
+        if ( ! v.isNumber() ) {
+            LOG.warn("Bad request: Field not a number: "+field+" Arg: "+JSON.toStringFlat(arg)) ;
+            throw new DeltaBadRequestException("Bad field '"+field+"' : "+v) ;
+        }
+        return v.getAsNumber().value().longValue();
+    }
 }
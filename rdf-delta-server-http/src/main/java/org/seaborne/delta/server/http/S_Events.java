@@ -0,0 +1,175 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.server.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.web.HttpSC;
+import org.seaborne.delta.*;
+import org.seaborne.delta.link.DeltaLink;
+import org.slf4j.Logger;
+
+/**
+ * Notification of new versions of a patch log.
+ * <p>
+ * {@code GET /$/events?datasource={id}&version={version}&timeout={millis}}
+ * <ul>
+ * <li>Long-poll (default): the request waits until the log has a version later than
+ * {@code version} and returns the {@link PatchLogInfo} as JSON, or returns an empty
+ * JSON object if the timeout is reached first.
+ * <li>Server-Sent Events ({@code Accept: text/event-stream}): the response stays open
+ * and an {@code append} event, with the {@link PatchLogInfo} as the data, is sent as
+ * each new version is committed. {@code timeout} is the keep-alive interval.
+ * </ul>
+ * If {@code version} is not given, the current version of the log is used.
+ * <p>
+ * A waiting request holds a server thread, so at most {@link #MAX_WAITING} requests
+ * wait at once; other requests get 503 (Service Unavailable) and can try again later.
+ */
+public class S_Events extends HttpOperationBase {
+    static private Logger LOG = Delta.getDeltaLogger("Events");
+
+    public static final String contentTypeEventStream = "text/event-stream";
+
+    // Long-poll wait and SSE keep-alive, milliseconds.
+    private static final long DFT_TIMEOUT_MS = 30_000;
+    private static final long MAX_TIMEOUT_MS = 5*60_000;
+
+    /** Maximum number of requests waiting at once, for each server. */
+    public static int MAX_WAITING = Integer.getInteger(DeltaConst.pDeltaEventsMaxWaiting, 20);
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    public S_Events(DeltaLink engine) {
+        super(engine);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        doCommon(req, resp);
+    }
+
+    @Override
+    protected void validateAction(Args httpArgs) {
+        if ( httpArgs.datasourceName == null )
+            DeltaAction.errorBadRequest("No datasource");
+    }
+
+    @Override
+    protected void executeAction(DeltaAction action) throws IOException {
+        Id dsRef = Id.parseId(action.httpArgs.datasourceName, null);
+        if ( dsRef == null )
+            DeltaAction.errorBadRequest("Not a data source id: "+action.httpArgs.datasourceName);
+        long timeout = timeout(action.request);
+        Version version = ( action.httpArgs.version == null )
+            ? currentVersion(action.dLink, dsRef)
+            : Version.create(action.httpArgs.version);
+
+        if ( waiting.incrementAndGet() > MAX_WAITING ) {
+            waiting.decrementAndGet();
+            throw new DeltaHttpException(HttpSC.SERVICE_UNAVAILABLE_503, "Too many waiting requests for events");
+        }
+        try {
+            String accept = action.request.getHeader(HttpNames.hAccept);
+            if ( accept != null && accept.contains(contentTypeEventStream) )
+                eventStream(action, dsRef, version, timeout);
+            else
+                longPoll(action, dsRef, version, timeout);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private static Version currentVersion(DeltaLink dLink, Id dsRef) {
+        PatchLogInfo info = dLink.getPatchLogInfo(dsRef);
+        if ( info == null )
+            throw new DeltaNotFoundException("No such data source: "+dsRef);
+        return info.getMaxVersion();
+    }
+
+    private static long timeout(HttpServletRequest request) {
+        String timeoutStr = request.getParameter(DeltaConst.paramTimeout);
+        if ( timeoutStr == null )
+            return DFT_TIMEOUT_MS;
+        try {
+            long timeout = Long.parseLong(timeoutStr);
+            if ( timeout < 0 )
+                DeltaAction.errorBadRequest("Negative timeout: "+timeoutStr);
+            return Math.min(timeout, MAX_TIMEOUT_MS);
+        } catch (NumberFormatException ex) {
+            DeltaAction.errorBadRequest("Can't parse timeout: "+timeoutStr);
+            return -1;
+        }
+    }
+
+    private static void longPoll(DeltaAction action, Id dsRef, Version version, long timeout) {
+        PatchLogInfo info = action.dLink.awaitChange(dsRef, version, timeout);
+        JsonObject result = ( info == null ) ? new JsonObject() : info.asJson();
+        S_ReplyJSON.json(action.request, action.response, result);
+    }
+
+    /** Server-Sent Events. Runs until the client goes away. */
+    private static void eventStream(DeltaAction action, Id dsRef, Version version, long keepAlive) throws IOException {
+        HttpServletResponse response = action.response;
+        response.setStatus(HttpSC.OK_200);
+        response.setHeader(HttpNames.hCacheControl, "no-cache");
+        response.setContentType(contentTypeEventStream);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        OutputStream out = response.getOutputStream();
+        FmtLog.info(LOG, "[%d] Event stream: %s from %s", action.id, dsRef, version);
+        try {
+            // Initial comment : sends the headers.
+            send(out, ": "+dsRef+"\n\n");
+            // keepAlive==0 means "no wait" to a long-poll; for a stream, use the default.
+            long wait = ( keepAlive > 0 ) ? keepAlive : DFT_TIMEOUT_MS;
+            while ( ! Thread.currentThread().isInterrupted() ) {
+                PatchLogInfo info = action.dLink.awaitChange(dsRef, version, wait);
+                if ( info == null ) {
+                    // Keep-alive; also detects a closed connection.
+                    send(out, ": \n\n");
+                    continue;
+                }
+                version = info.getMaxVersion();
+                send(out, "event: append\nid: "+version.asParam()+"\ndata: "+JSON.toStringFlat(info.asJson())+"\n\n");
+            }
+        } catch (IOException | DeltaException ex) {
+            // Client gone, the log has been removed or the server is stopping.
+            FmtLog.info(LOG, "[%d] Event stream end: %s", action.id, dsRef);
+        }
+    }
+
+    private static void send(OutputStream out, String string) throws IOException {
+        out.write(string.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Override
+    protected String getOpName() {
+        return "events";
+    }
+}
@@ -17,6 +17,7 @@
 
 package org.seaborne.delta.server.http;
 
+import java.io.File ;
 import java.io.FileNotFoundException ;
 import java.io.IOException;
 import java.io.InputStream ;
@@ -24,23 +25,37 @@ import java.nio.file.Files ;
 import java.nio.file.NoSuchFileException ;
 import java.nio.file.Path ;
 import java.nio.file.Paths ;
+import java.util.zip.GZIPOutputStream ;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils ;
+import org.apache.commons.io.output.DeferredFileOutputStream ;
 import org.apache.jena.atlas.lib.IRILib ;
 import org.apache.jena.atlas.web.ContentType ;
+import org.apache.jena.query.Query;
 import org.apache.jena.riot.RDFLanguages ;
+import org.apache.jena.riot.WebContent ;
+import org.apache.jena.riot.web.HttpNames ;
 import org.apache.jena.web.HttpSC ;
 import org.seaborne.delta.Delta;
+import org.seaborne.delta.DeltaConst;
 import org.seaborne.delta.DeltaNotFoundException ;
 import org.seaborne.delta.Id ;
+import org.seaborne.delta.Version ;
 import org.seaborne.delta.link.DeltaLink;
 import org.seaborne.delta.server.local.DataSource;
+import org.seaborne.delta.server.local.Materializer;
 import org.slf4j.Logger ;
 
-/** Data over HTTP. */
+/**
+ * Data over HTTP.
+ * <p>
+ * {@code ?datasource=ID} is the initial data of the log.
+ * {@code ?datasource=ID&version=N} is the snapshot of the log at version N, as N-Quads, sent gzip-compressed.
+ * {@code ?datasource=ID&query=QUERY} evaluates a SPARQL query on the server's materialized data of the log.
+ */
 public class S_FetchData extends HttpOperationBase {
     static private Logger LOG = Delta.getDeltaLogger("Data") ;
 
@@ -67,6 +82,15 @@ public class S_FetchData extends HttpOperationBase {
     protected void executeAction(DeltaAction action) throws IOException {
         LOG.info("GET "+action.getURL());
         Id dsRef = Id.fromString(action.httpArgs.datasourceName);
+        String queryString = action.request.getParameter(DeltaConst.paramQuery);
+        if ( queryString != null ) {
+            sendQuery(action, dsRef, queryString);
+            return;
+        }
+        if ( action.httpArgs.version != null ) {
+            sendSnapshot(action, dsRef, Version.create(action.httpArgs.version));
+            return;
+        }
         String filenameIRI = determineData(action, dsRef);
         ContentType ct = RDFLanguages.guessContentType(filenameIRI) ;
         String fn = IRILib.IRIToFilename(filenameIRI);
@@ -80,6 +104,47 @@ public class S_FetchData extends HttpOperationBase {
         }
     }
 
+    /** Snapshot of the log at a version: N-Quads, sent gzip-compressed. */
+    private void sendSnapshot(DeltaAction action, Id dsRef, Version version) throws IOException {
+        try ( InputStream in = action.dLink.fetchSnapshot(dsRef, version) ) {
+            if ( in == null )
+                throw new DeltaNotFoundException("No snapshot: "+action.getURL());
+            action.response.setStatus(HttpSC.OK_200);
+            action.response.setContentType(WebContent.contentTypeNQuads);
+            action.response.setHeader(HttpNames.hContentEncoding, "gzip");
+            try ( GZIPOutputStream out = new GZIPOutputStream(action.response.getOutputStream()) ) {
+                IOUtils.copy(in, out);
+            }
+        }
+    }
+
+    /**
+     * Query on the materialized data of the log: SPARQL JSON results, or N-Triples for CONSTRUCT and DESCRIBE.
+     * The results are collected before the response is started, in memory or, if large, in a
+     * temporary file (see {@link LogOp#SPOOL_THRESHOLD}), so that a query that fails part way
+     * gets an error status, not a truncated response.
+     */
+    private void sendQuery(DeltaAction action, Id dsRef, String queryString) throws IOException {
+        Query query = Materializer.parseQuery(queryString);
+        String ct = ( query.isSelectType() || query.isAskType() ) ? WebContent.contentTypeResultsJSON : WebContent.contentTypeNTriples;
+        File spoolDir = ( LogOp.SPOOL_DIR == null ) ? null : LogOp.SPOOL_DIR.toFile();
+        DeferredFileOutputStream results = new DeferredFileOutputStream(LogOp.SPOOL_THRESHOLD, "query-", ".tmp", spoolDir);
+        try {
+            boolean found;
+            try ( results ) {
+                found = action.dLink.query(dsRef, queryString, results);
+            }
+            if ( ! found )
+                throw new DeltaNotFoundException("No materialized data: "+action.getURL());
+            action.response.setStatus(HttpSC.OK_200);
+            action.response.setContentType(ct);
+            results.writeTo(action.response.getOutputStream());
+        } finally {
+            if ( ! results.isInMemory() )
+                Files.deleteIfExists(results.getFile().toPath());
+        }
+    }
+
     /** Decide which data to return.
      *  Default is the initial data for a {@link DataSource}.
      */
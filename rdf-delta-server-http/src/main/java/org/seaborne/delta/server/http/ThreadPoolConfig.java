@@ -0,0 +1,118 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.server.http;
+
+/**
+ * Settings for the Jetty request thread pool of a {@link PatchLogServer}.
+ * <p>
+ * {@code maxQueued} bounds the number of requests waiting for a thread; when full,
+ * further requests are rejected rather than queued. A value of -1 ({@link #UNBOUNDED})
+ * means unbounded. Zero is not allowed.
+ * <p>
+ * If virtual threads are requested, and the JVM supports them, requests are run on
+ * virtual threads; the pool threads then only handle the network selectors.
+ */
+public class ThreadPoolConfig {
+    // Normal Jetty default is (200,8); the delta server default is set low.
+    public static final int  DFT_MAX_THREADS     = 50;
+    public static final int  DFT_MIN_THREADS     = 4;
+    /** Value of {@code maxQueued} for no limit on the request queue. */
+    public static final int  UNBOUNDED           = -1;
+    public static final int  DFT_MAX_QUEUED      = UNBOUNDED;
+    public static final int  DFT_IDLE_TIMEOUT_MS = 60_000;
+
+    /** The settings before they were configurable: QueuedThreadPool(50, 4) */
+    public static final ThreadPoolConfig DEFAULT = create().build();
+
+    private final int maxThreads;
+    private final int minThreads;
+    private final int maxQueued;
+    private final int idleTimeoutMillis;
+    private final boolean virtualThreads;
+
+    private ThreadPoolConfig(int maxThreads, int minThreads, int maxQueued, int idleTimeoutMillis, boolean virtualThreads) {
+        this.maxThreads = maxThreads;
+        this.minThreads = minThreads;
+        this.maxQueued = maxQueued;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getMaxThreads()          { return maxThreads; }
+    public int getMinThreads()          { return minThreads; }
+    public int getMaxQueued()           { return maxQueued; }
+    public int getIdleTimeoutMillis()   { return idleTimeoutMillis; }
+    public boolean useVirtualThreads()  { return virtualThreads; }
+
+    @Override
+    public String toString() {
+        return String.format("ThreadPool[max=%d, min=%d, queue=%d, idle=%dms%s]",
+                             maxThreads, minThreads, maxQueued, idleTimeoutMillis, virtualThreads ? ", virtual" : "");
+    }
+
+    public static Builder create() { return new Builder(); }
+
+    public static class Builder {
+        private int maxThreads          = DFT_MAX_THREADS;
+        private int minThreads          = DFT_MIN_THREADS;
+        private int maxQueued           = DFT_MAX_QUEUED;
+        private int idleTimeoutMillis   = DFT_IDLE_TIMEOUT_MS;
+        private boolean virtualThreads  = false;
+
+        public Builder() {}
+
+        public Builder maxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        public Builder minThreads(int minThreads) {
+            this.minThreads = minThreads;
+            return this;
+        }
+
+        /** Maximum number of queued requests: positive, or -1 ({@link #UNBOUNDED}) for unbounded. */
+        public Builder maxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        public Builder idleTimeout(int idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /** Run requests on virtual threads, if the JVM supports them. */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public ThreadPoolConfig build() {
+            if ( maxThreads <= 0 )
+                throw new IllegalArgumentException("maxThreads must be positive: "+maxThreads);
+            if ( minThreads < 0 || minThreads > maxThreads )
+                throw new IllegalArgumentException("minThreads must be between 0 and maxThreads: "+minThreads);
+            if ( maxQueued != UNBOUNDED && maxQueued <= 0 )
+                throw new IllegalArgumentException("maxQueued must be positive or -1 (unbounded): "+maxQueued);
+            if ( idleTimeoutMillis <= 0 )
+                throw new IllegalArgumentException("idleTimeout must be positive: "+idleTimeoutMillis);
+            return new ThreadPoolConfig(maxThreads, minThreads, maxQueued, idleTimeoutMillis, virtualThreads);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.server.local;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.seaborne.delta.Id;
+
+/**
+ * Wake-up points for threads waiting for a patch log to change.
+ * <p>
+ * Each log has a generation counter, incremented on each append. A waiter reads the
+ * generation before looking at the log so that it does not miss an append that
+ * happens between looking and waiting.
+ * <p>
+ * A log has an entry only once it has been appended to or waited on. Reading the
+ * generation does not create one, and {@link #remove} drops it when the log is deleted.
+ */
+/*package*/ class AppendSignal {
+    private final Map<Id, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /*package*/ AppendSignal() {}
+
+    /** Current generation for a log. */
+    /*package*/ long generation(Id dsRef) {
+        AtomicLong counter = generations.get(dsRef);
+        return ( counter == null ) ? 0 : counter.get();
+    }
+
+    /** A log has changed : wake up any waiters. */
+    /*package*/ void signal(Id dsRef) {
+        AtomicLong counter = counter(dsRef);
+        synchronized(counter) {
+            counter.incrementAndGet();
+            counter.notifyAll();
+        }
+    }
+
+    /** A log has gone: wake up any waiters and forget the log. */
+    /*package*/ void remove(Id dsRef) {
+        AtomicLong counter = generations.remove(dsRef);
+        if ( counter == null )
+            return;
+        synchronized(counter) {
+            counter.incrementAndGet();
+            counter.notifyAll();
+        }
+    }
+
+    /** Wake up all waiters (e.g. on shutdown). */
+    /*package*/ void signalAll() {
+        generations.values().forEach(counter->{
+            synchronized(counter) {
+                counter.incrementAndGet();
+                counter.notifyAll();
+            }
+        });
+    }
+
+    /**
+     * Wait until the generation is not {@code generation}, or until the timeout has
+     * passed.
+     */
+    /*package*/ void await(Id dsRef, long generation, long timeoutMillis) throws InterruptedException {
+        AtomicLong counter = counter(dsRef);
+        long finish = System.currentTimeMillis() + timeoutMillis;
+        synchronized(counter) {
+            while ( counter.get() == generation ) {
+                long remaining = finish - System.currentTimeMillis();
+                if ( remaining <= 0 )
+                    return;
+                counter.wait(remaining);
+            }
+        }
+    }
+
+    private AtomicLong counter(Id dsRef) {
+        return generations.computeIfAbsent(dsRef, (k)->new AtomicLong(0));
+    }
+}
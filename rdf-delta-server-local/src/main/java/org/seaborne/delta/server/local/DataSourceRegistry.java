@@ -50,8 +50,11 @@ public class DataSourceRegistry extends Registry<Id, DataSource> {
         put(ds.getId(), ds);
     }
 
+    // Changes are synchronized so the id, name and URI indexes change together.
+    // Lookups do not lock.
+
     @Override
-    public void put(Id key, DataSource ds) {
+    public synchronized void put(Id key, DataSource ds) {
         if ( LOG.isDebugEnabled() ) LOG.debug("Register datasource: "+key );
         remove(key);
         super.put(key, ds) ;
@@ -61,8 +64,14 @@ public class DataSourceRegistry extends Registry<Id, DataSource> {
             indexByName.put(ds.getName(), ds);
     }
 
+    /** Replace the registration of {@code oldKey} with {@code ds}, as one change. */
+    public synchronized void replace(Id oldKey, DataSource ds) {
+        remove(oldKey);
+        add(ds);
+    }
+
     @Override
-    public void remove(Id key) {
+    public synchronized void remove(Id key) {
         DataSource ds = get(key);
         if ( ds == null )
             return;
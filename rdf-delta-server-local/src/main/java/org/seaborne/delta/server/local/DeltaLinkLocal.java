@@ -20,6 +20,8 @@ package org.seaborne.delta.server.local;
 import static org.apache.jena.atlas.lib.ListUtils.toList;
 import static org.seaborne.delta.Id.str;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -54,6 +56,12 @@ public class DeltaLinkLocal implements DeltaLink {
 
     private Set<DeltaLinkListener> listeners = ConcurrentHashMap.newKeySet();
 
+    // Waiters for new versions of a log.
+    private final AppendSignal appendSignal = new AppendSignal();
+    // Changes made by another server in a cluster are not signalled so waiters
+    // also recheck the log at this interval.
+    private static final long AWAIT_RECHECK_MS = 1000;
+
     public static DeltaLink connect(LocalServer localServer) {
         return new DeltaLinkLocal(localServer);
     }
@@ -73,6 +81,7 @@ public class DeltaLinkLocal implements DeltaLink {
     @Override
     public void close() {
         linkOpen = false;
+        appendSignal.signalAll();
         localServer.shutdown();
     }
 
@@ -138,6 +147,7 @@ public class DeltaLinkLocal implements DeltaLink {
     public void removeDataSource(Id dsRef) {
         checkLink();
         localServer.removeDataSource(dsRef);
+        appendSignal.remove(dsRef);
         event(listener->listener.removeDataSource(dsRef));
     }
 
@@ -192,7 +202,36 @@ public class DeltaLinkLocal implements DeltaLink {
         DataSource source = getDataSource(dsRef);
         if ( source == null )
             return null;
-        return source.getPatchLog().getInfo();
+        return localServer.getPatchLogInfo(source);
+    }
+
+    @Override
+    public PatchLogInfo awaitChange(Id dsRef, Version version, long timeoutMillis) {
+        checkLink();
+        long finish = System.currentTimeMillis() + timeoutMillis;
+        for(;;) {
+            // Generation before looking at the log.
+            long generation = appendSignal.generation(dsRef);
+            PatchLogInfo info;
+            try {
+                info = getPatchLogInfo(dsRef);
+            } catch (DeltaNotFoundException ex) {
+                // Deleted while waiting: drop any entry this wait added back.
+                appendSignal.remove(dsRef);
+                throw ex;
+            }
+            if ( info.getMaxVersion().isAfter(version) )
+                return info;
+            long remaining = finish - System.currentTimeMillis();
+            if ( remaining <= 0 || !linkOpen )
+                return null;
+            try {
+                appendSignal.await(dsRef, generation, Math.min(remaining, AWAIT_RECHECK_MS));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
     }
 
     @Override
@@ -210,6 +249,11 @@ public class DeltaLinkLocal implements DeltaLink {
             long t2 = System.currentTimeMillis();
 
             afterWrite(source, rdfPatch, version, (t2 - t1));
+            appendSignal.signal(dsRef);
+            Snapshots snapshots = localServer.getSnapshots();
+            if ( snapshots != null )
+                snapshots.afterAppend(patchLog, version);
+            localServer.getPatchHandlers().afterAppend(source, version, rdfPatch);
             event(listener-> listener.append(dsRef, version, rdfPatch));
             return version;
         }
@@ -313,6 +357,26 @@ public class DeltaLinkLocal implements DeltaLink {
         return null;
     }
 
+    @Override
+    public InputStream fetchSnapshot(Id dsRef, Version version) {
+        checkLink();
+        getDataSource(dsRef);
+        Snapshots snapshots = localServer.getSnapshots();
+        if ( snapshots == null )
+            return null;
+        return snapshots.openNQuads(dsRef, version);
+    }
+
+    @Override
+    public boolean query(Id dsRef, String queryString, OutputStream output) {
+        checkLink();
+        getDataSource(dsRef);
+        Materializer materializer = localServer.getMaterializer();
+        if ( materializer == null )
+            return false;
+        return materializer.query(dsRef, queryString, output);
+    }
+
     private <X> void event(Consumer<DeltaLinkListener> action) {
         listeners.forEach(action);
     }
@@ -338,6 +402,16 @@ public class DeltaLinkLocal implements DeltaLink {
         return session;
     }
 
+    @Override
+    public Id acquireLock(Id datasourceId, long timeoutMillis) {
+        Objects.requireNonNull(datasourceId);
+        checkLink();
+        DataSource source = getDataSource(datasourceId);
+        if ( source == null )
+            return null;
+        return source.getPatchLog().acquireLock(timeoutMillis);
+    }
+
     @Override
     public boolean refreshLock(Id datasourceId, Id session) {
         Objects.requireNonNull(datasourceId);
@@ -20,6 +20,7 @@ package org.seaborne.delta.server.local;
 import static org.seaborne.delta.DeltaOps.verString;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
@@ -69,8 +70,17 @@ public class LocalServer {
     // Cache of known disabled data sources. (Not set at startup - disabled
     // data sources are skipped completely so no assumption if a valid format
     // area is made and just the "disabled" file is needed).
-    private Set<Id> disabledDatasources = new HashSet<>();
-    private Object serverLock = new Object();
+    private Set<Id> disabledDatasources = ConcurrentHashMap.newKeySet();
+
+    /** Number of locks that data source names are spread over. */
+    public static int AdminLockStripes = Integer.getInteger("delta.server.admin_lock_stripes", 64);
+
+    // Create, copy, rename and remove lock the names of the data sources involved,
+    // not the whole server, so a slow operation on one log does not stall others.
+    // Changes to the DataSourceRegistry are atomic (see DataSourceRegistry.put).
+    private final NameLocks nameLocks = new NameLocks(AdminLockStripes);
+    // Names of data sources being created by a copy, which runs without the name lock.
+    private final Set<String> pendingNames = ConcurrentHashMap.newKeySet();
 
     // Server patch store. One LocalServer, one PatchStore.
     // This patch store needs to cope with any found (e.g. RDB, FILE).
@@ -80,6 +90,18 @@ public class LocalServer {
     // for example, if a choice when created has been made.
     private final PatchStore serverPatchStore;
 
+    // Snapshots of logs; null if the server does not keep snapshots.
+    private final Snapshots snapshots;
+
+    // Handlers called after an append.
+    private final PatchHandlers patchHandlers;
+
+    // Materialized data of logs; null if the server does not keep materialized data.
+    private final Materializer materializer;
+
+    // Retention of patches: the background pruner.
+    private final Retention retention;
+
     /** Create a {@code LocalServer} based on a configuration. */
     public static LocalServer create(LocalServerConfig conf) {
         Objects.requireNonNull(conf, "Null for configuation");
@@ -140,7 +162,7 @@ public class LocalServer {
         ps.initialize(dataSourceRegistry, config);
 
         List<DataSourceDescription> descriptions = ps.initialDataSources();
-        descriptions.forEach(dsd->ps.createLog(dsd));
+        ps.createLogs(descriptions);
 
         FmtLog.info(Delta.DELTA_LOG, "Provider: %s", ps.getProvider().getShortName());
         if ( Delta.DELTA_LOG.isDebugEnabled() )
@@ -155,6 +177,15 @@ public class LocalServer {
         this.serverConfig = config;
         this.dataSourceRegistry = dataSourceRegistry;
         this.serverPatchStore = patchStore;
+        this.snapshots = Snapshots.create(config);
+        this.patchHandlers = PatchHandlers.create(config, dataSourceRegistry);
+        this.materializer = Materializer.create(config);
+        if ( materializer != null ) {
+            patchHandlers.register(Materializer.NAME, materializer);
+            if ( snapshots != null )
+                snapshots.setMaterializer(materializer);
+        }
+        this.retention = Retention.create(config, dataSourceRegistry, snapshots, patchHandlers);
         // For multiple local servers in one process.
         this.label = "ls-"+instancecounter.incrementAndGet();
     }
@@ -168,8 +199,13 @@ public class LocalServer {
         else {
             sources.sort( (ds1, ds2)-> ds1.getName().compareTo(ds2.getName()) );
             sources.forEach(ds->{
-                PatchLogInfo info = ds.getPatchLog().getInfo();
                 String providerTypeName = ds.getPatchStore().getProvider().getShortName();
+                if ( ds.getPatchLog() instanceof PatchLogLazy && ! ((PatchLogLazy)ds.getPatchLog()).isOpen() ) {
+                    // Do not open logs just to report them.
+                    FmtLog.info(Delta.DELTA_LOG, "  Data source: %s (not open) type=%s", ds.getDescription(), providerTypeName);
+                    return;
+                }
+                PatchLogInfo info = ds.getPatchLog().getInfo();
 
                 FmtLog.info(Delta.DELTA_LOG, "  Data source: %s version [%s,%s] type=%s",
                     info.getDataSourceDescr(),
@@ -198,6 +234,12 @@ public class LocalServer {
     }
 
     private void shutdown$() {
+        retention.shutdown();
+        patchHandlers.shutdown();
+        if ( materializer != null )
+            materializer.shutdown();
+        if ( snapshots != null )
+            snapshots.shutdown();
         dataSourceRegistry.clear();
         getPatchStore().shutdown();
     }
@@ -302,10 +344,38 @@ public class LocalServer {
         // Called to poll for patch log create/delete
         checkActive();
         List<PatchLogInfo> x = new ArrayList<>();
-        syncedDataRegistry().forEach((id, ds)-> x.add(ds.getPatchLog().getInfo()));
+        syncedDataRegistry().forEach((id, ds)-> x.add(getPatchLogInfo(ds)));
         return x;
       }
 
+    /** The {@link PatchLogInfo} of a data source, including the latest snapshot, if any. */
+    public PatchLogInfo getPatchLogInfo(DataSource dataSource) {
+        PatchLogInfo info = dataSource.getPatchLog().getInfo();
+        if ( snapshots == null )
+            return info;
+        return snapshots.addTo(info);
+    }
+
+    /** The {@link PatchHandler PatchHandlers} called after a patch is appended. */
+    public PatchHandlers getPatchHandlers() {
+        return patchHandlers;
+    }
+
+    /** The materialized data of logs; null if this server does not keep materialized data. */
+    public Materializer getMaterializer() {
+        return materializer;
+    }
+
+    /** The retention of the patches of logs. */
+    public Retention getRetention() {
+        return retention;
+    }
+
+    /** The snapshots of logs; null if this server does not keep snapshots. */
+    public Snapshots getSnapshots() {
+        return snapshots;
+    }
+
     /**
      * Create a new data source in the default {@link PatchStore}. This can not
      * be one that has been removed (i.e disabled) whose files must be cleaned
@@ -340,10 +410,12 @@ public class LocalServer {
     }
 
     private DataSource createDataSource$(int C, PatchStore patchStore, DataSourceDescription dsd) {
-        synchronized(serverLock) {
+        return nameLocks.calc(()->{
             // Server lock, not cluster lock.
 
             DataSourceRegistry reg = syncedDataRegistry();
+            if ( pendingNames.contains(dsd.getName()) )
+                throw new DeltaBadRequestException("DataSource with name '"+dsd.getName()+"' is being created by a copy");
             if ( reg.containsName(dsd.getName()) ) {
                 FmtLog.info(LOG, "(%d) Existing: %s", C, dsd);
                 DataSource ds = reg.getByName(dsd.getName());
@@ -367,22 +439,34 @@ public class LocalServer {
             DataSource newDataSource = new DataSource(dsd, patchLog);
             reg.put(dsd.getId(), newDataSource);
             return newDataSource;
-        }
+        }, dsd.getName());
     }
 
+    /**
+     * Copy a data source to a new one called {@code newName}.
+     * The copy holds the lock for the source name only, so the source is not renamed
+     * or removed during the copy and other operations on the server continue;
+     * the new name is reserved while the copy runs.
+     */
     public Id copyDataSource(Id dsRef, String oldName, String newName) {
-        return op2(dsRef, oldName, newName, patchStore -> {
-            try {
-                FmtLog.info(Delta.DELTA_LOG, "Copy: %s : %s -> %s", dsRef, oldName, newName);
-
-                DataSource dataSource = getDataSourceByName(oldName);
-                PatchLog srcPatchLog = dataSource.getPatchLog();
-                PatchLog newPatchLog = serverPatchStore.copyPatchLog(srcPatchLog, oldName, newName);
-                return newPatchLog.getLogId();
-            } catch (DeltaException ex) {
-                throw new DeltaBadRequestException("Exception during copy: "+ex.getMessage());
-            }
+        DataSource dataSource = op2(dsRef, oldName, newName, ds -> {
+            pendingNames.add(newName);
+            return ds;
         });
+        try {
+            FmtLog.info(Delta.DELTA_LOG, "Copy: %s : %s -> %s", dsRef, oldName, newName);
+            PatchLog newPatchLog = nameLocks.calc(()->{
+                if ( getDataSource(dsRef) != dataSource )
+                    throw new DeltaBadRequestException("DataSource with name '"+oldName+"' has changed");
+                return dataSource.getPatchStore().copy(dataSource.getPatchLog(), oldName, newName);
+            }, oldName);
+            dataSourceRegistry.add(new DataSource(newPatchLog.getDescription(), newPatchLog));
+            return newPatchLog.getLogId();
+        } catch (DeltaException ex) {
+            throw new DeltaBadRequestException("Exception during copy: "+ex.getMessage());
+        } finally {
+            pendingNames.remove(newName);
+        }
     }
 
     public Id renameDataSource(Id dsRef, String oldName, String newName) {
@@ -393,8 +477,7 @@ public class LocalServer {
                 // Reset registry
                 DataSourceDescription dsd = new DataSourceDescription(newPatchLog.getLogId(), newName, datasource.getURI());
                 DataSource newDatasource = new DataSource(newPatchLog.getDescription(), newPatchLog);
-                dataSourceRegistry.remove(dsRef);
-                dataSourceRegistry.add(newDatasource);
+                dataSourceRegistry.replace(dsRef, newDatasource);
                 return newPatchLog.getLogId();
             } catch (DeltaException ex) {
                 throw new DeltaBadRequestException("Exception during rename: "+ex.getMessage());
@@ -403,18 +486,18 @@ public class LocalServer {
     }
 
     public <X> X op2(Id dsRef, String srcName, String dstName, Function<DataSource, X> action) {
-        synchronized(serverLock) {
+        return nameLocks.calc(()->{
             DataSource datasource = getDataSource(dsRef);
             if ( datasource == null )
                 throw new DeltaBadRequestException("DataSource with name '"+srcName+"' does not exist");
             if ( ! Objects.equals(datasource.getName(), srcName) )
                 throw new DeltaBadRequestException("DataSource with name '"+srcName+"' currently named '"+datasource.getName()+"'");
             DataSource datasource2 = getDataSourceByName(dstName);
-            if ( datasource2 != null )
+            if ( datasource2 != null || pendingNames.contains(dstName) )
                 throw new DeltaBadRequestException("DataSource with name '"+dstName+"' already exists");
             X x = action.apply(datasource);
             return x;
-        }
+        }, srcName, dstName);
     }
 
     /** Remove from active use.*/
@@ -429,7 +512,7 @@ public class LocalServer {
             return;
 
         // Lock with create.
-        synchronized(serverLock) {
+        nameLocks.exec(()->{
             DataSource datasource = getDataSource(dsRef);
             if ( datasource == null )
                 return;
@@ -438,6 +521,11 @@ public class LocalServer {
             // This does the dataRegsitry remove.
             patchStore.release(datasource.getPatchLog());
             disabledDatasources.add(dsRef);
-        }
+            if ( snapshots != null )
+                snapshots.forget(dsRef);
+            if ( materializer != null )
+                materializer.delete(dsRef);
+            retention.forget(dsRef);
+        }, datasource1.getName());
     }
 }
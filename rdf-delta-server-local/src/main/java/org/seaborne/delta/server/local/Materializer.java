@@ -0,0 +1,419 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryExecException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.changes.RDFChangesApply;
+import org.apache.jena.rdfpatch.changes.RDFChangesExternalTxn;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.exec.QueryExec;
+import org.apache.jena.sparql.resultset.ResultsWriter;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.sys.TDBInternal;
+import org.apache.jena.web.HttpSC;
+import org.seaborne.delta.*;
+import org.slf4j.Logger;
+
+/**
+ * Materialized data of patch logs: a TDB2 database for each log, kept up to date as
+ * patches are appended. It is a {@link PatchHandler}, registered with the server's
+ * {@link PatchHandlers} as {@value #NAME}.
+ * <p>
+ * The database of a log is in a directory, named by the log id, under the materialize
+ * area, together with a file {@code state.json} that records the version of the log
+ * the database is at. Patches are applied in batches: one write transaction covers the
+ * patches waiting for the handler, up to {@code batchSize} patches, so the materializer
+ * keeps up with a sustained rate of appends. If a batch does not commit, the version the
+ * materializer reports as handled stays at the last commit and the {@link PatchHandlers}
+ * give it the patches of the batch again.
+ * <p>
+ * The state file is written after the transaction commits. If the server stops between
+ * the two, the patches after the recorded version are applied again on restart. This
+ * gives the same data: a patch sets whether each quad or prefix it mentions is present.
+ * <p>
+ * Readers see the data of the last commit, together with the version of the log it is
+ * for. Queries have a time limit and can not use {@code SERVICE}: the server does not
+ * make HTTP requests on behalf of its callers.
+ */
+public class Materializer implements PatchHandler {
+    private static Logger LOG = Delta.getDeltaLogger("Materialize");
+
+    /** The name of the materializer as a patch handler. */
+    public static final String NAME = "materialize";
+
+    private static final String STATE = "state.json";
+    private static final String F_VERSION = "version";
+    private static final String F_ID = "id";
+
+    /** The database of one log. */
+    private static class Store {
+        final Path directory;
+        final DatasetGraph dsg;
+        // Last commit. Changed while holding the Store lock.
+        long version;
+        Id patchId;
+        // The write transaction in progress. Only used by the handler thread.
+        boolean inTxn = false;
+        int count = 0;
+        long txnVersion;
+        Id txnPatchId;
+
+        Store(Path directory, DatasetGraph dsg, long version, Id patchId) {
+            this.directory = directory;
+            this.dsg = dsg;
+            this.version = version;
+            this.patchId = patchId;
+        }
+    }
+
+    /** Default time limit, in milliseconds, for a query. */
+    public static final long DEFAULT_QUERY_TIMEOUT = 30_000;
+
+    private final Path directory;
+    private final int batchSize;
+    private final long queryTimeout;
+    private final Map<Id, Store> stores = new ConcurrentHashMap<>();
+    // Logs that have been deleted: a patch being handled when the log was removed does not recreate the store.
+    private final Set<Id> deleted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create from the configuration properties {@link DeltaConst#pDeltaMaterialize},
+     * {@link DeltaConst#pDeltaMaterializeBatch} and {@link DeltaConst#pDeltaMaterializeTimeout},
+     * which may also be set as system properties.
+     * Return null if the server does not keep materialized data.
+     */
+    public static Materializer create(LocalServerConfig config) {
+        String dir = property(config, DeltaConst.pDeltaMaterialize);
+        if ( dir == null || dir.isEmpty() )
+            return null;
+        String batchStr = property(config, DeltaConst.pDeltaMaterializeBatch);
+        int batchSize = 100;
+        if ( batchStr != null ) {
+            try { batchSize = Integer.parseInt(batchStr.trim()); }
+            catch (NumberFormatException ex) {
+                throw new DeltaConfigException("Bad value for "+DeltaConst.pDeltaMaterializeBatch+": "+batchStr);
+            }
+        }
+        String timeoutStr = property(config, DeltaConst.pDeltaMaterializeTimeout);
+        long queryTimeout = DEFAULT_QUERY_TIMEOUT;
+        if ( timeoutStr != null ) {
+            try { queryTimeout = Long.parseLong(timeoutStr.trim()); }
+            catch (NumberFormatException ex) {
+                throw new DeltaConfigException("Bad value for "+DeltaConst.pDeltaMaterializeTimeout+": "+timeoutStr);
+            }
+        }
+        return new Materializer(Paths.get(dir), batchSize, queryTimeout);
+    }
+
+    private static String property(LocalServerConfig config, String name) {
+        String x = ( config == null ) ? null : config.getProperty(name);
+        return ( x != null ) ? x : System.getProperty(name);
+    }
+
+    public Materializer(Path directory, int batchSize) {
+        this(directory, batchSize, DEFAULT_QUERY_TIMEOUT);
+    }
+
+    /** A materializer whose queries are stopped after {@code queryTimeout} milliseconds. */
+    public Materializer(Path directory, int batchSize, long queryTimeout) {
+        if ( queryTimeout <= 0 )
+            throw new DeltaConfigException("Query timeout must be positive: "+queryTimeout);
+        this.directory = directory;
+        this.batchSize = Math.max(1, batchSize);
+        this.queryTimeout = queryTimeout;
+        try { Files.createDirectories(directory); }
+        catch (IOException ex) { throw IOX.exception(ex); }
+        FmtLog.info(LOG, "Materialize: %s (batch %d)", directory, this.batchSize);
+    }
+
+    @Override
+    public synchronized void handle(Patch patch) {
+        DataSource dataSource = patch.getDataSource();
+        if ( deleted.contains(dataSource.getId()) )
+            return;
+        Store store = store(dataSource.getId(), true);
+        long version = patch.getSourceVersion();
+        long current = store.inTxn ? store.txnVersion : store.version;
+        if ( version <= current )
+            return;
+        if ( ! store.inTxn ) {
+            store.dsg.begin(TxnType.WRITE);
+            store.inTxn = true;
+            store.count = 0;
+            store.txnVersion = store.version;
+            store.txnPatchId = store.patchId;
+        }
+        try {
+            if ( version > current+1 ) {
+                // Missing patches, for example the database is new: read them from the log.
+                // Fails if some of them have been pruned.
+                PatchLog patchLog = dataSource.getPatchLog();
+                for ( long v = PatchHandlers.nextAvailable(patchLog, current+1) ; v < version ; v++ ) {
+                    RDFPatch p = patchLog.fetch(Version.create(v));
+                    if ( p != null )
+                        apply(store, v, p);
+                }
+            }
+            apply(store, version, patch);
+        } catch (RuntimeException ex) {
+            // Drop the batch. The handler pipeline goes back to the committed version
+            // and gives the patches again.
+            store.dsg.abort();
+            store.dsg.end();
+            store.inTxn = false;
+            throw ex;
+        }
+        if ( store.count >= batchSize )
+            commit(store);
+    }
+
+    private static void apply(Store store, long version, RDFPatch patch) {
+        patch.apply(new RDFChangesExternalTxn(new RDFChangesApply(store.dsg)));
+        store.txnVersion = version;
+        store.txnPatchId = Id.fromNode(patch.getId());
+        store.count++;
+    }
+
+    @Override
+    public synchronized void endBatch() {
+        // Commit every batch even if one fails.
+        RuntimeException failure = null;
+        for ( Store store : stores.values() ) {
+            if ( ! store.inTxn )
+                continue;
+            try { commit(store); }
+            catch (RuntimeException ex) {
+                if ( failure == null )
+                    failure = ex;
+            }
+        }
+        if ( failure != null )
+            throw failure;
+    }
+
+    private static void commit(Store store) {
+        try {
+            synchronized(store) {
+                store.dsg.commit();
+                store.version = store.txnVersion;
+                store.patchId = store.txnPatchId;
+            }
+        } finally {
+            store.dsg.end();
+            store.inTxn = false;
+        }
+        writeState(store);
+    }
+
+    @Override
+    public long handledVersion(Id logId) {
+        Store store = store(logId, false);
+        return ( store == null ) ? -1 : store.version;
+    }
+
+    /** The version of a log that the materialized data is for; null if the log is not materialized. */
+    public Version getVersion(Id logId) {
+        Store store = store(logId, false);
+        return ( store == null ) ? null : Version.create(store.version);
+    }
+
+    /**
+     * Run an action on the materialized data of a log, in a read transaction. The action
+     * is given the version of the log the data is for. Return null if the log is not
+     * materialized.
+     */
+    public <X> X read(Id logId, BiFunction<Version, DatasetGraph, X> action) {
+        return read(logId, (version, patchId, dsg)->action.apply(version, dsg));
+    }
+
+    /*package*/ interface ReadAction<X> { X apply(Version version, Id patchId, DatasetGraph dsg); }
+
+    /*package*/ <X> X read(Id logId, ReadAction<X> action) {
+        Store store = store(logId, false);
+        if ( store == null )
+            return null;
+        Version version;
+        Id patchId;
+        synchronized(store) {
+            store.dsg.begin(TxnType.READ);
+            version = Version.create(store.version);
+            patchId = store.patchId;
+        }
+        try {
+            return action.apply(version, patchId, store.dsg);
+        } finally {
+            store.dsg.end();
+        }
+    }
+
+    /**
+     * Write the materialized data of a log as N-Quads, in the form of a snapshot (see
+     * {@link DeltaOps#writeSnapshot}). Return the version, or null if the log is not materialized.
+     */
+    public Version writeNQuads(Id logId, OutputStream output) {
+        return read(logId, (version, dsg)->{
+            DeltaOps.writeSnapshot(output, dsg);
+            return version;
+        });
+    }
+
+    /**
+     * Evaluate a SPARQL query on the materialized data of a log. The results of SELECT
+     * and ASK queries are written as SPARQL JSON results, the results of CONSTRUCT and
+     * DESCRIBE queries as N-Triples. Return false if the log is not materialized.
+     * <p>
+     * A query that uses {@code SERVICE} is a {@link DeltaBadRequestException}; a query
+     * that does not finish within the time limit is a {@link DeltaHttpException} (503).
+     * Either may happen after some results have been written.
+     */
+    public boolean query(Id logId, String queryString, OutputStream output) {
+        Query query = parseQuery(queryString);
+        Boolean b = read(logId, (version, dsg)->{
+            QueryExec qExec = QueryExec.dataset(dsg).query(query)
+                    .set(ARQ.httpServiceAllowed, false)
+                    .timeout(queryTimeout, TimeUnit.MILLISECONDS)
+                    .build();
+            try ( qExec ) {
+                switch(query.queryType()) {
+                    case SELECT :
+                        ResultsWriter.create().lang(ResultSetLang.RS_JSON).write(output, qExec.select());
+                        break;
+                    case ASK :
+                        ResultsWriter.create().lang(ResultSetLang.RS_JSON).write(output, qExec.ask());
+                        break;
+                    case CONSTRUCT :
+                        RDFDataMgr.write(output, qExec.construct(), Lang.NTRIPLES);
+                        break;
+                    case DESCRIBE :
+                        RDFDataMgr.write(output, qExec.describe(), Lang.NTRIPLES);
+                        break;
+                    default :
+                        throw new DeltaBadRequestException("Query type not supported: "+query.queryType());
+                }
+            } catch (QueryCancelledException ex) {
+                throw new DeltaHttpException(HttpSC.SERVICE_UNAVAILABLE_503, "Query timed out");
+            } catch (QueryExecException ex) {
+                // Includes SERVICE not allowed.
+                throw new DeltaBadRequestException("Query failed: "+ex.getMessage());
+            }
+            return true;
+        });
+        return b != null;
+    }
+
+    /** Parse a query; a bad query is a {@link DeltaBadRequestException}. */
+    public static Query parseQuery(String queryString) {
+        try {
+            return QueryFactory.create(queryString);
+        } catch (QueryParseException ex) {
+            throw new DeltaBadRequestException("Bad query: "+ex.getMessage());
+        }
+    }
+
+    /** Remove the materialized data of a log. */
+    public synchronized void delete(Id logId) {
+        deleted.add(logId);
+        Store store = store(logId, false);
+        stores.remove(logId);
+        if ( store != null ) {
+            if ( store.inTxn ) {
+                store.dsg.abort();
+                store.dsg.end();
+            }
+            TDBInternal.expel(store.dsg);
+        }
+        Path dir = directory.resolve(logId.asPlainString());
+        if ( Files.isDirectory(dir) ) {
+            FileOps.clearAll(dir.toString());
+            FileOps.delete(dir.toString());
+        }
+    }
+
+    /** Commit any batch in progress and close the databases. */
+    public synchronized void shutdown() {
+        endBatch();
+        stores.values().forEach(store->TDBInternal.expel(store.dsg));
+        stores.clear();
+    }
+
+    private Store store(Id logId, boolean create) {
+        Store store = stores.get(logId);
+        if ( store != null )
+            return store;
+        Path dir = directory.resolve(logId.asPlainString());
+        if ( ! create && ! Files.isDirectory(dir) )
+            return null;
+        return stores.computeIfAbsent(logId, id->open(dir));
+    }
+
+    private static Store open(Path dir) {
+        long version = Version.INIT.value();
+        Id patchId = null;
+        Path state = dir.resolve(STATE);
+        if ( Files.exists(state) ) {
+            JsonObject obj = JSON.read(state.toString());
+            version = obj.get(F_VERSION).getAsNumber().value().longValue();
+            if ( obj.hasKey(F_ID) )
+                patchId = Id.fromString(obj.get(F_ID).getAsString().value());
+        }
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(dir.resolve("tdb").toString());
+        return new Store(dir, dsg, version, patchId);
+    }
+
+    private static void writeState(Store store) {
+        JsonObject obj = new JsonObject();
+        obj.put(F_VERSION, store.version);
+        if ( store.patchId != null )
+            obj.put(F_ID, store.patchId.asPlainString());
+        Path file = store.directory.resolve(STATE);
+        Path tmp = store.directory.resolve(STATE+".tmp");
+        IOX.safeWrite(file, tmp, out->JSON.write(out, obj));
+    }
+
+    @Override
+    public String toString() {
+        return "Materializer["+directory+"]";
+    }
+}
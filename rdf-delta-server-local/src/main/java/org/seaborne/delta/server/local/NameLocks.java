@@ -0,0 +1,63 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Locks for data source names, so that operations on different logs do not wait for
+ * each other. Names are hashed onto a fixed number of locks ("stripes"); an operation
+ * that involves two names takes both stripes, always in stripe order.
+ */
+/*package*/ class NameLocks {
+    private final ReentrantLock[] stripes;
+
+    /*package*/ NameLocks(int size) {
+        stripes = new ReentrantLock[size];
+        for ( int i = 0 ; i < size ; i++ )
+            stripes[i] = new ReentrantLock();
+    }
+
+    /** Run an action holding the locks for the names. */
+    /*package*/ void exec(Runnable action, String... names) {
+        calc(()->{ action.run(); return null; }, names);
+    }
+
+    /** Run an action holding the locks for the names; return a result. */
+    /*package*/ <X> X calc(Supplier<X> action, String... names) {
+        int[] idx = stripes(names);
+        for ( int i = 0 ; i < idx.length ; i++ )
+            stripes[idx[i]].lock();
+        try {
+            return action.get();
+        } finally {
+            for ( int i = idx.length-1 ; i >= 0 ; i-- )
+                stripes[idx[i]].unlock();
+        }
+    }
+
+    private int[] stripes(String... names) {
+        int[] idx = new int[names.length];
+        for ( int i = 0 ; i < names.length ; i++ )
+            idx[i] = names[i] == null ? 0 : Math.floorMod(names[i].hashCode(), stripes.length);
+        return Arrays.stream(idx).sorted().distinct().toArray();
+    }
+}
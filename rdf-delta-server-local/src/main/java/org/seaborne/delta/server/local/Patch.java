@@ -19,6 +19,7 @@ package org.seaborne.delta.server.local;
 
 import org.apache.jena.graph.Node;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
 import org.seaborne.delta.server.local.patchstores.filestore.FileEntry;
 import org.apache.jena.rdfpatch.PatchHeader;
 import org.apache.jena.rdfpatch.RDFChanges ;
@@ -33,11 +34,20 @@ public class Patch implements RDFPatch {
     private final RDFPatch patch;
     private final DataSource dataSource;
     private final FileEntry fileEntry;
+    private final long version;
     
     public Patch(boolean unused, RDFPatch patch, DataSource source, FileEntry entry) {
         this.patch = patch;
         this.dataSource = source;
         this.fileEntry = entry;
+        this.version = entry.version;
+    }
+
+    public Patch(RDFPatch patch, DataSource source, Version version) {
+        this.patch = patch;
+        this.dataSource = source;
+        this.fileEntry = null;
+        this.version = version.value();
     }
     
     public RDFPatch get() { return patch ; }
@@ -84,6 +94,6 @@ public class Patch implements RDFPatch {
     }
 
     public long getSourceVersion() {
-        return fileEntry.version;
+        return version;
     }
 }
\ No newline at end of file
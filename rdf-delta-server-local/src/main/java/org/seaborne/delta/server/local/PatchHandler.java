@@ -17,6 +17,21 @@
 
 package org.seaborne.delta.server.local;
 
+import org.seaborne.delta.Id;
+
 public interface PatchHandler {
     void handle(Patch patch) ;
+
+    /**
+     * Called when the handler has caught up with the patches waiting for it, and before
+     * its watermarks are saved. A handler that batches work completes the batch.
+     */
+    default void endBatch() {}
+
+    /**
+     * The version of a log this handler has already handled, for a handler that keeps
+     * track itself; -1 if it does not. Used when there is no saved watermark for the log,
+     * and after the handler fails, to go back to the patches it has kept.
+     */
+    default long handledVersion(Id logId) { return -1; }
 }
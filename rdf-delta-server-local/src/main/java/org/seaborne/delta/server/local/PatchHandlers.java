@@ -0,0 +1,483 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.seaborne.delta.*;
+import org.slf4j.Logger;
+
+/**
+ * {@link PatchHandler PatchHandlers} called after a patch has been appended to a log.
+ * <p>
+ * Each registered handler has its own bounded queue and thread, so a slow handler holds
+ * up neither appends nor the other handlers. An append never waits for a handler: if the
+ * handler's queue is full, the handler is marked as behind on that log and later reads
+ * the patches it missed from the log. A handler sees the patches of a log once each, in
+ * version order.
+ * <p>
+ * Only a patch held in memory is queued. A patch backed by temporary storage, such as a
+ * spilled {@link SpooledPatch}, is released when the append returns, so the handler reads
+ * it from the log instead.
+ * <p>
+ * If a handler throws an exception, the patch is not counted as handled. The handler is
+ * given the patch again, after a delay that grows while it keeps failing, and does not
+ * see the later patches of that log until then, unless the log has been removed: queued
+ * patches of a removed log are dropped. For a handler that keeps track of what it
+ * has handled ({@link PatchHandler#handledVersion}), a failure, including failing to end
+ * a batch, also takes the watermark back to that version, so the patches of a lost batch
+ * are given to it again.
+ * <p>
+ * Each handler has a watermark for each log, the last version it has handled. If a
+ * directory is set ({@link DeltaConst#pDeltaHandlers}), the watermarks are kept in a file
+ * {@code NAME.json} there, so that after a restart a handler carries on from where it
+ * was. Otherwise, and for a log with no watermark, a handler starts at the beginning of
+ * the log.
+ * <p>
+ * A handler can carry on from a compacted patch, which has all the changes up to its
+ * version, but not across patches that have been pruned from the log: it fails on that
+ * log instead of missing data (see {@link #nextAvailable}).
+ */
+public class PatchHandlers {
+    private static Logger LOG = Delta.getDeltaLogger("PatchHandlers");
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+    // Watermarks are saved when a handler is idle, or at this interval while it is busy.
+    private static final long SAVE_INTERVAL_MS = 1000;
+    // Delay before a failed patch is given to the handler again; doubled while it keeps failing.
+    private static final long RETRY_MIN_MS = 100;
+    private static final long RETRY_MAX_MS = 60_000;
+
+    private final DataSourceRegistry registry;
+    private final Path directory;
+    private final int queueSize;
+    private final Map<String, Pipeline> pipelines = new ConcurrentHashMap<>();
+
+    /**
+     * Create from the configuration properties {@link DeltaConst#pDeltaHandlers} and
+     * {@link DeltaConst#pDeltaHandlerQueue}, which may also be set as system properties.
+     */
+    public static PatchHandlers create(LocalServerConfig config, DataSourceRegistry registry) {
+        String dir = property(config, DeltaConst.pDeltaHandlers);
+        Path directory = ( dir == null || dir.isEmpty() ) ? null : Paths.get(dir);
+        String queueStr = property(config, DeltaConst.pDeltaHandlerQueue);
+        int queueSize = 1000;
+        if ( queueStr != null ) {
+            try { queueSize = Integer.parseInt(queueStr.trim()); }
+            catch (NumberFormatException ex) {
+                throw new DeltaConfigException("Bad value for "+DeltaConst.pDeltaHandlerQueue+": "+queueStr);
+            }
+        }
+        return new PatchHandlers(registry, directory, queueSize);
+    }
+
+    private static String property(LocalServerConfig config, String name) {
+        String x = ( config == null ) ? null : config.getProperty(name);
+        return ( x != null ) ? x : System.getProperty(name);
+    }
+
+    public PatchHandlers(DataSourceRegistry registry, Path directory, int queueSize) {
+        this.registry = registry;
+        this.directory = directory;
+        this.queueSize = Math.max(1, queueSize);
+        if ( directory != null ) {
+            try { Files.createDirectories(directory); }
+            catch (IOException ex) { throw IOX.exception(ex); }
+        }
+    }
+
+    /**
+     * Register a handler. The name identifies the handler's watermarks across restarts.
+     * The handler is first brought up to date with all the logs of the server.
+     */
+    public void register(String name, PatchHandler handler) {
+        if ( ! NAME.matcher(name).matches() )
+            throw new DeltaConfigException("Bad patch handler name: '"+name+"'");
+        Pipeline pipeline = new Pipeline(name, handler);
+        if ( pipelines.putIfAbsent(name, pipeline) != null )
+            throw new DeltaConfigException("Patch handler already registered: '"+name+"'");
+        registry.forEach((id, ds)->pipeline.behind.add(id));
+        pipeline.start();
+    }
+
+    /** Stop and remove a handler. Its watermarks are kept. */
+    public void unregister(String name) {
+        Pipeline pipeline = pipelines.remove(name);
+        if ( pipeline != null )
+            pipeline.stop();
+    }
+
+    /** The last version of a log handled by a handler; {@link Version#INIT} if none. */
+    public Version getWatermark(String name, Id logId) {
+        Pipeline pipeline = pipelines.get(name);
+        if ( pipeline == null )
+            return Version.UNSET;
+        return Version.create(pipeline.watermark(logId));
+    }
+
+    /**
+     * The lowest watermark of a log over all the handlers, the last version all of them
+     * have handled; {@code Long.MAX_VALUE} if there are no handlers. For a handler that
+     * keeps track of what it has handled, this is no later than the version it has kept:
+     * patches in a batch that has not completed do not count.
+     */
+    public long lowestWatermark(Id logId) {
+        return pipelines.values().stream().mapToLong(p->p.kept(logId)).min().orElse(Long.MAX_VALUE);
+    }
+
+    /** Number of patches that did not fit in the queue of a handler, and were read from the log instead. */
+    public long getOverflowCount(String name) {
+        Pipeline pipeline = pipelines.get(name);
+        return ( pipeline == null ) ? 0 : pipeline.overflows.get();
+    }
+
+    /** Called after a patch has been appended to a log. Does not wait for the handlers. */
+    public void afterAppend(DataSource dataSource, Version version, RDFPatch patch) {
+        if ( pipelines.isEmpty() )
+            return;
+        Item item = new Item(dataSource, version, retainable(patch));
+        pipelines.values().forEach(p->p.offer(item));
+    }
+
+    /**
+     * Wait until all handlers have handled all the patches given to them.
+     * Return false if that did not happen within {@code timeoutMillis}, which includes
+     * when a handler is failing.
+     */
+    public boolean awaitIdle(long timeoutMillis) {
+        long finish = System.currentTimeMillis() + timeoutMillis;
+        for(;;) {
+            if ( pipelines.values().stream().allMatch(Pipeline::isIdle) )
+                return true;
+            if ( System.currentTimeMillis() > finish )
+                return false;
+            Lib.sleep(10);
+        }
+    }
+
+    /** Stop all handlers, saving their watermarks. */
+    public void shutdown() {
+        pipelines.values().forEach(Pipeline::stop);
+        pipelines.clear();
+    }
+
+    /**
+     * The version to carry on from, for a handler that has handled the patches of a log
+     * before {@code next}. This is {@code next}, or, if the log now starts later, the
+     * earliest version of the log when that is a compacted patch (it has no previous patch).
+     *
+     * @throws DeltaException if patches after those handled have been pruned from the log.
+     */
+    /*package*/ static long nextAvailable(PatchLog patchLog, long next) {
+        long earliest = patchLog.getEarliestVersion().value();
+        if ( next >= earliest )
+            return next;
+        RDFPatch first = patchLog.fetch(Version.create(earliest));
+        if ( first == null || first.getPrevious() != null )
+            throw new DeltaException(String.format("Versions %d to %d have been removed from the log", next, earliest-1));
+        return earliest;
+    }
+
+    // The patch if it can be kept after the append returns, else null.
+    private static RDFPatch retainable(RDFPatch patch) {
+        if ( patch instanceof RDFChangesCollector.RDFPatchStored )
+            return patch;
+        if ( patch instanceof SpooledPatch && ! ((SpooledPatch)patch).isSpilled() )
+            return patch;
+        return null;
+    }
+
+    private static class Item {
+        final DataSource dataSource;
+        final Version version;
+        // Null means read the patch from the log.
+        final RDFPatch patch;
+
+        Item(DataSource dataSource, Version version, RDFPatch patch) {
+            this.dataSource = dataSource;
+            this.version = version;
+            this.patch = patch;
+        }
+    }
+
+    /** One handler: its queue, thread and watermarks. */
+    private class Pipeline {
+        private final String name;
+        private final PatchHandler handler;
+        private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(queueSize);
+        // Logs where the handler may have missed patches, to be read from the log.
+        private final Set<Id> behind = ConcurrentHashMap.newKeySet();
+        private final Map<Id, Long> watermarks = new ConcurrentHashMap<>();
+        // Logs where the handler failed: when to try again, and the delay so far.
+        private final Map<Id, long[]> retries = new ConcurrentHashMap<>();
+        private final AtomicLong overflows = new AtomicLong();
+        // Items queued or being handled.
+        private final AtomicLong pending = new AtomicLong();
+        private final ExecutorService executor;
+        private volatile boolean running = true;
+        private volatile boolean catchingUp = false;
+        private boolean dirty = false;
+        private long lastSave = System.currentTimeMillis();
+
+        Pipeline(String name, PatchHandler handler) {
+            this.name = name;
+            this.handler = handler;
+            this.executor = Executors.newSingleThreadExecutor(r->{
+                Thread thread = new Thread(r, "DeltaHandler-"+name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            load();
+        }
+
+        void start() {
+            executor.submit(this::run);
+        }
+
+        void stop() {
+            running = false;
+            executor.shutdown();
+            try { executor.awaitTermination(10, TimeUnit.SECONDS); }
+            catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+        }
+
+        void offer(Item item) {
+            pending.incrementAndGet();
+            if ( ! queue.offer(item) ) {
+                pending.decrementAndGet();
+                overflows.incrementAndGet();
+                behind.add(item.dataSource.getId());
+            }
+        }
+
+        boolean isIdle() {
+            return pending.get() == 0 && behind.isEmpty() && ! catchingUp;
+        }
+
+        long watermark(Id logId) {
+            return watermarks.computeIfAbsent(logId, id->{
+                long handled = handler.handledVersion(id);
+                return ( handled >= 0 ) ? handled : Version.INIT.value();
+            });
+        }
+
+        long kept(Id logId) {
+            long wm = watermark(logId);
+            long handled = handler.handledVersion(logId);
+            return ( handled >= 0 ) ? Math.min(wm, handled) : wm;
+        }
+
+        private void run() {
+            while(running) {
+                Item item;
+                try { item = queue.poll(100, TimeUnit.MILLISECONDS); }
+                catch (InterruptedException ex) { break; }
+                try {
+                    if ( item != null )
+                        process(item);
+                    if ( item == null || ! behind.isEmpty() )
+                        catchUp();
+                    if ( dirty && ( queue.isEmpty() || System.currentTimeMillis()-lastSave > SAVE_INTERVAL_MS ) )
+                        save();
+                } catch (Throwable th) {
+                    FmtLog.warn(LOG, th, "[%s] Patch handler pipeline", name);
+                } finally {
+                    if ( item != null )
+                        pending.decrementAndGet();
+                }
+            }
+            if ( dirty )
+                save();
+        }
+
+        private void process(Item item) {
+            Id logId = item.dataSource.getId();
+            if ( registry.get(logId) == null ) {
+                // The log has been removed since the patch was queued.
+                forget(logId);
+                return;
+            }
+            if ( retries.containsKey(logId) ) {
+                // Waiting to retry an earlier patch of this log.
+                behind.add(logId);
+                return;
+            }
+            long version = item.version.value();
+            long wm = watermark(logId);
+            if ( version <= wm )
+                return;
+            if ( version > wm+1 ) {
+                // Patches that came after this one went in the queue first, or were dropped.
+                if ( ! catchUp(item.dataSource, version-1) )
+                    return;
+            }
+            RDFPatch patch = item.patch;
+            if ( patch == null )
+                patch = item.dataSource.getPatchLog().fetch(item.version);
+            handle(item.dataSource, version, patch);
+        }
+
+        private void catchUp() {
+            if ( behind.isEmpty() )
+                return;
+            catchingUp = true;
+            try {
+                long now = System.currentTimeMillis();
+                for ( Id logId : behind ) {
+                    long[] retry = retries.get(logId);
+                    if ( retry != null && retry[0] > now )
+                        continue;
+                    behind.remove(logId);
+                    DataSource dataSource = registry.get(logId);
+                    if ( dataSource == null ) {
+                        forget(logId);
+                        continue;
+                    }
+                    catchUp(dataSource, dataSource.getPatchLog().getLatestVersion().value());
+                }
+            } finally {
+                catchingUp = false;
+            }
+        }
+
+        // Read patches after the watermark, up to and including version, from the log.
+        // Return false if the handler failed.
+        private boolean catchUp(DataSource dataSource, long version) {
+            PatchLog patchLog = dataSource.getPatchLog();
+            long start;
+            try {
+                start = nextAvailable(patchLog, watermark(dataSource.getId())+1);
+            } catch (DeltaException ex) {
+                long delay = failed(dataSource.getId());
+                FmtLog.error(LOG, "[%s] Patch handler can not catch up with %s: %s (retry in %dms)", name, dataSource.getName(), ex.getMessage(), delay);
+                return false;
+            }
+            for ( long v = start ; v <= version && running ; v++ ) {
+                RDFPatch patch = patchLog.fetch(Version.create(v));
+                if ( patch == null ) {
+                    // Gap in the log.
+                    watermarks.put(dataSource.getId(), v);
+                    continue;
+                }
+                if ( ! handle(dataSource, v, patch) )
+                    return false;
+            }
+            return true;
+        }
+
+        // Return false if the handler failed; the watermark is not moved and the patch is tried again later.
+        private boolean handle(DataSource dataSource, long version, RDFPatch patch) {
+            Id logId = dataSource.getId();
+            try {
+                if ( patch == null )
+                    throw new DeltaException("Patch not found in the log");
+                handler.handle(new Patch(patch, dataSource, Version.create(version)));
+            } catch (RuntimeException ex) {
+                if ( registry.get(logId) == null ) {
+                    // Removed while being handled: do not retry.
+                    forget(logId);
+                    return false;
+                }
+                long delay = failed(logId);
+                FmtLog.warn(LOG, ex, "[%s] Patch handler failed: %s version %d (retry in %dms)", name, dataSource.getName(), version, delay);
+                return false;
+            }
+            retries.remove(logId);
+            watermarks.put(logId, version);
+            dirty = true;
+            return true;
+        }
+
+        // The handler failed on a log: go back to what it has kept and retry after a delay.
+        // Return the delay.
+        private long failed(Id logId) {
+            long handled = handler.handledVersion(logId);
+            Long wm = watermarks.get(logId);
+            if ( handled >= 0 && wm != null && handled < wm ) {
+                // Work in an uncompleted batch was lost.
+                watermarks.put(logId, handled);
+                dirty = true;
+            }
+            long[] retry = retries.computeIfAbsent(logId, id->new long[] {0, 0});
+            retry[1] = Math.min(Math.max(RETRY_MIN_MS, 2*retry[1]), RETRY_MAX_MS);
+            retry[0] = System.currentTimeMillis() + retry[1];
+            behind.add(logId);
+            return retry[1];
+        }
+
+        // Drop the state of a removed log.
+        private void forget(Id logId) {
+            behind.remove(logId);
+            retries.remove(logId);
+            if ( watermarks.remove(logId) != null )
+                dirty = true;
+        }
+
+        private Path file() {
+            return ( directory == null ) ? null : directory.resolve(name+".json");
+        }
+
+        private void load() {
+            Path file = file();
+            if ( file == null || ! Files.exists(file) )
+                return;
+            JsonObject obj = JSON.read(file.toString());
+            obj.keys().forEach(k->watermarks.put(Id.fromString(k), obj.get(k).getAsNumber().value().longValue()));
+        }
+
+        private void save() {
+            try {
+                handler.endBatch();
+            } catch (RuntimeException ex) {
+                FmtLog.warn(LOG, ex, "[%s] Patch handler failed to end a batch", name);
+                // Patches of the batch may not have been kept.
+                watermarks.keySet().forEach(this::failed);
+            }
+            dirty = false;
+            lastSave = System.currentTimeMillis();
+            Path file = file();
+            if ( file == null )
+                return;
+            JsonObject obj = new JsonObject();
+            watermarks.forEach((id, v)->obj.put(id.asPlainString(), v));
+            Path tmp = directory.resolve(name+".json.tmp");
+            IOX.safeWrite(file, tmp, out->JSON.write(out, obj));
+        }
+    }
+}
@@ -58,6 +58,16 @@ public interface PatchLog {
      */
     public PatchLogInfo getInfo();
 
+    /**
+     * Return a description of the current state of this {@code PatchLog}, checked
+     * against the underlying storage if the cached state is older than
+     * {@code maxAgeMillis}. A value of 0 always checks.
+     * Use when the log may be changed by other servers and a recent state is required.
+     */
+    public default PatchLogInfo getInfo(long maxAgeMillis) {
+        return getInfo();
+    }
+
     /**
      * Return a description of the {@code PatchLog} - the basic information without
      * changing info like version number.
@@ -117,6 +127,38 @@ public interface PatchLog {
         return range(start, finish).filter(Objects::nonNull).map(RDFPatch::header);
     }
 
+    /**
+     * Compact the log: replace the patches from the earliest version up to and including
+     * {@code version} with one patch that has their net effect. The new patch has the id
+     * of the patch at {@code version} and takes its place, so later patches, their ids and
+     * versions, are unchanged. The earlier patches are removed and {@code version} becomes
+     * the earliest version of the log.
+     * <p>
+     * The net patch also deletes the quads that were deleted by the patches it replaces,
+     * so it can be applied to the data of a replica at any version in the range.
+     * <p>
+     * Return the earliest version of the log.
+     */
+    public default Version compact(Version version) {
+        throw new DeltaException("Patch log does not support compaction: "+getDescription());
+    }
+
+    /**
+     * Remove the patches before {@code version}, which becomes the earliest version of the
+     * log. Unlike {@link #compact}, their changes are not kept: a replica that is behind
+     * {@code version} can no longer catch up from the log and needs a snapshot.
+     * <p>
+     * Return the earliest version of the log.
+     */
+    public default Version prune(Version version) {
+        throw new DeltaException("Patch log does not support pruning: "+getDescription());
+    }
+
+    /** When a patch was stored, in milliseconds since the epoch, or -1 if this is not known. */
+    public default long storedTime(Id patchId) {
+        return -1;
+    }
+
     /** Translate a version number into its stable patch id. */
     public Id find(Version version);
 
@@ -132,6 +174,12 @@ public interface PatchLog {
     /** Acquire the PatchLog mutex. */
     public Id acquireLock();
 
+    /**
+     * Acquire the PatchLog mutex, waiting up to {@code timeoutMillis} for it to be released.
+     * Returns null if the lock was not obtained in that time.
+     */
+    public Id acquireLock(long timeoutMillis);
+
     /** Refresh the PatchLog mutex. */
     public boolean refreshLock(Id session);
 
@@ -0,0 +1,246 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.seaborne.delta.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link PatchLog} that is opened on first use, and can be closed again when it has
+ * not been used for a while, releasing the resources (database handles, file
+ * indexes) of the underlying log.
+ * <p>
+ * The description, id and patch store are known without opening the log.
+ *
+ * @see PatchStore#LazyOpen
+ * @see PatchStore#IdleCloseSeconds
+ */
+public class PatchLogLazy implements PatchLog {
+    private static Logger LOG = LoggerFactory.getLogger(PatchLogLazy.class);
+
+    private final DataSourceDescription dsd;
+    private final PatchStore patchStore;
+    private final Supplier<PatchLog> opener;
+    private final Runnable closer;
+
+    // Operations hold the read lock; closing takes the write lock, so a log is not
+    // closed while in use.
+    private final ReadWriteLock useLock = new ReentrantReadWriteLock();
+    private volatile PatchLog patchLog = null;
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    /**
+     * A log that is opened by calling {@code opener}; {@code closer} releases the
+     * resources of the opened log.
+     */
+    public PatchLogLazy(DataSourceDescription dsd, PatchStore patchStore, Supplier<PatchLog> opener, Runnable closer) {
+        this.dsd = dsd;
+        this.patchStore = patchStore;
+        this.opener = opener;
+        this.closer = closer;
+    }
+
+    /** Whether the underlying log is currently open. */
+    public boolean isOpen() {
+        return patchLog != null;
+    }
+
+    private PatchLog open() {
+        PatchLog log = patchLog;
+        if ( log != null )
+            return log;
+        synchronized(this) {
+            if ( patchLog == null ) {
+                FmtLog.debug(LOG, "Open: %s", dsd);
+                patchLog = opener.get();
+            }
+            return patchLog;
+        }
+    }
+
+    /**
+     * Run an action on the underlying log, opening it if necessary. The log is not
+     * closed while the action runs; the action must not keep the log after it returns.
+     */
+    public <X> X apply(Function<PatchLog, X> action) {
+        useLock.readLock().lock();
+        try {
+            lastAccess = System.currentTimeMillis();
+            return action.apply(open());
+        } finally {
+            useLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Close the underlying log if it is open and has not been used for
+     * {@code idleMillis}. A log that is in use, or whose lock is held by a client, is not
+     * closed. Return true if the log was closed.
+     */
+    public boolean closeIfIdle(long idleMillis) {
+        if ( patchLog == null )
+            return false;
+        if ( System.currentTimeMillis() - lastAccess < idleMillis )
+            return false;
+        if ( ! useLock.writeLock().tryLock() )
+            return false;
+        try {
+            synchronized(this) {
+                if ( patchLog == null )
+                    return false;
+                if ( ! LockState.isFree(patchLog.readLock()) )
+                    return false;
+                FmtLog.debug(LOG, "Close idle: %s", dsd);
+                patchLog = null;
+                closer.run();
+                return true;
+            }
+        } finally {
+            useLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DataSourceDescription getDescription() {
+        return dsd;
+    }
+
+    @Override
+    public Id getLogId() {
+        return dsd.getId();
+    }
+
+    @Override
+    public PatchStore getPatchStore() {
+        return patchStore;
+    }
+
+    @Override
+    public Id getEarliestId()                           { return apply(PatchLog::getEarliestId); }
+
+    @Override
+    public Version getEarliestVersion()                 { return apply(PatchLog::getEarliestVersion); }
+
+    @Override
+    public Id getLatestId()                             { return apply(PatchLog::getLatestId); }
+
+    @Override
+    public Version getLatestVersion()                   { return apply(PatchLog::getLatestVersion); }
+
+    @Override
+    public PatchLogInfo getInfo()                       { return apply(PatchLog::getInfo); }
+
+    @Override
+    public PatchLogInfo getInfo(long maxAgeMillis)      { return apply(log->log.getInfo(maxAgeMillis)); }
+
+    @Override
+    public boolean isEmpty()                            { return apply(PatchLog::isEmpty); }
+
+    @Override
+    public boolean contains(Id patchId)                 { return apply(log->log.contains(patchId)); }
+
+    @Override
+    public Version append(RDFPatch patch)               { return apply(log->log.append(patch)); }
+
+    @Override
+    public Version compact(Version version)             { return apply(log->log.compact(version)); }
+
+    @Override
+    public Version prune(Version version)               { return apply(log->log.prune(version)); }
+
+    @Override
+    public long storedTime(Id patchId)                  { return apply(log->log.storedTime(patchId)); }
+
+    @Override
+    public RDFPatch fetch(Id patchId)                   { return apply(log->log.fetch(patchId)); }
+
+    @Override
+    public RDFPatch fetch(Version version)              { return apply(log->log.fetch(version)); }
+
+    // The stream is read while the log is in use; it can be closed as soon as apply returns.
+    @Override
+    public Stream<RDFPatch> range(Id start, Id finish)  { return apply(log->collect(log.range(start, finish))); }
+
+    // The range is checked now. Each patch is fetched as the stream is read, so the log
+    // is only in use for each fetch and the range is not held in memory.
+    @Override
+    public Stream<RDFPatch> range(Version start, Version finish) {
+        apply(log->{ log.range(start, finish).close(); return null; });
+        return LongStream.rangeClosed(start.value(), finish.value())
+                .mapToObj(v->fetch(Version.create(v)))
+                .filter(Objects::nonNull);
+    }
+
+    private static Stream<RDFPatch> collect(Stream<RDFPatch> stream) {
+        try ( stream ) {
+            return stream.collect(Collectors.toList()).stream();
+        }
+    }
+
+    @Override
+    public Id find(Version version)                     { return apply(log->log.find(version)); }
+
+    @Override
+    public Version find(Id id)                          { return apply(log->log.find(id)); }
+
+    @Override
+    public void delete()                                { apply(log->{ log.delete(); return null; }); }
+
+    @Override
+    public void releaseLog() {
+        PatchLog log = patchLog;
+        if ( log != null )
+            log.releaseLog();
+    }
+
+    @Override
+    public Id acquireLock()                             { return apply(PatchLog::acquireLock); }
+
+    @Override
+    public Id acquireLock(long timeoutMillis)           { return apply(log->log.acquireLock(timeoutMillis)); }
+
+    @Override
+    public boolean refreshLock(Id session)              { return apply(log->log.refreshLock(session)); }
+
+    @Override
+    public LockState readLock()                         { return apply(PatchLog::readLock); }
+
+    @Override
+    public Id grabLock(Id oldSession)                   { return apply(log->log.grabLock(oldSession)); }
+
+    @Override
+    public void releaseLock(Id session)                 { apply(log->{ log.releaseLock(session); return null; }); }
+
+    @Override
+    public String toString() {
+        return "PatchLog(lazy): "+dsd;
+    }
+}
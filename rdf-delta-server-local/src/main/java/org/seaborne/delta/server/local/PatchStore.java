@@ -17,11 +17,24 @@
 
 package org.seaborne.delta.server.local;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.apache.jena.atlas.lib.DateTimeUtils;
 import org.apache.jena.atlas.lib.InternalErrorException;
@@ -47,6 +60,30 @@ import org.slf4j.LoggerFactory;
 public abstract class PatchStore {
     private static Logger LOG = LoggerFactory.getLogger(PatchStore.class);
 
+    /**
+     * Whether existing logs found at startup are opened on first use (see
+     * {@link #lazyPatchLog}) rather than when the server starts.
+     */
+    public static boolean LazyOpen = Boolean.parseBoolean(System.getProperty("delta.patchstore.lazy_open", "true"));
+
+    /**
+     * Close logs opened on first use after this many seconds without use.
+     * 0 means logs stay open once opened.
+     */
+    public static long IdleCloseSeconds = Long.getLong("delta.patchstore.idle_close", 0);
+
+    /** Number of threads used to open logs at startup. */
+    public static int StartupThreads = Integer.getInteger("delta.patchstore.startup_threads",
+                                                          Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    // One thread closes idle logs for all patch stores.
+    private static final ScheduledExecutorService idleCloser = Executors.newSingleThreadScheduledExecutor(r->{
+        Thread thread = new Thread(r, "DeltaIdleLogs");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> idleCloseTask = null;
+
     // --- Store-wide.
     // The logs managed by this PatchStore.
     private Map<Id, PatchLog> logs = new ConcurrentHashMap<>();
@@ -111,6 +148,10 @@ public abstract class PatchStore {
         this.configuration = config;
         initialize(config);
         markInitialized();
+        if ( IdleCloseSeconds > 0 ) {
+            long period = Math.max(1, IdleCloseSeconds*1000/2);
+            idleCloseTask = idleCloser.scheduleAtFixedRate(this::closeIdleLogs, period, period, TimeUnit.MILLISECONDS);
+        }
     }
 
     protected abstract void initialize(LocalServerConfig config);
@@ -131,10 +172,78 @@ public abstract class PatchStore {
         this.dataSourceRegistry = dataSourceRegistry;
     }
 
-    /** Create the initial patchlogs for this patchstore. */
-    protected void createPatchLogs(List<DataSourceDescription> descr) {
-        // createPatchLog also registers it.
-        descr.forEach(dsd->createPatchLog(dsd));
+    /**
+     * Open the logs found at startup, see {@link #initialDataSources}.
+     * Logs are independent so they are opened in parallel, unless the patch store
+     * says otherwise ({@link #startupThreads}).
+     */
+    public void createLogs(List<DataSourceDescription> descr) {
+        openLogs(descr, this::createLog);
+    }
+
+    /**
+     * Number of threads to open logs on at startup. A patch store that can not open logs
+     * concurrently returns 1.
+     */
+    protected int startupThreads() {
+        return StartupThreads;
+    }
+
+    /**
+     * Open logs in parallel on up to {@link #startupThreads} threads. The time taken for
+     * each log is logged at level debug, the total and the slowest logs at level info.
+     * If any log fails to open, the first exception is thrown after all have been tried.
+     */
+    private void openLogs(List<DataSourceDescription> descr, Consumer<DataSourceDescription> action) {
+        if ( descr.isEmpty() )
+            return;
+        int threads = Math.max(1, Math.min(startupThreads(), descr.size()));
+        long start = System.nanoTime();
+        Map<DataSourceDescription, Long> timings = new ConcurrentHashMap<>();
+        List<RuntimeException> errors = new CopyOnWriteArrayList<>();
+        Consumer<DataSourceDescription> timed = dsd->{
+            long x0 = System.nanoTime();
+            try {
+                action.accept(dsd);
+            } catch (RuntimeException ex) {
+                errors.add(ex);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-x0);
+            timings.put(dsd, millis);
+            FmtLog.debug(LOG, "Open log %s : %d ms", dsd.getName(), millis);
+        };
+        if ( threads == 1 )
+            descr.forEach(timed);
+        else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r->{
+                Thread thread = new Thread(r, "DeltaStartup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                descr.forEach(dsd->futures.add(executor.submit(()->timed.accept(dsd))));
+                for ( Future<?> f : futures ) {
+                    try { f.get(); }
+                    catch (InterruptedException ex) { Thread.currentThread().interrupt(); throw new DeltaException("Interrupted opening logs"); }
+                    catch (ExecutionException ex) { errors.add(new DeltaException(ex.getCause())); }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+        FmtLog.info(LOG, "Initialized %d logs in %d ms (%d threads)", descr.size(), total, threads);
+        if ( descr.size() > 1 ) {
+            String slowest = timings.entrySet().stream()
+                .sorted(Map.Entry.<DataSourceDescription, Long>comparingByValue().reversed())
+                .limit(3)
+                .map(e->e.getKey().getName()+"="+e.getValue()+"ms")
+                .collect(Collectors.joining(", "));
+            FmtLog.info(LOG, "Slowest logs: %s", slowest);
+        }
+        if ( ! errors.isEmpty() )
+            throw errors.get(0);
     }
 
     /**
@@ -158,10 +267,45 @@ public abstract class PatchStore {
 
     final
     public void shutdown() {
+        if ( idleCloseTask != null )
+            idleCloseTask.cancel(false);
         shutdownSub();
         // Reset state?
     }
 
+    /**
+     * Return a {@link PatchLog} for an existing log that is opened by {@code opener}
+     * on first use and closed by {@code closer} when it has been idle for
+     * {@link #IdleCloseSeconds}. If {@link #LazyOpen} is false, the log is opened now.
+     */
+    protected PatchLog lazyPatchLog(DataSourceDescription dsd, Supplier<PatchLog> opener, Runnable closer) {
+        if ( ! LazyOpen )
+            return opener.get();
+        return new PatchLogLazy(dsd, this, opener, closer);
+    }
+
+    /**
+     * Run an action on the underlying log of a {@link PatchLogLazy}, opening it if
+     * necessary. The log is not closed while the action runs.
+     */
+    protected static <X> X withLog(PatchLog patchLog, Function<PatchLog, X> action) {
+        if ( patchLog instanceof PatchLogLazy )
+            return ((PatchLogLazy)patchLog).apply(action);
+        return action.apply(patchLog);
+    }
+
+    private void closeIdleLogs() {
+        long idleMillis = IdleCloseSeconds*1000;
+        logs.values().forEach(log->{
+            try {
+                if ( log instanceof PatchLogLazy )
+                    ((PatchLogLazy)log).closeIfIdle(idleMillis);
+            } catch (RuntimeException ex) {
+                FmtLog.warn(LOG, "Failed to close idle log %s: %s", log.getDescription(), ex.getMessage());
+            }
+        });
+    }
+
     protected abstract void shutdownSub();
 
     /** All the patch logs currently managed by this {@code PatchStore}. */
@@ -212,10 +356,13 @@ public abstract class PatchStore {
         return pLog;
     }
 
-    private static Object lock = new Object();
+    // Create and rename lock the names involved. Shared by all patch stores, as was the
+    // single lock this replaces, because servers in one JVM may share a cluster store.
+    private static final NameLocks nameLocks = new NameLocks(LocalServer.AdminLockStripes);
+
     /** Return a new {@link PatchLog}, which must not already exist. */
     public PatchLog createLog(DataSourceDescription dsd) {
-        synchronized(lock) {
+        return nameLocks.calc(()->{
             checkInitialized();
             Id dsRef = dsd.getId();
             sync();
@@ -243,14 +390,14 @@ public abstract class PatchStore {
 
             FmtLog.debug(LOG, "Create (%s)", plog.getPatchStore().getProvider().getShortName());
             return plog;
-        }
+        }, dsd.getName());
     }
 
     /*package*/ PatchLog rename(PatchLog patchLog, String oldName, String newName) {
-        // This is "overlocking" - we're inside the LocalServer lock.
+        // This is "overlocking" - we're inside the LocalServer name locks.
         // But this operation is not performance critical and not commonly used.
         // Maybe in the future there will be calls from something other that LocalServer.
-        synchronized(lock) {
+        return nameLocks.calc(()->{
             if ( ! dataSourceRegistry.containsName(oldName) ) {
                 // This may happen when operations are retried.
                 FmtLog.warn(LOG, "Rename(%s, %s): Patch log of name %s not found", oldName, newName, oldName);
@@ -262,9 +409,11 @@ public abstract class PatchStore {
                 throw new DeltaException("Can't rename log - PatchLog new name '"+oldName+"' exists");
             }
             PatchLog newPatchLog = renamePatchLog(patchLog, oldName, newName);
+            logs.remove(patchLog.getLogId());
+            logs.put(newPatchLog.getLogId(), newPatchLog);
             // registry changes done in LocalServer.renameDataSource
             return newPatchLog;
-        }
+        }, oldName, newName);
     }
 
     // The xsd:dateTime regex (from XMLSchema 1.1, colon become any char ".", reformated)
@@ -274,8 +423,24 @@ public abstract class PatchStore {
             "(Z|(\\+|-)((0[0-9]|1[0-3]).[0-5][0-9]|14.00))?";
     private static Pattern pattern = Pattern.compile("/[^/]*(_"+xsdRegex+")$");
 
+    /**
+     * Copy a patch log to a new, registered, log called {@code newName}.
+     * The copy has a new id and URI.
+     * This does not take the {@code PatchStore} lock and the source log may be in use.
+     */
+    /*package*/ PatchLog copy(PatchLog patchLog, String oldName, String newName) {
+        PatchLog patchLog2 = copyPatchLog(patchLog, oldName, newName);
+        logs.put(patchLog2.getLogId(), patchLog2);
+        return patchLog2;
+    }
+
     /** Basic copy version - cause change of id and URI*/
     protected PatchLog copyPatchLog(PatchLog patchLog, String oldName, String newName) {
+        return copyPatchLog(patchLog, copyDescription(patchLog, newName));
+    }
+
+    /** The description of a copy: new id, and the URI with a timestamp. */
+    protected static DataSourceDescription copyDescription(PatchLog patchLog, String newName) {
         Id dsRef2 = Id.create();
         String uri = patchLog.getDescription().getUri();
         String uriBase = uri;
@@ -285,15 +450,49 @@ public abstract class PatchStore {
             uriBase = uriBase.substring(0, matcher.start(1));
         String now = DateTimeUtils.nowAsXSDDateTimeString().replace(':','_');
         String uri2 = uriBase+"_"+now;
-        DataSourceDescription dsd2 = new DataSourceDescription(dsRef2, newName, uri2);
+        return new DataSourceDescription(dsRef2, newName, uri2);
+    }
+
+    /**
+     * Copy the patches of a log into a new log for {@code dsd2}.
+     * Logs made from a {@link PatchLogIndex} and {@link PatchStorage} are copied
+     * entry by entry (see {@link PatchLogBase#copyFrom}); otherwise each patch is
+     * appended to the new log. Providers override this with a native copy of the log.
+     */
+    protected PatchLog copyPatchLog(PatchLog patchLog, DataSourceDescription dsd2) {
         PatchLog patchLog2 = newPatchLog(dsd2);
+        boolean copied;
+        try {
+            copied = withLog(patchLog, src->withLog(patchLog2, dst->{
+                if ( ! ( src instanceof PatchLogBase && dst instanceof PatchLogBase ) )
+                    return false;
+                ((PatchLogBase)dst).copyFrom((PatchLogBase)src);
+                return true;
+            }));
+        } catch (RuntimeException ex) {
+            // Do not leave a partial copy.
+            patchLog2.delete();
+            throw ex;
+        }
+        if ( copied )
+            return patchLog2;
         PatchLogInfo info = patchLog.getInfo();
         patchLog.range(info.getMinVersion(), info.getMaxVersion()).forEach(patchLog2::append);
         return patchLog2;
     }
 
+    /** The description of a log after a rename: new id, same URI. */
+    protected static DataSourceDescription renameDescription(PatchLog patchLog, String newName) {
+        DataSourceDescription dsd1 = patchLog.getDescription();
+        return new DataSourceDescription(Id.create(), newName, dsd1.getUri());
+    }
+
+    /**
+     * Rename a log. The renamed log has a new id.
+     * The default is copy and delete; providers override this with a native rename.
+     */
     protected PatchLog renamePatchLog(PatchLog patchLog, String oldName, String newName) {
-        PatchLog patchLog2 = copyPatchLog(patchLog, oldName, newName);
+        PatchLog patchLog2 = copyPatchLog(patchLog, renameDescription(patchLog, newName));
         delete(patchLog);
         return patchLog2;
     }
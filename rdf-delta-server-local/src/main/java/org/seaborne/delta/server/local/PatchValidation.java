@@ -68,8 +68,6 @@ public class PatchValidation {
     public static void validateNewPatch(PatchLog log, Id patchId, Id previousId, BadHandler action) {
         if ( patchId == null )
             action.bad("Patch: No id");
-        if ( log.contains(patchId) )
-            action.bad("Patch already exists: patch=%s", patchId);
         Id logHead = log.getLatestId();
         // Works if previousId == null.
         if ( ! Objects.equals(logHead, previousId) ) {
@@ -82,6 +80,10 @@ public class PatchValidation {
             FmtLog.warn(Delta.DELTA_LOG, "Conflict: Previous not current: patch=%s, log head=%s : patch previous=%s", patchId, logHead, previousId);
             throw new DeltaPatchVersionException("Patch Conflict", body);
         }
+        // After the conflict check: resending an earlier patch is a conflict.
+        // Usually answered by the log's id filter without going to the index.
+        if ( log.contains(patchId) )
+            action.bad("Patch already exists: patch=%s", patchId);
     }
 
     private static void validate(PatchLog log, PatchHeader header, Id patchId, Id previousId, BadHandler action) {
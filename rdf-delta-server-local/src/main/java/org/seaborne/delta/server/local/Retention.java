@@ -0,0 +1,340 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.seaborne.delta.*;
+import org.seaborne.delta.server.local.Snapshots.Snapshot;
+import org.slf4j.Logger;
+
+/**
+ * Retention of the patches of logs. A background pruner removes the patches a log no
+ * longer needs to keep (see {@link PatchLog#prune}), so the size of a log is bounded.
+ * <p>
+ * A {@link Policy} says which patches to keep: the latest {@code N} versions, the patches
+ * stored in the last {@code X} days, or the patches after the latest snapshot. A patch is
+ * kept if any part of the policy keeps it. The age of a patch is from when it was stored;
+ * a patch whose storage does not record that is kept. The latest patch is always kept.
+ * The server-wide policy is set with {@link DeltaConst#pDeltaRetentionVersions},
+ * {@link DeltaConst#pDeltaRetentionDays} and {@link DeltaConst#pDeltaRetentionSnapshot};
+ * a setting for one log is the property name followed by {@code "."} and the log name.
+ * <p>
+ * Whatever the policy, the pruner does not remove the patches that are needed to make a
+ * new replica: if the server keeps snapshots, those after the latest snapshot, and there is
+ * no pruning until a log has a snapshot. Nor does it remove patches that a
+ * {@link PatchHandler} has not yet handled.
+ * <p>
+ * If the server does not keep snapshots, a pruned log can not be used to start a new
+ * replica, or a patch handler that is registered later. The pruner warns about this
+ * when it first prunes such a log.
+ * <p>
+ * The pruner runs every {@code interval} and removes patches a {@code batch} at a time,
+ * holding the lock of the log only for one batch. After each batch it pauses, for longer
+ * while the log is being appended to, so that it does not hold up appends.
+ * <p>
+ * Logs that have not been opened are not opened to prune them.
+ */
+public class Retention {
+    private static Logger LOG = Delta.getDeltaLogger("Retention");
+
+    // While a log is being appended to, the pause after a batch is extended up to this many times.
+    private static final int MAX_BACKOFF = 10;
+    // Delay before pruning a log again after a failure; doubled while it keeps failing.
+    private static final long RETRY_MIN_MS = 60_000;
+    private static final long RETRY_MAX_MS = 3_600_000;
+
+    /** What patches of a log to keep. */
+    public static class Policy {
+        private final long keepVersions;
+        private final Duration keepAge;
+        private final boolean keepSinceSnapshot;
+
+        /**
+         * A retention policy.
+         * @param keepVersions Number of latest versions to keep; zero or negative for no limit by versions.
+         * @param keepAge Keep the patches stored more recently than this; null for no limit by age.
+         * @param keepSinceSnapshot Keep the patches after the latest snapshot.
+         */
+        public Policy(long keepVersions, Duration keepAge, boolean keepSinceSnapshot) {
+            this.keepVersions = keepVersions;
+            this.keepAge = keepAge;
+            this.keepSinceSnapshot = keepSinceSnapshot;
+        }
+
+        public long getKeepVersions()        { return keepVersions; }
+        public Duration getKeepAge()         { return keepAge; }
+        public boolean isKeepSinceSnapshot() { return keepSinceSnapshot; }
+
+        /** Whether the policy removes any patches. */
+        public boolean isActive() {
+            return keepVersions > 0 || keepAge != null || keepSinceSnapshot;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Policy[versions=%d, age=%s, snapshot=%s]", keepVersions, keepAge, keepSinceSnapshot);
+        }
+    }
+
+    private final LocalServerConfig config;
+    private final DataSourceRegistry registry;
+    private final Snapshots snapshots;
+    private final PatchHandlers patchHandlers;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final Map<Id, Policy> policies = new ConcurrentHashMap<>();
+    // Logs where pruning failed: when to try again, and the delay so far.
+    private final Map<Id, long[]> retries = new ConcurrentHashMap<>();
+    // Logs pruned on a server that does not keep snapshots, that have been warned about.
+    private final Set<Id> warned = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor;
+    private volatile boolean running = true;
+
+    /**
+     * Create from the configuration properties {@link DeltaConst#pDeltaRetentionInterval},
+     * {@link DeltaConst#pDeltaRetentionBatch} and {@link DeltaConst#pDeltaRetentionPause},
+     * which may also be set as system properties. The policies are read from the
+     * configuration when a log is pruned.
+     */
+    public static Retention create(LocalServerConfig config, DataSourceRegistry registry, Snapshots snapshots, PatchHandlers patchHandlers) {
+        long interval = longProperty(config, DeltaConst.pDeltaRetentionInterval, 60);
+        int batchSize = (int)longProperty(config, DeltaConst.pDeltaRetentionBatch, 100);
+        long pauseMillis = longProperty(config, DeltaConst.pDeltaRetentionPause, 100);
+        return new Retention(config, registry, snapshots, patchHandlers, interval, batchSize, pauseMillis);
+    }
+
+    private static String property(LocalServerConfig config, String name) {
+        String x = ( config == null ) ? null : config.getProperty(name);
+        return ( x != null ) ? x : System.getProperty(name);
+    }
+
+    private static long longProperty(LocalServerConfig config, String name, long dft) {
+        String x = property(config, name);
+        if ( x == null )
+            return dft;
+        try { return Long.parseLong(x.trim()); }
+        catch (NumberFormatException ex) {
+            throw new DeltaConfigException("Bad value for "+name+": "+x);
+        }
+    }
+
+    /**
+     * @param intervalSeconds Time between runs of the pruner; no background pruning if zero or negative.
+     * @param batchSize Maximum number of patches removed at a time.
+     * @param pauseMillis Pause after removing a batch of patches.
+     */
+    public Retention(LocalServerConfig config, DataSourceRegistry registry, Snapshots snapshots, PatchHandlers patchHandlers,
+                     long intervalSeconds, int batchSize, long pauseMillis) {
+        this.config = config;
+        this.registry = registry;
+        this.snapshots = snapshots;
+        this.patchHandlers = patchHandlers;
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMillis = Math.max(0, pauseMillis);
+        if ( intervalSeconds <= 0 ) {
+            this.executor = null;
+            return;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(r->{
+            Thread thread = new Thread(r, "DeltaRetention");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(()->{
+            try {
+                pruneAll();
+            } catch (Throwable th) {
+                FmtLog.warn(LOG, th, "Pruning failed");
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Set the policy of a log, in place of the policy from the configuration. */
+    public void setPolicy(Id logId, Policy policy) {
+        policies.put(logId, policy);
+        retries.remove(logId);
+    }
+
+    /** The policy of a log: one set by {@link #setPolicy}, else the one from the configuration. */
+    public Policy getPolicy(DataSource dataSource) {
+        Policy policy = policies.get(dataSource.getId());
+        if ( policy != null )
+            return policy;
+        String name = dataSource.getName();
+        String versions = logProperty(DeltaConst.pDeltaRetentionVersions, name);
+        String days = logProperty(DeltaConst.pDeltaRetentionDays, name);
+        String snapshot = logProperty(DeltaConst.pDeltaRetentionSnapshot, name);
+        try {
+            long keepVersions = ( versions == null ) ? -1 : Long.parseLong(versions.trim());
+            Duration keepAge = ( days == null ) ? null : Duration.ofMillis((long)(Double.parseDouble(days.trim()) * TimeUnit.DAYS.toMillis(1)));
+            boolean keepSinceSnapshot = ( snapshot != null ) && Boolean.parseBoolean(snapshot.trim());
+            return new Policy(keepVersions, keepAge, keepSinceSnapshot);
+        } catch (NumberFormatException ex) {
+            throw new DeltaConfigException("Bad retention setting for log '"+name+"': "+ex.getMessage());
+        }
+    }
+
+    private String logProperty(String key, String logName) {
+        String x = property(config, key+"."+logName);
+        return ( x != null ) ? x : property(config, key);
+    }
+
+    /** Prune all the open logs of the server. Return the number of patches removed. */
+    public long pruneAll() {
+        List<DataSource> sources = new ArrayList<>();
+        registry.forEach((id, ds)->sources.add(ds));
+        long total = 0;
+        for ( DataSource ds : sources ) {
+            if ( ! running )
+                break;
+            if ( ds.getPatchLog() instanceof PatchLogLazy && ! ((PatchLogLazy)ds.getPatchLog()).isOpen() )
+                continue;
+            total += prune(ds);
+        }
+        return total;
+    }
+
+    /**
+     * Prune a log according to its policy. Return the number of patches removed.
+     * If pruning the log fails, including because of a bad setting, it is not tried
+     * again for a while, for longer while it keeps failing.
+     */
+    public long prune(DataSource dataSource) {
+        Id logId = dataSource.getId();
+        long[] retry = retries.get(logId);
+        if ( retry != null && retry[0] > System.currentTimeMillis() )
+            return 0;
+        long first = 0;
+        long current = 0;
+        try {
+            Policy policy = getPolicy(dataSource);
+            if ( ! policy.isActive() )
+                return 0;
+            PatchLog patchLog = dataSource.getPatchLog();
+            PatchLogInfo info = patchLog.getInfo(0);
+            Version earliest = info.getMinVersion();
+            long limit = limit(dataSource, policy, info);
+            if ( ! Version.isValid(earliest) || limit <= earliest.value() )
+                return 0;
+            if ( snapshots == null && warned.add(logId) )
+                FmtLog.warn(LOG, "[%s] Pruning a log on a server that does not keep snapshots: new replicas and patch handlers can not start from this log",
+                            dataSource.getName());
+            long cutoff = ( policy.getKeepAge() == null ) ? -1 : System.currentTimeMillis() - policy.getKeepAge().toMillis();
+            first = earliest.value();
+            current = first;
+            while ( running && current < limit ) {
+                long end = Math.min(current + batchSize, limit);
+                if ( cutoff >= 0 )
+                    end = beforeCutoff(patchLog, current, end, cutoff);
+                if ( end <= current )
+                    break;
+                current = patchLog.prune(Version.create(end)).value();
+                if ( current < limit )
+                    pause(patchLog);
+            }
+            retries.remove(logId);
+        } catch (RuntimeException ex) {
+            long delay = failed(logId);
+            FmtLog.warn(LOG, "[%s] Pruning stopped: %s (retry in %ds)", dataSource.getName(), ex.getMessage(), delay/1000);
+        }
+        long count = current - first;
+        if ( count > 0 )
+            FmtLog.info(LOG, "[%s] Pruned %d patches: earliest version is now %d", dataSource.getName(), count, current);
+        return count;
+    }
+
+    // Return the delay before the log is tried again.
+    private long failed(Id logId) {
+        long[] retry = retries.computeIfAbsent(logId, id->new long[] {0, 0});
+        retry[1] = Math.min(Math.max(RETRY_MIN_MS, 2*retry[1]), RETRY_MAX_MS);
+        retry[0] = System.currentTimeMillis() + retry[1];
+        return retry[1];
+    }
+
+    // The version of the first patch to keep, apart from the limit by age.
+    private long limit(DataSource dataSource, Policy policy, PatchLogInfo info) {
+        long latest = info.getMaxVersion().value();
+        long limit = Long.MAX_VALUE;
+        if ( policy.getKeepVersions() > 0 )
+            limit = Math.min(limit, latest - policy.getKeepVersions() + 1);
+        Snapshot snapshot = ( snapshots == null ) ? null : snapshots.getLatest(dataSource.getId());
+        long afterSnapshot = ( snapshot == null ) ? info.getMinVersion().value() : snapshot.getVersion().value() + 1;
+        if ( policy.isKeepSinceSnapshot() || snapshots != null )
+            // Without a snapshot, a new replica starts from the beginning of the log.
+            limit = Math.min(limit, afterSnapshot);
+        limit = Math.min(limit, latest);
+        if ( patchHandlers != null ) {
+            long watermark = patchHandlers.lowestWatermark(dataSource.getId());
+            if ( watermark < Long.MAX_VALUE )
+                limit = Math.min(limit, watermark + 1);
+        }
+        return limit;
+    }
+
+    // The first version in [start, end) stored after the cutoff, or end.
+    // A patch with no recorded time is treated as recent.
+    private static long beforeCutoff(PatchLog patchLog, long start, long end, long cutoff) {
+        for ( long v = start ; v < end ; v++ ) {
+            Id id = patchLog.find(Version.create(v));
+            if ( id == null )
+                continue;
+            long time = patchLog.storedTime(id);
+            if ( time < 0 || time > cutoff )
+                return v;
+        }
+        return end;
+    }
+
+    // Pause after a batch; longer while the log is being appended to.
+    private void pause(PatchLog patchLog) {
+        if ( pauseMillis <= 0 )
+            return;
+        for ( int i = 0 ; i < MAX_BACKOFF && running ; i++ ) {
+            Version before = patchLog.getLatestVersion();
+            Lib.sleep((int)pauseMillis);
+            if ( before.equals(patchLog.getLatestVersion()) )
+                return;
+        }
+    }
+
+    /** Forget the policy and state of a log. */
+    public void forget(Id logId) {
+        policies.remove(logId);
+        retries.remove(logId);
+        warned.remove(logId);
+    }
+
+    public void shutdown() {
+        running = false;
+        if ( executor != null )
+            executor.shutdownNow();
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.changes.RDFChangesApply;
+import org.apache.jena.rdfpatch.changes.RDFChangesExternalTxn;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.sys.TDBInternal;
+import org.seaborne.delta.*;
+import org.slf4j.Logger;
+
+/**
+ * Snapshots of patch logs: the data after applying the patches of a log up to some
+ * version, kept as gzip-compressed N-Quads so a new replica can load the snapshot and
+ * then play only the later patches. Blank node labels are kept (see
+ * {@link DeltaOps#writeSnapshot}) so later patches that name blank nodes still match.
+ * <p>
+ * Snapshots of a log are kept in a directory, named by the log id, under the snapshot
+ * area. A file is called {@code snapshot-VERSION-PATCHID.nq.gz} and only the latest is
+ * kept. A new snapshot is built from the previous snapshot and the patches since it,
+ * in a temporary TDB2 database in the log's directory so the data is not held in memory.
+ * <p>
+ * After an append, if the log is {@code interval} patches or more beyond its latest
+ * snapshot, a new snapshot is made in the background.
+ * <p>
+ * If the server keeps materialized data (see {@link Materializer}), a snapshot is written
+ * from the materialized data of the log, at the version it has reached.
+ */
+public class Snapshots {
+    private static Logger LOG = Delta.getDeltaLogger("Snapshot");
+
+    private static final Pattern FILENAME = Pattern.compile("snapshot-(\\d+)-(.+)\\.nq\\.gz");
+    private static final String  EXT      = ".nq.gz";
+
+    /** A snapshot file. */
+    public static class Snapshot {
+        private final Version version;
+        private final Id patchId;
+        private final Path path;
+
+        private Snapshot(Version version, Id patchId, Path path) {
+            this.version = version;
+            this.patchId = patchId;
+            this.path = path;
+        }
+
+        public Version getVersion() { return version; }
+        public Id getPatchId()      { return patchId; }
+        public Path getPath()       { return path; }
+
+        @Override
+        public String toString() {
+            return String.format("Snapshot[%s, %s]", version, patchId);
+        }
+    }
+
+    private final Path directory;
+    private final long interval;
+    // Latest snapshot of each log. Missing means "not looked yet".
+    private final Map<Id, Optional<Snapshot>> latest = new ConcurrentHashMap<>();
+    private final Set<Id> pending = ConcurrentHashMap.newKeySet();
+    // Making a snapshot of one log does not wait for another log.
+    private final NameLocks logLocks = new NameLocks(LocalServer.AdminLockStripes);
+    private volatile Materializer materializer = null;
+    // At most one task per log (see "pending").
+    private final ExecutorService executor = Executors.newCachedThreadPool(r->{
+        Thread thread = new Thread(r, "DeltaSnapshots");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create from the configuration properties {@link DeltaConst#pDeltaSnapshots} and
+     * {@link DeltaConst#pDeltaSnapshotInterval}, which may also be set as system properties.
+     * Return null if the server does not keep snapshots.
+     */
+    public static Snapshots create(LocalServerConfig config) {
+        String dir = property(config, DeltaConst.pDeltaSnapshots);
+        if ( dir == null || dir.isEmpty() )
+            return null;
+        String intervalStr = property(config, DeltaConst.pDeltaSnapshotInterval);
+        long interval = 1000;
+        if ( intervalStr != null ) {
+            try { interval = Long.parseLong(intervalStr.trim()); }
+            catch (NumberFormatException ex) {
+                throw new DeltaConfigException("Bad value for "+DeltaConst.pDeltaSnapshotInterval+": "+intervalStr);
+            }
+        }
+        return new Snapshots(Paths.get(dir), interval);
+    }
+
+    private static String property(LocalServerConfig config, String name) {
+        String x = ( config == null ) ? null : config.getProperty(name);
+        return ( x != null ) ? x : System.getProperty(name);
+    }
+
+    public Snapshots(Path directory, long interval) {
+        this.directory = directory;
+        this.interval = interval;
+        try { Files.createDirectories(directory); }
+        catch (IOException ex) { throw IOX.exception(ex); }
+        FmtLog.info(LOG, "Snapshots: %s (interval %d)", directory, interval);
+    }
+
+    /** Write snapshots from the materialized data of logs, when there is some. */
+    public void setMaterializer(Materializer materializer) {
+        this.materializer = materializer;
+    }
+
+    /** The latest snapshot of a log, or null. */
+    public Snapshot getLatest(Id logId) {
+        return latest.computeIfAbsent(logId, id->Optional.ofNullable(scan(id))).orElse(null);
+    }
+
+    /** Add the details of the latest snapshot, if any, to a {@link PatchLogInfo}. */
+    public PatchLogInfo addTo(PatchLogInfo info) {
+        Snapshot snapshot = getLatest(info.getDataSourceId());
+        if ( snapshot == null )
+            return info;
+        return info.withSnapshot(snapshot.getVersion(), snapshot.getPatchId());
+    }
+
+    /** Open the snapshot of a log at a version, as N-Quads; return null if there isn't one. */
+    public InputStream openNQuads(Id logId, Version version) {
+        InputStream in = open(logId, version);
+        if ( in == null )
+            return null;
+        try {
+            return new GZIPInputStream(in);
+        } catch (IOException ex) {
+            IO.close(in);
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** Open the snapshot file of a log at a version (gzip-compressed N-Quads); return null if there isn't one. */
+    public InputStream open(Id logId, Version version) {
+        Snapshot snapshot = getLatest(logId);
+        if ( snapshot == null || ! snapshot.getVersion().equals(version) )
+            return null;
+        try {
+            return Files.newInputStream(snapshot.getPath());
+        } catch (NoSuchFileException ex) {
+            // Replaced by a later snapshot.
+            return null;
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** Called after a patch has been appended to the log: make a snapshot if it is due. */
+    public void afterAppend(PatchLog patchLog, Version version) {
+        if ( interval <= 0 )
+            return;
+        Snapshot snapshot = getLatest(patchLog.getLogId());
+        long since = ( snapshot == null ) ? version.value() : version.value() - snapshot.getVersion().value();
+        if ( since < interval )
+            return;
+        Id logId = patchLog.getLogId();
+        if ( ! pending.add(logId) )
+            return;
+        executor.submit(()->{
+            try {
+                createSnapshot(patchLog);
+            } catch (Throwable th) {
+                FmtLog.warn(LOG, th, "[%s] Failed to make a snapshot", logId);
+            } finally {
+                pending.remove(logId);
+            }
+        });
+    }
+
+    /**
+     * Make a snapshot of the log at its latest version, unless the latest snapshot is
+     * already at that version. Return the latest snapshot.
+     */
+    public Snapshot createSnapshot(PatchLog patchLog) {
+        Id logId = patchLog.getLogId();
+        return logLocks.calc(()->{
+            PatchLogInfo info = patchLog.getInfo();
+            Version target = info.getMaxVersion();
+            Snapshot previous = getLatest(logId);
+            if ( ! Version.isValid(target) )
+                return previous;
+            if ( previous != null && ! previous.getVersion().isBefore(target) )
+                return previous;
+            long start = System.currentTimeMillis();
+            Snapshot snapshot = fromMaterialized(logId, previous);
+            if ( snapshot == null )
+                snapshot = fromPatches(patchLog, info, previous);
+            if ( snapshot == previous )
+                return previous;
+            latest.put(logId, Optional.of(snapshot));
+            if ( previous != null ) {
+                try { Files.deleteIfExists(previous.getPath()); }
+                catch (IOException ex) { FmtLog.warn(LOG, "[%s] Failed to delete old snapshot: %s", logId, ex.getMessage()); }
+            }
+            FmtLog.info(LOG, "[%s] Snapshot at version %s (%.3fs)", logId, snapshot.getVersion(), (System.currentTimeMillis()-start)/1000.0);
+            return snapshot;
+        }, logId.asPlainString());
+    }
+
+    // Snapshot from the materialized data; null if the log is not materialized or it is not after the previous snapshot.
+    private Snapshot fromMaterialized(Id logId, Snapshot previous) {
+        Materializer m = materializer;
+        if ( m == null )
+            return null;
+        return m.read(logId, (version, patchId, dsg)->{
+            if ( patchId == null || ( previous != null && ! previous.getVersion().isBefore(version) ) )
+                return null;
+            return write(logId, version, patchId, dsg);
+        });
+    }
+
+    // Snapshot by applying the patches since the previous snapshot to a temporary database.
+    private Snapshot fromPatches(PatchLog patchLog, PatchLogInfo info, Snapshot previous) {
+        Id logId = patchLog.getLogId();
+        Version target = info.getMaxVersion();
+        Path dir = directory.resolve(logId.asPlainString());
+        Path tmpDir;
+        try {
+            Files.createDirectories(dir);
+            tmpDir = Files.createTempDirectory(dir, "build-");
+        } catch (IOException ex) { throw IOX.exception(ex); }
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(tmpDir.toString());
+        try {
+            long firstVersion = info.getMinVersion().value();
+            if ( previous != null ) {
+                try ( InputStream in = new GZIPInputStream(Files.newInputStream(previous.getPath())) ) {
+                    Txn.executeWrite(dsg, ()->DeltaOps.readSnapshot(in, dsg));
+                } catch (IOException ex) { throw IOX.exception(ex); }
+                // A compacted log starts later. Its first patch is the net change of the
+                // versions before it, including deletes, so it applies on top of the snapshot.
+                firstVersion = Math.max(previous.getVersion().value()+1, firstVersion);
+            }
+            RDFChangesExternalTxn changes = new RDFChangesExternalTxn(new RDFChangesApply(dsg));
+            Id targetId = null;
+            // One transaction per patch.
+            for ( long ver = Math.max(firstVersion, 1) ; ver <= target.value() ; ver++ ) {
+                RDFPatch patch = patchLog.fetch(Version.create(ver));
+                if ( patch == null )
+                    throw new DeltaException("Missing patch: version="+ver);
+                Txn.executeWrite(dsg, ()->patch.apply(changes));
+                targetId = Id.fromNode(patch.getId());
+            }
+            if ( targetId == null )
+                return previous;
+            return write(logId, target, targetId, dsg);
+        } finally {
+            TDBInternal.expel(dsg);
+            FileOps.clearAll(tmpDir.toString());
+            FileOps.delete(tmpDir.toString());
+        }
+    }
+
+    private Snapshot write(Id logId, Version version, Id patchId, DatasetGraph dsg) {
+        Path dir = directory.resolve(logId.asPlainString());
+        try {
+            Files.createDirectories(dir);
+            Path file = dir.resolve(String.format("snapshot-%d-%s%s", version.value(), patchId.asPlainString(), EXT));
+            Path tmp = Files.createTempFile(dir, "tmp-", EXT);
+            try ( OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp)) ) {
+                Txn.executeRead(dsg, ()->DeltaOps.writeSnapshot(out, dsg));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Snapshot(version, patchId, file);
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** Find the latest snapshot on disk. */
+    private Snapshot scan(Id logId) {
+        Path dir = directory.resolve(logId.asPlainString());
+        if ( ! Files.isDirectory(dir) )
+            return null;
+        try ( Stream<Path> files = Files.list(dir) ) {
+            Snapshot best = null;
+            for ( Path path : (Iterable<Path>)files::iterator ) {
+                Matcher m = FILENAME.matcher(path.getFileName().toString());
+                if ( ! m.matches() )
+                    continue;
+                Version version = Version.create(Long.parseLong(m.group(1)));
+                if ( best == null || version.isAfter(best.getVersion()) )
+                    best = new Snapshot(version, Id.fromString(m.group(2)), path);
+            }
+            return best;
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** Forget about the snapshots of a log. The files are not deleted. */
+    public void forget(Id logId) {
+        latest.remove(logId);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
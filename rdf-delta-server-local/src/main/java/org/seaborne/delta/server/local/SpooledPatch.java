@@ -0,0 +1,269 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.server.local;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.rdfpatch.PatchHeader;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.binary.RDFPatchReaderBinary;
+import org.apache.jena.rdfpatch.changes.PatchSummary;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
+import org.apache.jena.rdfpatch.text.RDFChangesWriterText;
+import org.apache.jena.rdfpatch.text.RDFPatchReaderText;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.web.HttpSC;
+import org.seaborne.delta.DeltaHttpException;
+
+/**
+ * An {@link RDFPatch} in text form held as bytes, not as a list of changes.
+ * <p>
+ * The bytes are kept in memory up to a threshold and then spilled to a temporary file,
+ * so a large patch does not need a large heap. The header is parsed when the patch is
+ * spooled; the body is parsed each time the patch is {@linkplain #apply applied}.
+ * <p>
+ * {@link #close} releases the temporary file. A {@code SpooledPatch} must not be retained
+ * after the operation that created it; use {@link #materialize} to get a patch that can
+ * be kept.
+ */
+public class SpooledPatch implements RDFPatch, AutoCloseable {
+
+    private final PatchHeader header;
+    private final PatchSummary summary;
+    private final long size;
+    // One of these is set.
+    private final byte[] bytes;
+    private final Path file;
+
+    /**
+     * Read a text RDF Patch from an {@code InputStream}.
+     * <p>
+     * Bytes beyond {@code memoryThreshold} are written to a temporary file in
+     * {@code spillDir} (the system temporary directory if null). The patch is checked to
+     * be syntactically valid, by streaming, before this operation returns.
+     *
+     * @throws DeltaHttpException (413) if the patch is larger than {@code maxBytes} (no limit if negative).
+     */
+    public static SpooledPatch spool(InputStream input, long maxBytes, int memoryThreshold, Path spillDir) {
+        Spool spool = new Spool(maxBytes, memoryThreshold, spillDir);
+        try {
+            byte[] chunk = new byte[64*1024];
+            for(;;) {
+                int n = input.read(chunk);
+                if ( n < 0 )
+                    break;
+                spool.write(chunk, 0, n);
+            }
+            return spool.finish();
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        } finally {
+            spool.discard();
+        }
+    }
+
+    /**
+     * Read a binary RDF Patch from an {@code InputStream}, converting it to text as it is
+     * spooled. Otherwise as {@link #spool}; {@code maxBytes} and {@code memoryThreshold}
+     * apply to the text form.
+     */
+    public static SpooledPatch spoolBinary(InputStream input, long maxBytes, int memoryThreshold, Path spillDir) {
+        Spool spool = new Spool(maxBytes, memoryThreshold, spillDir);
+        try {
+            RDFChangesWriterText writer = RDFChangesWriterText.create(spool);
+            RDFPatchReaderBinary.read(input, writer);
+            writer.close();
+            return spool.finish();
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        } catch (RiotException ex) {
+            throw new PatchException("Bad binary patch: "+ex.getMessage());
+        } finally {
+            spool.discard();
+        }
+    }
+
+    /** Bytes in memory, moving to a temporary file when over the threshold. */
+    private static class Spool extends OutputStream {
+        private final long maxBytes;
+        private final int memoryThreshold;
+        private final Path spillDir;
+        private ByteArrayOutputStream buffer;
+        private OutputStream out;
+        private Path tmp = null;
+        private long total = 0;
+
+        Spool(long maxBytes, int memoryThreshold, Path spillDir) {
+            this.maxBytes = maxBytes;
+            this.memoryThreshold = memoryThreshold;
+            this.spillDir = spillDir;
+            this.buffer = new ByteArrayOutputStream(Math.min(memoryThreshold, 64*1024));
+            this.out = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            total += len;
+            if ( maxBytes >= 0 && total > maxBytes )
+                throw new DeltaHttpException(HttpSC.REQUEST_ENTITY_TOO_LARGE_413, "Patch larger than the maximum of "+maxBytes+" bytes");
+            if ( tmp == null && total > memoryThreshold ) {
+                // Spill to disk.
+                tmp = ( spillDir == null )
+                    ? Files.createTempFile("patch-", ".rdfp")
+                    : Files.createTempFile(spillDir, "patch-", ".rdfp");
+                out = new BufferedOutputStream(Files.newOutputStream(tmp));
+                buffer.writeTo(out);
+                buffer = null;
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        // Closing is done by finish() or discard().
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+
+        /** Complete the spooling, and hand over any temporary file to the patch. */
+        SpooledPatch finish() throws IOException {
+            out.close();
+            SpooledPatch patch = ( tmp == null )
+                ? new SpooledPatch(buffer.toByteArray(), null, total)
+                : new SpooledPatch(null, tmp, total);
+            tmp = null;
+            return patch;
+        }
+
+        /** Remove the temporary file, if not handed over. */
+        void discard() {
+            if ( tmp == null )
+                return;
+            IO.close(out);
+            deleteFile(tmp);
+            tmp = null;
+        }
+    }
+
+    private SpooledPatch(byte[] bytes, Path file, long size) {
+        this.bytes = bytes;
+        this.file = file;
+        this.size = size;
+        // Check the whole patch parses and, at the same time, get the header.
+        try {
+            RDFChangesCounter counter = new RDFChangesCounter();
+            apply(counter);
+            this.summary = counter.summary();
+            try ( InputStream in = openStream() ) {
+                this.header = RDFPatchReaderText.readerHeader(in);
+            }
+        } catch (IOException ex) {
+            close();
+            throw IOX.exception(ex);
+        } catch (RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /** Open a stream of the bytes of the patch (RDF Patch text format). The caller must close the stream. */
+    public InputStream openStream() throws IOException {
+        if ( bytes != null )
+            return new ByteArrayInputStream(bytes);
+        return new BufferedInputStream(Files.newInputStream(file));
+    }
+
+    /** Size of the patch, in bytes. */
+    public long size() {
+        return size;
+    }
+
+    /** Whether the patch spilled to disk. */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /** Counts of the changes in the patch. */
+    public PatchSummary summary() {
+        return summary;
+    }
+
+    @Override
+    public PatchHeader header() {
+        return header;
+    }
+
+    @Override
+    public void apply(RDFChanges changes) {
+        try ( InputStream in = openStream() ) {
+            new RDFPatchReaderText(in).apply(changes);
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    @Override
+    public boolean repeatable() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if ( file != null )
+            deleteFile(file);
+    }
+
+    /**
+     * Return a patch that is independent of any temporary storage. A patch already held
+     * in memory as a list of changes is returned as is; any other patch, such as a
+     * {@code SpooledPatch} or a client patch backed by a file, has its changes read into
+     * memory.
+     */
+    public static RDFPatch materialize(RDFPatch patch) {
+        if ( patch instanceof RDFChangesCollector.RDFPatchStored )
+            return patch;
+        RDFChangesCollector collector = new RDFChangesCollector();
+        patch.apply(collector);
+        return collector.getRDFPatch();
+    }
+
+    private static void deleteFile(Path path) {
+        try { Files.deleteIfExists(path); } catch (IOException ex) { /* Best effort. */ }
+    }
+
+    @Override
+    public String toString() {
+        return "SpooledPatch["+size+(isSpilled() ? ", spilled" : "")+"]";
+    }
+}
@@ -70,4 +70,14 @@ public interface LogIndex {
 
     /** Current latest version in the index. */
     public Version current();
+
+    /**
+     * Remove the entries for versions before {@code version}, which becomes the earliest
+     * version. The entry for {@code version} is changed to have no previous patch.
+     * <p>
+     * It is called inside the {@link PatchLogIndex} lock.
+     */
+    public default void truncate(Version version) {
+        throw new UnsupportedOperationException("LogIndex.truncate: "+getClass().getSimpleName());
+    }
 }
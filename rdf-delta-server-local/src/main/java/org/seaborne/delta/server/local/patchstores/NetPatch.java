@@ -0,0 +1,101 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server.local.patchstores;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfpatch.PatchHeader;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchConst;
+import org.apache.jena.rdfpatch.changes.RDFChangesBase;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+
+/**
+ * Fold a sequence of patches into one patch with the same net effect: for each quad and
+ * each prefix, the last change made to it.
+ * <p>
+ * Deletes are kept, as well as adds, so the net patch can be applied to the data at any
+ * point in the sequence, not only to the data at its start. The memory used is
+ * proportional to the number of different quads changed.
+ */
+/*package*/ class NetPatch extends RDFChangesBase {
+    // Key (g,s,p,o); g may be null. Value: true for add, false for delete.
+    private final Map<List<Node>, Boolean> quads = new LinkedHashMap<>();
+    // Key (g, prefix); g may be null. Value: the URI, or null for delete.
+    private final Map<List<Node>, String> prefixes = new LinkedHashMap<>();
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+        quads.put(Arrays.asList(g, s, p, o), Boolean.TRUE);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+        quads.put(Arrays.asList(g, s, p, o), Boolean.FALSE);
+    }
+
+    @Override
+    public void addPrefix(Node gn, String prefix, String uriStr) {
+        prefixes.put(key(gn, prefix), uriStr);
+    }
+
+    @Override
+    public void deletePrefix(Node gn, String prefix) {
+        prefixes.put(key(gn, prefix), null);
+    }
+
+    private static List<Node> key(Node gn, String prefix) {
+        return Arrays.asList(gn, NodeFactory.createLiteral(prefix));
+    }
+
+    /**
+     * The net patch, as one transaction, with the headers of {@code header} other than
+     * the previous patch.
+     */
+    public RDFPatch build(PatchHeader header) {
+        RDFChangesCollector c = new RDFChangesCollector();
+        header.forEach((field, value)->{
+            if ( ! RDFPatchConst.PREV.equals(field) )
+                c.header(field, value);
+        });
+        c.txnBegin();
+        prefixes.forEach((k, uri)->{
+            String prefix = k.get(1).getLiteralLexicalForm();
+            if ( uri == null )
+                c.deletePrefix(k.get(0), prefix);
+            else
+                c.addPrefix(k.get(0), prefix, uri);
+        });
+        quads.forEach((k, isAdd)->{
+            if ( ! isAdd )
+                c.delete(k.get(0), k.get(1), k.get(2), k.get(3));
+        });
+        quads.forEach((k, isAdd)->{
+            if ( isAdd )
+                c.add(k.get(0), k.get(1), k.get(2), k.get(3));
+        });
+        c.txnCommit();
+        return c.getRDFPatch();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.server.local.patchstores;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.seaborne.delta.Id;
+
+/**
+ * A Bloom filter over patch ids.
+ * {@link #mightContain} never returns false for an id that has been added;
+ * it may return true for an id that has not (about 1% of the time).
+ * <p>
+ * The filter grows by adding a segment of twice the size when the last one is full,
+ * so the number of ids need not be known in advance.
+ */
+/*package*/ class PatchIdFilter {
+    private static final int BITS_PER_ID      = 10;
+    private static final int HASHES           = 7;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY     = 1 << 24;
+
+    private static class Segment {
+        final long[] bits;
+        final int numBits;
+        final int capacity;
+        int count = 0;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.numBits = capacity * BITS_PER_ID;
+            this.bits = new long[(numBits+63)/64];
+        }
+
+        void add(long hash) {
+            int h1 = (int)hash;
+            int h2 = (int)(hash >>> 32);
+            for ( int i = 0 ; i < HASHES ; i++ ) {
+                int idx = Math.floorMod(h1 + i*h2, numBits);
+                bits[idx >>> 6] |= 1L << idx;
+            }
+            count++;
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int)hash;
+            int h2 = (int)(hash >>> 32);
+            for ( int i = 0 ; i < HASHES ; i++ ) {
+                int idx = Math.floorMod(h1 + i*h2, numBits);
+                if ( (bits[idx >>> 6] & (1L << idx)) == 0 )
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+    private long size = 0;
+
+    /*package*/ PatchIdFilter() {
+        segments.add(new Segment(INITIAL_CAPACITY));
+    }
+
+    /*package*/ synchronized void add(Id id) {
+        Segment last = segments.get(segments.size()-1);
+        if ( last.count >= last.capacity ) {
+            last = new Segment(Math.min(2*last.capacity, MAX_CAPACITY));
+            segments.add(last);
+        }
+        last.add(hash(id));
+        size++;
+    }
+
+    /*package*/ synchronized boolean mightContain(Id id) {
+        long h = hash(id);
+        for ( Segment s : segments ) {
+            if ( s.mightContain(h) )
+                return true;
+        }
+        return false;
+    }
+
+    /** Number of ids added. */
+    /*package*/ synchronized long size() {
+        return size;
+    }
+
+    // 64 bit FNV-1a, then mixed (MurmurHash3 finalizer) to spread the bits.
+    private static long hash(Id id) {
+        long h = 0xcbf29ce484222325L;
+        for ( byte b : id.asBytes() ) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
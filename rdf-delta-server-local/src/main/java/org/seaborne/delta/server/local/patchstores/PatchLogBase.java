@@ -22,15 +22,22 @@ import static java.lang.String.format;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.apache.jena.atlas.lib.NotImplemented;
 import org.apache.jena.atlas.logging.FmtLog;
 import org.seaborne.delta.*;
+import org.seaborne.delta.server.local.LogEntry;
 import org.seaborne.delta.server.local.PatchLog;
 import org.seaborne.delta.server.local.PatchStore;
 import org.seaborne.delta.server.local.PatchValidation;
+import org.apache.jena.rdfpatch.PatchHeader;
 import org.apache.jena.rdfpatch.RDFPatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,14 +54,47 @@ import org.slf4j.LoggerFactory;
 public class PatchLogBase implements PatchLog {
     private final static Logger LOG = LoggerFactory.getLogger(PatchLogBase.class);
 
+    /**
+     * Bound, in milliseconds, on the age of the {@link PatchLogInfo} returned by
+     * {@link #getInfo()} when the index reports changes to the log (see
+     * {@link PatchLogIndex#setStateListener}). Negative means no bound: the reported
+     * state is used as it is.
+     */
+    public static long InfoMaxAgeMillis = Long.getLong("delta.patchlog.info_max_age", -1);
+
     private Object lock = new Object();
 
+    // The state of the log, published on append and by the index when it sees a change,
+    // so that getInfo, which is called for every client poll, is a read of one reference.
+    // infoChecked is when the index was last asked for its state.
+    private final AtomicReference<PatchLogInfo> info = new AtomicReference<>();
+    private volatile long infoChecked = 0;
+    private final boolean indexReportsChanges;
+
     private final DataSourceDescription dsd;
     private final Id logId;
     private final PatchLogIndex logIndex;
     private final PatchStorage patchStorage;
     private final PatchStore patchStore;
 
+    // Bloom filter over the ids of the patches in the log, so that looking up an id
+    // that is not in the log, the usual case when appending, does not go to the index.
+    // Built in the background when the log is opened; until it is ready, every id
+    // might be in the log. Once built, it is brought up to date with the index before
+    // each lookup (other servers may append to a shared index) for versions after
+    // filterVersion.
+    private final Object filterLock = new Object();
+    private PatchIdFilter idFilter = null;
+    private long filterVersion = 0;
+    private boolean filterBuilding = false;
+
+    // One thread builds the filters for all logs.
+    private static final ExecutorService filterBuilder = Executors.newSingleThreadExecutor(r->{
+        Thread thread = new Thread(r, "DeltaIdFilter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     // Use one-way linked list from latest to earliest.
     // it is a cache of the patch log details.
     // May be truncated - the earliest entry points to a patch not in the list - need to
@@ -72,6 +112,9 @@ public class PatchLogBase implements PatchLog {
         this.patchStorage = patchStorage;
         this.patchStore = patchStore;
         initFromStorage();
+        this.indexReportsChanges = logIndex.setStateListener(this::indexChanged);
+        syncInfo();
+        startFilter();
     }
 
     // Set earliestId, earliestVersion
@@ -107,9 +150,48 @@ public class PatchLogBase implements PatchLog {
     @Override
     public PatchLogInfo getInfo() {
         // Called when polling for changes during dataset sync.
+        if ( ! indexReportsChanges )
+            return syncInfo();
+        return getInfo(InfoMaxAgeMillis);
+    }
+
+    @Override
+    public PatchLogInfo getInfo(long maxAgeMillis) {
+        PatchLogInfo x = info.get();
+        if ( x != null && ( maxAgeMillis < 0 || infoAgeMillis() < maxAgeMillis ) )
+            return x;
+        return syncInfo();
+    }
+
+    private long infoAgeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - infoChecked);
+    }
+
+    /** Bring the index up to date and publish its state. */
+    private PatchLogInfo syncInfo() {
         synchronized(lock) {
+            long now = System.nanoTime();
             logIndex.syncVersionInfo();
-            return new PatchLogInfo(dsd, getEarliestVersion(), getLatestVersion(), getLatestId());
+            PatchLogInfo x = new PatchLogInfo(dsd, getEarliestVersion(), getLatestVersion(), getLatestId());
+            publishInfo(x);
+            infoChecked = now;
+            return x;
+        }
+    }
+
+    // Called by the index, possibly from a watcher thread while holding the index's own lock.
+    private void indexChanged(LogEntry entry) {
+        publishInfo(new PatchLogInfo(dsd, getEarliestVersion(), entry.getVersion(), entry.getPatchId()));
+    }
+
+    // Notifications can arrive out of order: never replace a later state with an earlier one.
+    private void publishInfo(PatchLogInfo newInfo) {
+        for(;;) {
+            PatchLogInfo current = info.get();
+            if ( current != null && newInfo.getMaxVersion().isBefore(current.getMaxVersion()) )
+                return;
+            if ( info.compareAndSet(current, newInfo) )
+                return;
         }
     }
 
@@ -143,7 +225,78 @@ public class PatchLogBase implements PatchLog {
 
     @Override
     public boolean contains(Id patchId) {
-        return false;
+        if ( patchId == null || ! mightContain(patchId) )
+            return false;
+        return logIndex.idToVersion(patchId) != null;
+    }
+
+    private boolean mightContain(Id patchId) {
+        synchronized(filterLock) {
+            if ( idFilter == null ) {
+                // Not ready, or the last build failed.
+                startFilter();
+                return true;
+            }
+            Version current = logIndex.getCurrentVersion();
+            if ( current.isValid() && current.value() > filterVersion ) {
+                fillFilter(idFilter, filterVersion+1, current.value());
+                filterVersion = current.value();
+            }
+            return idFilter.mightContain(patchId);
+        }
+    }
+
+    private void startFilter() {
+        synchronized(filterLock) {
+            if ( idFilter != null || filterBuilding )
+                return;
+            filterBuilding = true;
+        }
+        filterBuilder.execute(this::buildFilter);
+    }
+
+    // Read the ids of the log without holding filterLock. Versions appended meanwhile
+    // are added by the next lookup.
+    private void buildFilter() {
+        PatchIdFilter filter = new PatchIdFilter();
+        long upto = 0;
+        try {
+            Version current = logIndex.getCurrentVersion();
+            if ( current.isValid() ) {
+                upto = current.value();
+                fillFilter(filter, 1, upto);
+            }
+        } catch (RuntimeException ex) {
+            // For example, the log has been closed. Tried again on the next lookup.
+            FmtLog.debug(LOG, "[%s] Failed to build the patch id filter: %s", dsd.getName(), ex.getMessage());
+            filter = null;
+        }
+        synchronized(filterLock) {
+            filterBuilding = false;
+            if ( filter != null ) {
+                idFilter = filter;
+                filterVersion = upto;
+            }
+        }
+    }
+
+    private void fillFilter(PatchIdFilter filter, long from, long to) {
+        long start = Math.max(from, Math.max(1, logIndex.getEarliestVersion().value()));
+        for ( long v = start ; v <= to ; v++ ) {
+            Id id = logIndex.versionToId(Version.create(v));
+            if ( id != null )
+                filter.add(id);
+        }
+    }
+
+    private void filterAdd(Version version, Id patchId) {
+        synchronized(filterLock) {
+            // Otherwise the next lookup catches up.
+            if ( idFilter != null && filterVersion == version.value()-1 ) {
+                idFilter.add(patchId);
+                filterVersion = version.value();
+            }
+        }
     }
 
     @Override
@@ -181,16 +334,124 @@ public class PatchLogBase implements PatchLog {
                 }
                 throw ex;
             }
+            filterAdd(version, thisId);
+            publishInfo(new PatchLogInfo(dsd, getEarliestVersion(), version, thisId));
+            return version;
+        });
+    }
+
+    /**
+     * Fill this log, which must be empty, with the patches of another log, up to its
+     * latest version when the copy starts. Patches are copied in their stored form by the
+     * {@link PatchStorage} and the index entries written directly, so patches are not
+     * parsed or validated again.
+     */
+    public void copyFrom(PatchLogBase source) {
+        // The source log does not change during the copy.
+        source.patchLogLock(()->patchLogLock(()->{
+            if ( ! isEmpty() )
+                throw new DeltaException("Copy into a non-empty patch log: "+dsd);
+            PatchLogInfo info = source.getInfo(0);
+            if ( ! info.getMaxVersion().isValid() )
+                return;
+            for ( long v = info.getMinVersion().value() ; v <= info.getMaxVersion().value() ; v++ ) {
+                Id id = source.find(Version.create(v));
+                if ( id == null )
+                    throw new DeltaException(format("copy: No patch at version %d in %s", v, source.getDescription()));
+                LogEntry entry = source.logIndex.getPatchInfo(id);
+                Version version = logIndex.nextVersion();
+                source.patchStorage.copy(version, id, patchStorage);
+                logIndex.save(version, id, entry == null ? null : entry.getPrevious());
+                filterAdd(version, id);
+                publishInfo(new PatchLogInfo(dsd, getEarliestVersion(), version, id));
+            }
+        }));
+    }
+
+    @Override
+    public Version compact(Version version) {
+        return patchLogLockRtn(()->{
+            Version earliest = logIndex.getEarliestVersion();
+            Version latest = logIndex.getCurrentVersion();
+            if ( ! Version.isValid(version) || ! Version.isValid(earliest) || version.isBefore(earliest) || version.isAfter(latest) )
+                throw new DeltaBadRequestException(format("compact: Version %s is not in the log [%s, %s]", version, earliest, latest));
+            if ( version.equals(earliest) )
+                return earliest;
+            // Checked before any patch is replaced or deleted.
+            if ( ! logIndex.supportsTruncate() )
+                throw new DeltaException("Patch log does not support compaction: "+dsd);
+            long start = System.currentTimeMillis();
+            Id id = logIndex.versionToId(version);
+            NetPatch netPatch = new NetPatch();
+            PatchHeader header = null;
+            for ( long v = earliest.value() ; v <= version.value() ; v++ ) {
+                Id vId = logIndex.versionToId(Version.create(v));
+                if ( vId == null )
+                    continue;
+                RDFPatch patch = patchStorage.fetch(vId);
+                if ( patch == null )
+                    throw new DeltaException(format("compact: Missing patch: version=%d", v));
+                patch.apply(netPatch);
+                if ( v == version.value() )
+                    header = patch.header();
+            }
+            // The compacted patch replaces the patch at version; it is the commit point.
+            // Then the old patches go, earliest first: if this stops part way, the log
+            // (re)built from the remaining patches still ends in the same state.
+            patchStorage.replace(version, id, netPatch.build(header));
+            retire(earliest, version);
+            FmtLog.info(LOG, "[%s] Compacted versions [%s, %s] (%.3fs)", logId, earliest, version, (System.currentTimeMillis()-start)/1000.0);
+            return version;
+        });
+    }
 
+    @Override
+    public Version prune(Version version) {
+        return patchLogLockRtn(()->{
+            Version earliest = logIndex.getEarliestVersion();
+            Version latest = logIndex.getCurrentVersion();
+            if ( ! Version.isValid(version) || ! Version.isValid(earliest) || version.isAfter(latest) )
+                throw new DeltaBadRequestException(format("prune: Version %s is not in the log [%s, %s]", version, earliest, latest));
+            if ( ! logIndex.supportsTruncate() )
+                throw new DeltaException("Patch log does not support pruning: "+dsd);
+            if ( ! version.isAfter(earliest) )
+                return earliest;
+            retire(earliest, version);
+            FmtLog.debug(LOG, "[%s] Pruned versions [%s, %s)", logId, earliest, version);
             return version;
         });
     }
 
+    // Make version the earliest version, then remove the patches from earliest up to,
+    // but not including, version, earliest first. Inside the patch log lock.
+    // The index goes first: if this stops part way, the index does not refer to a deleted
+    // patch; at worst, storage has patches that are no longer in the log.
+    private void retire(Version earliest, Version version) {
+        List<Version> versions = new ArrayList<>();
+        List<Id> ids = new ArrayList<>();
+        for ( long v = earliest.value() ; v < version.value() ; v++ ) {
+            Version ver = Version.create(v);
+            Id vId = logIndex.versionToId(ver);
+            if ( vId != null ) {
+                versions.add(ver);
+                ids.add(vId);
+            }
+        }
+        logIndex.truncate(version);
+        publishInfo(new PatchLogInfo(dsd, version, getLatestVersion(), getLatestId()));
+        for ( int i = 0 ; i < ids.size() ; i++ )
+            patchStorage.delete(versions.get(i), ids.get(i));
+    }
+
     protected void patchLogLock(Runnable action) {
         logIndex.runWithLock(action);
     }
 
-    protected <X> X patchLogLockRtn(Supplier<X> action) {
+    /**
+     * Run an action inside the patch log lock: the log does not change (append,
+     * compact, prune) while the action runs. Used to copy a log.
+     */
+    public <X> X patchLogLockRtn(Supplier<X> action) {
         return logIndex.runWithLockRtn(action);
     }
 
@@ -199,6 +460,11 @@ public class PatchLogBase implements PatchLog {
         return patchStorage.fetch(patchId);
     }
 
+    @Override
+    public long storedTime(Id patchId) {
+        return patchStorage.storedTime(patchId);
+    }
+
     @Override
     public RDFPatch fetch(Version version) {
         Id id = find(version);
@@ -223,14 +489,10 @@ public class PatchLogBase implements PatchLog {
             throw new DeltaException(format("finish out of range: range(%s,%s) but log is %s", start, finish, getInfo()));
         if ( start.isAfter(finish) )
             throw new DeltaException(format("Range start after finish: range(%s,%s)", start, finish));
-        List<RDFPatch> x = new ArrayList<>();
-        // Range is inclusive.
-        for ( long v = start.value() ; v <= finish.value() ; v++ ) {
-            RDFPatch patch = fetch(Version.create(v));
-            if ( patch != null )
-                x.add(patch);
-        }
-        return x.stream();
+        // Range is inclusive. Patches are fetched as the stream is read.
+        return LongStream.rangeClosed(start.value(), finish.value())
+                .mapToObj(v->fetch(Version.create(v)))
+                .filter(Objects::nonNull);
     }
 
     @Override
@@ -245,8 +507,10 @@ public class PatchLogBase implements PatchLog {
 
     @Override
     public Version find(Id id) {
-        FmtLog.warn(LOG, "Not implemented (yet). find(Id)");
-        return Version.UNSET;
+        if ( id == null || ! mightContain(id) )
+            return Version.UNSET;
+        Version version = logIndex.idToVersion(id);
+        return ( version == null ) ? Version.UNSET : version;
     }
 
     @Override
@@ -258,6 +522,9 @@ public class PatchLogBase implements PatchLog {
     @Override
     public Id acquireLock()                 { return logIndex.acquireLock(); }
 
+    @Override
+    public Id acquireLock(long timeoutMillis) { return logIndex.acquireLock(timeoutMillis); }
+
     @Override
     public boolean refreshLock(Id session)  { return logIndex.refreshLock(session); }
 
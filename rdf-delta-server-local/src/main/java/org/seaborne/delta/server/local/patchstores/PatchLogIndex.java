@@ -17,9 +17,12 @@
 
 package org.seaborne.delta.server.local.patchstores;
 
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import org.apache.jena.atlas.lib.Lib;
 import org.seaborne.delta.DeltaConst;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
 import org.seaborne.delta.LockState;
 import org.seaborne.delta.Version;
@@ -74,21 +77,67 @@ public interface PatchLogIndex {
     /** Map version number to the {@link Id} for the patch it refers to. */
     public Id versionToId(Version version);
 
-    /** Map {@link Id} to version for the patch it refers to. */
+    /** Map {@link Id} to version for the patch it refers to, or null if there is no such patch. */
     public Version idToVersion(Id id);
 
-    /** Map {@link Id} to information about the patch. */
+    /** Map {@link Id} to information about the patch, or null if there is no such patch. */
     public LogEntry getPatchInfo(Id id);
 
+    /**
+     * Remove the entries for versions before {@code version}, which becomes the earliest
+     * version of the log. The patch at {@code version} is then the first patch and has no
+     * previous patch. Indexes that do not support this throw {@link DeltaException}.
+     */
+    public default void truncate(Version version) {
+        throw new DeltaException("Patch log index does not support truncation: "+getClass().getSimpleName());
+    }
+
+    /** Whether {@link #truncate} is supported. */
+    public default boolean supportsTruncate() {
+        return false;
+    }
+
     /** Make sure the version information is up to date. */
     public void syncVersionInfo();
 
+    /**
+     * Set a listener to be called with the new head of the log whenever the index
+     * state changes, including changes made by other servers sharing the index.
+     * <p>
+     * Return true if the index reports all changes this way, in which case the state
+     * need not be polled with {@link #syncVersionInfo}. The default returns false and
+     * does not call the listener.
+     */
+    public default boolean setStateListener(Consumer<LogEntry> listener) {
+        return false;
+    }
+
     /**
      * Acquire the mutex and return the session id.
      * Returns null for failure to get the lock.
      */
     public Id acquireLock();
 
+    /**
+     * Acquire the mutex, waiting up to {@code timeoutMillis} for it to be released.
+     * Returns null for failure to get the lock in that time.
+     * <p>
+     * This default implementation polls {@link #acquireLock()}; implementations should
+     * override to wake a waiter as soon as the lock is released.
+     */
+    public default Id acquireLock(long timeoutMillis) {
+        long finish = System.currentTimeMillis() + timeoutMillis;
+        for(;;) {
+            Id session = acquireLock();
+            if ( session != null )
+                return session;
+            long remaining = finish - System.currentTimeMillis();
+            if ( remaining <= 0 )
+                return null;
+            Lib.sleep((int)Math.min(remaining, 100));
+        }
+    }
+
     /** Refresh the mutex. */
     public boolean refreshLock(Id session);
 
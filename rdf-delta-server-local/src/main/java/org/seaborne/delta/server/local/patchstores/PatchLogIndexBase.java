@@ -19,8 +19,11 @@ package org.seaborne.delta.server.local.patchstores;
 
 import static java.lang.String.format;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Objects;
 import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import org.seaborne.delta.DeltaException;
@@ -81,7 +84,8 @@ public abstract class PatchLogIndexBase implements PatchLogIndex {
     public Version idToVersion(Id id) {
         if ( Objects.equals(currentId, id) )
             return currentVersion;
-        return logIndex.getPatchInfo(id).getVersion();
+        LogEntry entry = logIndex.getPatchInfo(id);
+        return ( entry == null ) ? null : entry.getVersion();
     }
 
     @Override
@@ -146,6 +150,32 @@ public abstract class PatchLogIndexBase implements PatchLogIndex {
         }
     }
 
+    @Override
+    public boolean supportsTruncate() {
+        return true;
+    }
+
+    @Override
+    public void truncate(Version version) {
+        synchronized(lock) {
+            if ( version.isBefore(earliestVersion) || version.isAfter(currentVersion) )
+                throw new DeltaException(
+                    format("truncate: Version %s is not in the log [%s, %s]", version, earliestVersion, currentVersion));
+            Id id = logIndex.versionToId(version);
+            if ( id == null )
+                throw new DeltaException(format("truncate: No patch at version %s", version));
+            try {
+                logIndex.truncate(version);
+            } catch (UnsupportedOperationException ex) {
+                throw new DeltaException(ex.getMessage());
+            }
+            earliestVersion = version;
+            earliestId = id;
+            if ( version.equals(currentVersion) )
+                previousId = null;
+        }
+    }
+
     @Override
     final public Version getEarliestVersion() {
         return earliestVersion;
@@ -174,6 +204,12 @@ public abstract class PatchLogIndexBase implements PatchLogIndex {
     @Override
     public void syncVersionInfo() {}
 
+    // Only this server changes the index, so the PatchLog sees every change when it appends.
+    @Override
+    public boolean setStateListener(Consumer<LogEntry> listener) {
+        return true;
+    }
+
 
     private final Object lockSync = new Object();
 
@@ -181,34 +217,70 @@ public abstract class PatchLogIndexBase implements PatchLogIndex {
     private Id lockToken = null;
     private long refresh = -1;
 
+    // Waiters for the lock, in order of arrival. Only the head of the queue may take the lock.
+    private final Deque<Object> lockWaiters = new ArrayDeque<>();
+
     // Implementation as single-machine and transient, not replicated, locks
     @Override
     public Id acquireLock() {
-//        // With timeout.
-//        try {
-//            boolean b = sema.tryAcquire(10, TimeUnit.SECONDS);
-//            if (! b )
-//                return null;
-//        } catch (InterruptedException e) {
-//            return null;
-//        }
-
         // No wait
         synchronized(lockSync) {
-            boolean b = sema.tryAcquire();
-            if (! b )
+            // Do not overtake waiters.
+            if ( ! lockWaiters.isEmpty() )
                 return null;
-            Id here = lockToken;
-            if ( here != null )
-                throw new DeltaException("Inconsistent. Got Semaphore but ownership token was present");
-            // May be readers/grabbers
-            Id token = Id.create();
-            refresh = 1;
-            lockToken = token;
-            return token;
+            return acquireLock$();
         }
     }
 
+    @Override
+    public Id acquireLock(long timeoutMillis) {
+        synchronized(lockSync) {
+            if ( lockWaiters.isEmpty() ) {
+                Id token = acquireLock$();
+                if ( token != null || timeoutMillis <= 0 )
+                    return token;
+            }
+            Object ticket = new Object();
+            lockWaiters.addLast(ticket);
+            long finish = System.currentTimeMillis() + timeoutMillis;
+            try {
+                for(;;) {
+                    if ( lockWaiters.peekFirst() == ticket ) {
+                        Id token = acquireLock$();
+                        if ( token != null )
+                            return token;
+                    }
+                    long remaining = finish - System.currentTimeMillis();
+                    if ( remaining <= 0 )
+                        return null;
+                    lockSync.wait(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                lockWaiters.remove(ticket);
+                // The next waiter may now be at the head of the queue.
+                lockSync.notifyAll();
+            }
+        }
+    }
+
+    // Inside synchronized(lockSync)
+    private Id acquireLock$() {
+        boolean b = sema.tryAcquire();
+        if (! b )
+            return null;
+        Id here = lockToken;
+        if ( here != null )
+            throw new DeltaException("Inconsistent. Got Semaphore but ownership token was present");
+        // May be readers/grabbers
+        Id token = Id.create();
+        refresh = 1;
+        lockToken = token;
+        return token;
+    }
+
     @Override
     public boolean refreshLock(Id session) {
         // read once
@@ -246,7 +318,7 @@ public abstract class PatchLogIndexBase implements PatchLogIndex {
                 releaseLock(oldLockSession);
             }
             // New lock session.
-            return acquireLock();
+            return acquireLock$();
         }
      }
 
@@ -264,6 +336,7 @@ public abstract class PatchLogIndexBase implements PatchLogIndex {
             lockToken = null;
             refresh = -1;
             sema.release();
+            lockSync.notifyAll();
         }
     }
 }
@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.stream.Stream;
 
 import org.apache.jena.atlas.lib.ListUtils;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
 import org.seaborne.delta.Version;
 import org.apache.jena.rdfpatch.RDFPatch;
@@ -44,9 +45,45 @@ public interface PatchStorage {
     /** Get a patch */
     public RDFPatch fetch(Id key);
 
+    /**
+     * Replace a stored patch with a patch with the same id, for example, the result of
+     * compacting the log up to that patch. The default stores the patch again.
+     */
+    public default void replace(Version version, Id key, RDFPatch patch) {
+        store(version, key, patch);
+    }
+
     /** Delete a patch */
     public void delete(Id id);
 
+    /** Delete a patch that is no longer in the log index */
+    public default void delete(Version version, Id id) {
+        // Intercept for when PatchStorage is based on version.
+        delete(id);
+    }
+
+    /**
+     * When a patch was stored, in milliseconds since the epoch, or -1 if this is not known.
+     * Used for retention by age.
+     */
+    public default long storedTime(Id key) {
+        return -1;
+    }
+
+    /**
+     * Copy a patch into another {@code PatchStorage}, which is usually of the same kind.
+     * Implementations copy the stored form (bytes, object) where they can, without
+     * parsing the patch. The default fetches the patch and stores it.
+     *
+     * @throws DeltaException if there is no patch for {@code key}.
+     */
+    public default void copy(Version version, Id key, PatchStorage destination) {
+        RDFPatch patch = fetch(key);
+        if ( patch == null )
+            throw new DeltaException("copy: No patch for "+key);
+        destination.store(version, key, patch);
+    }
+
     /** Release all the patches and any other state for this {@code PatchStorage} */
     public default void release() { }
 
@@ -139,4 +139,20 @@ public class LogIndexFile implements LogIndex {
     public Version current() {
         return currentVersion;
     }
+
+    @Override
+    public void truncate(Version version) {
+        // Does not update FileStore.
+        // PatchStorageFile has deleted the files of the retired patches.
+        for ( long v = earliestVersion.value() ; v < version.value() ; v++ ) {
+            Id id = versionToId.remove(Version.create(v));
+            if ( id != null )
+                logEntries.remove(id);
+        }
+        Id id = versionToId.get(version);
+        if ( id != null )
+            logEntries.put(id, new LogEntry(id, version, null));
+        earliestVersion = version;
+        earliestId = id;
+    }
 }
@@ -85,6 +85,12 @@ public class LogIndexFileBuilder {
                 }
 
                 Id prev = Id.fromNode(patchHeader.getPrevious());
+                if ( first ) {
+                    // The patches before the first one may have been pruned.
+                    first = false;
+                    if ( prev != null && ! trackIdToVersion.containsKey(prev) )
+                        prev = null;
+                }
                 if ( prev != null ) {
                     // We process entries in order so we should have seen previous by now.
                     if ( ! trackIdToVersion.containsKey(prev) ) {
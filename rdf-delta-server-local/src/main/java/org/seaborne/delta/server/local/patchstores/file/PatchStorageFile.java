@@ -20,8 +20,6 @@ package org.seaborne.delta.server.local.patchstores.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -35,6 +33,7 @@ import org.seaborne.delta.Id;
 import org.seaborne.delta.Version;
 import org.apache.jena.atlas.io.IOX;
 import org.apache.jena.atlas.io.IOX.IOConsumer;
+import org.seaborne.delta.server.local.SpooledPatch;
 import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.seaborne.delta.server.local.patchstores.filestore.FileEntry;
 import org.seaborne.delta.server.local.patchstores.filestore.FileStore;
@@ -82,15 +81,30 @@ public class PatchStorageFile implements PatchStorage {
 
     @Override
     public void store(Version version, Id key, RDFPatch patch) {
-        IOConsumer<OutputStream> action = out -> {
+        FileEntry file = fileStore.allocateFilename(version.value());
+        file.write(writer(patch));
+        fileStore.completeWrite(file);
+    }
+
+    @Override
+    public void replace(Version version, Id key, RDFPatch patch) {
+        FileEntry file = fileStore.replaceFilename(version.value());
+        file.write(writer(patch));
+    }
+
+    private static IOConsumer<OutputStream> writer(RDFPatch patch) {
+        return out -> {
+            if ( patch instanceof SpooledPatch ) {
+                // Already in text form: copy the bytes.
+                try ( InputStream in = ((SpooledPatch)patch).openStream() ) {
+                    in.transferTo(out);
+                }
+                return;
+            }
             TokenWriter tw = TokenWriterText.create(out) ;
             RDFChangesWriterText dest = new RDFChangesWriterText(tw) ;
             patch.apply(dest);
         };
-
-        FileEntry file = fileStore.allocateFilename(version.value());
-        file.write(action);
-        fileStore.completeWrite(file);
     }
 
     private Version idToVersion(Id id) {
@@ -114,11 +128,17 @@ public class PatchStorageFile implements PatchStorage {
     @Override
     public void delete(Id id) {
         Version ver = idToVersion(id);
-        Path p = fileStore.filename(ver.value());
-        try {
-            Files.delete(p);
-        } catch (IOException ex) {
-            throw IOX.exception(ex);
-        }
+        fileStore.delete(ver.value());
+    }
+
+    @Override
+    public void delete(Version version, Id id) {
+        fileStore.delete(version.value());
+    }
+
+    @Override
+    public long storedTime(Id id) {
+        Version ver = idToVersion(id);
+        return ( ver == null ) ? -1 : fileStore.lastModified(ver.value());
     }
 }
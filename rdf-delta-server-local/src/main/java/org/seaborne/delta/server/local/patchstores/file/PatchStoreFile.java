@@ -27,11 +27,14 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.seaborne.delta.DataSourceDescription;
 import org.seaborne.delta.DeltaConst;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.PatchLogInfo;
 import org.seaborne.delta.server.local.LocalServerConfig;
 import org.seaborne.delta.server.local.PatchLog;
 import org.seaborne.delta.server.local.PatchStore;
 import org.seaborne.delta.server.local.PatchStoreProvider;
+import org.seaborne.delta.server.local.patchstores.PatchLogBase;
 import org.seaborne.delta.server.local.patchstores.PatchLogIndex;
 import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.seaborne.delta.server.local.patchstores.filestore.FileArea;
@@ -75,8 +78,19 @@ public class PatchStoreFile extends PatchStore {
         return FileArea.scanForLogs(patchLogDirectory);
     }
 
+    /**
+     * A log that already exists on disk is opened on first use, because opening
+     * reads the whole file store to build the index.
+     */
     @Override
     protected PatchLog newPatchLog(DataSourceDescription dsd) {
+        Path fileStoreDir = patchLogDirectory.resolve(dsd.getName());
+        if ( ! logIndexes.containsKey(dsd.getId()) && Files.exists(fileStoreDir) )
+            return lazyPatchLog(dsd, ()->openPatchLog(dsd), ()->closePatchLog(dsd.getId()));
+        return openPatchLog(dsd);
+    }
+
+    private PatchLog openPatchLog(DataSourceDescription dsd) {
         Id id = dsd.getId();
         logIndexes.computeIfAbsent(id, x->{
             Path fileStoreDir = patchLogDirectory.resolve(dsd.getName());
@@ -91,6 +105,12 @@ public class PatchStoreFile extends PatchStore {
         return newPatchLog;
     }
 
+    private void closePatchLog(Id id) {
+        LogIndexFile logIndexFile = logIndexes.remove(id);
+        if ( logIndexFile != null )
+            logIndexFile.fileStore().release();
+    }
+
     @Override
     protected PatchLogIndex newPatchLogIndex(DataSourceDescription dsd, PatchStore patchStore, LocalServerConfig configuration) {
         PatchStoreFile patchStoreFile = (PatchStoreFile)patchStore;
@@ -105,12 +125,63 @@ public class PatchStoreFile extends PatchStore {
         return new PatchStorageFile(logIndexFile.fileStore(), logIndexFile::idToVersion);
     }
 
+    /**
+     * Copy by hard links to the patch files, which do not change once written.
+     * The copy is done while the source log is in use, so it is not closed, and holding
+     * its patch log lock, so it is not compacted or pruned during the copy.
+     */
+    @Override
+    protected PatchLog copyPatchLog(PatchLog patchLog, DataSourceDescription dsd2) {
+        boolean copied = withLog(patchLog, log->{
+            LogIndexFile logIndexFile = logIndexes.get(patchLog.getLogId());
+            if ( logIndexFile == null || ! ( log instanceof PatchLogBase ) )
+                return false;
+            Path dir2 = FileArea.setupDataSourceByFile(patchLogDirectory, this, dsd2);
+            FileStore fileStore = logIndexFile.fileStore();
+            try {
+                return ((PatchLogBase)log).patchLogLockRtn(()->{
+                    PatchLogInfo info = log.getInfo(0);
+                    if ( ! info.getMaxVersion().isValid() )
+                        return true;
+                    for ( long v = info.getMinVersion().value() ; v <= info.getMaxVersion().value() ; v++ ) {
+                        Path src = fileStore.filename(v);
+                        if ( ! Files.exists(src) )
+                            throw new DeltaException("copy: No patch file for version "+v+": "+src);
+                        FileArea.linkOrCopy(src, dir2.resolve(src.getFileName()));
+                    }
+                    return true;
+                });
+            } catch (RuntimeException ex) {
+                // Do not leave a partial copy.
+                FileArea.retire(dir2);
+                throw ex;
+            }
+        });
+        if ( ! copied )
+            return super.copyPatchLog(patchLog, dsd2);
+        return newPatchLog(dsd2);
+    }
+
+    /** Rename by moving the directory of the log. */
+    @Override
+    protected PatchLog renamePatchLog(PatchLog patchLog, String oldName, String newName) {
+        DataSourceDescription dsd2 = renameDescription(patchLog, newName);
+        closePatchLog(patchLog.getLogId());
+        FileArea.moveDataSource(patchLogDirectory, oldName, this, dsd2);
+        return newPatchLog(dsd2);
+    }
+
     @Override
     protected void delete(PatchLog patchLog) {
         Id id = patchLog.getDescription().getId();
         LogIndexFile logIndexFile = logIndexes.remove(id);
-        logIndexFile.fileStore().release();
-        Path path = logIndexFile.getPath();
+        Path path;
+        if ( logIndexFile != null ) {
+            logIndexFile.fileStore().release();
+            path = logIndexFile.getPath();
+        } else
+            // Not opened.
+            path = patchLogDirectory.resolve(patchLog.getDescription().getName());
         FileArea.retire(path);
     }
 
@@ -21,8 +21,10 @@ import static org.seaborne.delta.DeltaConst.F_LOG_TYPE;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -171,13 +173,56 @@ public class FileArea {
             throw new DeltaBadRequestException("Failed to create DataSource area: "+sourcePath);
         }
 
-        // Create source.cfg.
+        writeSourceConfig(sourcePath, patchStore, dsd);
+        return sourcePath;
+    }
+
+    /** Create or replace the source.cfg of a data source area. */
+    private static void writeSourceConfig(Path sourcePath, PatchStore patchStore, DataSourceDescription dsd) {
         JsonObject obj = dsd.asJson();
         obj.put(F_LOG_TYPE, patchStore.getProvider().getShortName());
         try (OutputStream out = Files.newOutputStream(sourcePath.resolve(FileNames.DS_CONFIG))) {
             JSON.write(out, obj);
         } catch (IOException ex)  { throw IOX.exception(ex); }
-        return sourcePath;
+    }
+
+    /**
+     * Move the disk area of a data source to the name in {@code dsd}, which becomes its
+     * description. The caller must have released any use of the files in the area.
+     */
+    public static Path moveDataSource(Path root, String oldName, PatchStore patchStore, DataSourceDescription dsd) {
+        Path oldPath = root.resolve(oldName);
+        Path newPath = root.resolve(dsd.getName());
+        if ( Files.exists(newPath) )
+            throw new DeltaBadRequestException("DataSource area already exists at: "+newPath);
+        try {
+            try {
+                Files.move(oldPath, newPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(oldPath, newPath);
+            }
+        } catch (IOException ex) {
+            throw new DeltaBadRequestException("Failed to move DataSource area: "+oldPath+" -> "+newPath);
+        }
+        writeSourceConfig(newPath, patchStore, dsd);
+        return newPath;
+    }
+
+    /**
+     * Make {@code target} the same file as {@code source} by a hard link, or by copying if
+     * the file system does not support hard links. For files that are not changed after
+     * they are written.
+     */
+    public static void linkOrCopy(Path source, Path target) {
+        try {
+            try {
+                Files.createLink(target, source);
+            } catch (UnsupportedOperationException | IOException ex) {
+                Files.copy(source, target);
+            }
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
     }
 
     private static final String DELETE_MARKER = "-deleted";
@@ -259,6 +259,39 @@ public class FileStore {
         }
     }
 
+    /**
+     * Return a {@link FileEntry} to replace the existing file for {@code idx}.
+     * {@link FileEntry#write} replaces the file atomically.
+     */
+    public FileEntry replaceFilename(long idx) {
+        return new FileEntry(idx, filename(idx), filename(directory, tmpBasename, idx));
+    }
+
+    /** Delete the file for {@code idx}. */
+    public void delete(long idx) {
+        synchronized(this) {
+            indexes.remove(Long.valueOf(idx));
+            if ( idx == minIndex )
+                minIndex = indexes.isEmpty() ? DeltaConst.VERSION_INIT : indexes.get(0);
+        }
+        try {
+            Files.delete(filename(idx));
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** When the file for {@code idx} was last written, in milliseconds since the epoch, or -1 if there is no such file. */
+    public long lastModified(long idx) {
+        try {
+            return Files.getLastModifiedTime(filename(idx)).toMillis();
+        } catch (NoSuchFileException ex) {
+            return -1;
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
     /** Write a fresh file, safely.
      * <p>
      * This operation writes to a temporary file on the same filesystem, then moves it to
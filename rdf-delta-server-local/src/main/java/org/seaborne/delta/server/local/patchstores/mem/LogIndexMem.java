@@ -79,4 +79,17 @@ public class LogIndexMem implements LogIndex {
     public Version current() {
         return currentVersion;
     }
+
+    @Override
+    public void truncate(Version version) {
+        for ( long v = earliest.value() ; v < version.value() ; v++ ) {
+            Id id = versionToId.remove(Version.create(v));
+            if ( id != null )
+                entries.remove(id);
+        }
+        Id id = versionToId.get(version);
+        if ( id != null )
+            entries.put(id, new LogEntry(id, version, null));
+        earliest = version;
+    }
 }
@@ -17,11 +17,13 @@
 
 package org.seaborne.delta.server.local.patchstores.mem;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.Stream;
 
 import org.seaborne.delta.Id;
+import org.seaborne.delta.server.local.SpooledPatch;
 import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.apache.jena.rdfpatch.RDFPatch;
 
@@ -31,6 +33,7 @@ import org.apache.jena.rdfpatch.RDFPatch;
 public class PatchStorageMem implements PatchStorage {
 
     private Map<Id, RDFPatch> store = new LinkedHashMap<>();
+    private Map<Id, Long> storedTimes = new HashMap<>();
 
     public PatchStorageMem() {}
 
@@ -41,7 +44,9 @@ public class PatchStorageMem implements PatchStorage {
 
     @Override
     public void store(Id key, RDFPatch value) {
-        store.put(key, value);
+        // The patch is kept so it must not depend on temporary storage.
+        store.put(key, SpooledPatch.materialize(value));
+        storedTimes.put(key, System.currentTimeMillis());
     }
 
     @Override
@@ -52,10 +57,17 @@ public class PatchStorageMem implements PatchStorage {
     @Override
     public void delete(Id id) {
         store.remove(id);
+        storedTimes.remove(id);
+    }
+
+    @Override
+    public long storedTime(Id key) {
+        return storedTimes.getOrDefault(key, -1L);
     }
 
     @Override
     public void release() {
         store.clear();
+        storedTimes.clear();
     }
 }
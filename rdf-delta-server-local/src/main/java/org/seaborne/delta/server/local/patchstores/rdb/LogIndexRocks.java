@@ -147,6 +147,32 @@ public class LogIndexRocks implements LogIndex {
         return current;
     }
 
+    @Override
+    public void truncate(Version version) {
+        List<byte[]> versionKeys = new ArrayList<>();
+        List<byte[]> idKeys = new ArrayList<>();
+        try( RocksIterator iter = rdb.iterator(RocksConst.CF_VERSION_ID) ) {
+            iter.seekToFirst();
+            while(iter.isValid() && Bytes.getLong(iter.key()) < version.value()) {
+                versionKeys.add(iter.key());
+                idKeys.add(iter.value());
+                iter.next();
+            }
+        }
+        rdb.update(wb->{
+            try {
+                for ( byte[] k : versionKeys )
+                    wb.delete(cfh_versionToId, k);
+                for ( byte[] k : idKeys )
+                    wb.delete(cfh_idToLogEntry, k);
+            } catch (RocksDBException ex) { throw new DeltaException(ex); }
+        });
+        Id id = versionToId(version);
+        if ( id != null )
+            putLogEntry(rdb, new LogEntry(id, version, null));
+        earliest = version;
+    }
+
     public void shutdown() {
         rdb.close();
     }
@@ -189,6 +215,8 @@ public class LogIndexRocks implements LogIndex {
     private static LogEntry getLogEntry(RocksDatabase rdb, Id id) {
         byte[] k = id.asBytes();
         byte[] v = rdb.get(RocksConst.CF_ID_ENTRY, k);
+        if ( v == null )
+            return null;
         JsonObject obj = JSONX.fromBytes(v);
         LogEntry e = JsonLogEntry.jsonToLogEntry(obj);
         return e;
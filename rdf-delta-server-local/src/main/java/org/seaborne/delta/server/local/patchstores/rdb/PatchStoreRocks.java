@@ -25,7 +25,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.rocksdb.Checkpoint;
+import org.rocksdb.RocksDBException;
 import org.seaborne.delta.DataSourceDescription;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
 import org.seaborne.delta.server.local.LocalServerConfig;
 import org.seaborne.delta.server.local.PatchLog;
@@ -79,8 +82,16 @@ public class PatchStoreRocks extends PatchStore {
         return FileArea.scanForLogs(patchLogDirectory);
     }
 
+    /** A log that already exists on disk is opened on first use. */
     @Override
     protected PatchLog newPatchLog(DataSourceDescription dsd) {
+        Path fileStoreDir = patchLogDirectory.resolve(dsd.getName());
+        if ( ! logIndexes.containsKey(dsd.getId()) && Files.exists(fileStoreDir.resolve(RocksConst.databaseFilename)) )
+            return lazyPatchLog(dsd, ()->openPatchLog(dsd), ()->closePatchLog(dsd.getId()));
+        return openPatchLog(dsd);
+    }
+
+    private PatchLog openPatchLog(DataSourceDescription dsd) {
         Id id = dsd.getId();
         logIndexes.computeIfAbsent(id, x->{
             Path fileStoreDir = patchLogDirectory.resolve(dsd.getName());
@@ -96,6 +107,12 @@ public class PatchStoreRocks extends PatchStore {
         return newPatchLog;
     }
 
+    private void closePatchLog(Id id) {
+        LogIndexRocks idx = logIndexes.remove(id);
+        if ( idx != null )
+            idx.database().close();
+    }
+
     @Override
     protected PatchLogIndex newPatchLogIndex(DataSourceDescription dsd, PatchStore patchStore, LocalServerConfig configuration) {
         PatchStoreRocks patchStoreRocks = (PatchStoreRocks)patchStore;
@@ -110,13 +127,45 @@ public class PatchStoreRocks extends PatchStore {
         return new PatchStorageRocks(rIdx.database());
     }
 
+    /**
+     * Copy with a RocksDB checkpoint: a consistent copy of the database made with hard links.
+     * The checkpoint is made while the source log is in use, so the database is not closed.
+     */
+    @Override
+    protected PatchLog copyPatchLog(PatchLog patchLog, DataSourceDescription dsd2) {
+        boolean copied = withLog(patchLog, log->{
+            LogIndexRocks idx = logIndexes.get(patchLog.getLogId());
+            if ( idx == null )
+                return false;
+            Path dir2 = FileArea.setupDataSourceByFile(patchLogDirectory, this, dsd2);
+            Path dbPath2 = dir2.resolve(RocksConst.databaseFilename).toAbsolutePath();
+            try ( Checkpoint checkpoint = Checkpoint.create(idx.database().getDatabase()) ) {
+                checkpoint.createCheckpoint(dbPath2.toString());
+            } catch (RocksDBException ex) {
+                FileArea.retire(dir2);
+                throw new DeltaException("Failed to copy RocksDB database to "+dbPath2, ex);
+            }
+            return true;
+        });
+        if ( ! copied )
+            return super.copyPatchLog(patchLog, dsd2);
+        return newPatchLog(dsd2);
+    }
+
+    /** Rename by moving the directory of the log. */
+    @Override
+    protected PatchLog renamePatchLog(PatchLog patchLog, String oldName, String newName) {
+        DataSourceDescription dsd2 = renameDescription(patchLog, newName);
+        closePatchLog(patchLog.getLogId());
+        FileArea.moveDataSource(patchLogDirectory, oldName, this, dsd2);
+        return newPatchLog(dsd2);
+    }
+
     @Override
     protected void delete(PatchLog patchLog) {
         String logName = patchLog.getDescription().getName();
         Path patchLogArea = patchLogDirectory.resolve(logName);
-        Id id = patchLog.getDescription().getId();
-        LogIndexRocks idx = logIndexes.remove(id);
-        idx.database().close();
+        closePatchLog(patchLog.getDescription().getId());
         FileArea.retire(patchLogArea);
     }
 
@@ -20,7 +20,11 @@ package org.seaborne.delta.server.local.patchstores.zk;
 import static org.seaborne.delta.zk.Zk.zkPath;
 
 import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import org.apache.curator.framework.CuratorFramework;
@@ -85,6 +89,8 @@ public class PatchLogIndexZk implements PatchLogIndex {
     private volatile long version = Version.UNSET.value();
     private volatile Id current = null;
     private volatile Id previous = null;
+    // Told of each new state, from a save or from the watcher.
+    private volatile Consumer<LogEntry> stateListener = null;
 
     /** {@code PatchLogIndexZk}
      * <ul>
@@ -254,6 +260,9 @@ public class PatchLogIndexZk implements PatchLogIndex {
             this.version = newVersion;
             this.current = patch;
             this.previous = prev;
+            Consumer<LogEntry> listener = stateListener;
+            if ( listener != null )
+                listener.accept(new LogEntry(patch, Version.create(newVersion), prev));
         }
     }
 
@@ -293,6 +302,12 @@ public class PatchLogIndexZk implements PatchLogIndex {
         syncState();
     }
 
+    @Override
+    public boolean setStateListener(Consumer<LogEntry> listener) {
+        this.stateListener = listener;
+        return true;
+    }
+
     private void stateOrInit() {
         synchronized(lock) {
             JsonObject obj = getWatchedState();
@@ -381,19 +396,18 @@ public class PatchLogIndexZk implements PatchLogIndex {
 
     @Override
     public Version idToVersion(Id id) {
-        String p = headerPath(id);
-        JsonObject obj = Zk.zkFetchJson(client, p);
-        LogEntry entry = JsonLogEntry.jsonToLogEntry(obj);
-        return entry.getVersion();
+        LogEntry entry = getPatchInfo(id);
+        return ( entry == null ) ? null : entry.getVersion();
     }
 
     @Override
     public LogEntry getPatchInfo(Id id) {
         String p = headerPath(id);
         JsonObject obj = Zk.zkFetchJson(client, p);
-        LogEntry entry = JsonLogEntry.jsonToLogEntry(obj);
-        return entry;
-   }
+        if ( obj == null )
+            return null;
+        return JsonLogEntry.jsonToLogEntry(obj);
+    }
 
     private String versionPath(Version ver) { return versionPath(ver.value()) ; }
     private String versionPath(long ver) { return Zk.zkPath(versionsPath, String.format("%08d", ver)); }
@@ -474,6 +488,44 @@ public class PatchLogIndexZk implements PatchLogIndex {
         return lockToken;
     }
 
+    @Override
+    public Id acquireLock(long timeoutMillis) {
+        long finish = System.currentTimeMillis() + timeoutMillis;
+        // One watch on the lock state at a time: a ZooKeeper watch fires once, and is
+        // only set again after it has fired.
+        Semaphore changed = new Semaphore(0);
+        AtomicBoolean watching = new AtomicBoolean(false);
+        Watcher watcher = event->{
+            watching.set(false);
+            changed.release();
+        };
+        for(;;) {
+            Id session = acquireLock();
+            if ( session != null )
+                return session;
+            long remaining = finish - System.currentTimeMillis();
+            if ( remaining <= 0 )
+                return null;
+            // Watch the lock state, then wait for it to change (release, refresh, grab).
+            if ( watching.compareAndSet(false, true) ) {
+                byte[] state = Zk.zkFetch(client, watcher, lockStatePath);
+                if ( state == null )
+                    // The watch was not set.
+                    watching.set(false);
+                else if ( state.length == 0 )
+                    // Released since the attempt.
+                    continue;
+            }
+            try {
+                // Bounded in case the watch could not be set.
+                changed.tryAcquire(Math.min(remaining, 1000), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
     @Override
     public boolean refreshLock(Id session) {
         return Zk.zkLockRtn(zkLock, lockPath, ()->refreshLock$(session));
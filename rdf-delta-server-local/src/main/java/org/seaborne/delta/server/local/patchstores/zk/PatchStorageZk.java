@@ -24,7 +24,9 @@ import java.util.stream.Stream;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.jena.atlas.logging.FmtLog;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
 import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.seaborne.delta.zk.Zk;
 import org.apache.jena.rdfpatch.RDFPatch;
@@ -77,6 +79,20 @@ public class PatchStorageZk implements PatchStorage {
         return RDFPatchOps.read(new ByteArrayInputStream(b));
     }
 
+    /** Copy the bytes of the zNode when the destination is also in ZooKeeper. */
+    @Override
+    public void copy(Version version, Id key, PatchStorage destination) {
+        if ( ! ( destination instanceof PatchStorageZk ) ) {
+            PatchStorage.super.copy(version, key, destination);
+            return;
+        }
+        PatchStorageZk dest = (PatchStorageZk)destination;
+        byte[] b = Zk.zkFetch(client, Zk.zkPath(patches, key.asPlainString()));
+        if ( b == null )
+            throw new DeltaException("copy: No patch for "+key);
+        Zk.zkCreateSet(dest.client, Zk.zkPath(dest.patches, key.asPlainString()), b);
+    }
+
     @Override
     public void delete(Id id) {
         String p = Zk.zkPath(patches, id.asPlainString());
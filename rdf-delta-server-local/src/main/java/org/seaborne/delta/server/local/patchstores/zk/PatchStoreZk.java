@@ -242,6 +242,12 @@ public class PatchStoreZk extends PatchStore {
         return listDataSourcesZk();
     }
 
+    @Override
+    protected int startupThreads() {
+        // Logs are created and attached under the store lock, one at a time.
+        return 1;
+    }
+
     private void connectToZookeeper() {
         try {
             LOGZK.info("Connecting to zookeeper");
@@ -27,6 +27,11 @@ import org.seaborne.delta.server.patchstores.*;
 @Suite.SuiteClasses( {
     TestLocalServerBuildConfig.class
     , TestFileStore.class
+    , TestSpooledPatch.class
+    , TestSnapshots.class
+    , TestPatchHandlers.class
+    , TestMaterializer.class
+    , TestRetention.class
 
     , TestPatchStorageMem.class
     // , TestPatchStorageFile.class :: TestFileStore covers it.
@@ -18,14 +18,27 @@
 package org.seaborne.delta.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.jena.atlas.lib.FileOps;
@@ -36,11 +49,19 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.PatchLogInfo;
+import org.seaborne.delta.Version;
 import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
 import org.seaborne.delta.lib.LogX;
 import org.seaborne.delta.server.local.DPS;
+import org.seaborne.delta.server.local.DataSource;
 import org.seaborne.delta.server.local.LocalServer;
 import org.seaborne.delta.server.local.LocalServers;
+import org.seaborne.delta.server.local.PatchLog;
+import org.seaborne.delta.server.local.PatchLogLazy;
+import org.seaborne.delta.server.local.PatchStore;
 import org.seaborne.delta.server.local.PatchStoreProvider;
 
 /**
@@ -144,4 +165,271 @@ public class TestLocalServerCreateDelete {
         assertTrue(ids.contains(newId1));
     }
 
+    @Test public void datasource_copy_01() {
+        LocalServer server = LocalServers.createFile(DIR);
+        Id id1 = server.createDataSource("ABC", "http://example/abc");
+        PatchLog patchLog1 = server.getDataSource(id1).getPatchLog();
+        RDFPatch patch1 = appendPatches(patchLog1, 3);
+
+        Id id2 = server.copyDataSource(id1, "ABC", "ABC2");
+        assertNotEquals(id1, id2);
+        DataSource dataSource2 = server.getDataSourceByName("ABC2");
+        assertNotNull(dataSource2);
+        assertEquals(id2, dataSource2.getId());
+        PatchLog patchLog2 = dataSource2.getPatchLog();
+        assertEquals(patchLog1.getInfo().getMaxVersion(), patchLog2.getInfo().getMaxVersion());
+        assertEquals(patch1.getId(), patchLog2.fetch(Version.FIRST).getId());
+        assertTrue(patchLog2.contains(Id.fromNode(patch1.getId())));
+
+        // Independent logs.
+        appendPatches(patchLog2, 1);
+        assertEquals(Version.create(3), patchLog1.getInfo().getMaxVersion());
+        assertEquals(Version.create(4), patchLog2.getInfo().getMaxVersion());
+
+        // Exists after restart.
+        LocalServer.release(server);
+        LocalServer server2 = LocalServers.createFile(DIR);
+        DataSource dataSource3 = server2.getDataSourceByName("ABC2");
+        assertNotNull(dataSource3);
+        assertEquals(Version.create(4), dataSource3.getPatchLog().getInfo().getMaxVersion());
+    }
+
+    @Test public void datasource_copy_02() {
+        LocalServer server = LocalServers.createFile(DIR);
+        Id id1 = server.createDataSource("ABC", "http://example/abc");
+        server.createDataSource("XYZ", "http://example/xyz");
+        try {
+            server.copyDataSource(id1, "ABC", "XYZ");
+            fail("Expected copyDataSource to fail");
+        } catch (DeltaException ex) {}
+    }
+
+    // A log with a missing patch file is not copied.
+    @Test public void datasource_copy_03() throws IOException {
+        LocalServer server = LocalServers.createFile(DIR);
+        Id id1 = server.createDataSource("ABC", "http://example/abc");
+        appendPatches(server.getDataSource(id1).getPatchLog(), 3);
+        try ( Stream<Path> files = Files.list(Path.of(DIR, "ABC")) ) {
+            Path file2 = files.filter(p->p.getFileName().toString().matches(".*-0*2")).findFirst().get();
+            Files.delete(file2);
+        }
+        try {
+            server.copyDataSource(id1, "ABC", "ABC2");
+            fail("Expected copyDataSource to fail");
+        } catch (DeltaException ex) {}
+        assertNull(server.getDataSourceByName("ABC2"));
+        assertFalse(Files.exists(Path.of(DIR, "ABC2")));
+        LocalServer.release(server);
+    }
+
+    @Test public void datasource_rename_01() {
+        LocalServer server = LocalServers.createFile(DIR);
+        Id id1 = server.createDataSource("ABC", "http://example/abc");
+        RDFPatch patch1 = appendPatches(server.getDataSource(id1).getPatchLog(), 2);
+
+        Id id2 = server.renameDataSource(id1, "ABC", "DEF");
+        assertNull(server.getDataSourceByName("ABC"));
+        DataSource dataSource2 = server.getDataSourceByName("DEF");
+        assertNotNull(dataSource2);
+        assertEquals(id2, dataSource2.getId());
+        assertEquals("http://example/abc", dataSource2.getURI());
+        PatchLogInfo info = dataSource2.getPatchLog().getInfo();
+        assertEquals(Version.create(2), info.getMaxVersion());
+        assertEquals(patch1.getId(), dataSource2.getPatchLog().fetch(Version.FIRST).getId());
+
+        LocalServer.release(server);
+        LocalServer server2 = LocalServers.createFile(DIR);
+        assertNull(server2.getDataSourceByName("ABC"));
+        assertNotNull(server2.getDataSourceByName("DEF"));
+        assertEquals(Version.create(2), server2.getDataSourceByName("DEF").getPatchLog().getInfo().getMaxVersion());
+    }
+
+    // Restart with logs opened at startup, in parallel.
+    @Test public void local_server_restart_02() {
+        LocalServer server1 = LocalServers.createFile(DIR);
+        int N = 10;
+        for ( int i = 0 ; i < N ; i++ ) {
+            Id id = server1.createDataSource("LOG-"+i, "http://example/log-"+i);
+            appendPatches(server1.getDataSource(id).getPatchLog(), i+1);
+        }
+        LocalServer.release(server1);
+        DPS.resetSystem();
+
+        boolean lazy = PatchStore.LazyOpen;
+        int threads = PatchStore.StartupThreads;
+        try {
+            PatchStore.LazyOpen = false;
+            PatchStore.StartupThreads = 4;
+            LocalServer server2 = LocalServers.createFile(DIR);
+            // 2 in the setup area.
+            assertEquals(N+2, server2.listDataSources().size());
+            for ( int i = 0 ; i < N ; i++ ) {
+                PatchLog patchLog = server2.getDataSourceByName("LOG-"+i).getPatchLog();
+                assertFalse(patchLog instanceof PatchLogLazy);
+                assertEquals(Version.create(i+1), patchLog.getInfo().getMaxVersion());
+            }
+        } finally {
+            PatchStore.LazyOpen = lazy;
+            PatchStore.StartupThreads = threads;
+        }
+    }
+
+    // A compacted file log is the same after a restart.
+    @Test public void datasource_compact_01() {
+        LocalServer server1 = LocalServers.createFile(DIR);
+        Id id = server1.createDataSource("ABC", "http://example/abc");
+        PatchLog patchLog1 = server1.getDataSource(id).getPatchLog();
+        appendPatches(patchLog1, 5);
+        Id id3 = patchLog1.find(Version.create(3));
+        patchLog1.compact(Version.create(3));
+        LocalServer.release(server1);
+        DPS.resetSystem();
+
+        LocalServer server2 = LocalServers.createFile(DIR);
+        PatchLog patchLog2 = server2.getDataSource(id).getPatchLog();
+        PatchLogInfo info = patchLog2.getInfo();
+        assertEquals(Version.create(3), info.getMinVersion());
+        assertEquals(Version.create(5), info.getMaxVersion());
+        assertEquals(id3, patchLog2.getEarliestId());
+        assertNull(patchLog2.fetch(Version.create(2)));
+        assertNotNull(patchLog2.fetch(Version.create(4)));
+        appendPatches(patchLog2, 1);
+        assertEquals(Version.create(6), patchLog2.getLatestVersion());
+    }
+
+    @Test public void datasource_prune_01() {
+        LocalServer server1 = LocalServers.createFile(DIR);
+        Id id = server1.createDataSource("ABC", "http://example/abc");
+        PatchLog patchLog1 = server1.getDataSource(id).getPatchLog();
+        appendPatches(patchLog1, 5);
+        Id id4 = patchLog1.find(Version.create(4));
+        patchLog1.prune(Version.create(4));
+        LocalServer.release(server1);
+        DPS.resetSystem();
+
+        // The first patch on disk refers to a patch that has been removed.
+        LocalServer server2 = LocalServers.createFile(DIR);
+        PatchLog patchLog2 = server2.getDataSource(id).getPatchLog();
+        PatchLogInfo info = patchLog2.getInfo();
+        assertEquals(Version.create(4), info.getMinVersion());
+        assertEquals(Version.create(5), info.getMaxVersion());
+        assertEquals(id4, patchLog2.getEarliestId());
+        assertNull(patchLog2.fetch(Version.create(3)));
+        appendPatches(patchLog2, 1);
+        assertEquals(Version.create(6), patchLog2.getLatestVersion());
+    }
+
+    // Logs found at startup are opened on first use, and can be closed when idle.
+    @Test public void datasource_lazy_01() {
+        LocalServer server1 = LocalServers.createFile(DIR);
+        Id id = server1.createDataSource("ABC", "http://example/abc");
+        appendPatches(server1.getDataSource(id).getPatchLog(), 2);
+        LocalServer.release(server1);
+        DPS.resetSystem();
+
+        LocalServer server2 = LocalServers.createFile(DIR);
+        PatchLog patchLog = server2.getDataSource(id).getPatchLog();
+        assertTrue(patchLog instanceof PatchLogLazy);
+        PatchLogLazy lazy = (PatchLogLazy)patchLog;
+        assertFalse(lazy.isOpen());
+        assertEquals("ABC", patchLog.getDescription().getName());
+        assertFalse(lazy.isOpen());
+
+        assertEquals(Version.create(2), patchLog.getInfo().getMaxVersion());
+        assertTrue(lazy.isOpen());
+
+        // Not closed while a client holds the log lock.
+        Id session = patchLog.acquireLock();
+        assertFalse(lazy.closeIfIdle(0));
+        patchLog.releaseLock(session);
+        // Not closed while an action runs on the log.
+        lazy.apply(log->{
+            assertFalse(lazy.closeIfIdle(0));
+            return null;
+        });
+        assertTrue(lazy.closeIfIdle(0));
+        assertFalse(lazy.isOpen());
+
+        // Reopens.
+        appendPatches(patchLog, 1);
+        assertEquals(Version.create(3), patchLog.getInfo().getMaxVersion());
+    }
+
+    // A range from a lazy log can be used after the log has been closed.
+    @Test public void datasource_lazy_02() {
+        LocalServer server = LocalServers.createFile(DIR);
+        Id id = server.createDataSource("ABC", "http://example/abc");
+        PatchLog base = server.getDataSource(id).getPatchLog();
+        appendPatches(base, 2);
+        AtomicBoolean closed = new AtomicBoolean(false);
+        // A log with a range stream that reads patches as it is consumed.
+        PatchLog streaming = (PatchLog)Proxy.newProxyInstance(PatchLog.class.getClassLoader(), new Class<?>[] {PatchLog.class},
+            (proxy, method, args) -> {
+                if ( method.getName().equals("range") && args[0] instanceof Version ) {
+                    long start = ((Version)args[0]).value();
+                    long finish = ((Version)args[1]).value();
+                    return LongStream.rangeClosed(start, finish).mapToObj(v->{
+                        if ( closed.get() )
+                            throw new IllegalStateException("Log closed");
+                        return base.fetch(Version.create(v));
+                    });
+                }
+                try { return method.invoke(base, args); }
+                catch (InvocationTargetException ex) { throw ex.getCause(); }
+            });
+        PatchLogLazy lazy = new PatchLogLazy(base.getDescription(), base.getPatchStore(), ()->streaming, ()->closed.set(true));
+        Stream<RDFPatch> stream = lazy.range(Version.create(1), Version.create(2));
+        assertTrue(lazy.closeIfIdle(0));
+        List<RDFPatch> patches = stream.collect(Collectors.toList());
+        assertEquals(2, patches.size());
+        LocalServer.release(server);
+    }
+
+    // Creates of different and of the same names, at the same time.
+    @Test public void datasource_create_concurrent_01() throws InterruptedException {
+        LocalServer server = LocalServers.createFile(DIR);
+        int N = 20;
+        Set<Id> sameName = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(2*N);
+        for ( int i = 0 ; i < N ; i++ ) {
+            String name = "DS-"+i;
+            thread(start, finish, ()->server.createDataSource(name, "http://example/"+name));
+            thread(start, finish, ()->{
+                // Either returns the one data source or finds it already exists.
+                try { sameName.add(server.createDataSource("SAME", "http://example/same")); }
+                catch (DeltaException ex) {}
+            });
+        }
+        start.countDown();
+        finish.await();
+        assertEquals(1, sameName.size());
+        // 2 in the setup area, N different, 1 same.
+        assertEquals(N+3, server.listDataSources().size());
+    }
+
+    private static void thread(CountDownLatch start, CountDownLatch finish, Runnable action) {
+        new Thread(()->{
+            try {
+                start.await();
+                action.run();
+            } catch (InterruptedException ex) {
+            } finally {
+                finish.countDown();
+            }
+        }).start();
+    }
+
+    /** Append a chain of N empty patches; return the first. */
+    private static RDFPatch appendPatches(PatchLog patchLog, int N) {
+        RDFPatch first = null;
+        for ( int i = 0 ; i < N ; i++ ) {
+            Id prev = patchLog.getInfo().getLatestPatch();
+            RDFPatch patch = RDFPatchOps.withHeader(RDFPatchOps.emptyPatch(), Id.create().asNode(), prev == null ? null : prev.asNode());
+            patchLog.append(patch);
+            if ( first == null )
+                first = patch;
+        }
+        return first;
+    }
 }
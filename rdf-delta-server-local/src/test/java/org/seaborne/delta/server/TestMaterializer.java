@@ -0,0 +1,196 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.junit.After;
+import org.junit.Test;
+import org.seaborne.delta.*;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.server.local.*;
+
+public class TestMaterializer {
+    private static final String DIR = "target/materialize";
+
+    private LocalServer localServer;
+    private DeltaLink dLink;
+    private Id dsRef;
+    private Id previous;
+
+    private void setup(String snapshots) {
+        setup(snapshots, null);
+    }
+
+    private void setup(String snapshots, String queryTimeout) {
+        FileOps.ensureDir(DIR);
+        FileOps.clearAll(DIR);
+        LocalServerConfig.Builder builder = LocalServerConfig.create(LocalServers.configMem())
+            .setProperty(DeltaConst.pDeltaMaterialize, DIR+"/data")
+            .setProperty(DeltaConst.pDeltaMaterializeBatch, "2");
+        if ( queryTimeout != null )
+            builder.setProperty(DeltaConst.pDeltaMaterializeTimeout, queryTimeout);
+        if ( snapshots != null )
+            builder.setProperty(DeltaConst.pDeltaSnapshots, snapshots).setProperty(DeltaConst.pDeltaSnapshotInterval, "0");
+        localServer = LocalServer.create(builder.build());
+        dLink = DeltaLinkLocal.connect(localServer);
+        dsRef = dLink.newDataSource("materialize", "http://example/materialize");
+        previous = null;
+    }
+
+    @After public void after() {
+        if ( localServer != null )
+            LocalServer.release(localServer);
+    }
+
+    private Version append(String data) {
+        Id id = Id.create();
+        StringBuilder sb = new StringBuilder();
+        sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+        if ( previous != null )
+            sb.append("H prev <").append(previous.asNode().getURI()).append("> .\n");
+        sb.append("TX .\n").append(data).append("TC .\n");
+        RDFPatch patch = RDFPatchOps.read(new ByteArrayInputStream(StrUtils.asUTF8bytes(sb.toString())));
+        previous = id;
+        return dLink.append(dsRef, patch);
+    }
+
+    private static final Quad q1 = SSE.parseQuad("(_ :s :p 1)");
+    private static final Quad q2 = SSE.parseQuad("(<http://example/g> :s :p 2)");
+    private static final Quad q3 = SSE.parseQuad("(_ :s :p 3)");
+
+    private void append3() {
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        append("A <http://example/s> <http://example/p> 2 <http://example/g> .\n");
+        append("D <http://example/s> <http://example/p> 1 .\nA <http://example/s> <http://example/p> 3 .\n");
+    }
+
+    private void awaitIdle() {
+        assertTrue(localServer.getPatchHandlers().awaitIdle(10000));
+    }
+
+    private static boolean contains(Materializer materializer, Id logId, Quad quad) {
+        Node g = Quad.isDefaultGraph(quad.getGraph()) ? Quad.defaultGraphIRI : quad.getGraph();
+        return materializer.read(logId, (version, dsg)->dsg.contains(g, quad.getSubject(), quad.getPredicate(), quad.getObject()));
+    }
+
+    @Test public void materialize_01() {
+        setup(null);
+        Materializer materializer = localServer.getMaterializer();
+        assertNotNull(materializer);
+        append3();
+        awaitIdle();
+        assertEquals(Version.create(3), materializer.getVersion(dsRef));
+        assertFalse(contains(materializer, dsRef, q1));
+        assertTrue(contains(materializer, dsRef, q2));
+        assertTrue(contains(materializer, dsRef, q3));
+    }
+
+    @Test public void materialize_02_query() {
+        setup(null);
+        append3();
+        awaitIdle();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(dLink.query(dsRef, "ASK { <http://example/s> <http://example/p> 3 }", out));
+        assertTrue(StrUtils.fromUTF8bytes(out.toByteArray()).contains("true"));
+        out.reset();
+        assertTrue(dLink.query(dsRef, "SELECT (count(*) AS ?c) { GRAPH ?g { ?s ?p ?o } }", out));
+        assertTrue(StrUtils.fromUTF8bytes(out.toByteArray()).contains("\"1\""));
+    }
+
+    @Test(expected=DeltaBadRequestException.class)
+    public void materialize_03_query_bad() {
+        setup(null);
+        dLink.query(dsRef, "INSERT DATA {}", new ByteArrayOutputStream());
+    }
+
+    @Test(expected=DeltaBadRequestException.class)
+    public void materialize_03_query_service() {
+        // The server does not make HTTP requests for a query.
+        setup(null);
+        append3();
+        awaitIdle();
+        dLink.query(dsRef, "SELECT * { SERVICE <http://localhost:1/sparql> { ?s ?p ?o } }", new ByteArrayOutputStream());
+    }
+
+    @Test(timeout=10_000)
+    public void materialize_03_query_timeout() {
+        setup(null, "100");
+        append3();
+        awaitIdle();
+        String values = "VALUES ?x { 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 }";
+        String queryString = "SELECT (count(*) AS ?count) { "+values.replace("?x", "?a")+" "+values.replace("?x", "?b")+" "
+                             +values.replace("?x", "?c")+" "+values.replace("?x", "?d")+" "+values.replace("?x", "?e")+" "
+                             +values.replace("?x", "?f")+" }";
+        try {
+            dLink.query(dsRef, queryString, new ByteArrayOutputStream());
+            fail("Expected DeltaHttpException");
+        } catch (DeltaHttpException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+    }
+
+    @Test public void materialize_04_restart() {
+        setup(null);
+        append3();
+        awaitIdle();
+        LocalServer.release(localServer);
+        localServer = null;
+        // The database and its version are kept.
+        Materializer materializer = new Materializer(Paths.get(DIR+"/data"), 10);
+        try {
+            assertEquals(Version.create(3), materializer.getVersion(dsRef));
+            assertEquals(3, materializer.handledVersion(dsRef));
+            assertTrue(contains(materializer, dsRef, q3));
+        } finally {
+            materializer.shutdown();
+        }
+    }
+
+    @Test public void materialize_05_snapshot() {
+        setup(DIR+"/snapshots");
+        append3();
+        awaitIdle();
+        DataSource dataSource = localServer.getDataSource(dsRef);
+        Snapshots.Snapshot snapshot = localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+        assertNotNull(snapshot);
+        assertEquals(Version.create(3), snapshot.getVersion());
+        assertEquals(previous, snapshot.getPatchId());
+    }
+
+    @Test public void materialize_06_delete() {
+        setup(null);
+        append3();
+        awaitIdle();
+        dLink.removeDataSource(dsRef);
+        assertNull(localServer.getMaterializer().getVersion(dsRef));
+        assertFalse(FileOps.exists(DIR+"/data/"+dsRef.asPlainString()));
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
+import org.junit.After;
+import org.junit.Test;
+import org.seaborne.delta.*;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.server.local.*;
+
+public class TestPatchHandlers {
+    private static final String DIR = "target/handlers";
+
+    private LocalServer localServer;
+    private DeltaLink dLink;
+    private Id dsRef;
+    private Id previous;
+
+    private void setup(int queueSize) {
+        FileOps.ensureDir(DIR);
+        FileOps.clearAll(DIR);
+        LocalServerConfig config = LocalServerConfig.create(LocalServers.configMem())
+            .setProperty(DeltaConst.pDeltaHandlers, DIR)
+            .setProperty(DeltaConst.pDeltaHandlerQueue, Integer.toString(queueSize))
+            .build();
+        localServer = LocalServer.create(config);
+        dLink = DeltaLinkLocal.connect(localServer);
+        dsRef = dLink.newDataSource("handlers", "http://example/handlers");
+        previous = null;
+    }
+
+    @After public void after() {
+        if ( localServer != null )
+            LocalServer.release(localServer);
+    }
+
+    private Version append() {
+        Id id = Id.create();
+        StringBuilder sb = new StringBuilder();
+        sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+        if ( previous != null )
+            sb.append("H prev <").append(previous.asNode().getURI()).append("> .\n");
+        sb.append("TX .\nA <http://example/s> <http://example/p> \"").append(id.asPlainString()).append("\" .\nTC .\n");
+        RDFPatch patch = RDFPatchOps.read(new ByteArrayInputStream(StrUtils.asUTF8bytes(sb.toString())));
+        previous = id;
+        return dLink.append(dsRef, patch);
+    }
+
+    private static PatchHandler collector(List<Long> versions) {
+        return patch -> versions.add(patch.getSourceVersion());
+    }
+
+    @Test public void handlers_01() {
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        handlers.register("collect", collector(versions));
+        for ( int i = 0 ; i < 5 ; i++ )
+            append();
+        assertTrue(handlers.awaitIdle(5000));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), versions);
+        assertEquals(Version.create(5), handlers.getWatermark("collect", dsRef));
+    }
+
+    @Test public void handlers_02_overflow() throws Exception {
+        // Queue of one and a handler that is held: appends do not block and the
+        // handler reads the patches that did not fit from the log, in order.
+        setup(1);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        handlers.register("slow", patch -> {
+            try { latch.await(); } catch (InterruptedException ex) {}
+            versions.add(patch.getSourceVersion());
+        });
+        for ( int i = 0 ; i < 10 ; i++ )
+            append();
+        latch.countDown();
+        assertTrue(handlers.awaitIdle(5000));
+        assertTrue(handlers.getOverflowCount("slow") > 0);
+        List<Long> expected = new ArrayList<>();
+        for ( long i = 1 ; i <= 10 ; i++ )
+            expected.add(i);
+        assertEquals(expected, versions);
+    }
+
+    @Test public void handlers_03_failure() {
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        handlers.register("bad", patch -> { throw new RuntimeException("Test: handler failure"); });
+        handlers.register("good", collector(versions));
+        for ( int i = 0 ; i < 3 ; i++ )
+            append();
+        // A failing handler is never idle, and does not hold up other handlers.
+        assertFalse(handlers.awaitIdle(500));
+        assertEquals(List.of(1L, 2L, 3L), versions);
+        // The patches the handler failed on are not counted as handled.
+        assertEquals(Version.INIT, handlers.getWatermark("bad", dsRef));
+    }
+
+    @Test public void handlers_03_retry() {
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failures = new AtomicInteger(2);
+        handlers.register("retry", patch -> {
+            if ( failures.getAndDecrement() > 0 )
+                throw new RuntimeException("Test: handler failure");
+            versions.add(patch.getSourceVersion());
+        });
+        for ( int i = 0 ; i < 3 ; i++ )
+            append();
+        assertTrue(handlers.awaitIdle(5000));
+        assertEquals(List.of(1L, 2L, 3L), versions);
+        assertEquals(Version.create(3), handlers.getWatermark("retry", dsRef));
+    }
+
+    @Test public void handlers_03_spilled() throws Exception {
+        // A patch spilled to a temporary file, which is deleted when the append returns,
+        // before the handler runs.
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        handlers.register("spilled", patch -> {
+            try { latch.await(); } catch (InterruptedException ex) {}
+            RDFChangesCounter counter = new RDFChangesCounter();
+            patch.apply(counter);
+            sizes.add((int)counter.summary().getCountAddData());
+        });
+        Id id = Id.create();
+        StringBuilder sb = new StringBuilder();
+        sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+        sb.append("TX .\n");
+        for ( int i = 0 ; i < 100 ; i++ )
+            sb.append("A <http://example/s> <http://example/p> ").append(i).append(" .\n");
+        sb.append("TC .\n");
+        try ( SpooledPatch patch = SpooledPatch.spool(new ByteArrayInputStream(StrUtils.asUTF8bytes(sb.toString())), -1, 100, null) ) {
+            assertTrue(patch.isSpilled());
+            dLink.append(dsRef, patch);
+        }
+        latch.countDown();
+        assertTrue(handlers.awaitIdle(5000));
+        assertEquals(List.of(100), sizes);
+    }
+
+    /** A handler that keeps patches in a batch; the first batch fails to commit. */
+    private static class BatchHandler implements PatchHandler {
+        final List<Long> committed = Collections.synchronizedList(new ArrayList<>());
+        private final List<Long> batch = new ArrayList<>();
+        private boolean fail = true;
+
+        @Override
+        public synchronized void handle(Patch patch) {
+            batch.add(patch.getSourceVersion());
+        }
+
+        @Override
+        public synchronized void endBatch() {
+            if ( fail ) {
+                fail = false;
+                batch.clear();
+                throw new RuntimeException("Test: batch failure");
+            }
+            committed.addAll(batch);
+            batch.clear();
+        }
+
+        @Override
+        public synchronized long handledVersion(Id logId) {
+            return committed.isEmpty() ? 0 : committed.get(committed.size()-1);
+        }
+    }
+
+    @Test public void handlers_03_batch_failure() {
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        BatchHandler handler = new BatchHandler();
+        handlers.register("batch", handler);
+        for ( int i = 0 ; i < 3 ; i++ )
+            append();
+        assertTrue(handlers.awaitIdle(5000));
+        // The patches of the lost batch are given again.
+        assertEquals(List.of(1L, 2L, 3L), handler.committed);
+        assertEquals(Version.create(3), handlers.getWatermark("batch", dsRef));
+    }
+
+    @Test public void handlers_04_watermark() {
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions1 = Collections.synchronizedList(new ArrayList<>());
+        handlers.register("collect", collector(versions1));
+        for ( int i = 0 ; i < 3 ; i++ )
+            append();
+        assertTrue(handlers.awaitIdle(5000));
+        handlers.unregister("collect");
+        append();
+        append();
+
+        // Same directory, same logs: the handler continues from its saved watermark.
+        PatchHandlers handlers2 = new PatchHandlers(localServer.getDataRegistry(), Paths.get(DIR), 100);
+        List<Long> versions2 = Collections.synchronizedList(new ArrayList<>());
+        try {
+            handlers2.register("collect", collector(versions2));
+            assertTrue(handlers2.awaitIdle(5000));
+            assertEquals(List.of(4L, 5L), versions2);
+            assertEquals(Version.create(5), handlers2.getWatermark("collect", dsRef));
+        } finally {
+            handlers2.shutdown();
+        }
+    }
+
+    @Test public void handlers_05_pruned() {
+        // A handler registered after patches have been pruned can not catch up.
+        setup(100);
+        for ( int i = 0 ; i < 5 ; i++ )
+            append();
+        localServer.getDataSource(dsRef).getPatchLog().prune(Version.create(3));
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        handlers.register("collect", collector(versions));
+        assertFalse(handlers.awaitIdle(500));
+        assertTrue(versions.isEmpty());
+        assertEquals(Version.INIT, handlers.getWatermark("collect", dsRef));
+    }
+
+    @Test public void handlers_05_compacted() {
+        // A handler registered after the log has been compacted starts from the compacted patch.
+        setup(100);
+        for ( int i = 0 ; i < 5 ; i++ )
+            append();
+        localServer.getDataSource(dsRef).getPatchLog().compact(Version.create(3));
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        handlers.register("collect", collector(versions));
+        assertTrue(handlers.awaitIdle(5000));
+        assertEquals(List.of(3L, 4L, 5L), versions);
+        assertEquals(Version.create(5), handlers.getWatermark("collect", dsRef));
+    }
+
+    @Test public void handlers_06_removed() throws Exception {
+        // Patches queued for a log that is then removed are dropped.
+        setup(100);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        List<Long> versions = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        handlers.register("held", patch -> {
+            started.countDown();
+            try { latch.await(); } catch (InterruptedException ex) {}
+            versions.add(patch.getSourceVersion());
+        });
+        for ( int i = 0 ; i < 3 ; i++ )
+            append();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dLink.removeDataSource(dsRef);
+        latch.countDown();
+        assertTrue(handlers.awaitIdle(5000));
+        assertEquals(List.of(1L), versions);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.lib.Lib;
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.junit.After;
+import org.junit.Test;
+import org.seaborne.delta.*;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.server.local.*;
+import org.seaborne.delta.server.local.Retention.Policy;
+
+public class TestRetention {
+    private static final String DIR = "target/retention";
+
+    private LocalServer localServer;
+    private DeltaLink dLink;
+    private Id dsRef;
+    private Id previous;
+
+    private void setup(String... properties) {
+        FileOps.ensureDir(DIR);
+        FileOps.clearAll(DIR);
+        LocalServerConfig.Builder builder = LocalServerConfig.create(LocalServers.configMem())
+            .setProperty(DeltaConst.pDeltaRetentionInterval, "0")
+            .setProperty(DeltaConst.pDeltaRetentionBatch, "2")
+            .setProperty(DeltaConst.pDeltaRetentionPause, "0");
+        for ( int i = 0 ; i < properties.length ; i += 2 )
+            builder.setProperty(properties[i], properties[i+1]);
+        localServer = LocalServer.create(builder.build());
+        dLink = DeltaLinkLocal.connect(localServer);
+        dsRef = dLink.newDataSource("retention", "http://example/retention");
+        previous = null;
+    }
+
+    @After public void after() {
+        if ( localServer != null )
+            LocalServer.release(localServer);
+    }
+
+    private Version append(Id dsRef, int n) {
+        Version version = null;
+        for ( int i = 0 ; i < n ; i++ ) {
+            Id id = Id.create();
+            StringBuilder sb = new StringBuilder();
+            sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+            if ( previous != null )
+                sb.append("H prev <").append(previous.asNode().getURI()).append("> .\n");
+            sb.append("TX .\nA <http://example/s> <http://example/p> \"").append(id.asPlainString()).append("\" .\nTC .\n");
+            RDFPatch patch = RDFPatchOps.read(new ByteArrayInputStream(StrUtils.asUTF8bytes(sb.toString())));
+            previous = id;
+            version = dLink.append(dsRef, patch);
+        }
+        return version;
+    }
+
+    private PatchLogInfo info(Id dsRef) {
+        return localServer.getDataSource(dsRef).getPatchLog().getInfo(0);
+    }
+
+    @Test public void retention_01_versions() {
+        setup(DeltaConst.pDeltaRetentionVersions, "3");
+        append(dsRef, 10);
+        assertEquals(7, localServer.getRetention().pruneAll());
+        assertEquals(Version.create(8), info(dsRef).getMinVersion());
+        assertEquals(Version.create(10), info(dsRef).getMaxVersion());
+        assertNull(dLink.fetch(dsRef, Version.create(7)));
+        assertNotNull(dLink.fetch(dsRef, Version.create(8)));
+        // Nothing more to do.
+        assertEquals(0, localServer.getRetention().pruneAll());
+    }
+
+    @Test public void retention_02_per_log() {
+        setup(DeltaConst.pDeltaRetentionVersions+".retention", "2");
+        Id dsRef2 = dLink.newDataSource("other", "http://example/other");
+        append(dsRef, 5);
+        previous = null;
+        append(dsRef2, 5);
+        assertEquals(3, localServer.getRetention().pruneAll());
+        assertEquals(Version.create(4), info(dsRef).getMinVersion());
+        assertEquals(Version.create(1), info(dsRef2).getMinVersion());
+
+        localServer.getRetention().setPolicy(dsRef2, new Policy(1, null, false));
+        assertEquals(4, localServer.getRetention().pruneAll());
+        assertEquals(Version.create(5), info(dsRef2).getMinVersion());
+    }
+
+    @Test public void retention_03_snapshot() {
+        setup(DeltaConst.pDeltaSnapshots, DIR+"/snapshots",
+              DeltaConst.pDeltaSnapshotInterval, "0",
+              DeltaConst.pDeltaRetentionSnapshot, "true");
+        append(dsRef, 4);
+        // No snapshot yet: every patch is needed to start a new replica.
+        assertEquals(0, localServer.getRetention().pruneAll());
+        localServer.getSnapshots().createSnapshot(localServer.getDataSource(dsRef).getPatchLog());
+        append(dsRef, 2);
+        assertEquals(4, localServer.getRetention().pruneAll());
+        assertEquals(Version.create(5), info(dsRef).getMinVersion());
+        assertEquals(Version.create(6), info(dsRef).getMaxVersion());
+    }
+
+    @Test public void retention_04_age() {
+        setup();
+        append(dsRef, 4);
+        Retention retention = localServer.getRetention();
+        retention.setPolicy(dsRef, new Policy(-1, Duration.ofHours(1), false));
+        assertEquals(0, retention.pruneAll());
+        // Everything is older than this; the latest patch is kept.
+        retention.setPolicy(dsRef, new Policy(-1, Duration.ZERO, false));
+        assertEquals(3, retention.pruneAll());
+        assertEquals(Version.create(4), info(dsRef).getMinVersion());
+    }
+
+    @Test public void retention_05_handlers() throws Exception {
+        setup(DeltaConst.pDeltaRetentionVersions, "1");
+        CountDownLatch latch = new CountDownLatch(1);
+        PatchHandlers handlers = localServer.getPatchHandlers();
+        handlers.register("held", patch -> {
+            try { latch.await(); } catch (InterruptedException ex) {}
+        });
+        append(dsRef, 5);
+        // Patches the handler has not handled are kept.
+        assertEquals(0, localServer.getRetention().pruneAll());
+        latch.countDown();
+        assertTrue(handlers.awaitIdle(5000));
+        assertEquals(4, localServer.getRetention().pruneAll());
+        assertEquals(Version.create(5), info(dsRef).getMinVersion());
+    }
+
+    @Test public void retention_05_bad_setting() {
+        setup(DeltaConst.pDeltaRetentionVersions+".retention", "many",
+              DeltaConst.pDeltaRetentionVersions+".other", "1");
+        Id dsRef2 = dLink.newDataSource("other", "http://example/other");
+        append(dsRef, 3);
+        previous = null;
+        append(dsRef2, 3);
+        // The other log is pruned.
+        Retention retention = localServer.getRetention();
+        assertEquals(2, retention.pruneAll());
+        assertEquals(Version.create(1), info(dsRef).getMinVersion());
+        assertEquals(Version.create(3), info(dsRef2).getMinVersion());
+        // Not tried again yet.
+        assertEquals(0, retention.prune(localServer.getDataSource(dsRef)));
+        // A new policy is used straight away.
+        retention.setPolicy(dsRef, new Policy(1, null, false));
+        assertEquals(2, retention.pruneAll());
+        assertEquals(Version.create(3), info(dsRef).getMinVersion());
+    }
+
+    @Test public void retention_06_background() {
+        setup(DeltaConst.pDeltaRetentionVersions, "2",
+              DeltaConst.pDeltaRetentionInterval, "1");
+        append(dsRef, 6);
+        long finish = System.currentTimeMillis() + 10000;
+        while ( info(dsRef).getMinVersion().value() < 5 && System.currentTimeMillis() < finish )
+            Lib.sleep(50);
+        assertEquals(Version.create(5), info(dsRef).getMinVersion());
+    }
+}
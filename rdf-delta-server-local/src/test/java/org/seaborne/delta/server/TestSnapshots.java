@@ -0,0 +1,189 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+
+package org.seaborne.delta.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.lib.FileOps;
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.sse.SSE;
+import org.junit.After;
+import org.junit.Test;
+import org.seaborne.delta.*;
+import org.seaborne.delta.link.DeltaLink;
+import org.seaborne.delta.server.local.*;
+
+public class TestSnapshots {
+    private static final String DIR = "target/snapshots";
+
+    private LocalServer localServer;
+    private DeltaLink dLink;
+    private Id dsRef;
+    private Id previous;
+
+    private void setup(long interval) {
+        FileOps.ensureDir(DIR);
+        FileOps.clearAll(DIR);
+        LocalServerConfig config = LocalServerConfig.create(LocalServers.configMem())
+            .setProperty(DeltaConst.pDeltaSnapshots, DIR)
+            .setProperty(DeltaConst.pDeltaSnapshotInterval, Long.toString(interval))
+            .build();
+        localServer = LocalServer.create(config);
+        dLink = DeltaLinkLocal.connect(localServer);
+        dsRef = dLink.newDataSource("snapshots", "http://example/snapshots");
+        previous = null;
+    }
+
+    @After public void after() {
+        if ( localServer != null )
+            LocalServer.release(localServer);
+    }
+
+    private Version append(String data) {
+        Id id = Id.create();
+        StringBuilder sb = new StringBuilder();
+        sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+        if ( previous != null )
+            sb.append("H prev <").append(previous.asNode().getURI()).append("> .\n");
+        sb.append("TX .\n").append(data).append("TC .\n");
+        RDFPatch patch = RDFPatchOps.read(new ByteArrayInputStream(StrUtils.asUTF8bytes(sb.toString())));
+        previous = id;
+        return dLink.append(dsRef, patch);
+    }
+
+    private DatasetGraph readSnapshot(Version version) {
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        try ( InputStream in = dLink.fetchSnapshot(dsRef, version) ) {
+            assertNotNull(in);
+            RDFParser.source(in).lang(Lang.NQUADS).parse(dsg);
+        } catch (IOException ex) { throw new RuntimeException(ex); }
+        return dsg;
+    }
+
+    @Test public void snapshot_none() {
+        setup(0);
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        PatchLogInfo info = dLink.getPatchLogInfo(dsRef);
+        assertFalse(info.hasSnapshot());
+        assertNull(dLink.fetchSnapshot(dsRef, Version.create(1)));
+    }
+
+    @Test public void snapshot_create() {
+        setup(0);
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        append("A <http://example/s> <http://example/p> 2 <http://example/g> .\n");
+        append("D <http://example/s> <http://example/p> 1 .\n");
+        DataSource dataSource = localServer.getDataSource(dsRef);
+        localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+
+        PatchLogInfo info = dLink.getPatchLogInfo(dsRef);
+        assertTrue(info.hasSnapshot());
+        assertEquals(Version.create(3), info.getSnapshotVersion());
+        assertEquals(previous, info.getSnapshotPatch());
+        // Round trip through JSON.
+        assertEquals(info, PatchLogInfo.fromJson(info.asJson()));
+
+        DatasetGraph dsg = readSnapshot(Version.create(3));
+        assertEquals(1, dsg.stream().count());
+        assertTrue(dsg.contains(SSE.parseQuad("(<http://example/g> <http://example/s> <http://example/p> 2)")));
+    }
+
+    @Test public void snapshot_incremental() {
+        setup(0);
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        DataSource dataSource = localServer.getDataSource(dsRef);
+        localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+        append("A <http://example/s> <http://example/p> 2 .\n");
+        localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+
+        PatchLogInfo info = dLink.getPatchLogInfo(dsRef);
+        assertEquals(Version.create(2), info.getSnapshotVersion());
+        // Only the latest is kept.
+        assertNull(dLink.fetchSnapshot(dsRef, Version.create(1)));
+        DatasetGraph dsg = readSnapshot(Version.create(2));
+        assertEquals(2, dsg.stream().count());
+    }
+
+    @Test public void snapshot_compacted() {
+        // The log is compacted past the latest snapshot; the next snapshot starts at the compacted patch.
+        setup(0);
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        DataSource dataSource = localServer.getDataSource(dsRef);
+        localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+        append("A <http://example/s> <http://example/p> 2 .\n");
+        append("D <http://example/s> <http://example/p> 1 .\n");
+        append("A <http://example/s> <http://example/p> 4 .\n");
+        dataSource.getPatchLog().compact(Version.create(3));
+        assertEquals(Version.create(3), dLink.getPatchLogInfo(dsRef).getMinVersion());
+
+        Snapshots.Snapshot snapshot = localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+        assertEquals(Version.create(4), snapshot.getVersion());
+        DatasetGraph dsg = readSnapshot(Version.create(4));
+        assertEquals(2, dsg.stream().count());
+        assertFalse(dsg.contains(SSE.parseQuad("(_ <http://example/s> <http://example/p> 1)")));
+        assertTrue(dsg.contains(SSE.parseQuad("(_ <http://example/s> <http://example/p> 2)")));
+        assertTrue(dsg.contains(SSE.parseQuad("(_ <http://example/s> <http://example/p> 4)")));
+    }
+
+    @Test public void snapshot_build_removed() throws IOException {
+        // The temporary database used to build a snapshot is removed.
+        setup(0);
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        DataSource dataSource = localServer.getDataSource(dsRef);
+        localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+        append("A <http://example/s> <http://example/p> 2 .\n");
+        Snapshots.Snapshot snapshot = localServer.getSnapshots().createSnapshot(dataSource.getPatchLog());
+        Path dir = Paths.get(DIR, dsRef.asPlainString());
+        try ( Stream<Path> files = Files.list(dir) ) {
+            assertEquals(List.of(snapshot.getPath().getFileName()), files.map(Path::getFileName).collect(Collectors.toList()));
+        }
+    }
+
+    @Test public void snapshot_interval() throws InterruptedException {
+        setup(2);
+        append("A <http://example/s> <http://example/p> 1 .\n");
+        append("A <http://example/s> <http://example/p> 2 .\n");
+        // Made in the background.
+        PatchLogInfo info = null;
+        for ( int i = 0 ; i < 100 ; i++ ) {
+            info = dLink.getPatchLogInfo(dsRef);
+            if ( info.hasSnapshot() )
+                break;
+            Thread.sleep(50);
+        }
+        assertTrue(info.hasSnapshot());
+        assertEquals(Version.create(2), info.getSnapshotVersion());
+    }
+}
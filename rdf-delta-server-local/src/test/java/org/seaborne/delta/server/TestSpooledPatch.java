@@ -0,0 +1,130 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  See the NOTICE file distributed with this work for additional
+ *  information regarding copyright ownership.
+ */
+
+package org.seaborne.delta.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.binary.RDFChangesWriterBinary;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
+import org.apache.jena.web.HttpSC;
+import org.junit.Test;
+import org.seaborne.delta.DeltaHttpException;
+import org.seaborne.delta.Id;
+import org.seaborne.delta.server.local.SpooledPatch;
+
+public class TestSpooledPatch {
+
+    private static byte[] patchBytes(Id id, int triples) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+        sb.append("TX .\n");
+        for ( int i = 0 ; i < triples ; i++ )
+            sb.append("A <http://example/s> <http://example/p> ").append(i).append(" .\n");
+        sb.append("TC .\n");
+        return StrUtils.asUTF8bytes(sb.toString());
+    }
+
+    private static SpooledPatch spool(byte[] bytes, long max, int threshold) {
+        return SpooledPatch.spool(new ByteArrayInputStream(bytes), max, threshold, null);
+    }
+
+    @Test public void spool_memory() {
+        Id id = Id.create();
+        byte[] bytes = patchBytes(id, 10);
+        try ( SpooledPatch patch = spool(bytes, -1, bytes.length) ) {
+            assertFalse(patch.isSpilled());
+            assertEquals(bytes.length, patch.size());
+            assertEquals(id.asNode(), patch.getId());
+            assertEquals(10, patch.summary().countAddData);
+        }
+    }
+
+    @Test public void spool_disk() {
+        Id id = Id.create();
+        byte[] bytes = patchBytes(id, 1000);
+        try ( SpooledPatch patch = spool(bytes, -1, 100) ) {
+            assertTrue(patch.isSpilled());
+            assertEquals(bytes.length, patch.size());
+            assertEquals(id.asNode(), patch.getId());
+            // Repeatable.
+            for ( int i = 0 ; i < 2 ; i++ ) {
+                RDFChangesCounter counter = new RDFChangesCounter();
+                patch.apply(counter);
+                assertEquals(1000, counter.summary().countAddData);
+            }
+            // Same as parsing in-memory.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            RDFPatchOps.write(out, patch);
+            RDFPatch patch2 = RDFPatchOps.read(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(patch.getId(), patch2.getId());
+        }
+    }
+
+    @Test public void spool_materialize() {
+        Id id = Id.create();
+        RDFPatch patch2;
+        try ( SpooledPatch patch = spool(patchBytes(id, 100), -1, 100) ) {
+            patch2 = SpooledPatch.materialize(patch);
+        }
+        RDFChangesCounter counter = new RDFChangesCounter();
+        patch2.apply(counter);
+        assertEquals(id.asNode(), patch2.getId());
+        assertEquals(100, counter.summary().countAddData);
+    }
+
+    @Test public void spool_binary() {
+        Id id = Id.create();
+        RDFPatch textPatch = RDFPatchOps.read(new ByteArrayInputStream(patchBytes(id, 1000)));
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        RDFChangesWriterBinary.write(textPatch, binary);
+        try ( SpooledPatch patch = SpooledPatch.spoolBinary(new ByteArrayInputStream(binary.toByteArray()), -1, 100, null) ) {
+            assertTrue(patch.isSpilled());
+            assertEquals(id.asNode(), patch.getId());
+            assertEquals(1000, patch.summary().countAddData);
+            // Held as text.
+            RDFPatch patch2 = RDFPatchOps.read(patch.openStream());
+            assertEquals(id.asNode(), patch2.getId());
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    @Test public void spool_too_large() {
+        byte[] bytes = patchBytes(Id.create(), 100);
+        try ( SpooledPatch patch = spool(bytes, bytes.length-1, 100) ) {
+            fail("Expected DeltaHttpException");
+        } catch (DeltaHttpException ex) {
+            assertEquals(HttpSC.REQUEST_ENTITY_TOO_LARGE_413, ex.getStatusCode());
+        }
+    }
+
+    @Test(expected=PatchException.class)
+    public void spool_bad_syntax() {
+        byte[] bytes = StrUtils.asUTF8bytes("TX .\nA <http://example/s> .\nTC .\n");
+        try ( SpooledPatch patch = spool(bytes, -1, 100) ) {}
+    }
+}
@@ -19,11 +19,25 @@ package org.seaborne.delta.server.patchstores;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.lib.StrUtils;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.sse.SSE;
+import org.junit.Assume;
 import org.junit.Test;
+import org.seaborne.delta.DeltaBadPatchException;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
 import org.seaborne.delta.PatchLogInfo;
 import org.seaborne.delta.Version;
 import org.seaborne.delta.server.local.PatchLog;
+import org.seaborne.delta.server.local.patchstores.PatchLogBase;
+import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.apache.jena.rdfpatch.RDFPatch;
 import org.apache.jena.rdfpatch.RDFPatchOps;
 
@@ -40,6 +54,18 @@ public abstract class AbstractTestPatchLog {
 
     protected abstract PatchLog patchLog();
 
+    /** Whether the patch log supports {@link PatchLog#compact}. */
+    protected boolean supportsCompaction() { return true; }
+
+    private static RDFPatch patch(Id id, Id prev, String changes) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("H id <").append(id.asNode().getURI()).append("> .\n");
+        if ( prev != null )
+            sb.append("H prev <").append(prev.asNode().getURI()).append("> .\n");
+        sb.append("TX .\n").append(changes).append("TC .\n");
+        return RDFPatchOps.read(new ByteArrayInputStream(StrUtils.asUTF8bytes(sb.toString())));
+    }
+
     @Test
     public void patchLog_1_empty() {
         PatchLog patchLog = patchLog();
@@ -107,4 +133,216 @@ public abstract class AbstractTestPatchLog {
         assertEquals(version_2, x.getMaxVersion());
         assertEquals(Version.FIRST, x.getMinVersion());
     }
+
+    @Test
+    public void patchLog_4_contains_find() {
+        PatchLog patchLog = patchLog();
+        Id missing = Id.create();
+        assertFalse(patchLog.contains(missing));
+        assertEquals(Version.UNSET, patchLog.find(missing));
+
+        RDFPatch patch1 = RDFPatchOps.emptyPatch();
+        patchLog.append(patch1);
+        RDFPatch patch2 = RDFPatchOps.withHeader(patch1, Id.create().asNode(), patch1.getId());
+        patchLog.append(patch2);
+        RDFPatch patch3 = RDFPatchOps.withHeader(patch1, Id.create().asNode(), patch2.getId());
+        patchLog.append(patch3);
+
+        assertTrue(patchLog.contains(Id.fromNode(patch1.getId())));
+        assertTrue(patchLog.contains(Id.fromNode(patch3.getId())));
+        assertEquals(version_1, patchLog.find(Id.fromNode(patch1.getId())));
+        assertEquals(version_2, patchLog.find(Id.fromNode(patch2.getId())));
+        assertEquals(version_3, patchLog.find(Id.fromNode(patch3.getId())));
+        assertFalse(patchLog.contains(missing));
+        assertEquals(Version.UNSET, patchLog.find(missing));
+    }
+
+    @Test(expected=DeltaBadPatchException.class)
+    public void patchLog_5_duplicate() {
+        PatchLog patchLog = patchLog();
+        RDFPatch patch1 = RDFPatchOps.emptyPatch();
+        patchLog.append(patch1);
+        RDFPatch patch2 = RDFPatchOps.withHeader(patch1, Id.create().asNode(), patch1.getId());
+        patchLog.append(patch2);
+        // Same id as the first patch, on the log head.
+        RDFPatch patch3 = RDFPatchOps.withHeader(patch1, patch1.getId(), patch2.getId());
+        patchLog.append(patch3);
+    }
+
+    @Test
+    public void patchLog_6_info() {
+        PatchLog patchLog = patchLog();
+        PatchLogInfo info0 = patchLog.getInfo();
+        assertEquals(Version.INIT, info0.getMaxVersion());
+
+        RDFPatch patch1 = RDFPatchOps.emptyPatch();
+        patchLog.append(patch1);
+        PatchLogInfo info1 = patchLog.getInfo();
+        assertEquals(version_1, info1.getMaxVersion());
+        assertEquals(patch1.getId(), info1.getLatestPatch().asNode());
+
+        RDFPatch patch2 = RDFPatchOps.withHeader(patch1, Id.create().asNode(), patch1.getId());
+        patchLog.append(patch2);
+        // Cached and checked forms agree.
+        PatchLogInfo info2 = patchLog.getInfo();
+        assertEquals(version_2, info2.getMaxVersion());
+        assertEquals(info2, patchLog.getInfo(0));
+        assertEquals(Version.FIRST, patchLog.getInfo(0).getMinVersion());
+    }
+
+    @Test
+    public void patchLog_7_compact() {
+        PatchLog patchLog = patchLog();
+        Assume.assumeTrue(supportsCompaction());
+        Id id1 = Id.create();
+        Id id2 = Id.create();
+        Id id3 = Id.create();
+        Id id4 = Id.create();
+        patchLog.append(patch(id1, null, "A <http://ex/s> <http://ex/p> 1 .\nA <http://ex/s> <http://ex/p> 2 .\n"));
+        patchLog.append(patch(id2, id1, "D <http://ex/s> <http://ex/p> 1 .\nPA \"ex\" <http://ex/> .\n"));
+        patchLog.append(patch(id3, id2, "A <http://ex/s> <http://ex/p> 3 <http://ex/g> .\n"));
+        patchLog.append(patch(id4, id3, "A <http://ex/s> <http://ex/p> 4 .\n"));
+
+        Version v = patchLog.compact(version_3);
+        assertEquals(version_3, v);
+        assertEquals(version_3, patchLog.getEarliestVersion());
+        assertEquals(id3, patchLog.getEarliestId());
+        PatchLogInfo info = patchLog.getInfo();
+        assertEquals(version_3, info.getMinVersion());
+        assertEquals(Version.create(4), info.getMaxVersion());
+        assertEquals(id4, info.getLatestPatch());
+
+        assertNull(patchLog.fetch(version_1));
+        assertNull(patchLog.fetch(version_2));
+        assertFalse(patchLog.contains(id1));
+        assertEquals(version_3, patchLog.find(id3));
+
+        RDFPatch compacted = patchLog.fetch(version_3);
+        assertEquals(id3.asNode(), compacted.getId());
+        assertNull(compacted.getPrevious());
+
+        // The compacted patch applied to empty data, and to the data at version 1.
+        DatasetGraph dsg1 = DatasetGraphFactory.createTxnMem();
+        RDFPatchOps.applyChange(dsg1, compacted);
+        DatasetGraph dsg2 = DatasetGraphFactory.createTxnMem();
+        RDFPatchOps.applyChange(dsg2, patch(id1, null, "A <http://ex/s> <http://ex/p> 1 .\nA <http://ex/s> <http://ex/p> 2 .\n"));
+        RDFPatchOps.applyChange(dsg2, compacted);
+        for ( DatasetGraph dsg : List.of(dsg1, dsg2) ) {
+            assertFalse(dsg.contains(SSE.parseQuad("(_ <http://ex/s> <http://ex/p> 1)")));
+            assertTrue(dsg.contains(SSE.parseQuad("(_ <http://ex/s> <http://ex/p> 2)")));
+            assertTrue(dsg.contains(SSE.parseQuad("(<http://ex/g> <http://ex/s> <http://ex/p> 3)")));
+            assertEquals("http://ex/", dsg.prefixes().get("ex"));
+        }
+
+        // The log continues after the compacted patch.
+        Id id5 = Id.create();
+        assertEquals(Version.create(5), patchLog.append(patch(id5, id4, "A <http://ex/s> <http://ex/p> 5 .\n")));
+        // Nothing more to do.
+        assertEquals(version_3, patchLog.compact(version_3));
+    }
+
+    @Test
+    public void patchLog_7_compact_unsupported() {
+        PatchLog patchLog = patchLog();
+        Assume.assumeFalse(supportsCompaction());
+        Id id1 = Id.create();
+        Id id2 = Id.create();
+        patchLog.append(patch(id1, null, "A <http://ex/s> <http://ex/p> 1 .\n"));
+        patchLog.append(patch(id2, id1, "D <http://ex/s> <http://ex/p> 1 .\n"));
+
+        assertThrows(DeltaException.class, ()->patchLog.compact(version_2));
+        // The log is unchanged.
+        PatchLogInfo info = patchLog.getInfo();
+        assertEquals(version_1, info.getMinVersion());
+        assertEquals(version_2, info.getMaxVersion());
+        assertEquals(id1, patchLog.getEarliestId());
+        assertNotNull(patchLog.fetch(version_1));
+        RDFPatch patch2 = patchLog.fetch(version_2);
+        assertEquals(id1.asNode(), patch2.getPrevious());
+    }
+
+    @Test
+    public void patchLog_8_prune() {
+        PatchLog patchLog = patchLog();
+        Assume.assumeTrue(supportsCompaction());
+        Id id1 = Id.create();
+        Id id2 = Id.create();
+        Id id3 = Id.create();
+        patchLog.append(patch(id1, null, "A <http://ex/s> <http://ex/p> 1 .\n"));
+        patchLog.append(patch(id2, id1, "A <http://ex/s> <http://ex/p> 2 .\n"));
+        patchLog.append(patch(id3, id2, "A <http://ex/s> <http://ex/p> 3 .\n"));
+
+        assertEquals(version_3, patchLog.prune(version_3));
+        assertEquals(version_3, patchLog.getEarliestVersion());
+        assertEquals(id3, patchLog.getEarliestId());
+        assertEquals(version_3, patchLog.getInfo().getMinVersion());
+        assertNull(patchLog.fetch(version_1));
+        assertNull(patchLog.fetch(version_2));
+        assertFalse(patchLog.contains(id2));
+        // The patch is unchanged.
+        assertEquals(id2.asNode(), patchLog.fetch(version_3).getPrevious());
+        // Nothing more to do.
+        assertEquals(version_3, patchLog.prune(version_2));
+
+        Id id4 = Id.create();
+        assertEquals(Version.create(4), patchLog.append(patch(id4, id3, "A <http://ex/s> <http://ex/p> 4 .\n")));
+        assertEquals(version_3, patchLog.getInfo().getMinVersion());
+    }
+
+    @Test
+    public void patchLog_8_prune_stopped() {
+        PatchLog patchLog = patchLog();
+        Assume.assumeTrue(supportsCompaction());
+        Id id1 = Id.create();
+        Id id2 = Id.create();
+        Id id3 = Id.create();
+        patchLog.append(patch(id1, null, "A <http://ex/s> <http://ex/p> 1 .\n"));
+        patchLog.append(patch(id2, id1, "A <http://ex/s> <http://ex/p> 2 .\n"));
+        patchLog.append(patch(id3, id2, "A <http://ex/s> <http://ex/p> 3 .\n"));
+
+        // Storage that stops after deleting one patch.
+        Assume.assumeTrue(patchLog instanceof PatchLogBase);
+        PatchLogBase base = (PatchLogBase)patchLog;
+        PatchStorage storage = base.getPatchLogStorage();
+        AtomicInteger deletes = new AtomicInteger(0);
+        PatchStorage stopping = new PatchStorage() {
+            @Override public Stream<Id> find()                      { return storage.find(); }
+            @Override public void store(Id key, RDFPatch patch)     { storage.store(key, patch); }
+            @Override public RDFPatch fetch(Id key)                 { return storage.fetch(key); }
+            @Override public void delete(Id id)                     { storage.delete(id); }
+            @Override public void delete(Version version, Id id) {
+                if ( deletes.getAndIncrement() > 0 )
+                    throw new DeltaException("Stop");
+                storage.delete(version, id);
+            }
+        };
+        PatchLog patchLog2 = new PatchLogBase(base.getDescription(), base.getPatchLogIndex(), stopping, base.getPatchStore());
+        assertThrows(DeltaException.class, ()->patchLog2.prune(version_3));
+
+        // The log does not refer to a deleted patch.
+        assertEquals(version_3, patchLog2.getEarliestVersion());
+        assertEquals(id3, patchLog2.getEarliestId());
+        assertNull(patchLog2.fetch(version_1));
+        assertNotNull(patchLog2.fetch(version_3));
+    }
+
+    @Test
+    public void patchLog_9_lockWait() throws Exception {
+        PatchLog patchLog = patchLog();
+        Id session1 = patchLog.acquireLock();
+        assertNotNull(session1);
+        // Held: a wait times out.
+        assertNull(patchLog.acquireLock(200));
+        // Released while waiting: the waiter gets the lock.
+        Thread releaser = new Thread(()->{
+            try { Thread.sleep(300); } catch (InterruptedException ex) {}
+            patchLog.releaseLock(session1);
+        });
+        releaser.start();
+        Id session2 = patchLog.acquireLock(5000);
+        releaser.join();
+        assertNotNull(session2);
+        assertNotEquals(session1, session2);
+        patchLog.releaseLock(session2);
+    }
 }
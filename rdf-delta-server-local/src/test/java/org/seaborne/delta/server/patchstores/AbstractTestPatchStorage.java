@@ -19,15 +19,21 @@ package org.seaborne.delta.server.patchstores;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.util.List;
 
 import org.apache.jena.atlas.lib.ListUtils;
+import org.apache.jena.atlas.lib.StrUtils;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
+import org.seaborne.delta.DeltaException;
 import org.seaborne.delta.Id;
+import org.seaborne.delta.Version;
+import org.seaborne.delta.server.local.SpooledPatch;
 import org.seaborne.delta.server.local.patchstores.PatchStorage;
 import org.apache.jena.rdfpatch.RDFPatch;
 import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
 
 @FixMethodOrder(org.junit.runners.MethodSorters.NAME_ASCENDING)
 public abstract class AbstractTestPatchStorage {
@@ -84,4 +90,30 @@ public abstract class AbstractTestPatchStorage {
         assertNotNull(patch1f_a);
         assertEquals(patch1f_a.getId(), patch1f_a.getId());
     }
+
+    @Test public void patchStorage_4_spooledPatch() {
+        PatchStorage patchStorage = patchStorage();
+        Id id = Id.create();
+        String str = "H id <"+id.asNode().getURI()+"> .\nTX .\nA <http://ex/s> <http://ex/p> \"o\" .\nTC .\n";
+        RDFChangesCounter counter = new RDFChangesCounter();
+        try ( SpooledPatch patch = SpooledPatch.spool(new ByteArrayInputStream(StrUtils.asUTF8bytes(str)), -1, 1024, null) ) {
+            patchStorage.store(id, patch);
+        }
+        // The spool has been released.
+        RDFPatch patch1 = patchStorage.fetch(id);
+        assertNotNull(patch1);
+        assertEquals(id.asNode(), patch1.getId());
+        patch1.apply(counter);
+        assertEquals(1, counter.summary().countAddData);
+    }
+
+    @Test public void patchStorage_5_copyMissing() {
+        PatchStorage patchStorage = patchStorage();
+        Id id = Id.create();
+        try {
+            patchStorage.copy(Version.create(1), id, patchStorage);
+            fail("Expected DeltaException");
+        } catch (DeltaException ex) {}
+        assertNull(patchStorage.fetch(id));
+    }
 }
@@ -37,6 +37,10 @@ public class TestPatchLogZk extends AbstractTestPatchLog {
     private TestingServer server;
     private CuratorFramework client;
 
+    // The Zookeeper index does not support truncation.
+    @Override
+    protected boolean supportsCompaction() { return false; }
+
 //    @BeforeClass public static void beforeClass() { }
 //    @AfterClass public static void afterClass() {}
 